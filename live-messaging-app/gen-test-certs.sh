@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Generates a self-signed certificate for trying TLS locally:
+#   tls/server.p12      key and certificate for the server  (-Dtls.keyStore)
+#   tls/truststore.p12  the certificate alone, for clients  (-Dtls.trustStore)
+# Extra names the server is reached by can be added, e.g. ./gen-test-certs.sh dns:chat.lan,ip:192.168.1.20
+
+set -e
+
+DIR=tls
+PASS=${TLS_PASSWORD:-changeit}
+SAN="dns:localhost,ip:127.0.0.1${1:+,$1}"
+
+mkdir -p "$DIR"
+rm -f "$DIR/server.p12" "$DIR/server.crt" "$DIR/truststore.p12"
+
+keytool -genkeypair -alias server -keyalg EC -groupname secp256r1 -validity 365 \
+    -dname "CN=localhost" -ext "SAN=$SAN" \
+    -keystore "$DIR/server.p12" -storetype PKCS12 -storepass "$PASS" -keypass "$PASS"
+keytool -exportcert -rfc -alias server -keystore "$DIR/server.p12" -storepass "$PASS" -file "$DIR/server.crt"
+keytool -importcert -noprompt -alias server -file "$DIR/server.crt" \
+    -keystore "$DIR/truststore.p12" -storetype PKCS12 -storepass "$PASS"
+
+echo "Server:  -Dtls.enabled=true -Dtls.keyStore=$DIR/server.p12"
+echo "Client:  -Dtls.enabled=true -Dtls.trustStore=$DIR/truststore.p12"
@@ -10,6 +10,7 @@ import java.awt.*;
  */
 public class LoginDialog extends JDialog {
     private JTextField usernameField;
+    private JPasswordField passwordField;
     private JTextField serverField;
     private JTextField portField;
     private JButton connectButton;
@@ -53,9 +54,18 @@ public class LoginDialog extends JDialog {
         usernameField = new JTextField(20);
         panel.add(usernameField, gbc);
         
-        // Server
+        // Password
         gbc.gridx = 0;
         gbc.gridy = 2;
+        panel.add(new JLabel("Password:"), gbc);
+        
+        gbc.gridx = 1;
+        passwordField = new JPasswordField(20);
+        panel.add(passwordField, gbc);
+        
+        // Server
+        gbc.gridx = 0;
+        gbc.gridy = 3;
         panel.add(new JLabel("Server:"), gbc);
         
         gbc.gridx = 1;
@@ -64,7 +74,7 @@ public class LoginDialog extends JDialog {
         
         // Port
         gbc.gridx = 0;
-        gbc.gridy = 3;
+        gbc.gridy = 4;
         panel.add(new JLabel("Port:"), gbc);
         
         gbc.gridx = 1;
@@ -83,7 +93,7 @@ public class LoginDialog extends JDialog {
         buttonPanel.add(cancelButton);
         
         gbc.gridx = 0;
-        gbc.gridy = 4;
+        gbc.gridy = 5;
         gbc.gridwidth = 2;
         panel.add(buttonPanel, gbc);
         
@@ -98,6 +108,7 @@ public class LoginDialog extends JDialog {
     
     private void handleConnect() {
         String username = usernameField.getText().trim();
+        String password = new String(passwordField.getPassword());
         String server = serverField.getText().trim();
         String portText = portField.getText().trim();
         
@@ -113,6 +124,17 @@ public class LoginDialog extends JDialog {
             return;
         }
         
+        if (password.isEmpty()) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Please enter a password",
+                "Validation Error",
+                JOptionPane.ERROR_MESSAGE
+            );
+            passwordField.requestFocus();
+            return;
+        }
+        
         if (server.isEmpty()) {
             JOptionPane.showMessageDialog(
                 this,
@@ -148,7 +170,7 @@ public class LoginDialog extends JDialog {
         // Connect in background thread
         new Thread(() -> {
             MessagingClient client = new MessagingClient();
-            boolean connected = client.connect(server, port, username);
+            boolean connected = client.connect(server, port, username, password);
             
             SwingUtilities.invokeLater(() -> {
                 if (connected) {
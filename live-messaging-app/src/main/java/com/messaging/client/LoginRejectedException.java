@@ -0,0 +1,13 @@
+package com.messaging.client;
+
+import java.io.IOException;
+
+/**
+ * The server refused the credentials; retrying with the same ones will not help
+ */
+public class LoginRejectedException extends IOException {
+    
+    public LoginRejectedException(String reason) {
+        super(reason);
+    }
+}
@@ -0,0 +1,276 @@
+package com.messaging.client;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.messaging.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Recent chat history on local disk, so the chat window opens with it and the server
+ * only has to send what came after the newest cached sequence. Each conversation has an
+ * append-only log of message frames and an index of fixed-size (sequence, offset, length)
+ * entries into it; showing the last messages of a conversation reads the tail of the index
+ * and one contiguous stretch of the log, however long the history. A conversation keeps
+ * its last {@code keep} messages: its files are rewritten once they hold twice that many.
+ * It is only a cache; files that do not make sense are dropped rather than repaired.
+ */
+public class MessageCache {
+    private static final Logger logger = LoggerFactory.getLogger(MessageCache.class);
+    private static final int ENTRY_BYTES = 20;
+    
+    private final Path directory;
+    private final int keep;
+    private final Gson gson;
+    private final Map<String, Conversation> conversations = new HashMap<>();
+    private long lastSequence;
+    
+    private static class Conversation {
+        final Path log;
+        final Path index;
+        long entries;
+        long logBytes;
+        long lastSequence;
+        
+        Conversation(Path log, Path index) {
+            this.log = log;
+            this.index = index;
+        }
+    }
+    
+    private MessageCache(Path directory, int keep, Gson gson) {
+        this.directory = directory;
+        this.keep = keep;
+        this.gson = gson;
+    }
+    
+    /**
+     * Opens (creating if needed) the cache in a directory, reading only the last index entry
+     * of each conversation. Returns null if the directory cannot be used.
+     */
+    public static MessageCache open(Path directory, int keep, Gson gson) {
+        MessageCache cache = new MessageCache(directory, keep, gson);
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> indexes = Files.newDirectoryStream(directory, "*.idx")) {
+                for (Path index : indexes) {
+                    String name = index.getFileName().toString();
+                    String key = name.substring(0, name.length() - ".idx".length());
+                    cache.load(key, index, directory.resolve(key + ".log"));
+                }
+            }
+            return cache;
+        } catch (IOException e) {
+            logger.warn("Message cache at {} unavailable: {}", directory, e.getMessage());
+            return null;
+        }
+    }
+    
+    private void load(String key, Path index, Path log) throws IOException {
+        Conversation conversation = new Conversation(log, index);
+        conversation.logBytes = Files.exists(log) ? Files.size(log) : 0;
+        long entries = Files.size(index) / ENTRY_BYTES;
+        // Entries written after the frames they point to were lost are dropped from the end
+        try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+            while (entries > 0) {
+                entry.clear();
+                channel.read(entry, (entries - 1) * ENTRY_BYTES);
+                entry.flip();
+                long sequence = entry.getLong();
+                long offset = entry.getLong();
+                int length = entry.getInt();
+                if (offset + length + 1 <= conversation.logBytes) {
+                    conversation.lastSequence = sequence;
+                    break;
+                }
+                entries--;
+            }
+            // Appends continue after the last good entry, so nothing stale may follow it
+            channel.truncate(entries * ENTRY_BYTES);
+        }
+        conversation.entries = entries;
+        conversations.put(key, conversation);
+        lastSequence = Math.max(lastSequence, conversation.lastSequence);
+    }
+    
+    /**
+     * Newest sequence held in any conversation
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    
+    /**
+     * Stores a routed chat message; ones that are not newer than what the conversation
+     * already holds are ignored, which also keeps each log in sequence order
+     */
+    public synchronized void append(Message message) {
+        if (message.getSequence() <= 0 || !isChat(message)) {
+            return;
+        }
+        String key = keyFor(message.getConversationId());
+        Conversation conversation = conversations.computeIfAbsent(key,
+                k -> new Conversation(directory.resolve(k + ".log"), directory.resolve(k + ".idx")));
+        if (message.getSequence() <= conversation.lastSequence) {
+            return;
+        }
+        byte[] frame = (gson.toJson(message) + "\n").getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES)
+                .putLong(message.getSequence())
+                .putLong(conversation.logBytes)
+                .putInt(frame.length - 1);
+        entry.flip();
+        try {
+            // The frame goes first, so an index entry never points past the end of the log
+            Files.write(conversation.log, frame, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            try (FileChannel index = FileChannel.open(conversation.index, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE)) {
+                index.write(entry, conversation.entries * ENTRY_BYTES);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not cache message {}: {}", message.getSequence(), e.getMessage());
+            return;
+        }
+        conversation.logBytes += frame.length;
+        conversation.entries++;
+        conversation.lastSequence = message.getSequence();
+        lastSequence = Math.max(lastSequence, message.getSequence());
+        if (conversation.entries >= 2L * keep) {
+            compact(conversation);
+        }
+    }
+    
+    /**
+     * The newest messages across all conversations, oldest first: at most perConversation
+     * from each and limit in all
+     */
+    public synchronized List<Message> recent(int perConversation, int limit) {
+        List<Message> messages = new ArrayList<>();
+        for (Iterator<Conversation> it = conversations.values().iterator(); it.hasNext(); ) {
+            Conversation conversation = it.next();
+            try {
+                messages.addAll(readTail(conversation, perConversation));
+            } catch (IOException | JsonParseException e) {
+                logger.warn("Dropping unreadable cached conversation {}: {}", conversation.log, e.getMessage());
+                delete(conversation);
+                it.remove();
+            }
+        }
+        messages.sort(Comparator.comparingLong(Message::getSequence));
+        return messages.size() > limit ? new ArrayList<>(messages.subList(messages.size() - limit, messages.size()))
+                : messages;
+    }
+    
+    /**
+     * Forgets everything, e.g. when the server's history turns out to be a different one
+     */
+    public synchronized void clear() {
+        for (Conversation conversation : conversations.values()) {
+            delete(conversation);
+        }
+        conversations.clear();
+        lastSequence = 0;
+    }
+    
+    private List<Message> readTail(Conversation conversation, int count) throws IOException {
+        long first = Math.max(0, conversation.entries - count);
+        int entries = (int) (conversation.entries - first);
+        if (entries == 0) {
+            return Collections.emptyList();
+        }
+        ByteBuffer index = ByteBuffer.allocate(entries * ENTRY_BYTES);
+        try (FileChannel channel = FileChannel.open(conversation.index, StandardOpenOption.READ)) {
+            readFully(channel, index, first * ENTRY_BYTES);
+        }
+        long start = index.getLong(Long.BYTES);
+        ByteBuffer frames = ByteBuffer.allocate((int) (conversation.logBytes - start));
+        try (FileChannel channel = FileChannel.open(conversation.log, StandardOpenOption.READ)) {
+            readFully(channel, frames, start);
+        }
+        List<Message> messages = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            long sequence = index.getLong(i * ENTRY_BYTES);
+            int offset = (int) (index.getLong(i * ENTRY_BYTES + Long.BYTES) - start);
+            int length = index.getInt(i * ENTRY_BYTES + 2 * Long.BYTES);
+            Message message = gson.fromJson(
+                    new String(frames.array(), offset, length, StandardCharsets.UTF_8), Message.class);
+            if (message == null || message.getSequence() != sequence) {
+                throw new JsonParseException("index does not match log at sequence " + sequence);
+            }
+            messages.add(message);
+        }
+        return messages;
+    }
+    
+    /**
+     * Rewrites a conversation with only its newest messages, replacing the files atomically
+     */
+    private void compact(Conversation conversation) {
+        try {
+            List<Message> kept = readTail(conversation, keep);
+            Path log = conversation.log.resolveSibling(conversation.log.getFileName() + ".tmp");
+            Path index = conversation.index.resolveSibling(conversation.index.getFileName() + ".tmp");
+            long offset = 0;
+            try (OutputStream logOut = new BufferedOutputStream(Files.newOutputStream(log));
+                 DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(index)))) {
+                for (Message message : kept) {
+                    byte[] frame = (gson.toJson(message) + "\n").getBytes(StandardCharsets.UTF_8);
+                    logOut.write(frame);
+                    indexOut.writeLong(message.getSequence());
+                    indexOut.writeLong(offset);
+                    indexOut.writeInt(frame.length - 1);
+                    offset += frame.length;
+                }
+            }
+            // Between the two moves the index may not match the log; readTail then drops both
+            Files.move(log, conversation.log, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(index, conversation.index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            conversation.entries = kept.size();
+            conversation.logBytes = offset;
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Could not compact cached conversation {}, dropping it: {}", conversation.log, e.getMessage());
+            delete(conversation);
+            conversation.entries = 0;
+            conversation.logBytes = 0;
+        }
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("cache file truncated");
+            }
+        }
+    }
+    
+    private static void delete(Conversation conversation) {
+        try {
+            Files.deleteIfExists(conversation.log);
+            Files.deleteIfExists(conversation.index);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}", conversation.log, e);
+        }
+    }
+    
+    private static boolean isChat(Message message) {
+        return message.getType() == Message.MessageType.TEXT
+                || message.getType() == Message.MessageType.PRIVATE
+                || message.getType() == Message.MessageType.GROUP;
+    }
+    
+    /**
+     * File name for a conversation id; group ids can be long and contain any character
+     */
+    private static String keyFor(String conversationId) {
+        return UUID.nameUUIDFromBytes(conversationId.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -1,64 +1,121 @@
 package com.messaging.client;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.messaging.model.Message;
 import com.messaging.ui.ChatWindow;
-import com.messaging.util.LocalDateTimeAdapter;
+import com.messaging.util.FrameDecoder;
+import com.messaging.util.Tls;
+import com.messaging.util.TlsStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
 import javax.swing.*;
 import java.io.*;
 import java.net.Socket;
-import java.time.LocalDateTime;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Messaging client handling server communication
  */
 public class MessagingClient {
     private static final Logger logger = LoggerFactory.getLogger(MessagingClient.class);
+    private static final long RECONNECT_BASE_DELAY_MS = Long.getLong("client.reconnectBaseMs", 500);
+    private static final long RECONNECT_MAX_DELAY_MS = Long.getLong("client.reconnectMaxMs", 30_000);
+    private static final int SEND_QUEUE_CAPACITY = Integer.getInteger("client.sendQueueCapacity", 1000);
+    private static final long ACK_TIMEOUT_MS = Long.getLong("client.ackTimeoutMs", 30_000);
+    private static final int LOGIN_TIMEOUT_MS = Integer.getInteger("client.loginTimeoutMs", 15_000);
+    private static final long RECEIPT_INTERVAL_MS = Long.getLong("client.receiptIntervalMs", 500);
+    // A routed message is the sender's frame plus the fields the server adds; long replies come in several frames
+    private static final int MAX_FRAME_BYTES = Integer.getInteger("client.maxFrameBytes", 2 << 20);
+    private static final String CACHE_DIR = System.getProperty("client.cacheDir",
+            Paths.get(System.getProperty("user.home"), ".live-messaging", "cache").toString());
+    private static final int CACHE_MESSAGES = Integer.getInteger("client.cacheMessages", 500);
+    private static final int HISTORY_MESSAGES = Integer.getInteger("client.historyMessages", 200);
+    private static final boolean TLS_ENABLED = Boolean.getBoolean("tls.enabled");
+    private static final String TLS_TRUST_STORE = System.getProperty("tls.trustStore");
+    private static final String TLS_TRUST_STORE_PASSWORD = System.getProperty("tls.trustStorePassword", "changeit");
+    private static final String[] TLS_PROTOCOLS = System.getProperty("tls.protocols", "TLSv1.3").split(",");
     
-    private Socket socket;
-    private BufferedReader reader;
-    private PrintWriter writer;
+    private volatile Socket socket;
+    private SSLContext tlsContext;  // null for plaintext; kept across reconnects so they resume the session
+    private volatile PrintWriter writer;
+    private String host;
+    private int port;
     private String username;
-    private ChatWindow chatWindow;
+    private String password;
+    private volatile ChatWindow chatWindow;
+    private MessageCache cache;  // null if disabled or unusable
+    private final List<Message> earlyMessages = new ArrayList<>();  // cached history, then arrivals before the window exists
     private final Gson gson;
-    private boolean connected;
+    private volatile boolean connected;
+    private volatile boolean userDisconnected;
+    private volatile String resumeToken;
+    private volatile long lastSequence;
+    private OutboundQueue outbound;
+    private ReceiptTracker receiptTracker;
+    private final ReceiptBook receiptBook = new ReceiptBook();
+    private final Map<String, List<Message>> searchPages = new ConcurrentHashMap<>();  // search id -> hits so far
+    private ScheduledExecutorService receiptFlusher;
     
     public MessagingClient() {
-        this.gson = new GsonBuilder()
-                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
-                .create();
+        this.gson = new Gson();
         this.connected = false;
     }
     
-    public boolean connect(String host, int port, String username) {
+    public boolean connect(String host, int port, String username, String password) {
         try {
+            this.host = host;
+            this.port = port;
             this.username = username;
-            socket = new Socket(host, port);
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            connected = true;
-            
-            // Send login message
-            Message loginMessage = new Message(Message.MessageType.LOGIN, username, "");
-            sendMessage(loginMessage);
+            this.password = password;
+            this.outbound = new OutboundQueue(gson, username, SEND_QUEUE_CAPACITY, ACK_TIMEOUT_MS);
+            this.receiptTracker = new ReceiptTracker(gson, username);
+            if (TLS_ENABLED) {
+                tlsContext = Tls.clientContext(TLS_TRUST_STORE != null ? Paths.get(TLS_TRUST_STORE) : null,
+                        TLS_TRUST_STORE_PASSWORD.toCharArray());
+            }
+            openCache();
+            openConnection();
             
-            // Start message listener thread
-            new Thread(this::listenForMessages).start();
+            receiptFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "receipt-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            receiptFlusher.scheduleAtFixedRate(this::flushReceipts, RECEIPT_INTERVAL_MS, RECEIPT_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
             
             logger.info("Connected to server at {}:{}", host, port);
             return true;
             
+        } catch (LoginRejectedException e) {
+            logger.info("Login refused: {}", e.getMessage());
+            JOptionPane.showMessageDialog(
+                null,
+                e.getMessage(),
+                "Login Failed",
+                JOptionPane.ERROR_MESSAGE
+            );
+            return false;
+            
         } catch (IOException e) {
             logger.error("Failed to connect to server", e);
             JOptionPane.showMessageDialog(
                 null,
-                "Could not connect to server at " + host + ":" + port,
+                "Could not connect to server at " + host + ":" + port
+                    + (e.getMessage() != null ? "\n" + e.getMessage() : ""),
                 "Connection Error",
                 JOptionPane.ERROR_MESSAGE
             );
@@ -66,37 +123,243 @@ public class MessagingClient {
         }
     }
     
-    private void listenForMessages() {
+    /**
+     * Loads recent history from the local cache for the window to show straight away, and
+     * asks the server only for what came after it
+     */
+    private void openCache() {
+        if (CACHE_MESSAGES <= 0) {
+            return;
+        }
+        String server = (host + "_" + port).replaceAll("[^A-Za-z0-9._-]", "_");
+        cache = MessageCache.open(Paths.get(CACHE_DIR, server, username), CACHE_MESSAGES, gson);
+        if (cache != null) {
+            lastSequence = cache.getLastSequence();
+            synchronized (this) {
+                earlyMessages.addAll(cache.recent(HISTORY_MESSAGES, HISTORY_MESSAGES));
+            }
+            logger.info("Loaded {} cached message(s), asking for history after {}", earlyMessages.size(), lastSequence);
+        }
+    }
+    
+    /**
+     * Opens a socket, over TLS if configured, and logs in, presenting the resume token if we
+     * have one. Returns once the server has answered the login.
+     */
+    private synchronized void openConnection() throws IOException {
+        Socket newSocket = new Socket(host, port);
+        FrameDecoder decoder = null;
+        PrintWriter newWriter;
+        try {
+            InputStream in = newSocket.getInputStream();
+            OutputStream out = newSocket.getOutputStream();
+            if (tlsContext != null) {
+                TlsStream tls = new TlsStream(Tls.clientEngine(tlsContext, host, port, TLS_PROTOCOLS), in, out);
+                newSocket.setSoTimeout(LOGIN_TIMEOUT_MS);
+                tls.handshake();
+                in = tls.getInputStream();
+                out = tls.getOutputStream();
+            }
+            decoder = new FrameDecoder(in, MAX_FRAME_BYTES);
+            searchPages.clear();  // a reply cut off with the last connection is not finished on this one
+            newWriter = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), true);
+            
+            // Send login message; it must be the first frame, so it bypasses the queue
+            Message loginMessage = new Message(Message.MessageType.LOGIN, username, password);
+            loginMessage.setResumeToken(resumeToken);
+            loginMessage.setSequence(lastSequence);
+            newWriter.println(gson.toJson(loginMessage));
+            
+            newSocket.setSoTimeout(LOGIN_TIMEOUT_MS);
+            Reader reply = decoder.nextFrame();
+            newSocket.setSoTimeout(0);
+            if (reply == null) {
+                throw new IOException("Server closed the connection during login");
+            }
+            Message response = gson.fromJson(reply, Message.class);
+            if (response == null) {
+                throw new IOException("Empty login reply");
+            }
+            if (response.getType() == Message.MessageType.LOGOUT) {
+                throw new LoginRejectedException(response.getContent());
+            }
+            if (response.getType() != Message.MessageType.LOGIN) {
+                // e.g. the server is too busy to check passwords right now
+                throw new IOException(response.getContent());
+            }
+            handleIncomingMessage(response);
+        } catch (IOException e) {
+            if (decoder != null) {
+                decoder.release();
+            }
+            newSocket.close();
+            throw e;
+        }
+        
+        socket = newSocket;
+        writer = newWriter;
+        connected = true;
+        outbound.attach(newWriter);
+        
+        // Start message listener thread
+        FrameDecoder listenDecoder = decoder;
+        new Thread(() -> listenForMessages(newSocket, listenDecoder), "message-listener").start();
+    }
+    
+    private void listenForMessages(Socket listenSocket, FrameDecoder decoder) {
         try {
-            String line;
-            while (connected && (line = reader.readLine()) != null) {
-                handleIncomingMessage(line);
+            Reader frame;
+            while (connected && (frame = decoder.nextFrame()) != null) {
+                Message message;
+                try {
+                    message = gson.fromJson(frame, Message.class);
+                } catch (RuntimeException e) {
+                    logger.error("Malformed frame from server", e);
+                    continue;
+                }
+                if (message != null) {
+                    handleIncomingMessage(message);
+                }
             }
         } catch (IOException e) {
             if (connected) {
                 logger.error("Error reading from server", e);
-                disconnect();
             }
+        } finally {
+            decoder.release();
         }
+        connectionLost(listenSocket);
+    }
+    
+    private void connectionLost(Socket lostSocket) {
+        connectionLost(lostSocket, reconnectDelay(0), "Connection lost. Reconnecting...");
+    }
+    
+    /**
+     * Starts reconnecting after the given delay, unless the user closed the connection or it
+     * was already given up or replaced
+     */
+    private synchronized void connectionLost(Socket lostSocket, long delay, String notice) {
+        if (userDisconnected || !connected || lostSocket != socket) {
+            return;
+        }
+        connected = false;
+        outbound.detach();
+        try {
+            lostSocket.close();
+        } catch (IOException e) {
+            logger.debug("Error closing lost socket", e);
+        }
+        
+        if (chatWindow != null) {
+            chatWindow.displaySystemMessage(notice);
+        }
+        new Thread(() -> reconnect(delay), "reconnect").start();
+    }
+    
+    /**
+     * The server is shutting down. Leaves without LOGOUT, so the session may still be resumed,
+     * and returns after a random part of the window the server gave, so that its clients do
+     * not all come back at the same moment.
+     */
+    private void serverGoingAway(Message message) {
+        long window;
+        try {
+            window = Math.max(0, Long.parseLong(message.getContent()));
+        } catch (NumberFormatException e) {
+            window = RECONNECT_BASE_DELAY_MS;
+        }
+        long delay = ThreadLocalRandom.current().nextLong(window + 1);
+        logger.info("Server is going away, reconnecting in {} ms", delay);
+        connectionLost(socket, delay, "Server is restarting. Reconnecting...");
+    }
+    
+    private void reconnect(long firstDelay) {
+        int attempt = 0;
+        long delay = firstDelay;
+        while (!userDisconnected) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            
+            try {
+                openConnection();
+                receiptTracker.resendAll();  // the server may have restarted and forgotten them
+                logger.info("Reconnected to server after {} attempt(s)", attempt + 1);
+                if (chatWindow != null) {
+                    chatWindow.displaySystemMessage("Reconnected");
+                }
+                return;
+            } catch (LoginRejectedException e) {
+                // Credentials no longer accepted (e.g. session expired and password changed)
+                logger.warn("Reconnect refused: {}", e.getMessage());
+                if (chatWindow != null) {
+                    chatWindow.displaySystemMessage("Reconnect refused: " + e.getMessage());
+                }
+                return;
+            } catch (IOException e) {
+                attempt++;
+                delay = reconnectDelay(attempt);
+                logger.debug("Reconnect attempt {} failed: {}", attempt, e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Exponential backoff with jitter, so clients dropped together do not return together
+     */
+    private static long reconnectDelay(int attempt) {
+        long ceiling = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << Math.min(attempt, 20));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
     }
     
-    private void handleIncomingMessage(String json) {
+    private void handleIncomingMessage(Message message) {
         try {
-            Message message = gson.fromJson(json, Message.class);
+            if (message.getSequence() > lastSequence) {
+                lastSequence = message.getSequence();
+            }
             
             switch (message.getType()) {
-                case TEXT, PRIVATE:
-                    if (chatWindow != null) {
-                        chatWindow.displayMessage(message);
+                case LOGIN:
+                    if (message.getResumeToken() != null && !message.getResumeToken().equals(resumeToken)) {
+                        // New session (first login or the old one expired): start from the server's position
+                        resumeToken = message.getResumeToken();
+                        if (cache != null && message.getSequence() < cache.getLastSequence()) {
+                            // The server's history is not the one we cached (e.g. it was reset)
+                            logger.info("Server is behind the cache, discarding cached history");
+                            cache.clear();
+                        }
+                        lastSequence = message.getSequence();
                     }
                     break;
                 
-                case SYSTEM:
+                case TEXT, PRIVATE, GROUP:
+                    outbound.acknowledge(message);
+                    receiptTracker.delivered(message);
+                    if (cache != null) {
+                        cache.append(message);
+                    }
+                    display(message);
+                    break;
+                
+                case STATUS:
+                    Map<String, long[]> marks = gson.fromJson(
+                        message.getContent(),
+                        new TypeToken<Map<String, long[]>>(){}.getType()
+                    );
+                    receiptBook.update(message.getReceiver(), marks);
                     if (chatWindow != null) {
-                        chatWindow.displaySystemMessage(message.getContent());
+                        chatWindow.receiptsUpdated();
                     }
                     break;
                 
+                case SYSTEM:
+                    display(message);
+                    break;
+                
                 case USER_LIST:
                     List<String> users = gson.fromJson(
                         message.getContent(),
@@ -107,12 +370,38 @@ public class MessagingClient {
                     }
                     break;
                 
+                case USER_JOINED:
+                    if (chatWindow != null) {
+                        chatWindow.userJoined(message.getContent());
+                    }
+                    break;
+                
+                case USER_LEFT:
+                    if (chatWindow != null) {
+                        chatWindow.userLeft(message.getContent());
+                    }
+                    break;
+                
+                case SEARCH:
+                    List<Message> hits = searchPages.computeIfAbsent(message.getMessageId(), id -> new ArrayList<>());
+                    hits.addAll(gson.fromJson(message.getContent(), new TypeToken<List<Message>>(){}.getType()));
+                    if (!message.isMore()) {
+                        searchPages.remove(message.getMessageId());
+                        message.setContent(gson.toJson(hits));
+                        outbound.acknowledge(message);
+                    }
+                    break;
+                
                 case TYPING:
                     if (chatWindow != null) {
                         chatWindow.showTypingIndicator(message.getSender());
                     }
                     break;
                 
+                case RECONNECT:
+                    serverGoingAway(message);
+                    break;
+                
                 default:
                     logger.debug("Received message: {}", message);
             }
@@ -122,36 +411,83 @@ public class MessagingClient {
         }
     }
     
-    public void sendMessage(Message message) {
-        if (connected && writer != null) {
-            String json = gson.toJson(message);
-            writer.println(json);
+    /**
+     * Queues a message for the writer thread; never blocks on the network
+     */
+    public CompletableFuture<Message> sendMessage(Message message) {
+        if (outbound == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Not connected"));
         }
+        return outbound.enqueue(message);
     }
     
-    public void sendTextMessage(String content) {
+    public CompletableFuture<Message> sendTextMessage(String content) {
         Message message = new Message(Message.MessageType.TEXT, username, content);
-        sendMessage(message);
+        return sendMessage(message);
     }
     
-    public void sendPrivateMessage(String receiver, String content) {
+    public CompletableFuture<Message> sendPrivateMessage(String receiver, String content) {
         Message message = new Message(Message.MessageType.PRIVATE, username, receiver, content);
-        sendMessage(message);
+        return sendMessage(message);
     }
     
-    public void sendTypingIndicator() {
+    /**
+     * Searches the server's history; completes with the matching messages, newest first
+     */
+    public CompletableFuture<List<Message>> search(String query) {
+        Message request = new Message(Message.MessageType.SEARCH, username, query);
+        return sendMessage(request).thenApply(reply -> gson.fromJson(
+            reply.getContent(),
+            new TypeToken<List<Message>>(){}.getType()
+        ));
+    }
+    
+    /**
+     * Records that these messages were shown to the user; the server hears at the next flush
+     */
+    public void markRead(List<Message> messages) {
+        for (Message message : messages) {
+            receiptTracker.read(message);
+        }
+    }
+    
+    public void markAllRead() {
+        receiptTracker.readAll();
+    }
+    
+    public ReceiptBook getReceipts() {
+        return receiptBook;
+    }
+    
+    private void flushReceipts() {
+        for (Message receipt : receiptTracker.takeChanged()) {
+            sendMessage(receipt);
+        }
+    }
+    
+    public CompletableFuture<Message> sendTypingIndicator() {
         Message message = new Message(Message.MessageType.TYPING, username, "typing...");
-        sendMessage(message);
+        return sendMessage(message);
     }
     
     public void disconnect() {
-        connected = false;
+        userDisconnected = true;
         
         try {
-            if (writer != null) {
+            if (receiptFlusher != null) {
+                receiptFlusher.shutdownNow();
+            }
+            if (outbound != null) {
+                outbound.close();
+            }
+            
+            // Explicit LOGOUT tells the server not to hold the session for a resume
+            PrintWriter currentWriter = writer;
+            if (connected && currentWriter != null) {
                 Message logoutMessage = new Message(Message.MessageType.LOGOUT, username, "");
-                sendMessage(logoutMessage);
+                currentWriter.println(gson.toJson(logoutMessage));
             }
+            connected = false;
             
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -164,8 +500,38 @@ public class MessagingClient {
         }
     }
     
+    /**
+     * Shows a chat or system message, holding it until the window exists
+     */
+    private void display(Message message) {
+        synchronized (this) {
+            if (chatWindow == null) {
+                earlyMessages.add(message);
+                return;
+            }
+        }
+        show(chatWindow, message);
+    }
+    
+    private static void show(ChatWindow window, Message message) {
+        if (message.getType() == Message.MessageType.SYSTEM) {
+            window.displaySystemMessage(message.getContent());
+        } else {
+            window.displayMessage(message);
+        }
+    }
+    
+    /**
+     * Attaches the window and hands it the cached history and whatever arrived before it
+     */
     public void setChatWindow(ChatWindow chatWindow) {
-        this.chatWindow = chatWindow;
+        synchronized (this) {
+            for (Message message : earlyMessages) {
+                show(chatWindow, message);
+            }
+            earlyMessages.clear();
+            this.chatWindow = chatWindow;
+        }
     }
     
     public String getUsername() {
@@ -0,0 +1,259 @@
+package com.messaging.client;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Bounded outbound message queue drained by a dedicated writer thread.
+ * Callers (usually the Swing EDT) only enqueue, so a stalled socket never blocks them.
+ * Chat messages and searches complete their future when the server echoes them back;
+ * TYPING frames are coalesced while one is still waiting to be written; they and
+ * STATUS receipts are not acknowledged, so complete once written. Messages written to a
+ * connection that then died without acknowledging them are written again, in their
+ * original order and with their original ids, ahead of anything else on the next
+ * connection; the server's duplicate detection acknowledges any it already has.
+ */
+public class OutboundQueue {
+    private static final Logger logger = LoggerFactory.getLogger(OutboundQueue.class);
+    
+    private final Gson gson;
+    private final String username;
+    private final long ackTimeoutMillis;
+    private final BlockingDeque<PendingMessage> queue;
+    private final Map<String, PendingMessage> awaitingAck = new ConcurrentHashMap<>();
+    private final Thread writerThread;
+    
+    private final Object writerLock = new Object();
+    private PrintWriter writer;        // guarded by writerLock; null while disconnected
+    private boolean closed;            // guarded by writerLock
+    private boolean resendUnacknowledged;  // guarded by writerLock; set by attach
+    private volatile PendingMessage queuedTyping;
+    private long writeCount;           // writer thread only
+    // Queued by attach to wake a writer waiting on an empty queue
+    private final PendingMessage wakeUp = new PendingMessage(null);
+    
+    private static class PendingMessage {
+        final Message message;
+        final CompletableFuture<Message> future = new CompletableFuture<>();
+        long writeOrder;        // writer thread only: when first written, for resending in order
+        boolean ackTimerStarted;
+        
+        PendingMessage(Message message) {
+            this.message = message;
+        }
+        
+        boolean isEphemeral() {
+            return message.getType() == Message.MessageType.TYPING || message.getType() == Message.MessageType.STATUS;
+        }
+        
+        boolean isTyping() {
+            return message.getType() == Message.MessageType.TYPING;
+        }
+    }
+    
+    public OutboundQueue(Gson gson, String username, int capacity, long ackTimeoutMillis) {
+        this.gson = gson;
+        this.username = username;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        this.queue = new LinkedBlockingDeque<>(capacity);
+        this.writerThread = new Thread(this::writeLoop, "message-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+    
+    /**
+     * Queues a message; the future completes when the server acknowledges it
+     * (TYPING: when written) and fails if the queue is full or the ack times out
+     */
+    public CompletableFuture<Message> enqueue(Message message) {
+        if (message.getType() == Message.MessageType.TYPING) {
+            PendingMessage pending = queuedTyping;
+            if (pending != null) {
+                return pending.future;  // one queued TYPING frame says the same thing
+            }
+        }
+        
+        PendingMessage pending = new PendingMessage(message);
+        if (pending.isTyping()) {
+            queuedTyping = pending;
+        }
+        if (!queue.offerLast(pending)) {
+            if (pending.isTyping()) {
+                queuedTyping = null;
+            }
+            pending.future.completeExceptionally(new RejectedExecutionException("Send queue is full"));
+        }
+        return pending.future;
+    }
+    
+    /**
+     * Called by the message listener for every incoming chat message
+     */
+    public void acknowledge(Message echoed) {
+        if (!username.equals(echoed.getSender()) || echoed.getMessageId() == null) {
+            return;
+        }
+        PendingMessage pending = awaitingAck.remove(echoed.getMessageId());
+        if (pending != null) {
+            pending.future.complete(echoed);
+        }
+    }
+    
+    /**
+     * Starts writing to a freshly connected socket, beginning with messages the previous
+     * connection never acknowledged
+     */
+    public void attach(PrintWriter newWriter) {
+        synchronized (writerLock) {
+            writer = newWriter;
+            resendUnacknowledged = true;
+            writerLock.notifyAll();
+        }
+        // Fails only if the queue is full, and then the writer isn't waiting for it
+        queue.offerFirst(wakeUp);
+    }
+    
+    /**
+     * Stops writing until the next attach; queued messages wait for the reconnect
+     */
+    public void detach() {
+        synchronized (writerLock) {
+            writer = null;
+        }
+    }
+    
+    /**
+     * Stops the writer thread and fails everything still pending
+     */
+    public void close() {
+        synchronized (writerLock) {
+            closed = true;
+            writer = null;
+            writerLock.notifyAll();
+        }
+        writerThread.interrupt();
+        
+        IllegalStateException failure = new IllegalStateException("Disconnected");
+        PendingMessage pending;
+        while ((pending = queue.pollFirst()) != null) {
+            pending.future.completeExceptionally(failure);
+        }
+        awaitingAck.values().forEach(p -> p.future.completeExceptionally(failure));
+        awaitingAck.clear();
+    }
+    
+    public int size() {
+        return queue.size();
+    }
+    
+    private void writeLoop() {
+        try {
+            while (true) {
+                PendingMessage pending = queue.takeFirst();
+                if (pending == queuedTyping) {
+                    queuedTyping = null;
+                }
+                
+                PrintWriter current = awaitWriter();
+                if (current == null) {
+                    return;  // closed
+                }
+                if (takeResendFlag() && !resendUnacknowledged(current)) {
+                    if (pending != wakeUp && !queue.offerFirst(pending)) {
+                        pending.future.completeExceptionally(new RejectedExecutionException("Send queue is full"));
+                    }
+                    continue;
+                }
+                if (pending == wakeUp) {
+                    continue;
+                }
+                
+                if (!pending.isEphemeral()) {
+                    awaitingAck.put(pending.message.getMessageId(), pending);
+                    pending.writeOrder = writeCount++;
+                    if (!pending.ackTimerStarted) {
+                        pending.ackTimerStarted = true;
+                        pending.future
+                                .orTimeout(ackTimeoutMillis, TimeUnit.MILLISECONDS)
+                                .whenComplete((ack, error) -> awaitingAck.remove(pending.message.getMessageId()));
+                    }
+                }
+                
+                current.println(gson.toJson(pending.message));
+                if (current.checkError()) {
+                    // Socket broke under us: keep the message for the next connection
+                    logger.debug("Write failed, holding message {} for reconnect", pending.message.getMessageId());
+                    awaitingAck.remove(pending.message.getMessageId());
+                    if (!queue.offerFirst(pending)) {
+                        pending.future.completeExceptionally(new RejectedExecutionException("Send queue is full"));
+                    }
+                    synchronized (writerLock) {
+                        if (writer == current) {
+                            writer = null;
+                        }
+                    }
+                } else if (pending.isEphemeral()) {
+                    pending.future.complete(pending.message);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private boolean takeResendFlag() {
+        synchronized (writerLock) {
+            boolean resend = resendUnacknowledged;
+            resendUnacknowledged = false;
+            return resend;
+        }
+    }
+    
+    /**
+     * Writes again, oldest first, whatever an earlier connection took without acknowledging.
+     * They stay awaiting their ack throughout. Returns false if the new connection broke too.
+     */
+    private boolean resendUnacknowledged(PrintWriter current) {
+        List<PendingMessage> unacknowledged = new ArrayList<>(awaitingAck.values());
+        if (unacknowledged.isEmpty()) {
+            return true;
+        }
+        unacknowledged.sort(Comparator.comparingLong(p -> p.writeOrder));
+        logger.debug("Resending {} unacknowledged message(s)", unacknowledged.size());
+        for (PendingMessage pending : unacknowledged) {
+            if (pending.future.isDone()) {
+                continue;
+            }
+            current.println(gson.toJson(pending.message));
+        }
+        if (current.checkError()) {
+            synchronized (writerLock) {
+                if (writer == current) {
+                    writer = null;
+                }
+                // Everything is still awaiting its ack, so the next connection tries again
+                resendUnacknowledged = true;
+            }
+            return false;
+        }
+        return true;
+    }
+    
+    private PrintWriter awaitWriter() throws InterruptedException {
+        synchronized (writerLock) {
+            while (writer == null && !closed) {
+                writerLock.wait();
+            }
+            return closed ? null : writer;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.messaging.client;
+
+import com.messaging.model.Message;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The delivered and read marks other participants have reported, per conversation,
+ * as relayed by the server. Answers how far one of this user's messages has got.
+ */
+public class ReceiptBook {
+    private final Map<String, Map<String, long[]>> marks = new HashMap<>();  // conversation -> user -> {delivered, read}
+    
+    public synchronized void update(String conversation, Map<String, long[]> reported) {
+        Map<String, long[]> known = marks.computeIfAbsent(conversation, c -> new HashMap<>());
+        reported.forEach((user, pair) -> known.merge(user, pair,
+                (old, now) -> new long[] {Math.max(old[0], now[0]), Math.max(old[1], now[1])}));
+    }
+    
+    /**
+     * "sent", "delivered", "read" or, in a group, "read by 2 of 5" for one of this
+     * user's private or group messages; null for anything else
+     */
+    public synchronized String statusOf(Message message, String username) {
+        if (!(message.isPrivate() || message.isGroup()) || message.getSequence() <= 0
+                || !username.equals(message.getSender())) {
+            return null;
+        }
+        Map<String, long[]> known = marks.getOrDefault(message.getConversationId(), Map.of());
+        List<String> participants = message.getParticipants();
+        int others = participants.size() - 1;
+        int delivered = 0;
+        int read = 0;
+        for (String participant : participants) {
+            long[] pair = known.get(participant);
+            if (participant.equals(username) || pair == null) {
+                continue;
+            }
+            if (pair[0] >= message.getSequence()) {
+                delivered++;
+            }
+            if (pair[1] >= message.getSequence()) {
+                read++;
+            }
+        }
+        if (others > 0 && read == others) {
+            return "read";
+        }
+        if (read > 0) {
+            return "read by " + read + " of " + others;
+        }
+        return others > 0 && delivered == others ? "delivered" : "sent";
+    }
+}
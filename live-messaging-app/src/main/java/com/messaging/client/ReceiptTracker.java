@@ -0,0 +1,93 @@
+package com.messaging.client;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This user's own delivered and read marks, per private or group conversation.
+ * Marks only rise; each flush turns the conversations whose marks rose since the
+ * previous one into a single STATUS frame each, however many messages arrived.
+ */
+public class ReceiptTracker {
+    private static final int DELIVERED = 0;
+    private static final int READ = 1;
+    private static final int SENT_DELIVERED = 2;
+    private static final int SENT_READ = 3;
+    
+    private final Gson gson;
+    private final String username;
+    private final Map<String, long[]> marks = new HashMap<>();  // conversation -> the four values above
+    
+    public ReceiptTracker(Gson gson, String username) {
+        this.gson = gson;
+        this.username = username;
+    }
+    
+    /**
+     * Notes that a message from someone else reached this client
+     */
+    public synchronized void delivered(Message message) {
+        if (tracks(message)) {
+            long[] conversation = marks.computeIfAbsent(message.getConversationId(), c -> new long[4]);
+            conversation[DELIVERED] = Math.max(conversation[DELIVERED], message.getSequence());
+        }
+    }
+    
+    /**
+     * Notes that a message from someone else was shown to the user
+     */
+    public synchronized void read(Message message) {
+        if (tracks(message)) {
+            long[] conversation = marks.computeIfAbsent(message.getConversationId(), c -> new long[4]);
+            conversation[DELIVERED] = Math.max(conversation[DELIVERED], message.getSequence());
+            conversation[READ] = Math.max(conversation[READ], message.getSequence());
+        }
+    }
+    
+    /**
+     * Marks everything delivered so far as read, e.g. when the window comes to the front
+     */
+    public synchronized void readAll() {
+        for (long[] conversation : marks.values()) {
+            conversation[READ] = conversation[DELIVERED];
+        }
+    }
+    
+    /**
+     * Sends every mark again at the next flush, e.g. to a server that restarted
+     */
+    public synchronized void resendAll() {
+        for (long[] conversation : marks.values()) {
+            conversation[SENT_DELIVERED] = 0;
+            conversation[SENT_READ] = 0;
+        }
+    }
+    
+    /**
+     * STATUS frames for the conversations whose marks rose since the last call
+     */
+    public synchronized List<Message> takeChanged() {
+        List<Message> frames = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : marks.entrySet()) {
+            long[] conversation = entry.getValue();
+            if (conversation[DELIVERED] == conversation[SENT_DELIVERED] && conversation[READ] == conversation[SENT_READ]) {
+                continue;
+            }
+            conversation[SENT_DELIVERED] = conversation[DELIVERED];
+            conversation[SENT_READ] = conversation[READ];
+            frames.add(new Message(Message.MessageType.STATUS, username, entry.getKey(),
+                    gson.toJson(new long[] {conversation[DELIVERED], conversation[READ]})));
+        }
+        return frames;
+    }
+    
+    private boolean tracks(Message message) {
+        return (message.isPrivate() || message.isGroup()) && message.getSequence() > 0
+                && !username.equals(message.getSender());
+    }
+}
@@ -0,0 +1,30 @@
+package com.messaging.cluster;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Transport between server nodes sharing presence and chat traffic.
+ * Implementations deliver each envelope to a node once and may batch
+ * envelopes per peer; they must not block the caller on the network.
+ */
+public interface ClusterBus {
+    
+    String getNodeId();
+    
+    void start(ClusterListener listener) throws IOException;
+    
+    /**
+     * Sends to one peer; silently dropped if the peer is not connected
+     */
+    void send(String nodeId, ClusterEnvelope envelope);
+    
+    /**
+     * Sends once to every connected peer
+     */
+    void broadcast(ClusterEnvelope envelope);
+    
+    Set<String> getPeers();
+    
+    void close();
+}
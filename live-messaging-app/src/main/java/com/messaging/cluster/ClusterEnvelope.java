@@ -0,0 +1,84 @@
+package com.messaging.cluster;
+
+import java.util.List;
+
+/**
+ * Unit of traffic between server nodes
+ */
+public class ClusterEnvelope {
+    
+    public enum Type {
+        HELLO,          // Link handshake carrying the sender's node id and a fresh nonce
+        AUTH,           // Dialing node's proof of the cluster secret, answering the HELLO reply
+        USER_JOINED,    // A user logged in on the origin node
+        USER_LEFT,      // A user left the origin node
+        PRESENCE_SYNC,  // Full list of users on the origin node
+        DELIVER         // Chat message (serialized Message) for local recipients
+    }
+    
+    private Type type;
+    private String origin;
+    private String payload;
+    private List<String> users;
+    private String nonce;
+    private String proof;
+    
+    public ClusterEnvelope() {
+    }
+    
+    public ClusterEnvelope(Type type, String origin) {
+        this.type = type;
+        this.origin = origin;
+    }
+    
+    /**
+     * A handshake step; the accepting node's HELLO also carries its proof of the cluster secret
+     */
+    public static ClusterEnvelope handshake(Type type, String origin, String nonce, String proof) {
+        ClusterEnvelope envelope = new ClusterEnvelope(type, origin);
+        envelope.nonce = nonce;
+        envelope.proof = proof;
+        return envelope;
+    }
+    
+    public static ClusterEnvelope deliver(String origin, String messageJson) {
+        ClusterEnvelope envelope = new ClusterEnvelope(Type.DELIVER, origin);
+        envelope.payload = messageJson;
+        return envelope;
+    }
+    
+    public static ClusterEnvelope presence(Type type, String origin, List<String> users) {
+        ClusterEnvelope envelope = new ClusterEnvelope(type, origin);
+        envelope.users = users;
+        return envelope;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public String getOrigin() {
+        return origin;
+    }
+    
+    public String getPayload() {
+        return payload;
+    }
+    
+    public List<String> getUsers() {
+        return users;
+    }
+    
+    public String getNonce() {
+        return nonce;
+    }
+    
+    public String getProof() {
+        return proof;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("[%s from %s]", type, origin);
+    }
+}
@@ -0,0 +1,20 @@
+package com.messaging.cluster;
+
+/**
+ * Receives traffic and membership changes from a {@link ClusterBus}.
+ * Callbacks for one peer arrive in the order that peer sent them.
+ */
+public interface ClusterListener {
+    
+    void onEnvelope(ClusterEnvelope envelope);
+    
+    /**
+     * A peer became reachable; the listener should send it a presence sync
+     */
+    void onPeerUp(String nodeId);
+    
+    /**
+     * A peer became unreachable; its users should be treated as gone
+     */
+    void onPeerDown(String nodeId);
+}
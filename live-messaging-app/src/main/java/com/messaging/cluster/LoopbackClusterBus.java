@@ -0,0 +1,100 @@
+package com.messaging.cluster;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * In-process cluster bus for running several server nodes in one JVM.
+ * Each node receives on its own thread, so handlers run asynchronously and in
+ * send order just as they would over a real link.
+ */
+public class LoopbackClusterBus implements ClusterBus {
+    
+    /**
+     * Shared medium connecting the loopback buses of one simulated cluster
+     */
+    public static class Network {
+        private final Map<String, LoopbackClusterBus> nodes = new ConcurrentHashMap<>();
+    }
+    
+    private final Network network;
+    private final String nodeId;
+    private final ExecutorService inbox;
+    private volatile ClusterListener listener;
+    
+    public LoopbackClusterBus(Network network, String nodeId) {
+        this.network = network;
+        this.nodeId = nodeId;
+        this.inbox = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-loopback-" + nodeId);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    @Override
+    public void start(ClusterListener listener) {
+        this.listener = listener;
+        if (network.nodes.putIfAbsent(nodeId, this) != null) {
+            throw new IllegalStateException("Node id already in use: " + nodeId);
+        }
+        for (LoopbackClusterBus peer : network.nodes.values()) {
+            if (peer != this) {
+                peer.post(() -> peer.listener.onPeerUp(nodeId));
+                post(() -> listener.onPeerUp(peer.nodeId));
+            }
+        }
+    }
+    
+    @Override
+    public void send(String targetNodeId, ClusterEnvelope envelope) {
+        LoopbackClusterBus peer = network.nodes.get(targetNodeId);
+        if (peer != null && peer != this) {
+            peer.post(() -> peer.listener.onEnvelope(envelope));
+        }
+    }
+    
+    @Override
+    public void broadcast(ClusterEnvelope envelope) {
+        for (LoopbackClusterBus peer : network.nodes.values()) {
+            if (peer != this) {
+                peer.post(() -> peer.listener.onEnvelope(envelope));
+            }
+        }
+    }
+    
+    @Override
+    public Set<String> getPeers() {
+        Set<String> peers = new HashSet<>(network.nodes.keySet());
+        peers.remove(nodeId);
+        return peers;
+    }
+    
+    @Override
+    public void close() {
+        if (network.nodes.remove(nodeId, this)) {
+            for (LoopbackClusterBus peer : network.nodes.values()) {
+                peer.post(() -> peer.listener.onPeerDown(nodeId));
+            }
+        }
+        inbox.shutdown();
+    }
+    
+    private void post(Runnable task) {
+        try {
+            inbox.execute(task);
+        } catch (RejectedExecutionException e) {
+            // node is closing; drop like a dead link would
+        }
+    }
+}
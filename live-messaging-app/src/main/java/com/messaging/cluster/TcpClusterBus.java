@@ -0,0 +1,413 @@
+package com.messaging.cluster;
+
+import com.google.gson.Gson;
+import com.messaging.util.FrameDecoder;
+import com.messaging.util.FrameTooLargeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Cluster bus over TCP, one JSON envelope per line.
+ * Every node dials every configured peer and uses that link for its outbound
+ * traffic; accepted links are read-only. Each outbound link has a writer thread
+ * that drains whatever is queued and flushes once, so a burst of messages to a
+ * peer costs one write per batch rather than one per message.
+ * <p>
+ * Both ends of a link prove they hold the shared cluster secret before any traffic:
+ * the dialer sends HELLO with a nonce, the acceptor answers HELLO with its own nonce
+ * and an HMAC over both, and the dialer answers AUTH with an HMAC the other way round.
+ * Inbound envelopes are read with a size limit, like client frames.
+ */
+public class TcpClusterBus implements ClusterBus {
+    private static final Logger logger = LoggerFactory.getLogger(TcpClusterBus.class);
+    private static final long REDIAL_DELAY_MS = 1000;
+    private static final int HANDSHAKE_TIMEOUT_MS = 5000;
+    private static final int MAX_BATCH = 256;
+    private static final int LINK_QUEUE_CAPACITY = 100_000;
+    private static final String HMAC = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private final String nodeId;
+    private final String bindAddress;
+    private final int port;
+    private final List<InetSocketAddress> peerAddresses;
+    private final byte[] secret;
+    private final int maxFrameBytes;
+    private final Gson gson = new Gson();
+    private final Map<String, PeerLink> links = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private ServerSocket serverSocket;
+    private volatile ClusterListener listener;
+    private volatile boolean running;
+    
+    /**
+     * A node listening on bindAddress:port, linking to the given peers with the shared secret
+     */
+    public TcpClusterBus(String nodeId, String bindAddress, int port, List<InetSocketAddress> peerAddresses,
+                         String secret, int maxFrameBytes) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("A cluster secret is required");
+        }
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.peerAddresses = new ArrayList<>(peerAddresses);
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.maxFrameBytes = maxFrameBytes;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-dialer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Parses "host:port,host:port" as used by the cluster.peers property
+     */
+    public static List<InetSocketAddress> parsePeers(String spec) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        if (spec == null || spec.isBlank()) {
+            return peers;
+        }
+        for (String entry : spec.split(",")) {
+            String trimmed = entry.trim();
+            int colon = trimmed.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Expected host:port but got " + trimmed);
+            }
+            peers.add(new InetSocketAddress(trimmed.substring(0, colon),
+                    Integer.parseInt(trimmed.substring(colon + 1))));
+        }
+        return peers;
+    }
+    
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    @Override
+    public void start(ClusterListener listener) throws IOException {
+        this.listener = listener;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getByName(bindAddress));
+        this.running = true;
+        
+        Thread acceptor = new Thread(this::acceptLinks, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        
+        for (InetSocketAddress address : peerAddresses) {
+            scheduler.execute(() -> dial(address));
+        }
+        logger.info("Cluster node {} listening on {}:{} with {} peer(s)", nodeId, bindAddress, port, peerAddresses.size());
+    }
+    
+    @Override
+    public void send(String targetNodeId, ClusterEnvelope envelope) {
+        PeerLink link = links.get(targetNodeId);
+        if (link != null) {
+            link.enqueue(gson.toJson(envelope));
+        }
+    }
+    
+    @Override
+    public void broadcast(ClusterEnvelope envelope) {
+        if (links.isEmpty()) {
+            return;
+        }
+        String line = gson.toJson(envelope);
+        for (PeerLink link : links.values()) {
+            link.enqueue(line);
+        }
+    }
+    
+    @Override
+    public Set<String> getPeers() {
+        return new HashSet<>(links.keySet());
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        scheduler.shutdownNow();
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Error closing cluster socket", e);
+        }
+        for (PeerLink link : links.values()) {
+            link.close();
+        }
+        links.clear();
+    }
+    
+    // ---- inbound ----
+    
+    private void acceptLinks() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readInbound(socket), "cluster-inbound");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Error accepting cluster link", e);
+                }
+            }
+        }
+    }
+    
+    private void readInbound(Socket socket) {
+        String peerId = null;
+        FrameDecoder decoder = null;
+        try (socket) {
+            decoder = new FrameDecoder(socket.getInputStream(), maxFrameBytes);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            ClusterEnvelope hello = readEnvelope(decoder);
+            if (hello == null || hello.getType() != ClusterEnvelope.Type.HELLO
+                    || hello.getOrigin() == null || hello.getNonce() == null) {
+                logger.warn("Rejecting cluster link from {} without HELLO", socket.getRemoteSocketAddress());
+                return;
+            }
+            String nonce = newNonce();
+            writeLine(socket, gson.toJson(ClusterEnvelope.handshake(ClusterEnvelope.Type.HELLO, nodeId, nonce,
+                    proof("accept", hello.getNonce(), nonce, nodeId))));
+            ClusterEnvelope auth = readEnvelope(decoder);
+            if (auth == null || auth.getType() != ClusterEnvelope.Type.AUTH
+                    || !verify(auth.getProof(), "dial", nonce, hello.getNonce(), hello.getOrigin())) {
+                logger.warn("Rejecting cluster link from {} claiming to be {}: no valid proof of the cluster secret",
+                        socket.getRemoteSocketAddress(), hello.getOrigin());
+                return;
+            }
+            peerId = hello.getOrigin();
+            socket.setSoTimeout(0);
+            
+            Reader frame;
+            while ((frame = decoder.nextFrame()) != null) {
+                ClusterEnvelope envelope = gson.fromJson(frame, ClusterEnvelope.class);
+                if (envelope != null) {
+                    listener.onEnvelope(envelope);
+                }
+            }
+        } catch (FrameTooLargeException e) {
+            logger.warn("Closing cluster link from {}: {}", peerId != null ? peerId : socket.getRemoteSocketAddress(),
+                    e.getMessage());
+        } catch (IOException e) {
+            if (running) {
+                logger.debug("Inbound cluster link from {} closed: {}", peerId, e.getMessage());
+            }
+        } catch (Exception e) {
+            logger.error("Error handling cluster traffic from {}", peerId, e);
+        } finally {
+            if (decoder != null) {
+                decoder.release();
+            }
+        }
+    }
+    
+    // ---- outbound ----
+    
+    private void dial(InetSocketAddress address) {
+        if (!running) {
+            return;
+        }
+        Socket socket = new Socket();
+        try {
+            socket.connect(address, (int) REDIAL_DELAY_MS * 5);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            String nonce = newNonce();
+            writeLine(socket, gson.toJson(ClusterEnvelope.handshake(ClusterEnvelope.Type.HELLO, nodeId, nonce, null)));
+            
+            // The peer sends nothing after its HELLO, so nothing read ahead is lost
+            FrameDecoder decoder = new FrameDecoder(socket.getInputStream(), maxFrameBytes);
+            ClusterEnvelope reply;
+            try {
+                reply = readEnvelope(decoder);
+            } finally {
+                decoder.release();
+            }
+            if (reply == null || reply.getType() != ClusterEnvelope.Type.HELLO || reply.getOrigin() == null) {
+                throw new IOException("Peer did not answer HELLO");
+            }
+            if (!verify(reply.getProof(), "accept", nonce, reply.getNonce(), reply.getOrigin())) {
+                logger.warn("Cluster peer {} at {} does not hold the cluster secret", reply.getOrigin(), address);
+                throw new IOException("Peer failed to prove the cluster secret");
+            }
+            writeLine(socket, gson.toJson(ClusterEnvelope.handshake(ClusterEnvelope.Type.AUTH, nodeId, null,
+                    proof("dial", reply.getNonce(), nonce, nodeId))));
+            socket.setSoTimeout(0);
+            
+            PeerLink link = new PeerLink(reply.getOrigin(), address, socket);
+            PeerLink previous = links.put(link.peerId, link);
+            if (previous != null) {
+                previous.close();
+            }
+            link.start();
+            logger.info("Cluster link {} -> {} up", nodeId, link.peerId);
+            listener.onPeerUp(link.peerId);
+            
+        } catch (IOException e) {
+            closeQuietly(socket);
+            logger.debug("Could not reach cluster peer {}: {}", address, e.getMessage());
+            scheduleRedial(address);
+        }
+    }
+    
+    private void scheduleRedial(InetSocketAddress address) {
+        if (running) {
+            try {
+                scheduler.schedule(() -> dial(address), REDIAL_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // closing
+            }
+        }
+    }
+    
+    private void linkDown(PeerLink link) {
+        link.close();
+        if (links.remove(link.peerId, link)) {
+            logger.warn("Cluster link {} -> {} down", nodeId, link.peerId);
+            listener.onPeerDown(link.peerId);
+            scheduleRedial(link.address);
+        }
+    }
+    
+    private ClusterEnvelope readEnvelope(FrameDecoder decoder) throws IOException {
+        Reader frame = decoder.nextFrame();
+        return frame != null ? gson.fromJson(frame, ClusterEnvelope.class) : null;
+    }
+    
+    private static String newNonce() {
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        return Base64.getEncoder().encodeToString(nonce);
+    }
+    
+    /**
+     * HMAC of the secret over one side's role, both nonces and its node id, so a proof
+     * can't be replayed on another link or reflected back at the node that asked for it
+     */
+    private String proof(String role, String firstNonce, String secondNonce, String node) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            byte[] digest = mac.doFinal(String.join("\n", role, firstNonce, secondNonce, node)
+                    .getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+    
+    private boolean verify(String proof, String role, String firstNonce, String secondNonce, String node) {
+        if (proof == null || firstNonce == null || secondNonce == null || node == null) {
+            return false;
+        }
+        return MessageDigest.isEqual(proof(role, firstNonce, secondNonce, node).getBytes(StandardCharsets.UTF_8),
+                proof.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    private static void writeLine(Socket socket, String line) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+    
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing to do
+        }
+    }
+    
+    /**
+     * Outbound link to one peer with its own batching writer thread
+     */
+    private class PeerLink {
+        private final String peerId;
+        private final InetSocketAddress address;
+        private final Socket socket;
+        private final BlockingQueue<String> queue = new LinkedBlockingQueue<>(LINK_QUEUE_CAPACITY);
+        private final Thread writerThread;
+        private final Thread watcherThread;
+        
+        PeerLink(String peerId, InetSocketAddress address, Socket socket) {
+            this.peerId = peerId;
+            this.address = address;
+            this.socket = socket;
+            this.writerThread = new Thread(this::writeLoop, "cluster-writer-" + peerId);
+            this.writerThread.setDaemon(true);
+            // Peers never send on our outbound link, so a read returning means it closed
+            this.watcherThread = new Thread(this::watch, "cluster-watch-" + peerId);
+            this.watcherThread.setDaemon(true);
+        }
+        
+        void start() {
+            writerThread.start();
+            watcherThread.start();
+        }
+        
+        void enqueue(String line) {
+            if (!queue.offer(line)) {
+                logger.warn("Cluster link to {} is backed up, dropping envelope", peerId);
+            }
+        }
+        
+        private void writeLoop() {
+            List<String> batch = new ArrayList<>(MAX_BATCH);
+            try {
+                Writer out = new BufferedWriter(
+                        new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 64 * 1024);
+                while (!socket.isClosed()) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (String line : batch) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                    out.flush();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                linkDown(this);
+            }
+        }
+        
+        private void watch() {
+            try {
+                while (socket.getInputStream().read() != -1) {
+                    // ignore
+                }
+            } catch (IOException e) {
+                // treated as closed below
+            }
+            linkDown(this);
+        }
+        
+        void close() {
+            closeQuietly(socket);
+            writerThread.interrupt();
+        }
+    }
+}
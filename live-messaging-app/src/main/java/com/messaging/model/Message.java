@@ -1,37 +1,65 @@
 package com.messaging.model;
 
+import com.google.gson.annotations.JsonAdapter;
+import com.messaging.util.CoarseClock;
+import com.messaging.util.TimestampAdapter;
+import com.messaging.util.TimestampFormat;
+
 import java.io.Serializable;
+import java.security.SecureRandom;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Message model representing chat messages
+ * Message model representing chat messages. The timestamp is held as epoch milliseconds
+ * and sent as an ISO local date-time.
  */
 public class Message implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+    public static final String PUBLIC_CONVERSATION = "public";
+    // Ids are this process's random prefix and a counter: unique per sender without a random draw each
+    private static final String ID_PREFIX = Long.toHexString(new SecureRandom().nextLong() | Long.MIN_VALUE) + "-";
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
     
     public enum MessageType {
         TEXT,           // Regular text message
         LOGIN,          // User login request
         LOGOUT,         // User logout
         USER_LIST,      // Request/update user list
+        USER_JOINED,    // User list delta: content is the name that came online
+        USER_LEFT,      // User list delta: content is the name that went offline
         PRIVATE,        // Private message
         GROUP,          // Group message
         SYSTEM,         // System notification
         TYPING,         // Typing indicator
         FILE,           // File transfer
-        STATUS          // Status update
+        STATUS,         // Delivery/read receipts: high-water sequences per conversation
+        SEARCH,         // History search: query in content, echoed back with the hits
+        RECONNECT       // Server going away: reconnect after a random delay of up to content ms
     }
     
     private MessageType type;
     private String sender;
     private String receiver;  // For private messages (null for broadcast)
     private String content;
-    private LocalDateTime timestamp;
+    @JsonAdapter(TimestampAdapter.class)
+    private long timestamp;
     private String messageId;
+    private long sequence;         // Server-assigned order, 0 until routed
+    private long conversationSequence;  // Position within its conversation, 0 until routed
+    private String resumeToken;    // Session token for LOGIN resume
+    private Boolean more;          // Set on all but the last frame of a reply split across frames
     
     public Message() {
-        this.timestamp = LocalDateTime.now();
+        this.timestamp = CoarseClock.millis();
         this.messageId = generateMessageId();
     }
     
@@ -47,8 +75,8 @@ public class Message implements Serializable {
         this.receiver = receiver;
     }
     
-    private String generateMessageId() {
-        return System.currentTimeMillis() + "-" + (int)(Math.random() * 10000);
+    private static String generateMessageId() {
+        return ID_PREFIX + Long.toString(ID_COUNTER.incrementAndGet(), 36);
     }
     
     // Getters and setters
@@ -85,10 +113,18 @@ public class Message implements Serializable {
     }
     
     public LocalDateTime getTimestamp() {
-        return timestamp;
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
     }
     
     public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+    
+    public long getTimestampMillis() {
+        return timestamp;
+    }
+    
+    public void setTimestampMillis(long timestamp) {
         this.timestamp = timestamp;
     }
     
@@ -100,20 +136,125 @@ public class Message implements Serializable {
         this.messageId = messageId;
     }
     
+    public long getSequence() {
+        return sequence;
+    }
+    
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+    
+    public long getConversationSequence() {
+        return conversationSequence;
+    }
+    
+    public void setConversationSequence(long conversationSequence) {
+        this.conversationSequence = conversationSequence;
+    }
+    
+    public String getResumeToken() {
+        return resumeToken;
+    }
+    
+    public void setResumeToken(String resumeToken) {
+        this.resumeToken = resumeToken;
+    }
+    
+    /**
+     * True if further frames of the same reply follow this one
+     */
+    public boolean isMore() {
+        return more != null && more;
+    }
+    
+    public void setMore(boolean more) {
+        this.more = more ? Boolean.TRUE : null;  // left out of the JSON unless set
+    }
+    
     public String getFormattedTimestamp() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss");
-        return timestamp.format(formatter);
+        return TimestampFormat.time(timestamp);
     }
     
     public String getFormattedDate() {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-        return timestamp.format(formatter);
+        return TimestampFormat.dateTime(timestamp);
     }
     
     public boolean isPrivate() {
         return receiver != null && !receiver.isEmpty();
     }
     
+    public boolean isGroup() {
+        return type == MessageType.GROUP;
+    }
+    
+    /**
+     * Members of a GROUP message, listed comma-separated in the receiver field
+     */
+    public List<String> getGroupMembers() {
+        List<String> members = new ArrayList<>();
+        if (receiver != null) {
+            for (String member : receiver.split(",")) {
+                String trimmed = member.trim();
+                if (!trimmed.isEmpty()) {
+                    members.add(trimmed);
+                }
+            }
+        }
+        return members;
+    }
+    
+    /**
+     * Conversation this message belongs to: "public", or "dm:" or "group:" followed by
+     * the sorted participants, e.g. "dm:alice,bob"
+     */
+    public String getConversationId() {
+        if (isGroup()) {
+            return "group:" + String.join(",", getParticipants());
+        }
+        if (isPrivate()) {
+            return "dm:" + String.join(",", getParticipants());
+        }
+        return PUBLIC_CONVERSATION;
+    }
+    
+    /**
+     * Sorted, distinct sender and recipients of a private or group message
+     */
+    public List<String> getParticipants() {
+        SortedSet<String> participants = new TreeSet<>();
+        participants.add(sender);
+        if (isGroup()) {
+            participants.addAll(getGroupMembers());
+        } else if (isPrivate()) {
+            participants.add(receiver);
+        }
+        return new ArrayList<>(participants);
+    }
+    
+    /**
+     * Participants named in a conversation id; empty for the public conversation
+     */
+    public static List<String> participantsOf(String conversationId) {
+        int colon = conversationId.indexOf(':');
+        if (colon < 0 || colon == conversationId.length() - 1) {
+            return Collections.emptyList();
+        }
+        return Arrays.asList(conversationId.substring(colon + 1).split(","));
+    }
+    
+    /**
+     * True if the given user sent or may receive this message
+     */
+    public boolean isVisibleTo(String username) {
+        if (username.equals(sender)) {
+            return true;
+        }
+        if (isGroup()) {
+            return getGroupMembers().contains(username);
+        }
+        return !isPrivate() || username.equals(receiver);
+    }
+    
     @Override
     public String toString() {
         return String.format("[%s] %s -> %s: %s", 
@@ -1,13 +1,18 @@
 package com.messaging.model;
 
+import com.messaging.util.CoarseClock;
+
 import java.io.Serializable;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 
 /**
- * User model representing connected users
+ * User model representing connected users. The server keeps presence in a compact
+ * table and hands these out as views; times are held as epoch milliseconds.
  */
 public class User implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
     public enum Status {
         ONLINE,
@@ -17,25 +22,31 @@ public class User implements Serializable {
     }
     
     private String username;
-    private String displayName;
+    private String displayName;  // null while it is the username
     private Status status;
-    private LocalDateTime lastSeen;
-    private LocalDateTime connectedAt;
+    private long lastSeen;
+    private long connectedAt;  // 0 if never connected
     
     public User() {
         this.status = Status.OFFLINE;
-        this.lastSeen = LocalDateTime.now();
+        this.lastSeen = CoarseClock.millis();
     }
     
     public User(String username) {
         this();
         this.username = username;
-        this.displayName = username;
     }
     
     public User(String username, String displayName) {
         this(username);
-        this.displayName = displayName;
+        setDisplayName(displayName);
+    }
+    
+    public User(String username, Status status, long lastSeenMillis, long connectedAtMillis) {
+        this.username = username;
+        this.status = status;
+        this.lastSeen = lastSeenMillis;
+        this.connectedAt = connectedAtMillis;
     }
     
     // Getters and setters
@@ -48,11 +59,11 @@ public class User implements Serializable {
     }
     
     public String getDisplayName() {
-        return displayName;
+        return displayName != null ? displayName : username;
     }
     
     public void setDisplayName(String displayName) {
-        this.displayName = displayName;
+        this.displayName = displayName != null && !displayName.equals(username) ? displayName : null;
     }
     
     public Status getStatus() {
@@ -61,23 +72,39 @@ public class User implements Serializable {
     
     public void setStatus(Status status) {
         this.status = status;
-        this.lastSeen = LocalDateTime.now();
+        this.lastSeen = CoarseClock.millis();
     }
     
     public LocalDateTime getLastSeen() {
-        return lastSeen;
+        return toLocalDateTime(lastSeen);
     }
     
     public void setLastSeen(LocalDateTime lastSeen) {
-        this.lastSeen = lastSeen;
+        this.lastSeen = toEpochMillis(lastSeen);
+    }
+    
+    public long getLastSeenMillis() {
+        return lastSeen;
     }
     
     public LocalDateTime getConnectedAt() {
-        return connectedAt;
+        return connectedAt != 0 ? toLocalDateTime(connectedAt) : null;
     }
     
     public void setConnectedAt(LocalDateTime connectedAt) {
-        this.connectedAt = connectedAt;
+        this.connectedAt = connectedAt != null ? toEpochMillis(connectedAt) : 0;
+    }
+    
+    public long getConnectedAtMillis() {
+        return connectedAt;
+    }
+    
+    private static LocalDateTime toLocalDateTime(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+    
+    private static long toEpochMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
     }
     
     public boolean isOnline() {
@@ -108,6 +135,6 @@ public class User implements Serializable {
     
     @Override
     public String toString() {
-        return String.format("%s %s (%s)", getStatusEmoji(), displayName, status);
+        return String.format("%s %s (%s)", getStatusEmoji(), getDisplayName(), status);
     }
 }
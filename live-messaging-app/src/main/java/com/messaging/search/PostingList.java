@@ -0,0 +1,170 @@
+package com.messaging.search;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Increasing message sequences stored as varint-encoded gaps.
+ * Chat sequences are dense, so most gaps fit in one or two bytes. Every BLOCK entries
+ * a checkpoint records the preceding value and byte offset, so the newest entries and
+ * single lookups can be decoded without walking the list from the start.
+ */
+public class PostingList {
+    static final int BLOCK = 128;
+    
+    private byte[] bytes = new byte[4];
+    private int length;
+    private int count;
+    private long last;
+    // Value just before, and byte offset of, each block after the first; most lists never need one
+    private long[] checkpointValues;
+    private int[] checkpointOffsets;
+    
+    /**
+     * Appends a sequence; sequences must arrive in increasing order
+     */
+    public void add(long sequence) {
+        if (sequence <= last) {
+            if (sequence == last) {
+                return;  // term repeated within one message
+            }
+            throw new IllegalArgumentException("Sequence " + sequence + " is not after " + last);
+        }
+        if (count > 0 && count % BLOCK == 0) {
+            int checkpoint = count / BLOCK - 1;
+            if (checkpointValues == null) {
+                checkpointValues = new long[4];
+                checkpointOffsets = new int[4];
+            } else if (checkpoint == checkpointValues.length) {
+                checkpointValues = Arrays.copyOf(checkpointValues, checkpoint * 2);
+                checkpointOffsets = Arrays.copyOf(checkpointOffsets, checkpoint * 2);
+            }
+            checkpointValues[checkpoint] = last;
+            checkpointOffsets[checkpoint] = length;
+        }
+        long gap = sequence - last;
+        last = sequence;
+        count++;
+        if (length + 10 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 10));
+        }
+        while ((gap & ~0x7FL) != 0) {
+            bytes[length++] = (byte) ((gap & 0x7F) | 0x80);
+            gap >>>= 7;
+        }
+        bytes[length++] = (byte) gap;
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    public long last() {
+        return last;
+    }
+    
+    public int byteSize() {
+        return length;
+    }
+    
+    public int blockCount() {
+        return (count + BLOCK - 1) / BLOCK;
+    }
+    
+    /**
+     * All sequences in increasing order
+     */
+    public long[] decode() {
+        long[] sequences = new long[count];
+        decodeInto(sequences, 0, count, 0, 0);
+        return sequences;
+    }
+    
+    /**
+     * The sequences of one block, in increasing order
+     */
+    public long[] decodeBlock(int block) {
+        int first = block * BLOCK;
+        int entries = Math.min(BLOCK, count - first);
+        long[] sequences = new long[entries];
+        decodeInto(sequences, 0, entries, blockOffset(block), blockPrecedingValue(block));
+        return sequences;
+    }
+    
+    private int blockOffset(int block) {
+        return block == 0 ? 0 : checkpointOffsets[block - 1];
+    }
+    
+    private long blockPrecedingValue(int block) {
+        return block == 0 ? 0 : checkpointValues[block - 1];
+    }
+    
+    public boolean contains(long sequence) {
+        if (count == 0 || sequence > last || sequence <= 0) {
+            return false;
+        }
+        // Last block whose preceding value is below the sequence
+        int low = 0;
+        int high = blockCount() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (blockPrecedingValue(mid) < sequence) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return Arrays.binarySearch(decodeBlock(low), sequence) >= 0;
+    }
+    
+    /**
+     * Writes the encoded list, checkpoints included, so reading it back needs no decoding
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(count);
+        out.writeLong(last);
+        out.writeInt(length);
+        out.write(bytes, 0, length);
+        int checkpoints = Math.max(0, blockCount() - 1);
+        for (int i = 0; i < checkpoints; i++) {
+            out.writeLong(checkpointValues[i]);
+            out.writeInt(checkpointOffsets[i]);
+        }
+    }
+    
+    static PostingList readFrom(DataInput in) throws IOException {
+        PostingList list = new PostingList();
+        list.count = in.readInt();
+        list.last = in.readLong();
+        list.length = in.readInt();
+        list.bytes = new byte[list.length + 10];  // room for the next append
+        in.readFully(list.bytes, 0, list.length);
+        int checkpoints = Math.max(0, list.blockCount() - 1);
+        if (checkpoints > 0) {
+            list.checkpointValues = new long[checkpoints + 1];
+            list.checkpointOffsets = new int[checkpoints + 1];
+            for (int i = 0; i < checkpoints; i++) {
+                list.checkpointValues[i] = in.readLong();
+                list.checkpointOffsets[i] = in.readInt();
+            }
+        }
+        return list;
+    }
+    
+    private void decodeInto(long[] target, int from, int entries, int position, long value) {
+        for (int i = 0; i < entries; i++) {
+            long gap = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                gap |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            value += gap;
+            target[from + i] = value;
+        }
+    }
+}
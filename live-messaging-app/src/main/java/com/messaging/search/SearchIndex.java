@@ -0,0 +1,353 @@
+package com.messaging.search;
+
+import com.messaging.model.Message;
+import com.messaging.store.LogCompactor;
+import com.messaging.store.MessageLog;
+import com.messaging.util.DataStrings;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Inverted index from term to the sequences of messages containing it, kept per
+ * conversation scope (the public room, a private pair, a group's member set).
+ * A user's search only visits the public scope and the scopes they take part in,
+ * so access control falls out of the index layout rather than filtering afterwards.
+ * Updated incrementally as the message log writes each message.
+ */
+public class SearchIndex implements MessageLog.Listener, LogCompactor.RetentionListener {
+    public static final String PUBLIC_SCOPE = Message.PUBLIC_CONVERSATION;
+    
+    private final Map<String, Map<String, PostingList>> postings = new HashMap<>();  // term -> scope -> list
+    private final Map<String, Set<String>> scopesByUser = new HashMap<>();
+    private final Map<String, Long> expiredThrough = new HashMap<>();  // scope -> newest sequence removed by retention
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long indexedMessages;
+    private long lastSequence;
+    
+    /**
+     * Conversation a message belongs to; private and group scopes name their participants
+     */
+    public static String scopeOf(Message message) {
+        return message.getConversationId();
+    }
+    
+    /**
+     * Sorted, distinct sender and recipients of a private or group message
+     */
+    public static List<String> participants(Message message) {
+        return message.getParticipants();
+    }
+    
+    @Override
+    public void onAppended(Message message, String json) {
+        index(message);
+    }
+    
+    public void index(Message message) {
+        String scope = scopeOf(message);
+        Set<String> terms = Tokenizer.terms(message.getContent());
+        lock.writeLock().lock();
+        try {
+            if (message.getSequence() <= lastSequence) {
+                return;  // already indexed
+            }
+            lastSequence = message.getSequence();
+            indexedMessages++;
+            if (!PUBLIC_SCOPE.equals(scope)) {
+                for (String participant : participants(message)) {
+                    scopesByUser.computeIfAbsent(participant, u -> new HashSet<>()).add(scope);
+                }
+            }
+            for (String term : terms) {
+                postings.computeIfAbsent(term, t -> new HashMap<>())
+                        .computeIfAbsent(scope, s -> new PostingList())
+                        .add(message.getSequence());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Hides a scope's postings up to a sequence that retention removed from the log.
+     * The lists themselves are trimmed the next time the index is rebuilt.
+     */
+    @Override
+    public void onExpired(String scope, long throughSequence) {
+        lock.writeLock().lock();
+        try {
+            expiredThrough.merge(scope, throughSequence, Math::max);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Sequences of messages visible to the user that contain every term of the query,
+     * newest first
+     */
+    public List<Long> search(String username, String query, int limit) {
+        Set<String> terms = Tokenizer.terms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        
+        // Min-heap of the newest hits so far; its head is the bar a candidate must beat
+        PriorityQueue<Long> newest = new PriorityQueue<>(limit + 1);
+        lock.readLock().lock();
+        try {
+            Set<String> visible = scopesByUser.getOrDefault(username, Collections.emptySet());
+            Map<String, PostingList> firstTermScopes = postings.get(terms.iterator().next());
+            if (firstTermScopes == null) {
+                return Collections.emptyList();
+            }
+            
+            // Visit only scopes that both contain the first term and are visible to the user
+            List<String> scopes = new ArrayList<>();
+            if (firstTermScopes.containsKey(PUBLIC_SCOPE)) {
+                scopes.add(PUBLIC_SCOPE);
+            }
+            Set<String> smaller = visible.size() < firstTermScopes.size() ? visible : firstTermScopes.keySet();
+            Set<String> larger = smaller == visible ? firstTermScopes.keySet() : visible;
+            for (String scope : smaller) {
+                if (larger.contains(scope) && !PUBLIC_SCOPE.equals(scope)) {
+                    scopes.add(scope);
+                }
+            }
+            
+            // Posting lists per scope, rarest term first, scopes with the newest match first
+            List<Candidate> candidates = new ArrayList<>(scopes.size());
+            for (String scope : scopes) {
+                List<PostingList> lists = new ArrayList<>(terms.size());
+                for (String term : terms) {
+                    PostingList list = postings.getOrDefault(term, Collections.emptyMap()).get(scope);
+                    if (list == null) {
+                        lists = null;
+                        break;
+                    }
+                    lists.add(list);
+                }
+                long floor = expiredThrough.getOrDefault(scope, 0L);
+                if (lists != null && lists.get(0).last() > floor) {
+                    lists.sort(Comparator.comparingInt(PostingList::size));
+                    candidates.add(new Candidate(lists, floor));
+                }
+            }
+            candidates.sort(Comparator.comparingLong((Candidate c) -> c.lists.get(0).last()).reversed());
+            
+            for (Candidate candidate : candidates) {
+                List<PostingList> lists = candidate.lists;
+                PostingList rarest = lists.get(0);
+                if (newest.size() == limit && rarest.last() < newest.peek()) {
+                    break;  // this scope and all after it are older than every hit kept
+                }
+                // Walk the rarest term newest-first and probe the others
+                search:
+                for (int block = rarest.blockCount() - 1; block >= 0; block--) {
+                    long[] sequences = rarest.decodeBlock(block);
+                    for (int i = sequences.length - 1; i >= 0; i--) {
+                        if (sequences[i] <= candidate.floor || (newest.size() == limit && sequences[i] < newest.peek())) {
+                            break search;
+                        }
+                        if (containedInAll(lists, sequences[i])) {
+                            newest.add(sequences[i]);
+                            if (newest.size() > limit) {
+                                newest.poll();
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        
+        List<Long> hits = new ArrayList<>(newest);
+        hits.sort(Comparator.reverseOrder());
+        return hits;
+    }
+    
+    // A scope's posting lists for the query terms, rarest first, and its retention floor
+    private static class Candidate {
+        final List<PostingList> lists;
+        final long floor;
+        
+        Candidate(List<PostingList> lists, long floor) {
+            this.lists = lists;
+            this.floor = floor;
+        }
+    }
+    
+    private static boolean containedInAll(List<PostingList> lists, long sequence) {
+        for (int i = 1; i < lists.size(); i++) {
+            if (!lists.get(i).contains(sequence)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            scopesByUser.clear();
+            expiredThrough.clear();
+            lastSequence = 0;
+            indexedMessages = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Highest sequence indexed; replaying the log from here brings the index up to date
+     */
+    public long getLastSequence() {
+        lock.readLock().lock();
+        try {
+            return lastSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Writes the whole index for a snapshot. Scope names are written once and
+     * referred to by number, since every term repeats them.
+     */
+    public void writeSnapshot(DataOutput out) throws IOException {
+        lock.readLock().lock();
+        try {
+            Map<String, Integer> scopeIds = new LinkedHashMap<>();  // numbered in insertion order
+            for (Map<String, PostingList> byScope : postings.values()) {
+                for (String scope : byScope.keySet()) {
+                    scopeIds.putIfAbsent(scope, scopeIds.size());
+                }
+            }
+            for (Set<String> userScopes : scopesByUser.values()) {
+                for (String scope : userScopes) {
+                    scopeIds.putIfAbsent(scope, scopeIds.size());
+                }
+            }
+            for (String scope : expiredThrough.keySet()) {
+                scopeIds.putIfAbsent(scope, scopeIds.size());
+            }
+            
+            out.writeLong(lastSequence);
+            out.writeLong(indexedMessages);
+            out.writeInt(scopeIds.size());
+            for (String scope : scopeIds.keySet()) {
+                DataStrings.write(out, scope);
+            }
+            out.writeInt(scopesByUser.size());
+            for (Map.Entry<String, Set<String>> user : scopesByUser.entrySet()) {
+                DataStrings.write(out, user.getKey());
+                out.writeInt(user.getValue().size());
+                for (String scope : user.getValue()) {
+                    out.writeInt(scopeIds.get(scope));
+                }
+            }
+            out.writeInt(expiredThrough.size());
+            for (Map.Entry<String, Long> floor : expiredThrough.entrySet()) {
+                out.writeInt(scopeIds.get(floor.getKey()));
+                out.writeLong(floor.getValue());
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<String, Map<String, PostingList>> term : postings.entrySet()) {
+                DataStrings.write(out, term.getKey());
+                out.writeInt(term.getValue().size());
+                for (Map.Entry<String, PostingList> list : term.getValue().entrySet()) {
+                    out.writeInt(scopeIds.get(list.getKey()));
+                    list.getValue().writeTo(out);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Replaces the contents of the index with a snapshot written by {@link #writeSnapshot}
+     */
+    public void readSnapshot(DataInput in) throws IOException {
+        lock.writeLock().lock();
+        try {
+            clear();
+            lastSequence = in.readLong();
+            indexedMessages = in.readLong();
+            String[] scopes = new String[in.readInt()];
+            for (int i = 0; i < scopes.length; i++) {
+                scopes[i] = DataStrings.read(in);
+            }
+            int users = in.readInt();
+            for (int i = 0; i < users; i++) {
+                String user = DataStrings.read(in);
+                int count = in.readInt();
+                Set<String> userScopes = new HashSet<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    userScopes.add(scopes[in.readInt()]);
+                }
+                scopesByUser.put(user, userScopes);
+            }
+            int floors = in.readInt();
+            for (int i = 0; i < floors; i++) {
+                expiredThrough.put(scopes[in.readInt()], in.readLong());
+            }
+            int terms = in.readInt();
+            for (int i = 0; i < terms; i++) {
+                String term = DataStrings.read(in);
+                int count = in.readInt();
+                Map<String, PostingList> byScope = new HashMap<>(count * 2);
+                for (int j = 0; j < count; j++) {
+                    String scope = scopes[in.readInt()];
+                    byScope.put(scope, PostingList.readFrom(in));
+                }
+                postings.put(term, byScope);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    public long getIndexedMessages() {
+        lock.readLock().lock();
+        try {
+            return indexedMessages;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int getTermCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Encoded size of all posting lists, for sizing the index
+     */
+    public long getPostingBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (Map<String, PostingList> byScope : postings.values()) {
+                for (PostingList list : byScope.values()) {
+                    bytes += list.byteSize();
+                }
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
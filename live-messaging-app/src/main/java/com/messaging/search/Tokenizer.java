@@ -0,0 +1,40 @@
+package com.messaging.search;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Splits text into lower-case search terms on anything that is not a letter or digit
+ */
+public final class Tokenizer {
+    private static final int MIN_LENGTH = 2;
+    private static final int MAX_LENGTH = 32;
+    
+    private Tokenizer() {
+    }
+    
+    /**
+     * Distinct terms in order of first appearance
+     */
+    public static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start >= MIN_LENGTH) {
+                    String term = text.substring(start, Math.min(i, start + MAX_LENGTH));
+                    terms.add(term.toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,160 @@
+package com.messaging.server;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Password verification on a dedicated, bounded bcrypt pool.
+ * A login storm can only occupy this pool and its queue; once the queue is full
+ * further logins are refused as BUSY instead of piling up. Recently verified
+ * credentials are cached briefly so reconnects skip the bcrypt cost.
+ */
+public class Authenticator {
+    private static final Logger logger = LoggerFactory.getLogger(Authenticator.class);
+    private static final int MAX_CACHE_ENTRIES = 100_000;
+    
+    public enum Result {
+        ACCEPTED,
+        REJECTED,
+        BUSY
+    }
+    
+    private final CredentialStore store;
+    private final ThreadPoolExecutor pool;
+    private final boolean autoRegister;
+    private final int bcryptRounds;
+    private final long cacheTtlMillis;
+    private final Map<String, CachedVerification> verified = new ConcurrentHashMap<>();
+    private final AtomicLong rejectedForLoad = new AtomicLong();
+    
+    private static class CachedVerification {
+        final byte[] digest;
+        final long expiresAt;
+        
+        CachedVerification(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    public Authenticator(CredentialStore store, int threads, int queueCapacity,
+                         boolean autoRegister, int bcryptRounds, long cacheTtlMillis) {
+        this.store = store;
+        this.autoRegister = autoRegister;
+        this.bcryptRounds = bcryptRounds;
+        this.cacheTtlMillis = cacheTtlMillis;
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private int count;
+            
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "auth-" + count++);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory, new ThreadPoolExecutor.AbortPolicy());
+    }
+    
+    /**
+     * Verifies (or, with auto-registration, claims) a username; never blocks the caller
+     */
+    public CompletableFuture<Result> authenticate(String username, String password) {
+        if (username == null || username.isBlank() || password == null || password.isEmpty()) {
+            return CompletableFuture.completedFuture(Result.REJECTED);
+        }
+        
+        byte[] digest = sha256(username, password);
+        CachedVerification cached = verified.get(username);
+        if (cached != null && cached.expiresAt > System.currentTimeMillis()
+                && MessageDigest.isEqual(cached.digest, digest)) {
+            return CompletableFuture.completedFuture(Result.ACCEPTED);
+        }
+        
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        try {
+            pool.execute(() -> {
+                try {
+                    Result outcome = verify(username, password);
+                    if (outcome == Result.ACCEPTED) {
+                        remember(username, digest);
+                    }
+                    result.complete(outcome);
+                } catch (RuntimeException e) {
+                    logger.error("Error verifying credentials for {}", username, e);
+                    result.complete(Result.REJECTED);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedForLoad.incrementAndGet();
+            result.complete(Result.BUSY);
+        }
+        return result;
+    }
+    
+    private Result verify(String username, String password) {
+        String hash = store.getHash(username);
+        if (hash == null) {
+            if (!autoRegister) {
+                return Result.REJECTED;
+            }
+            // First login claims the name
+            if (store.register(username, BCrypt.hashpw(password, BCrypt.gensalt(bcryptRounds)))) {
+                logger.info("Registered new user {}", username);
+                return Result.ACCEPTED;
+            }
+            hash = store.getHash(username);  // lost a registration race; verify against the winner
+        }
+        return BCrypt.checkpw(password, hash) ? Result.ACCEPTED : Result.REJECTED;
+    }
+    
+    private void remember(String username, byte[] digest) {
+        if (cacheTtlMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (verified.size() >= MAX_CACHE_ENTRIES) {
+            verified.values().removeIf(entry -> entry.expiresAt <= now);
+        }
+        verified.put(username, new CachedVerification(digest, now + cacheTtlMillis));
+    }
+    
+    private static byte[] sha256(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) 0);
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * True if the name has credentials, i.e. belongs to a real account
+     */
+    public boolean isRegistered(String username) {
+        return store.getHash(username) != null;
+    }
+    
+    public int getQueueDepth() {
+        return pool.getQueue().size();
+    }
+    
+    public long getRejectedForLoad() {
+        return rejectedForLoad.get();
+    }
+    
+    public void shutdown() {
+        pool.shutdown();
+    }
+}
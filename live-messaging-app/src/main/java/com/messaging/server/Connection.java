@@ -0,0 +1,40 @@
+package com.messaging.server;
+
+/**
+ * Outbound side of a logged-in client as seen by the routing code
+ */
+public interface Connection {
+    
+    String getUsername();
+    
+    /**
+     * Writes one serialized frame to the client; called from the owning shard's worker
+     */
+    void sendMessage(String json);
+    
+    /**
+     * Pushes out frames buffered by sendMessage; called once per drained batch
+     */
+    default void flush() {
+    }
+    
+    /**
+     * True while earlier output is still being written out; the registry then holds
+     * further frames in the connection's lanes until the writable listener runs
+     */
+    default boolean isBacklogged() {
+        return false;
+    }
+    
+    /**
+     * Sets what to run, on any thread, once a reported backlog has been taken up or the connection closed
+     */
+    default void setWritableListener(Runnable listener) {
+    }
+    
+    /**
+     * Drops the client, e.g. because it stopped reading; called from the owning shard's worker
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,100 @@
+package com.messaging.server;
+
+import com.messaging.util.DataStrings;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Numbers the messages of each conversation 1, 2, 3... so a client can order a room
+ * and notice gaps in it without reference to the server-wide sequence. Each conversation
+ * is numbered only by the routing task that owns it, so numbers within one conversation
+ * are handed out in routing order while different conversations proceed independently.
+ * Only the most recently active conversations keep a counter; once one has been forgotten,
+ * a conversation without a counter continues above every number forgotten so far, so its
+ * numbers may jump but never repeat.
+ */
+public class ConversationSequencer {
+    private final Map<String, Long> counters;
+    private long floor;  // highest number of any forgotten counter
+    private long lastSequence;  // server-wide sequence the restored counters cover
+    
+    public ConversationSequencer(int maxConversations) {
+        this.counters = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= maxConversations) {
+                    return false;
+                }
+                floor = Math.max(floor, eldest.getValue());
+                return true;
+            }
+        };
+    }
+    
+    /**
+     * The next number in a conversation; callers number one conversation from one thread at a time
+     */
+    public synchronized long next(String conversation) {
+        return counters.merge(conversation, floor + 1, (last, start) -> last + 1);
+    }
+    
+    /**
+     * Re-applies a logged message at startup; messages logged before numbering existed count as one more
+     */
+    public synchronized void record(String conversation, long conversationSequence) {
+        if (conversationSequence > 0) {
+            counters.merge(conversation, conversationSequence, Math::max);
+        } else {
+            counters.merge(conversation, floor + 1, (last, start) -> last + 1);
+        }
+    }
+    
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    
+    public synchronized int getConversationCount() {
+        return counters.size();
+    }
+    
+    /**
+     * Writes the counters, which cover at least every message up to the given server-wide
+     * sequence; numbers handed out meanwhile are harmless, as replay only ever raises them
+     */
+    public void writeSnapshot(DataOutput out, long throughSequence) throws IOException {
+        Map<String, Long> copy;
+        long forgotten;
+        synchronized (this) {
+            copy = new LinkedHashMap<>(counters);
+            forgotten = floor;
+        }
+        out.writeLong(throughSequence);
+        out.writeLong(forgotten);
+        out.writeInt(copy.size());
+        for (Map.Entry<String, Long> entry : copy.entrySet()) {
+            DataStrings.write(out, entry.getKey());
+            out.writeLong(entry.getValue());
+        }
+    }
+    
+    public synchronized void clear() {
+        counters.clear();
+        floor = 0;
+        lastSequence = 0;
+    }
+    
+    public synchronized void readSnapshot(DataInput in) throws IOException {
+        clear();
+        long through = in.readLong();
+        floor = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            counters.put(DataStrings.read(in), in.readLong());
+        }
+        lastSequence = through;
+    }
+}
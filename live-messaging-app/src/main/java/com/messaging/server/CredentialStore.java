@@ -0,0 +1,113 @@
+package com.messaging.server;
+
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Username to bcrypt hash mapping, optionally persisted as a properties file. Run on its
+ * own it registers a user in a file, for servers that do not let logins register names.
+ *
+ * Usage: CredentialStore users-file username [bcrypt rounds]
+ */
+public class CredentialStore {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialStore.class);
+    
+    private final Map<String, String> hashes = new ConcurrentHashMap<>();
+    private final Path file;
+    
+    /**
+     * In-memory store, lost on restart
+     */
+    public CredentialStore() {
+        this.file = null;
+    }
+    
+    /**
+     * Store backed by the given file, loaded now and rewritten on every change
+     */
+    public CredentialStore(Path file) throws IOException {
+        this.file = file;
+        if (Files.exists(file)) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            for (String username : properties.stringPropertyNames()) {
+                hashes.put(username, properties.getProperty(username));
+            }
+            logger.info("Loaded {} credential(s) from {}", hashes.size(), file);
+        }
+    }
+    
+    public String getHash(String username) {
+        return hashes.get(username);
+    }
+    
+    /**
+     * Registers a user if the name is free; returns false if it was already taken
+     */
+    public boolean register(String username, String hash) {
+        if (hashes.putIfAbsent(username, hash) != null) {
+            return false;
+        }
+        save();
+        return true;
+    }
+    
+    public int size() {
+        return hashes.size();
+    }
+    
+    private synchronized void save() {
+        if (file == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.putAll(hashes);
+        try {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                properties.store(writer, "Live Messaging credentials (bcrypt)");
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Could not save credentials to {}", file, e);
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: CredentialStore users-file username [bcrypt rounds]");
+            System.exit(2);
+        }
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        CredentialStore store = new CredentialStore(Path.of(args[0]));
+        String password;
+        Console console = System.console();
+        if (console != null) {
+            char[] typed = console.readPassword("Password for %s: ", args[1]);
+            password = typed != null ? new String(typed) : null;
+        } else {
+            password = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+        }
+        if (password == null || password.isEmpty()) {
+            System.err.println("No password given");
+            System.exit(1);
+        }
+        if (!store.register(args[1], BCrypt.hashpw(password, BCrypt.gensalt(rounds)))) {
+            System.err.println(args[1] + " is already registered in " + args[0]);
+            System.exit(1);
+        }
+        System.out.println("Registered " + args[1] + " in " + args[0]);
+    }
+}
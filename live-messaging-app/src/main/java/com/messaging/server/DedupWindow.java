@@ -0,0 +1,122 @@
+package com.messaging.server;
+
+import com.messaging.util.DataStrings;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The last few message ids routed for each sender, so a chat message a client
+ * resends after a lost acknowledgement is recognised instead of delivered twice.
+ * Senders not heard from in a while are evicted first once the window is full.
+ */
+public class DedupWindow {
+    private final int perSender;
+    private final Map<String, Recent> senders;
+    private long lastSequence;
+    
+    private static class Recent {
+        final String[] ids;
+        final long[] sequences;
+        int next;
+        
+        Recent(int capacity) {
+            this.ids = new String[capacity];
+            this.sequences = new long[capacity];
+        }
+        
+        void add(String id, long sequence) {
+            ids[next] = id;
+            sequences[next] = sequence;
+            next = (next + 1) % ids.length;
+        }
+    }
+    
+    public DedupWindow(int perSender, int maxSenders) {
+        this.perSender = Math.max(1, perSender);
+        this.senders = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Recent> eldest) {
+                return size() > maxSenders;
+            }
+        };
+    }
+    
+    /**
+     * Sequence a message id from this sender was routed under, or 0 if it is new
+     */
+    public synchronized long sequenceOf(String sender, String messageId) {
+        Recent recent = senders.get(sender);
+        if (recent == null || messageId == null) {
+            return 0;
+        }
+        for (int i = 0; i < recent.ids.length; i++) {
+            if (messageId.equals(recent.ids[i])) {
+                return recent.sequences[i];
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * Remembers a routed message; sequences at or below the last one recorded are ignored
+     */
+    public synchronized void record(String sender, String messageId, long sequence) {
+        if (sequence <= lastSequence) {
+            return;
+        }
+        lastSequence = sequence;
+        if (messageId != null) {
+            senders.computeIfAbsent(sender, s -> new Recent(perSender)).add(messageId, sequence);
+        }
+    }
+    
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    
+    public synchronized void writeSnapshot(DataOutput out) throws IOException {
+        out.writeLong(lastSequence);
+        out.writeInt(senders.size());
+        for (Map.Entry<String, Recent> entry : senders.entrySet()) {
+            Recent recent = entry.getValue();
+            DataStrings.write(out, entry.getKey());
+            int count = 0;
+            for (String id : recent.ids) {
+                count += id != null ? 1 : 0;
+            }
+            out.writeInt(count);
+            // Oldest first, so reading them back in order restores the ring
+            for (int i = 0; i < recent.ids.length; i++) {
+                int index = (recent.next + i) % recent.ids.length;
+                if (recent.ids[index] != null) {
+                    DataStrings.write(out, recent.ids[index]);
+                    out.writeLong(recent.sequences[index]);
+                }
+            }
+        }
+    }
+    
+    public synchronized void clear() {
+        senders.clear();
+        lastSequence = 0;
+    }
+    
+    public synchronized void readSnapshot(DataInput in) throws IOException {
+        clear();
+        lastSequence = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            Recent recent = new Recent(perSender);
+            String sender = DataStrings.read(in);
+            int ids = in.readInt();
+            for (int j = 0; j < ids; j++) {
+                recent.add(DataStrings.read(in), in.readLong());
+            }
+            senders.put(sender, recent);
+        }
+    }
+}
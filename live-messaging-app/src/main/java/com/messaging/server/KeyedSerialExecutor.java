@@ -0,0 +1,124 @@
+package com.messaging.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one at a time per key, in submission order, while tasks for different keys
+ * run in parallel on a fixed set of threads. A key costs nothing once its tasks are done.
+ * A busy key gives up its thread after a batch so it cannot starve the others. Submitters
+ * block while too many tasks are pending, which pushes back on the reading threads, and
+ * through them on TCP, instead of letting the queues grow without bound.
+ */
+public class KeyedSerialExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(KeyedSerialExecutor.class);
+    static final int BATCH = 64;
+    
+    private final ExecutorService workers;
+    private final ConcurrentHashMap<String, Queue> queues = new ConcurrentHashMap<>();
+    private final Semaphore capacity;
+    private final int maxPending;
+    
+    /**
+     * Tasks waiting for one key. Only touched inside the map's compute for that key, which
+     * serializes submitters with the worker taking tasks off it.
+     */
+    private class Queue implements Runnable {
+        final String key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        
+        Queue(String key) {
+            this.key = key;
+        }
+        
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task = take(key);
+                if (task == null) {
+                    return;  // drained; the queue is gone and the next submit starts a new one
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Task for {} failed", key, e);
+                } finally {
+                    capacity.release();
+                }
+            }
+            workers.execute(this);  // more queued: go to the back so other keys get a turn
+        }
+    }
+    
+    public KeyedSerialExecutor(String name, int threads, int maxPending) {
+        AtomicInteger index = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-" + index.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPending = maxPending;
+        this.capacity = new Semaphore(maxPending);
+    }
+    
+    /**
+     * Queues a task behind any still pending for the same key, waiting for room if the executor is full
+     */
+    public void execute(String key, Runnable task) {
+        capacity.acquireUninterruptibly();
+        Queue[] started = new Queue[1];
+        queues.compute(key, (k, queue) -> {
+            if (queue == null) {
+                queue = new Queue(k);
+                started[0] = queue;
+            }
+            queue.tasks.add(task);
+            return queue;
+        });
+        if (started[0] != null) {
+            workers.execute(started[0]);
+        }
+    }
+    
+    private Runnable take(String key) {
+        Runnable[] next = new Runnable[1];
+        queues.computeIfPresent(key, (k, queue) -> {
+            next[0] = queue.tasks.poll();
+            return next[0] != null ? queue : null;
+        });
+        return next[0];
+    }
+    
+    /**
+     * Tasks submitted and not yet finished
+     */
+    public int getPending() {
+        return maxPending - capacity.availablePermits();
+    }
+    
+    /**
+     * Keys with tasks pending
+     */
+    public int getActiveKeys() {
+        return queues.size();
+    }
+    
+    /**
+     * Finishes what is queued, up to the timeout, and stops the threads
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getPending() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        workers.shutdown();
+    }
+}
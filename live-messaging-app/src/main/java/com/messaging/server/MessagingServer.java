@@ -1,21 +1,39 @@
 package com.messaging.server;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.messaging.cluster.ClusterBus;
+import com.messaging.cluster.ClusterEnvelope;
+import com.messaging.cluster.ClusterListener;
+import com.messaging.cluster.TcpClusterBus;
 import com.messaging.model.Message;
 import com.messaging.model.User;
-import com.messaging.util.LocalDateTimeAdapter;
+import com.messaging.search.SearchIndex;
+import com.messaging.store.LogCompactor;
+import com.messaging.store.MessageLog;
+import com.messaging.store.RetentionPolicies;
+import com.messaging.store.RetentionPolicy;
+import com.messaging.store.SnapshotStore;
+import com.messaging.store.TrafficCapture;
+import com.messaging.transport.Channel;
+import com.messaging.transport.ChannelHandler;
+import com.messaging.transport.Frame;
+import com.messaging.transport.TcpTransport;
+import com.messaging.transport.Transport;
+import com.messaging.util.CoarseClock;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.time.LocalDateTime;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Multi-threaded messaging server handling multiple client connections
@@ -24,108 +42,793 @@ public class MessagingServer {
     private static final Logger logger = LoggerFactory.getLogger(MessagingServer.class);
     private static final int DEFAULT_PORT = 5000;
     private static final int THREAD_POOL_SIZE = 100;
+    private static final long RESUME_GRACE_MS = Long.getLong("server.resumeGraceMs", 30_000);
+    private static final int REPLAY_BUFFER_SIZE = Integer.getInteger("server.replayBufferSize", 10_000);
+    private static final int SHARD_COUNT = Integer.getInteger("server.shards", Runtime.getRuntime().availableProcessors());
+    private static final int AUTH_THREADS = Integer.getInteger("auth.threads",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int AUTH_QUEUE_CAPACITY = Integer.getInteger("auth.queueCapacity", 256);
+    private static final int BCRYPT_ROUNDS = Integer.getInteger("auth.bcryptRounds", 10);
+    private static final long AUTH_CACHE_TTL_MS = Long.getLong("auth.cacheTtlMs", 5 * 60_000);
+    private static final boolean AUTO_REGISTER = Boolean.parseBoolean(System.getProperty("auth.autoRegister", "false"));
+    private static final String USERS_FILE = System.getProperty("server.usersFile", "users.properties");
+    private static final long OVERLOAD_SAMPLE_MS = Long.getLong("overload.sampleMs", 250);
+    private static final String STORE_DIR = System.getProperty("store.dir", "data/log");
+    private static final long SEGMENT_BYTES = Long.getLong("store.segmentBytes", 64L << 20);
+    private static final int STORE_QUEUE_CAPACITY = Integer.getInteger("store.queueCapacity", 100_000);
+    private static final int SEARCH_MAX_RESULTS = Integer.getInteger("search.maxResults", 50);
+    private static final int SEARCH_PAGE_CHARS = 256 << 10;  // hits per reply frame, well inside a client's frame limit
+    private static final String COLD_STORE_DIR = System.getProperty("store.coldDir", STORE_DIR);
+    private static final int HOT_SEGMENTS = Integer.getInteger("store.hotSegments", 2);
+    private static final long COMPACT_BYTES_PER_SEC = Long.getLong("store.compactBytesPerSec", 4L << 20);
+    private static final long COMPACT_INTERVAL_MS = Long.getLong("store.compactIntervalMs", 60_000);
+    private static final String RETENTION_FILE = System.getProperty("retention.file", "retention.conf");
+    private static final String SNAPSHOT_DIR = System.getProperty("snapshot.dir", "data/snapshot");
+    private static final long SNAPSHOT_INTERVAL_MS = Long.getLong("snapshot.intervalMs", 5 * 60_000);
+    private static final int DEDUP_PER_SENDER = Integer.getInteger("dedup.perSender", 64);
+    private static final int DEDUP_MAX_SENDERS = Integer.getInteger("dedup.maxSenders", 100_000);
+    private static final int INBOX_MAX_MESSAGES = Integer.getInteger("inbox.maxMessages", 500);
+    private static final int HISTORY_MAX_REPLAY = Integer.getInteger("history.maxReplay", 1000);
+    private static final long RECEIPT_FLUSH_MS = Long.getLong("receipts.flushMs", 500);
+    private static final int RECEIPT_MAX_CONVERSATIONS = Integer.getInteger("receipts.maxConversations", 100_000);
+    private static final int SEQUENCER_MAX_CONVERSATIONS = Integer.getInteger("sequencer.maxConversations", 100_000);
+    private static final int MAX_FRAME_BYTES = Integer.getInteger("server.maxFrameBytes", 1 << 20);
+    private static final int MAX_USERNAME_LENGTH = Integer.getInteger("server.maxUsernameLength", 64);
+    private static final int MAX_GROUP_MEMBERS = Integer.getInteger("server.maxGroupMembers", 256);
+    private static final int MAX_MESSAGE_ID_LENGTH = Integer.getInteger("server.maxMessageIdLength", 64);
+    private static final int WRITE_TIMEOUT_MS = Integer.getInteger("server.writeTimeoutMs", 10_000);
+    private static final int ROUTING_THREADS = Integer.getInteger("server.routingThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int ROUTING_QUEUE_CAPACITY = Integer.getInteger("server.routingQueueCapacity", 10_000);
+    private static final long DRAIN_TIMEOUT_MS = Long.getLong("drain.timeoutMs", 10_000);
+    private static final long DRAIN_RECONNECT_WINDOW_MS = Long.getLong("drain.reconnectWindowMs", 5_000);
+    private static final boolean TLS_ENABLED = Boolean.getBoolean("tls.enabled");
+    private static final String TLS_KEY_STORE = System.getProperty("tls.keyStore", "tls/server.p12");
+    private static final String TLS_KEY_STORE_PASSWORD = System.getProperty("tls.keyStorePassword", "changeit");
+    private static final String[] TLS_PROTOCOLS = System.getProperty("tls.protocols", "TLSv1.3").split(",");
+    private static final int TLS_HANDSHAKE_TIMEOUT_MS = Integer.getInteger("tls.handshakeTimeoutMs", 10_000);
+    private static final int TLS_SESSION_CACHE_SIZE = Integer.getInteger("tls.sessionCacheSize", 20_000);
+    private static final int TLS_SESSION_TIMEOUT_SEC = Integer.getInteger("tls.sessionTimeoutSec", 24 * 3600);
+    private static final String CAPTURE_FILE = System.getProperty("capture.file");
+    private static final int CAPTURE_QUEUE_CAPACITY = Integer.getInteger("capture.queueCapacity", 65_536);
     
-    private final int port;
-    private ServerSocket serverSocket;
-    private final ExecutorService threadPool;
-    private final Map<String, ClientHandler> connectedClients;
-    private final Map<String, User> users;
+    private final Transport transport;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledExecutorService snapshotter;
+    private final ShardedConnectionRegistry connectedClients;
+    private final PresenceTable presence;
+    private final ReceiptAggregator receipts = new ReceiptAggregator(RECEIPT_MAX_CONVERSATIONS);
+    private final SessionRegistry sessions;
+    private final ReplayBuffer replayBuffer;
+    private final KeyedSerialExecutor router = new KeyedSerialExecutor("router", ROUTING_THREADS, ROUTING_QUEUE_CAPACITY);
+    private final ConversationSequencer conversations = new ConversationSequencer(SEQUENCER_MAX_CONVERSATIONS);
+    private final Object routingLock = new Object();
+    private long lastSequence;  // guarded by routingLock
+    private final SequencedDelivery delivery = new SequencedDelivery();
+    private final ClusterBus clusterBus;
+    private final Authenticator authenticator;
+    private final OverloadController overload;
+    private final AtomicBoolean userListStale = new AtomicBoolean();  // a refresh was shed
+    private final MessageLog messageLog;  // null if history could not be opened
+    private final LogCompactor logCompactor;  // null without a message log
+    private final SnapshotStore snapshotStore;  // null without a message log
+    private final TrafficCapture capture;  // null unless capture.file is set
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final DedupWindow dedupWindow = new DedupWindow(DEDUP_PER_SENDER, DEDUP_MAX_SENDERS);
+    private final OfflineInbox offlineInbox = new OfflineInbox(INBOX_MAX_MESSAGES);
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final Map<String, String> remoteUsers;  // username -> node id, for users on other nodes
     private final Gson gson;
-    private boolean running;
+    private volatile boolean draining;  // stopping: no more logins, clients are being sent away
     
     public MessagingServer(int port) {
-        this.port = port;
-        this.threadPool = Executors.newFixedThreadPool(THREAD_POOL_SIZE);
-        this.connectedClients = new ConcurrentHashMap<>();
-        this.users = new ConcurrentHashMap<>();
-        this.gson = new GsonBuilder()
-                .registerTypeAdapter(LocalDateTime.class, new LocalDateTimeAdapter())
-                .create();
-        this.running = false;
+        this(port, null);
     }
     
+    /**
+     * Creates a server that joins a cluster through the given bus (null for standalone)
+     */
+    public MessagingServer(int port, ClusterBus clusterBus) {
+        this(port, clusterBus, createAuthenticator());
+    }
+    
+    public MessagingServer(int port, ClusterBus clusterBus, Authenticator authenticator) {
+        this(createTransport(port), clusterBus, authenticator);
+    }
+    
+    /**
+     * Creates a server that takes its connections from any transport, e.g. in-memory pipes
+     */
+    public MessagingServer(Transport transport, ClusterBus clusterBus, Authenticator authenticator) {
+        this.transport = transport;
+        this.clusterBus = clusterBus;
+        this.authenticator = authenticator;
+        this.remoteUsers = new ConcurrentHashMap<>();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "server-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connectedClients = new ShardedConnectionRegistry(SHARD_COUNT);
+        this.presence = new PresenceTable();
+        this.sessions = new SessionRegistry(scheduler, RESUME_GRACE_MS);
+        this.replayBuffer = new ReplayBuffer(REPLAY_BUFFER_SIZE);
+        this.messageLog = openMessageLog();
+        this.overload = new OverloadController(connectedClients, authenticator, transport::getBacklog,
+                AUTH_QUEUE_CAPACITY * 3 / 4, this::onOverloadLevelChange);
+        this.logCompactor = messageLog != null ? createLogCompactor(messageLog, overload) : null;
+        this.snapshotStore = messageLog != null ? openSnapshotStore() : null;
+        this.capture = CAPTURE_FILE != null ? openCapture() : null;
+        this.gson = new Gson();
+    }
+    
+    private static Transport createTransport(int port) {
+        if (!TLS_ENABLED) {
+            return new TcpTransport(port, THREAD_POOL_SIZE, MAX_FRAME_BYTES, WRITE_TIMEOUT_MS);
+        }
+        return new TcpTransport(port, THREAD_POOL_SIZE, MAX_FRAME_BYTES, WRITE_TIMEOUT_MS, Paths.get(TLS_KEY_STORE),
+                TLS_KEY_STORE_PASSWORD.toCharArray(), TLS_PROTOCOLS, TLS_HANDSHAKE_TIMEOUT_MS,
+                TLS_SESSION_CACHE_SIZE, TLS_SESSION_TIMEOUT_SEC);
+    }
+    
+    private static Authenticator createAuthenticator() {
+        CredentialStore store;
+        try {
+            store = new CredentialStore(Paths.get(USERS_FILE));
+        } catch (IOException e) {
+            logger.error("Could not load {}, credentials will not be persisted", USERS_FILE, e);
+            store = new CredentialStore();
+        }
+        return new Authenticator(store, AUTH_THREADS, AUTH_QUEUE_CAPACITY,
+                AUTO_REGISTER, BCRYPT_ROUNDS, AUTH_CACHE_TTL_MS);
+    }
+    
+    private static MessageLog openMessageLog() {
+        try {
+            return new MessageLog(Paths.get(STORE_DIR), Paths.get(COLD_STORE_DIR), SEGMENT_BYTES, STORE_QUEUE_CAPACITY);
+        } catch (IOException e) {
+            logger.error("Could not open message log in {}, history and search are disabled", STORE_DIR, e);
+            return null;
+        }
+    }
+    
+    private static TrafficCapture openCapture() {
+        try {
+            return TrafficCapture.open(Paths.get(CAPTURE_FILE), CAPTURE_QUEUE_CAPACITY);
+        } catch (IOException e) {
+            logger.error("Could not open traffic capture {}, traffic is not captured", CAPTURE_FILE, e);
+            return null;
+        }
+    }
+    
+    private static LogCompactor createLogCompactor(MessageLog log, OverloadController overload) {
+        RetentionPolicies policies;
+        try {
+            policies = RetentionPolicies.load(Paths.get(RETENTION_FILE));
+        } catch (IOException e) {
+            logger.error("Could not read {}, only the retention.* properties apply", RETENTION_FILE, e);
+            policies = new RetentionPolicies(RetentionPolicy.UNLIMITED);
+        }
+        // Compaction waits whenever the server is shedding load
+        return new LogCompactor(log, policies, SearchIndex::scopeOf,
+                () -> overload.getLevel() != OverloadController.Level.NORMAL,
+                HOT_SEGMENTS, COMPACT_BYTES_PER_SEC, COMPACT_INTERVAL_MS);
+    }
+    
+    private static SnapshotStore openSnapshotStore() {
+        try {
+            return new SnapshotStore(Paths.get(SNAPSHOT_DIR));
+        } catch (IOException e) {
+            logger.error("Could not open snapshot directory {}, restarts will replay the whole log", SNAPSHOT_DIR, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Restores state from the newest snapshot, then replays the log from the oldest
+     * point any component still needs, and continues sequencing after the last message
+     */
+    private void recoverHistory() {
+        if (messageLog == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        long snapshotSequence = restoreSnapshot();
+        boolean inboxRestored = snapshotSequence > 0;
+        long replayFrom = Math.min(Math.min(searchIndex.getLastSequence(), logCompactor.getLastSequence()),
+                Math.min(dedupWindow.getLastSequence(), conversations.getLastSequence()));
+        if (inboxRestored) {
+            replayFrom = Math.min(replayFrom, offlineInbox.getLastSequence());
+        }
+        long[] replayed = new long[1];
+        try {
+            messageLog.replay(replayFrom, (sequence, json) -> {
+                Message message = gson.fromJson(json, Message.class);
+                searchIndex.index(message);
+                logCompactor.record(message, json);
+                dedupWindow.record(message.getSender(), message.getMessageId(), sequence);
+                if (sequence > conversations.getLastSequence()) {
+                    conversations.record(message.getConversationId(), message.getConversationSequence());
+                }
+                synchronized (routingLock) {
+                    if (sequence > replayBuffer.getLastSequence()) {
+                        replayBuffer.add(message, json);
+                    }
+                }
+                if (inboxRestored) {
+                    // Who was online after the snapshot is not known; assume nobody new came or went
+                    List<String> offline = new ArrayList<>();
+                    for (String recipient : recipientsOf(message)) {
+                        if (!offlineInbox.wasOnlineAtSnapshot(recipient) && authenticator.isRegistered(recipient)) {
+                            offline.add(recipient);
+                        }
+                    }
+                    offlineInbox.record(sequence, offline);
+                }
+                replayed[0]++;
+            });
+        } catch (IOException e) {
+            logger.error("Error reading message log, search covers only part of the history", e);
+        }
+        synchronized (routingLock) {
+            lastSequence = Math.max(lastSequence, Math.max(snapshotSequence, messageLog.getLastSequence()));
+            offlineInbox.record(lastSequence, Collections.emptyList());
+            replayBuffer.skipTo(lastSequence);
+            delivery.skipTo(lastSequence);
+        }
+        messageLog.addListener(searchIndex);
+        messageLog.addListener(logCompactor);
+        logCompactor.addRetentionListener(searchIndex);
+        messageLog.start();
+        logCompactor.start();
+        if (snapshotStore != null && SNAPSHOT_INTERVAL_MS > 0) {
+            snapshotter.scheduleWithFixedDelay(this::takeSnapshot, SNAPSHOT_INTERVAL_MS, SNAPSHOT_INTERVAL_MS,
+                    TimeUnit.MILLISECONDS);
+        }
+        logger.info("Recovered history in {} ms: snapshot at {}, replayed {} message(s) after {}; {} indexed, {} term(s)",
+                (System.nanoTime() - started) / 1_000_000, snapshotSequence, replayed[0], replayFrom,
+                searchIndex.getIndexedMessages(), searchIndex.getTermCount());
+    }
+    
+    /**
+     * Loads the newest snapshot into the index, retention ledger, dedup window, offline
+     * inboxes, conversation counters and replay buffer; returns the sequence it was taken at,
+     * or 0 if there was none
+     */
+    private long restoreSnapshot() {
+        if (snapshotStore == null) {
+            return 0;
+        }
+        try {
+            SnapshotStore.Snapshot snapshot = snapshotStore.readLatest();
+            if (snapshot == null) {
+                return 0;
+            }
+            DataInputStream section;
+            if ((section = snapshot.section("search")) != null) {
+                searchIndex.readSnapshot(section);
+            }
+            if ((section = snapshot.section("retention")) != null) {
+                logCompactor.readSnapshot(section);
+            }
+            if ((section = snapshot.section("dedup")) != null) {
+                dedupWindow.readSnapshot(section);
+            }
+            if ((section = snapshot.section("inbox")) != null) {
+                offlineInbox.readSnapshot(section);
+            }
+            if ((section = snapshot.section("conversations")) != null) {
+                conversations.readSnapshot(section);
+            }
+            if ((section = snapshot.section("replay")) != null) {
+                synchronized (routingLock) {
+                    replayBuffer.readSnapshot(section, gson);
+                }
+            }
+            return snapshot.getSequence();
+        } catch (IOException e) {
+            // Partially restored components are simply rebuilt by a full replay
+            logger.error("Could not restore snapshot, replaying the whole log", e);
+            searchIndex.clear();
+            logCompactor.clear();
+            dedupWindow.clear();
+            offlineInbox.clear();
+            conversations.clear();
+            synchronized (routingLock) {
+                replayBuffer.clear();
+            }
+            return 0;
+        }
+    }
+    
+    private interface SectionWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+    
+    private static byte[] section(SectionWriter writer) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        }
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * Writes every recoverable component to a new snapshot. Each records the last
+     * sequence it had applied, so components captured a few messages apart still
+     * recover exactly by replaying the log from the oldest of them.
+     */
+    private void takeSnapshot() {
+        long started = System.nanoTime();
+        try {
+            long sequence;
+            ReplayBuffer recent;
+            synchronized (routingLock) {
+                sequence = lastSequence;
+                recent = replayBuffer.copy();
+            }
+            Map<String, byte[]> sections = new LinkedHashMap<>();
+            sections.put("search", section(searchIndex::writeSnapshot));
+            sections.put("retention", section(logCompactor::writeSnapshot));
+            sections.put("dedup", section(dedupWindow::writeSnapshot));
+            sections.put("inbox", section(out -> offlineInbox.writeSnapshot(out, connectedClients.usernames())));
+            sections.put("conversations", section(out -> conversations.writeSnapshot(out, sequence)));
+            sections.put("replay", section(recent::writeSnapshot));
+            Path path = snapshotStore.write(sequence, sections);
+            long bytes = sections.values().stream().mapToLong(b -> b.length).sum();
+            logger.info("Wrote snapshot {} ({} KB) in {} ms", path.getFileName(), bytes >> 10,
+                    (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not write snapshot", e);
+        }
+    }
+    
+    /**
+     * Recovers history and starts taking connections; returns once the transport is listening
+     */
     public void start() {
         try {
-            serverSocket = new ServerSocket(port);
-            running = true;
-            logger.info("🚀 Messaging Server started on port {}", port);
+            recoverHistory();
+            transport.start(this::acceptConnection);
+            if (clusterBus != null) {
+                clusterBus.start(new ClusterHandler());
+            }
+            scheduler.scheduleAtFixedRate(this::sampleOverload, OVERLOAD_SAMPLE_MS, OVERLOAD_SAMPLE_MS,
+                    TimeUnit.MILLISECONDS);
+            scheduler.scheduleAtFixedRate(this::flushReceipts, RECEIPT_FLUSH_MS, RECEIPT_FLUSH_MS,
+                    TimeUnit.MILLISECONDS);
+            logger.info("🚀 Messaging Server started on {}", transport);
             System.out.println("╔═══════════════════════════════════════╗");
             System.out.println("║    LIVE MESSAGING SERVER STARTED     ║");
-            System.out.println("║    Port: " + port + "                          ║");
+            System.out.println("║    On: " + transport + "                          ║");
             System.out.println("╚═══════════════════════════════════════╝");
             
-            acceptConnections();
-            
         } catch (IOException e) {
             logger.error("Failed to start server", e);
-            System.err.println("Error: Could not start server on port " + port);
+            System.err.println("Error: Could not start server on " + transport);
         }
     }
     
-    private void acceptConnections() {
-        while (running) {
-            try {
-                Socket clientSocket = serverSocket.accept();
-                logger.info("New connection from {}", clientSocket.getInetAddress());
-                
-                ClientHandler clientHandler = new ClientHandler(clientSocket);
-                threadPool.execute(clientHandler);
-                
-            } catch (IOException e) {
-                if (running) {
-                    logger.error("Error accepting connection", e);
-                }
-            }
+    /**
+     * Takes a new connection, or turns it away with a retryable busy notice before it costs
+     * a handler thread
+     */
+    private ChannelHandler acceptConnection(Channel channel) {
+        if (!overload.admitConnection()) {
+            logger.debug("Refusing connection from {} under overload", channel.getRemoteAddress());
+            channel.refuse(gson.toJson(new Message(Message.MessageType.SYSTEM, "SERVER",
+                    "Server is busy, please try again shortly")));
+            return null;
+        }
+        logger.info("New connection from {}", channel.getRemoteAddress());
+        return new ClientHandler(channel);
+    }
+    
+    private void sampleOverload() {
+        try {
+            overload.sample();
+        } catch (RuntimeException e) {
+            logger.error("Overload sampling failed", e);
         }
     }
     
+    private void onOverloadLevelChange(OverloadController.Level level) {
+        // List changes shed while overloaded are made good with one full list on the way down
+        if (level.ordinal() < OverloadController.Level.SHED_EPHEMERAL.ordinal() && userListStale.getAndSet(false)) {
+            broadcastUserList();
+        }
+    }
+    
+    public OverloadController getOverloadController() {
+        return overload;
+    }
+    
     public void stop() {
-        running = false;
         try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
+            transport.close();
+            drainConnections();
+            if (clusterBus != null) {
+                clusterBus.close();
+            }
+            router.shutdown(5, TimeUnit.SECONDS);  // messages already read still reach the log
+            authenticator.shutdown();
+            if (capture != null) {
+                capture.close();
+            }
+            if (messageLog != null) {
+                logCompactor.close();
+                messageLog.close();
+                snapshotter.shutdown();
+                snapshotter.awaitTermination(10, TimeUnit.SECONDS);
+                if (snapshotStore != null) {
+                    takeSnapshot();  // the log is fully written now, so a restart replays nothing
+                }
+            }
+            connectedClients.shutdown();
+            scheduler.shutdown();
+            logger.info("Server stopped ({})", overload.metricsSummary());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Sends every client away before the server stops. Each is asked to reconnect after a
+     * random delay within {@code drain.reconnectWindowMs}, so whatever takes over (the restarted
+     * server, or another node behind the same address) is not hit by all of them at once. The
+     * request is queued behind the chat already routed to each client, so nothing routed before
+     * it is lost. Then waits, up to {@code drain.timeoutMs} in all, for the output queues to be
+     * written and the clients to leave; anyone still connected is dropped. Sessions are held
+     * as for any dropped connection, so nobody is announced as having left.
+     */
+    private void drainConnections() throws InterruptedException {
+        draining = true;
+        int connections = connectedClients.size();
+        if (connections == 0) {
+            return;
+        }
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+        logger.info("Draining {} connection(s), reconnect window {} ms", connections, DRAIN_RECONNECT_WINDOW_MS);
+        connectedClients.broadcast(OutboundLanes.Lane.CHAT, null, gson.toJson(new Message(
+            Message.MessageType.RECONNECT,
+            "SERVER",
+            Long.toString(DRAIN_RECONNECT_WINDOW_MS)
+        )));
+        boolean flushed = connectedClients.awaitDrained(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        while (connectedClients.size() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        List<String> remaining = connectedClients.usernames();
+        for (String user : remaining) {
+            Connection connection = connectedClients.get(user);
+            if (connection instanceof ClientHandler) {
+                ((ClientHandler) connection).channel.close();
             }
-            threadPool.shutdown();
-            logger.info("Server stopped");
-        } catch (IOException e) {
-            logger.error("Error stopping server", e);
         }
+        logger.info("Drained in {} ms: {} client(s) left, {} dropped{}",
+                (System.nanoTime() - started) / 1_000_000, connections - remaining.size(), remaining.size(),
+                flushed ? "" : ", not all output was written");
     }
     
     private void broadcastMessage(Message message) {
-        String json = gson.toJson(message);
-        for (ClientHandler client : connectedClients.values()) {
-            client.sendMessage(json);
+        OutboundLanes.Lane lane = OutboundLanes.laneFor(message.getType());
+        // Only the latest typing state per sender, and the latest user list, are worth delivering
+        String key = null;
+        if (message.getType() == Message.MessageType.TYPING) {
+            key = message.getSender();
+        } else if (message.getType() == Message.MessageType.USER_LIST) {
+            key = "USER_LIST";
         }
+        connectedClients.broadcast(lane, key, gson.toJson(message));
         logger.debug("Broadcasted message from {}", message.getSender());
     }
     
-    private void sendPrivateMessage(Message message) {
-        String json = gson.toJson(message);
-        
+    private void deliverToAll(String json) {
+        connectedClients.broadcast(json);
+    }
+    
+    private void deliverPrivate(Message message, String json) {
         // Send to receiver
-        ClientHandler receiver = connectedClients.get(message.getReceiver());
-        if (receiver != null) {
-            receiver.sendMessage(json);
-        }
+        connectedClients.sendTo(message.getReceiver(), json);
         
         // Also send back to sender for confirmation
-        ClientHandler sender = connectedClients.get(message.getSender());
-        if (sender != null) {
-            sender.sendMessage(json);
+        if (!message.getSender().equals(message.getReceiver())) {
+            connectedClients.sendTo(message.getSender(), json);
         }
         
         logger.debug("Private message: {} -> {}", message.getSender(), message.getReceiver());
     }
     
-    private void broadcastUserList() {
-        List<String> usernames = new ArrayList<>(connectedClients.keySet());
-        Message userListMessage = new Message(
+    private void deliverToGroup(Message message, String json) {
+        Set<String> recipients = new LinkedHashSet<>(message.getGroupMembers());
+        recipients.add(message.getSender());
+        for (String member : recipients) {
+            connectedClients.sendTo(member, json);
+        }
+        logger.debug("Group message from {} to {}", message.getSender(), message.getReceiver());
+    }
+    
+    private void routeChatMessage(Message message) {
+        routeChatMessage(message, true);
+    }
+    
+    /**
+     * Hands a chat message to the routing task of its conversation. Messages of one
+     * conversation are routed one at a time in arrival order; different conversations
+     * are routed in parallel.
+     */
+    private void routeChatMessage(Message message, boolean forwardToCluster) {
+        router.execute(message.getConversationId(), () -> routeInConversation(message, forwardToCluster));
+    }
+    
+    /**
+     * Numbers a chat message within its conversation, then sequences it, keeps it for
+     * replay and delivers it to local clients, forwarding locally originated messages to
+     * other nodes. Only the server-wide sequence and the replay buffer are under the routing
+     * lock. A client resumes from the highest sequence it has seen, so each connection must
+     * receive sequences in increasing order: the log, the inboxes and the shard queues are
+     * handed each message in sequence order through {@link SequencedDelivery}.
+     */
+    private void routeInConversation(Message message, boolean forwardToCluster) {
+        // A resend carries the original id, and so belongs to this same conversation task
+        long original = forwardToCluster ? dedupWindow.sequenceOf(message.getSender(), message.getMessageId()) : 0;
+        if (original != 0) {
+            // A resend after a lost acknowledgement: acknowledge again, deliver nothing
+            String frame;
+            synchronized (routingLock) {
+                frame = replayBuffer.frameFor(original);
+            }
+            if (frame == null) {
+                message.setSequence(original);
+                frame = gson.toJson(message);
+            }
+            connectedClients.sendTo(message.getSender(), frame);
+            logger.debug("Duplicate message {} from {}", message.getMessageId(), message.getSender());
+            return;
+        }
+        message.setConversationSequence(conversations.next(message.getConversationId()));
+        long sequence = 0;
+        String json;
+        Runnable handOff = () -> { };
+        try {
+            synchronized (routingLock) {
+                sequence = ++lastSequence;
+                message.setSequence(sequence);
+                json = gson.toJson(message);
+                replayBuffer.add(message, json);
+                dedupWindow.record(message.getSender(), message.getMessageId(), sequence);
+            }
+            long routed = sequence;
+            handOff = () -> {
+                if (messageLog != null) {
+                    messageLog.append(message, json);
+                    offlineInbox.record(routed, offlineRecipients(message));
+                }
+                if (message.isGroup()) {
+                    deliverToGroup(message, json);
+                } else if (message.isPrivate()) {
+                    deliverPrivate(message, json);
+                } else {
+                    deliverToAll(json);
+                    logger.debug("Broadcasted message from {}", message.getSender());
+                }
+            };
+        } finally {
+            if (sequence > 0) {
+                delivery.deliver(sequence, handOff);  // a message that failed still gives up its turn
+            }
+        }
+        
+        if (forwardToCluster && clusterBus != null) {
+            forwardToCluster(message, json);
+        }
+    }
+    
+    /**
+     * Recipients of a private or group message other than the sender
+     */
+    private static List<String> recipientsOf(Message message) {
+        if (!message.isGroup() && !message.isPrivate()) {
+            return Collections.emptyList();
+        }
+        List<String> recipients = new ArrayList<>(message.isGroup()
+                ? message.getGroupMembers()
+                : Collections.singletonList(message.getReceiver()));
+        recipients.remove(message.getSender());
+        return recipients;
+    }
+    
+    /**
+     * Registered recipients not online on any node, whose copy must wait in their inbox
+     */
+    private List<String> offlineRecipients(Message message) {
+        List<String> offline = new ArrayList<>();
+        for (String recipient : recipientsOf(message)) {
+            // A user whose dropped session is still held counts as offline until it resumes
+            if (!connectedClients.contains(recipient) && !remoteUsers.containsKey(recipient)
+                    && authenticator.isRegistered(recipient)) {
+                offline.add(recipient);
+            }
+        }
+        return offline;
+    }
+    
+    /**
+     * Sends a message once to each node hosting at least one of its recipients
+     */
+    private void forwardToCluster(Message message, String json) {
+        ClusterEnvelope envelope = ClusterEnvelope.deliver(clusterBus.getNodeId(), json);
+        if (message.isGroup() || message.isPrivate()) {
+            List<String> recipients = message.isGroup()
+                    ? message.getGroupMembers()
+                    : Collections.singletonList(message.getReceiver());
+            Set<String> nodes = new HashSet<>();
+            for (String recipient : recipients) {
+                String node = remoteUsers.get(recipient);
+                if (node != null) {
+                    nodes.add(node);
+                }
+            }
+            for (String node : nodes) {
+                clusterBus.send(node, envelope);
+            }
+        } else {
+            clusterBus.broadcast(envelope);
+        }
+    }
+    
+    /**
+     * Sends the receipt marks that changed since the last flush, one frame per conversation
+     * to each participant. While shedding load the marks keep merging and go out later.
+     */
+    private void flushReceipts() {
+        if (overload.getLevel().ordinal() >= OverloadController.Level.SHED_EPHEMERAL.ordinal()) {
+            return;
+        }
+        try {
+            for (ReceiptAggregator.Update update : receipts.flush()) {
+                String json = gson.toJson(receiptMessage(update));
+                for (String participant : update.getParticipants()) {
+                    // A mark is only sent again when it rises, so it goes in a lane that never drops
+                    connectedClients.sendTo(participant, OutboundLanes.Lane.CHAT, json);
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Receipt flush failed", e);
+        }
+    }
+    
+    private Message receiptMessage(ReceiptAggregator.Update update) {
+        return new Message(
+            Message.MessageType.STATUS,
+            "SERVER",
+            update.getConversation(),
+            gson.toJson(update.getMarks())
+        );
+    }
+    
+    /**
+     * Sends a participant's marks to the other nodes hosting participants of the conversation.
+     * Each node numbers messages itself, so a mark travels as the sender and id of the message
+     * it stands for, as [[sender, id], [sender, id]] for delivered and read; the receiving node
+     * looks those up in its own numbering.
+     */
+    private void forwardReceipt(String conversation, String username, long delivered, long read) {
+        Set<String> nodes = new HashSet<>();
+        for (String participant : Message.participantsOf(conversation)) {
+            String node = remoteUsers.get(participant);
+            if (node != null) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return;
+        }
+        String[][] marks = {messageRef(delivered), messageRef(read)};
+        if (marks[0] == null && marks[1] == null) {
+            return;
+        }
+        Message forwarded = new Message(Message.MessageType.STATUS, username, conversation, gson.toJson(marks));
+        ClusterEnvelope envelope = ClusterEnvelope.deliver(clusterBus.getNodeId(), gson.toJson(forwarded));
+        for (String node : nodes) {
+            clusterBus.send(node, envelope);
+        }
+    }
+    
+    /**
+     * Sender and id of the message routed under a sequence, or null if it is not at hand
+     */
+    private String[] messageRef(long sequence) {
+        if (sequence <= 0) {
+            return null;
+        }
+        String json;
+        synchronized (routingLock) {
+            json = replayBuffer.frameFor(sequence);
+        }
+        try {
+            if (json == null && messageLog != null) {
+                json = messageLog.read(sequence);
+            }
+        } catch (IOException e) {
+            logger.error("Error reading message {} from the log", sequence, e);
+        }
+        if (json == null) {
+            return null;
+        }
+        Message message = gson.fromJson(json, Message.class);
+        return new String[] {message.getSender(), message.getMessageId()};
+    }
+    
+    /**
+     * Records marks forwarded by another node, translated into this node's sequences through
+     * the dedup window, which holds every routed message, relayed ones included. Runs as a task
+     * of the conversation's router, behind any of its messages relayed before the receipt, so
+     * the messages it names are already numbered here. A mark naming a message the window has
+     * forgotten is skipped; the participant's next receipt carries a newer one.
+     */
+    private void recordRemoteReceipt(Message forwarded) {
+        String[][] marks = gson.fromJson(forwarded.getContent(), String[][].class);
+        if (marks == null || marks.length != 2) {
+            logger.debug("Ignoring malformed receipt relayed for {}", forwarded.getSender());
+            return;
+        }
+        long read = localSequenceOf(marks[1]);
+        long delivered = Math.max(localSequenceOf(marks[0]), read);
+        if (delivered > 0) {
+            receipts.record(forwarded.getReceiver(), forwarded.getSender(), delivered, read);
+        }
+    }
+    
+    private long localSequenceOf(String[] ref) {
+        return ref != null && ref.length == 2 ? dedupWindow.sequenceOf(ref[0], ref[1]) : 0;
+    }
+    
+    private void publishPresence(ClusterEnvelope.Type type, String username) {
+        if (clusterBus != null) {
+            clusterBus.broadcast(ClusterEnvelope.presence(type, clusterBus.getNodeId(),
+                    Collections.singletonList(username)));
+        }
+    }
+    
+    private Message userListMessage() {
+        Set<String> allUsers = new LinkedHashSet<>(presence.onlineUsernames());
+        allUsers.addAll(remoteUsers.keySet());
+        List<String> usernames = new ArrayList<>(allUsers);
+        return new Message(
             Message.MessageType.USER_LIST,
             "SERVER",
             gson.toJson(usernames)
         );
-        broadcastMessage(userListMessage);
+    }
+    
+    /**
+     * Sends everyone the full list; for wholesale changes such as a cluster peer coming or going
+     */
+    private void broadcastUserList() {
+        if (!overload.admitUserList()) {
+            userListStale.set(true);
+            return;
+        }
+        broadcastMessage(userListMessage());
+    }
+    
+    /**
+     * Tells everyone about one name joining or leaving; clients that already have the list
+     * apply it in place, so a login costs one small frame per client rather than a full list
+     */
+    private void broadcastUserListChange(Message.MessageType type, String username) {
+        if (!overload.admitUserList()) {
+            userListStale.set(true);
+            return;
+        }
+        broadcastMessage(new Message(type, "SERVER", username));
     }
     
     private void notifyUserJoined(String username) {
@@ -135,7 +838,7 @@ public class MessagingServer {
             username + " joined the chat"
         );
         broadcastMessage(notification);
-        broadcastUserList();
+        broadcastUserListChange(Message.MessageType.USER_JOINED, username);
     }
     
     private void notifyUserLeft(String username) {
@@ -145,44 +848,95 @@ public class MessagingServer {
             username + " left the chat"
         );
         broadcastMessage(notification);
-        broadcastUserList();
+        broadcastUserListChange(Message.MessageType.USER_LEFT, username);
+    }
+    
+    /**
+     * Called when a detached session's grace period runs out without a resume
+     */
+    private void expireSession(SessionRegistry.Session session) {
+        String username = session.getUsername();
+        if (connectedClients.contains(username)) {
+            return;  // a fresh login under the same name took over
+        }
+        presence.setStatus(username, User.Status.OFFLINE, CoarseClock.millis());
+        publishPresence(ClusterEnvelope.Type.USER_LEFT, username);
+        notifyUserLeft(username);
+        logger.info("Session for {} expired", username);
+        System.out.println("✗ User disconnected: " + username + " (Total: " + connectedClients.size() + ")");
     }
     
     /**
-     * Client handler thread - handles individual client connections
+     * Handles one client connection, whichever transport carries it
      */
-    private class ClientHandler implements Runnable {
-        private final Socket socket;
-        private BufferedReader reader;
-        private PrintWriter writer;
+    private class ClientHandler implements ChannelHandler, Connection {
+        private final Channel channel;
+        private final int connectionNumber = connectionCount.incrementAndGet();
         private String username;
+        private SessionRegistry.Session session;
+        private boolean loggedOut;
+        private volatile boolean loginPending;
+        private volatile boolean replaced;
+        private boolean closed;
         
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        public ClientHandler(Channel channel) {
+            this.channel = channel;
         }
         
         @Override
-        public void run() {
-            try {
-                reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                writer = new PrintWriter(socket.getOutputStream(), true);
-                
-                // Handle client messages
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    handleMessage(line);
-                }
-                
-            } catch (IOException e) {
-                logger.error("Error handling client", e);
-            } finally {
-                disconnect();
+        public void onFrame(Frame frame) {
+            if (capture != null) {
+                capture.record(connectionNumber, frame.copyBytes());
             }
+            handleMessage(frame.reader());
         }
         
-        private void handleMessage(String json) {
+        @Override
+        public void onProtocolError(String reason) {
+            protocolError(reason);
+        }
+        
+        @Override
+        public void onClosed() {
+            disconnect();
+        }
+        
+        /**
+         * Tells the client why it is being dropped; the stream cannot be trusted past a bad frame.
+         * The session ends with it, so a resend of the same frame cannot loop through resume.
+         */
+        private void protocolError(String reason) {
+            logger.warn("Protocol error from {} ({}): {}", channel.getRemoteAddress(), username, reason);
+            loggedOut = true;
+            sendMessage(gson.toJson(new Message(Message.MessageType.SYSTEM, "SERVER", "Protocol error: " + reason)));
+            flush();
+        }
+        
+        private void handleMessage(Reader frame) {
             try {
-                Message message = gson.fromJson(json, Message.class);
+                Message message = gson.fromJson(frame, Message.class);
+                if (message == null) {
+                    return;  // blank line
+                }
+                
+                if (username == null && message.getType() != Message.MessageType.LOGIN
+                        && message.getType() != Message.MessageType.LOGOUT) {
+                    logger.debug("Ignoring {} from unauthenticated connection", message.getType());
+                    return;
+                }
+                if (username != null) {
+                    message.setSender(username);  // whatever name the client put in the frame
+                    String invalid = invalidField(message);
+                    if (invalid != null) {
+                        logger.debug("Dropping {} from {}: {}", message.getType(), username, invalid);
+                        connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(new Message(
+                            Message.MessageType.SYSTEM,
+                            "SERVER",
+                            "Message not sent: " + invalid
+                        )));
+                        return;
+                    }
+                }
                 
                 switch (message.getType()) {
                     case LOGIN:
@@ -190,27 +944,43 @@ public class MessagingServer {
                         break;
                     
                     case LOGOUT:
+                        loggedOut = true;
                         disconnect();
                         break;
                     
                     case TEXT:
-                        if (message.isPrivate()) {
-                            sendPrivateMessage(message);
-                        } else {
-                            broadcastMessage(message);
+                        if (!overload.admitBroadcast(username)) {
+                            connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(new Message(
+                                Message.MessageType.SYSTEM,
+                                "SERVER",
+                                "Server is busy: message not sent, please slow down"
+                            )));
+                            break;
                         }
+                        routeChatMessage(message);
                         break;
                     
                     case PRIVATE:
-                        sendPrivateMessage(message);
+                    case GROUP:
+                        routeChatMessage(message);
                         break;
                     
                     case TYPING:
-                        broadcastMessage(message);
+                        if (overload.admitTyping()) {
+                            broadcastMessage(message);
+                        }
                         break;
                     
                     case USER_LIST:
-                        broadcastUserList();
+                        connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(userListMessage()));
+                        break;
+                    
+                    case SEARCH:
+                        handleSearch(message);
+                        break;
+                    
+                    case STATUS:
+                        handleReceipt(message);
                         break;
                     
                     default:
@@ -222,51 +992,481 @@ public class MessagingServer {
             }
         }
         
+        /**
+         * Why the names and ids a client chose for a frame are out of bounds, or null if they
+         * are not. They become keys in the log, the index, the dedup window and the snapshots.
+         */
+        private String invalidField(Message message) {
+            String messageId = message.getMessageId();
+            if (messageId != null && messageId.length() > MAX_MESSAGE_ID_LENGTH) {
+                return "message id is longer than " + MAX_MESSAGE_ID_LENGTH + " characters";
+            }
+            List<String> named;
+            if (message.getType() == Message.MessageType.STATUS) {
+                named = message.getReceiver() != null
+                        ? Message.participantsOf(message.getReceiver())
+                        : Collections.emptyList();
+            } else if (message.isGroup()) {
+                named = message.getGroupMembers();
+            } else if (message.isPrivate()) {
+                named = Collections.singletonList(message.getReceiver());
+            } else {
+                named = Collections.emptyList();
+            }
+            if (named.size() > MAX_GROUP_MEMBERS) {
+                return "more than " + MAX_GROUP_MEMBERS + " recipients";
+            }
+            for (String name : named) {
+                if (name.length() > MAX_USERNAME_LENGTH) {
+                    return "recipient name is longer than " + MAX_USERNAME_LENGTH + " characters";
+                }
+            }
+            return null;
+        }
+        
         private void handleLogin(Message message) {
-            this.username = message.getSender();
-            connectedClients.put(username, this);
+            if (username != null || loginPending) {
+                return;  // already logged in or being verified
+            }
+            if (message.getSender() != null && message.getSender().length() > MAX_USERNAME_LENGTH) {
+                rejectLogin(Message.MessageType.LOGOUT, "Username is longer than " + MAX_USERNAME_LENGTH + " characters");
+                return;
+            }
+            if (draining) {
+                rejectLogin(Message.MessageType.SYSTEM, "Server is restarting, please try again shortly");
+                return;
+            }
+            
+            // A valid resume token stands in for the password
+            SessionRegistry.Session resumable = sessions.find(message.getResumeToken(), message.getSender());
+            if (resumable != null && sessions.reattach(resumable)) {
+                resumeSession(resumable, message.getSequence());
+                return;
+            }
+            
+            // bcrypt runs on the authenticator's pool; this thread keeps reading
+            loginPending = true;
+            String requested = message.getSender();
+            long historySince = message.getSequence();
+            authenticator.authenticate(requested, message.getContent())
+                    .thenAccept(result -> completeLogin(requested, historySince, result));
+        }
+        
+        /**
+         * Admits a verified user. A client that caches history sends the newest sequence it
+         * holds, and gets only the messages after it that it may see, ahead of live traffic.
+         */
+        private void completeLogin(String requested, long historySince, Authenticator.Result result) {
+            loginPending = false;
+            if (draining) {
+                // Registering now would miss the reconnect request already sent to everyone else
+                rejectLogin(Message.MessageType.SYSTEM, "Server is restarting, please try again shortly");
+                return;
+            }
+            if (result == Authenticator.Result.BUSY) {
+                // SYSTEM rather than LOGOUT tells the client this is transient
+                rejectLogin(Message.MessageType.SYSTEM, "Server is busy, please try again shortly");
+                return;
+            }
+            if (result == Authenticator.Result.REJECTED) {
+                rejectLogin(Message.MessageType.LOGOUT, "Invalid username or password");
+                return;
+            }
             
-            User user = new User(username);
-            user.setStatus(User.Status.ONLINE);
-            user.setConnectedAt(LocalDateTime.now());
-            users.put(username, user);
+            SessionRegistry.Session claimed = sessions.claim(requested);
+            if (claimed == null) {
+                rejectLogin(Message.MessageType.LOGOUT, "User " + requested + " is already logged in");
+                return;
+            }
+            // A session held for a resume means everyone still sees the user as online
+            boolean alreadyPresent = presence.isOnline(requested);
             
-            // Send success response
             Message response = new Message(
                 Message.MessageType.LOGIN,
                 "SERVER",
-                "Welcome, " + username + "!"
+                "Welcome, " + requested + "!"
             );
-            sendMessage(gson.toJson(response));
+            response.setResumeToken(claimed.getToken());
+            long inboxBefore = Long.MAX_VALUE;
+            synchronized (this) {
+                if (closed) {
+                    // Client went away while bcrypt was running
+                    if (alreadyPresent) {
+                        sessions.detach(claimed, MessagingServer.this::expireSession);
+                    } else {
+                        sessions.invalidate(claimed);
+                    }
+                    return;
+                }
+                this.username = requested;
+                this.session = claimed;
+                
+                presence.setStatus(username, User.Status.ONLINE, CoarseClock.millis());
+                
+                synchronized (delivery) {
+                    // Registering between hand-offs pins the sequence this client starts from
+                    long delivered = delivery.getDelivered();
+                    response.setSequence(delivered);
+                    connectedClients.register(this, gson.toJson(response));
+                    synchronized (routingLock) {
+                        // A position beyond ours is from before the history was lost; the client starts over
+                        if (historySince > 0 && historySince <= lastSequence) {
+                            inboxBefore = sendHistory(historySince, delivered);
+                        }
+                    }
+                }
+            }
             
             // Notify others
-            notifyUserJoined(username);
+            if (!alreadyPresent) {
+                publishPresence(ClusterEnvelope.Type.USER_JOINED, username);
+                notifyUserJoined(username);
+            }
+            // Everyone else gets just the change; this client needs the whole list, taken
+            // after it registered so any change it misses is already in it
+            connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(userListMessage()));
+            deliverOfflineMessages(historySince, inboxBefore);
+            sendReceipts();
             
             logger.info("User {} logged in", username);
             System.out.println("✓ User connected: " + username + " (Total: " + connectedClients.size() + ")");
         }
         
-        private void disconnect() {
-            if (username != null) {
-                connectedClients.remove(username);
-                users.remove(username);
-                notifyUserLeft(username);
-                logger.info("User {} disconnected", username);
-                System.out.println("✗ User disconnected: " + username + " (Total: " + connectedClients.size() + ")");
+        /**
+         * Sends the buffered messages after the given sequence, up to the last one handed off,
+         * that this user may see, at most the newest {@code history.maxReplay}. Returns the
+         * sequence from which everything was sent; older inbox messages still have to come
+         * from the log. Caller holds the delivery monitor and the routing lock.
+         */
+        private long sendHistory(long since, long delivered) {
+            List<Message> missed = replayBuffer.messagesSince(since, delivered, username);
+            long complete = replayBuffer.covers(since) ? since + 1 : replayBuffer.getFirstSequence();
+            if (missed.size() > HISTORY_MAX_REPLAY) {
+                missed = missed.subList(missed.size() - HISTORY_MAX_REPLAY, missed.size());
+                complete = missed.get(0).getSequence();
             }
+            if (complete > since + 1) {
+                connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(new Message(
+                    Message.MessageType.SYSTEM,
+                    "SERVER",
+                    "Only the most recent messages since your last visit are shown"
+                )));
+            }
+            for (Message message : missed) {
+                connectedClients.sendTo(this, replayBuffer.frameFor(message.getSequence()));
+            }
+            logger.debug("Sent {} message(s) after {} to {}", missed.size(), since, username);
+            return complete;
+        }
+        
+        private void deliverOfflineMessages() {
+            deliverOfflineMessages(0, Long.MAX_VALUE);
+        }
+        
+        /**
+         * Sends the private and group messages that arrived while this user was offline and
+         * lie strictly between the given sequences: the client already holds those up to the
+         * first, and the history replay sent those from the second on
+         */
+        private void deliverOfflineMessages(long after, long before) {
+            if (messageLog == null) {
+                return;
+            }
+            long[] pending = Arrays.stream(offlineInbox.take(username))
+                    .filter(sequence -> sequence > after && sequence < before)
+                    .toArray();
+            if (pending.length == 0) {
+                return;
+            }
+            connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(new Message(
+                Message.MessageType.SYSTEM,
+                "SERVER",
+                pending.length + " message(s) arrived while you were offline"
+            )));
+            // Recent messages may still be queued for the log writer; the replay buffer has them
+            String[] frames = new String[pending.length];
+            synchronized (routingLock) {
+                for (int i = 0; i < pending.length; i++) {
+                    frames[i] = replayBuffer.frameFor(pending[i]);
+                }
+            }
+            int delivered = 0;
+            for (int i = 0; i < pending.length; i++) {
+                long sequence = pending[i];
+                try {
+                    String json = frames[i] != null ? frames[i] : messageLog.read(sequence);
+                    if (json != null) {
+                        connectedClients.sendTo(this, OutboundLanes.Lane.CHAT, json);
+                        delivered++;
+                    }
+                } catch (IOException e) {
+                    logger.error("Error reading message {} from the log", sequence, e);
+                }
+            }
+            logger.info("Delivered {} offline message(s) to {}", delivered, username);
+        }
+        
+        /**
+         * Raises this user's delivered/read marks in one conversation; content is [delivered, read]
+         */
+        private void handleReceipt(Message message) {
+            String conversation = message.getReceiver();
+            long[] marks = gson.fromJson(message.getContent(), long[].class);
+            if (!ReceiptAggregator.accepts(conversation, username) || marks == null || marks.length != 2) {
+                logger.debug("Ignoring malformed receipt from {}", username);
+                return;
+            }
+            long newest;
+            synchronized (routingLock) {
+                newest = lastSequence;
+            }
+            long delivered = Math.min(marks[0], newest);
+            long read = Math.min(marks[1], newest);
+            if (receipts.record(conversation, username, delivered, read) && clusterBus != null) {
+                forwardReceipt(conversation, username, delivered, read);
+            }
+        }
+        
+        /**
+         * Catches this user up on the receipts in their conversations
+         */
+        private void sendReceipts() {
+            for (ReceiptAggregator.Update update : receipts.marksFor(username)) {
+                connectedClients.sendTo(this, OutboundLanes.Lane.CHAT, gson.toJson(receiptMessage(update)));
+            }
+        }
+        
+        /**
+         * Answers a history search with the matching messages this user may see,
+         * echoing the request so the client can match the reply
+         */
+        private void handleSearch(Message request) {
+            long started = System.nanoTime();
+            List<String> page = new ArrayList<>();
+            int pageChars = 0;
+            int hits = 0;
+            if (messageLog != null) {
+                for (long sequence : searchIndex.search(username, request.getContent(), SEARCH_MAX_RESULTS)) {
+                    try {
+                        String json = messageLog.read(sequence);
+                        if (json == null) {
+                            continue;
+                        }
+                        if (!page.isEmpty() && pageChars + json.length() > SEARCH_PAGE_CHARS) {
+                            sendSearchPage(request, page, true);
+                            page.clear();
+                            pageChars = 0;
+                        }
+                        page.add(json);
+                        pageChars += json.length();
+                        hits++;
+                    } catch (IOException e) {
+                        logger.error("Error reading message {} from the log", sequence, e);
+                    }
+                }
+            }
+            sendSearchPage(request, page, false);
+            logger.debug("Search by {} returned {} hit(s) in {} us", username, hits,
+                    (System.nanoTime() - started) / 1000);
+        }
+        
+        /**
+         * Sends one frame of a search reply: the request echoed with a JSON array of hits,
+         * marked if more frames follow so the client gathers them before answering
+         */
+        private void sendSearchPage(Message request, List<String> hits, boolean more) {
+            request.setContent("[" + String.join(",", hits) + "]");
+            request.setMore(more);
+            connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(request));
+        }
+        
+        private void rejectLogin(Message.MessageType type, String reason) {
+            logger.info("Login refused for connection from {}: {}", channel.getRemoteAddress(), reason);
+            sendMessage(gson.toJson(new Message(type, "SERVER", reason)));
+            flush();
+            channel.close();
+        }
+        
+        /**
+         * Re-binds a returning client to its session and replays what it missed,
+         * without any join/leave broadcast
+         */
+        private void resumeSession(SessionRegistry.Session resumed, long lastSeenSequence) {
+            this.username = resumed.getUsername();
+            this.session = resumed;
             
-            try {
-                if (socket != null && !socket.isClosed()) {
-                    socket.close();
+            Message response = new Message(
+                Message.MessageType.LOGIN,
+                "SERVER",
+                "Welcome back, " + username + "!"
+            );
+            response.setResumeToken(resumed.getToken());
+            
+            Connection previous;
+            boolean covered;
+            synchronized (delivery) {
+                // Registration and replay queue behind everything already handed to this shard
+                long delivered = delivery.getDelivered();
+                previous = connectedClients.register(this, gson.toJson(response));
+                synchronized (routingLock) {
+                    covered = replayBuffer.covers(lastSeenSequence);
+                    if (covered) {
+                        offlineInbox.take(username);  // the replay below includes all of it
+                    } else {
+                        connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(new Message(
+                            Message.MessageType.SYSTEM,
+                            "SERVER",
+                            "Some messages sent while you were away could not be recovered"
+                        )));
+                    }
+                    for (String frame : replayBuffer.framesSince(lastSeenSequence, delivered, username)) {
+                        connectedClients.sendTo(this, frame);
+                    }
                 }
-            } catch (IOException e) {
-                logger.error("Error closing socket", e);
             }
+            if (previous instanceof ClientHandler && previous != this) {
+                ((ClientHandler) previous).closeReplaced();
+            }
+            if (!covered) {
+                deliverOfflineMessages();
+            }
+            sendReceipts();
+            
+            connectedClients.sendTo(this, OutboundLanes.Lane.CONTROL, gson.toJson(userListMessage()));
+            logger.info("User {} resumed session from sequence {}", username, lastSeenSequence);
+        }
+        
+        /**
+         * Closes a stale connection whose session was resumed on a new one
+         */
+        private void closeReplaced() {
+            replaced = true;
+            channel.close();
         }
         
+        private synchronized void disconnect() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (capture != null) {
+                capture.closed(connectionNumber);
+            }
+            
+            if (username != null && !replaced) {
+                connectedClients.unregister(this);
+                if (loggedOut) {
+                    overload.forget(username);
+                    sessions.invalidate(session);
+                    presence.setStatus(username, User.Status.OFFLINE, CoarseClock.millis());
+                    publishPresence(ClusterEnvelope.Type.USER_LEFT, username);
+                    notifyUserLeft(username);
+                    logger.info("User {} disconnected", username);
+                    System.out.println("✗ User disconnected: " + username + " (Total: " + connectedClients.size() + ")");
+                } else {
+                    // Connection dropped: hold the session so the client can resume quietly
+                    sessions.detach(session, MessagingServer.this::expireSession);
+                    logger.info("User {} connection lost, holding session for {} ms", username, RESUME_GRACE_MS);
+                }
+            }
+            
+            channel.close();
+        }
+        
+        @Override
+        public String getUsername() {
+            return username;
+        }
+        
+        @Override
         public void sendMessage(String json) {
-            if (writer != null) {
-                writer.println(json);
+            channel.send(json);
+        }
+        
+        @Override
+        public void flush() {
+            channel.flush();
+        }
+        
+        @Override
+        public boolean isBacklogged() {
+            return channel.isBacklogged();
+        }
+        
+        @Override
+        public void setWritableListener(Runnable listener) {
+            channel.setWritableListener(listener);
+        }
+        
+        @Override
+        public void close() {
+            // The reader thread sees the channel end and runs the usual disconnect
+            channel.close();
+        }
+    }
+    
+    /**
+     * Applies presence and chat traffic arriving from other nodes
+     */
+    private class ClusterHandler implements ClusterListener {
+        
+        @Override
+        public void onEnvelope(ClusterEnvelope envelope) {
+            String origin = envelope.getOrigin();
+            switch (envelope.getType()) {
+                case DELIVER:
+                    Message delivered = gson.fromJson(envelope.getPayload(), Message.class);
+                    if (delivered.getType() == Message.MessageType.STATUS) {
+                        if (ReceiptAggregator.accepts(delivered.getReceiver(), delivered.getSender())) {
+                            // Same key as the conversation's messages, so it queues behind those relayed before it
+                            router.execute(delivered.getReceiver(), () -> recordRemoteReceipt(delivered));
+                        }
+                    } else {
+                        routeChatMessage(delivered, false);
+                    }
+                    break;
+                
+                case USER_JOINED:
+                    for (String username : envelope.getUsers()) {
+                        remoteUsers.put(username, origin);
+                        notifyUserJoined(username);
+                    }
+                    break;
+                
+                case USER_LEFT:
+                    for (String username : envelope.getUsers()) {
+                        if (remoteUsers.remove(username, origin)) {
+                            notifyUserLeft(username);
+                        }
+                    }
+                    break;
+                
+                case PRESENCE_SYNC:
+                    // Replace the origin's users wholesale and refresh the list once, without per-user notices
+                    Set<String> synced = new HashSet<>(envelope.getUsers());
+                    remoteUsers.entrySet().removeIf(e -> e.getValue().equals(origin) && !synced.contains(e.getKey()));
+                    for (String username : synced) {
+                        remoteUsers.put(username, origin);
+                    }
+                    broadcastUserList();
+                    break;
+                
+                default:
+                    logger.warn("Unexpected cluster envelope {}", envelope);
+            }
+        }
+        
+        @Override
+        public void onPeerUp(String nodeId) {
+            List<String> localUsers = presence.onlineUsernames();
+            clusterBus.send(nodeId, ClusterEnvelope.presence(
+                    ClusterEnvelope.Type.PRESENCE_SYNC, clusterBus.getNodeId(), localUsers));
+        }
+        
+        @Override
+        public void onPeerDown(String nodeId) {
+            if (remoteUsers.values().removeIf(nodeId::equals)) {
+                broadcastUserList();
             }
         }
     }
@@ -282,7 +1482,23 @@ public class MessagingServer {
             }
         }
         
-        MessagingServer server = new MessagingServer(port);
+        // Clustering is enabled by giving the node an id, e.g. -Dcluster.nodeId=a -Dcluster.secret=...
+        // -Dcluster.bindAddress=10.0.0.1 -Dcluster.port=6000 -Dcluster.peers=host2:6000,host3:6000
+        ClusterBus clusterBus = null;
+        String nodeId = System.getProperty("cluster.nodeId");
+        if (nodeId != null && !nodeId.isBlank()) {
+            String secret = System.getProperty("cluster.secret");
+            if (secret == null || secret.isEmpty()) {
+                System.err.println("cluster.secret must be set when cluster.nodeId is");
+                System.exit(2);
+            }
+            int clusterPort = Integer.getInteger("cluster.port", port + 1000);
+            clusterBus = new TcpClusterBus(nodeId, System.getProperty("cluster.bindAddress", "127.0.0.1"), clusterPort,
+                    TcpClusterBus.parsePeers(System.getProperty("cluster.peers")), secret,
+                    Integer.getInteger("cluster.maxFrameBytes", 2 << 20));
+        }
+        
+        MessagingServer server = new MessagingServer(port, clusterBus);
         
         // Add shutdown hook
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -0,0 +1,145 @@
+package com.messaging.server;
+
+import com.messaging.util.DataStrings;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Sequences of private and group messages addressed to users while they were
+ * offline, delivered from the message log at their next login. Each inbox keeps
+ * only its newest messages; older ones are dropped and counted.
+ */
+public class OfflineInbox {
+    private final int capacity;
+    private final Map<String, Pending> inboxes = new HashMap<>();
+    private final Set<String> onlineAtSnapshot = new HashSet<>();
+    private long lastSequence;
+    private long droppedMessages;
+    
+    // Ring of sequences, oldest first
+    private static class Pending {
+        long[] sequences;
+        int head;
+        int size;
+        
+        Pending(int capacity) {
+            this.sequences = new long[Math.min(4, capacity)];
+        }
+        
+        boolean add(long sequence, int capacity) {
+            boolean dropped = false;
+            if (size == sequences.length && size < capacity) {
+                long[] grown = new long[Math.min(capacity, size * 2)];
+                for (int i = 0; i < size; i++) {
+                    grown[i] = sequences[(head + i) % sequences.length];
+                }
+                sequences = grown;
+                head = 0;
+            } else if (size == sequences.length) {
+                head = (head + 1) % sequences.length;
+                size--;
+                dropped = true;
+            }
+            sequences[(head + size) % sequences.length] = sequence;
+            size++;
+            return dropped;
+        }
+        
+        long[] toArray() {
+            long[] result = new long[size];
+            for (int i = 0; i < size; i++) {
+                result[i] = sequences[(head + i) % sequences.length];
+            }
+            return result;
+        }
+    }
+    
+    public OfflineInbox(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+    
+    /**
+     * Records a routed chat message and the recipients it could not reach.
+     * Sequences at or below the last one recorded are ignored.
+     */
+    public synchronized void record(long sequence, Collection<String> offlineRecipients) {
+        if (sequence <= lastSequence) {
+            return;
+        }
+        lastSequence = sequence;
+        for (String recipient : offlineRecipients) {
+            if (inboxes.computeIfAbsent(recipient, r -> new Pending(capacity)).add(sequence, capacity)) {
+                droppedMessages++;
+            }
+        }
+    }
+    
+    /**
+     * Removes and returns a user's pending sequences, oldest first
+     */
+    public synchronized long[] take(String username) {
+        Pending pending = inboxes.remove(username);
+        return pending != null ? pending.toArray() : new long[0];
+    }
+    
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    
+    /**
+     * Users who were online when the restored snapshot was taken; messages replayed
+     * from after it are queued for everyone else
+     */
+    public synchronized boolean wasOnlineAtSnapshot(String username) {
+        return onlineAtSnapshot.contains(username);
+    }
+    
+    public synchronized long getDroppedMessages() {
+        return droppedMessages;
+    }
+    
+    public synchronized void writeSnapshot(DataOutput out, Collection<String> online) throws IOException {
+        out.writeLong(lastSequence);
+        out.writeInt(online.size());
+        for (String username : online) {
+            DataStrings.write(out, username);
+        }
+        out.writeInt(inboxes.size());
+        for (Map.Entry<String, Pending> entry : inboxes.entrySet()) {
+            DataStrings.write(out, entry.getKey());
+            long[] sequences = entry.getValue().toArray();
+            out.writeInt(sequences.length);
+            for (long sequence : sequences) {
+                out.writeLong(sequence);
+            }
+        }
+    }
+    
+    public synchronized void clear() {
+        inboxes.clear();
+        onlineAtSnapshot.clear();
+        lastSequence = 0;
+    }
+    
+    public synchronized void readSnapshot(DataInput in) throws IOException {
+        clear();
+        lastSequence = in.readLong();
+        int online = in.readInt();
+        for (int i = 0; i < online; i++) {
+            onlineAtSnapshot.add(DataStrings.read(in));
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String username = DataStrings.read(in);
+            Pending pending = new Pending(capacity);
+            int sequences = in.readInt();
+            for (int j = 0; j < sequences; j++) {
+                pending.add(in.readLong(), capacity);
+            }
+            inboxes.put(username, pending);
+        }
+    }
+}
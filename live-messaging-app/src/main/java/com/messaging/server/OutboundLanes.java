@@ -0,0 +1,196 @@
+package com.messaging.server;
+
+import com.messaging.model.Message;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Frames waiting for one connection, queued by traffic class.
+ * Draining visits the lanes in weighted rounds, so chat is never stuck behind a
+ * burst of typing noise, and a keyed frame (a sender's TYPING state, the user list)
+ * replaces its queued predecessor instead of queuing behind it. All lanes together
+ * are held to a budget of frames and characters; a client that falls that far behind
+ * is not reading, and its queue is given up rather than kept in the server's heap.
+ * Not thread-safe: only the connection's shard worker touches it.
+ */
+public class OutboundLanes {
+    private static final int EPHEMERAL_LIMIT = Integer.getInteger("server.ephemeralLaneLimit", 256);
+    private static final int MAX_QUEUED_FRAMES = Integer.getInteger("server.maxQueuedFrames", 10_000);
+    private static final long MAX_QUEUED_CHARS = Long.getLong("server.maxQueuedBytes", 4 << 20);
+    
+    public enum Lane {
+        CONTROL(2),    // login replies, presence notices, user list
+        CHAT(4),       // TEXT, PRIVATE, GROUP, receipts
+        EPHEMERAL(1);  // TYPING; may be superseded or dropped
+        
+        final int weight;
+        
+        Lane(int weight) {
+            this.weight = weight;
+        }
+    }
+    
+    private static final Lane[] LANES = Lane.values();
+    
+    // Keyed frames only; plain frames are queued as their String to save an allocation per recipient
+    private static class Frame {
+        final String key;
+        String json;
+        
+        Frame(String key, String json) {
+            this.key = key;
+            this.json = json;
+        }
+    }
+    
+    private final Connection connection;
+    // Created on first use; most connections never see a keyed frame in most lanes
+    private final ArrayDeque<Object>[] queues;
+    private final Map<String, Frame>[] queuedByKey;
+    private int size;
+    private long queuedChars;
+    private boolean closed;
+    boolean awaitingDrain;  // owned by the shard worker's drain bookkeeping
+    boolean parked;  // awaiting drain, but held back until the connection is writable
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public OutboundLanes(Connection connection) {
+        this.connection = connection;
+        this.queues = new ArrayDeque[LANES.length];
+        this.queuedByKey = new Map[LANES.length];
+    }
+    
+    public Connection getConnection() {
+        return connection;
+    }
+    
+    public static Lane laneFor(Message.MessageType type) {
+        switch (type) {
+            case TEXT:
+            case PRIVATE:
+            case GROUP:
+                return Lane.CHAT;
+            case TYPING:
+                return Lane.EPHEMERAL;
+            default:
+                return Lane.CONTROL;
+        }
+    }
+    
+    /**
+     * Queues a frame. A non-null key supersedes a frame with the same key still queued
+     * in that lane. Returns how many frames were superseded or dropped to make room (0 or 1).
+     * Frames offered once the lanes are closed are ignored.
+     */
+    public int offer(Lane lane, String key, String json) {
+        if (closed) {
+            return 0;
+        }
+        int index = lane.ordinal();
+        if (key != null && queuedByKey[index] != null) {
+            Frame queued = queuedByKey[index].get(key);
+            if (queued != null) {
+                queuedChars += json.length() - queued.json.length();
+                queued.json = json;
+                return 1;
+            }
+        }
+        
+        if (queues[index] == null) {
+            queues[index] = new ArrayDeque<>();
+        }
+        if (key != null) {
+            Frame frame = new Frame(key, json);
+            queues[index].addLast(frame);
+            if (queuedByKey[index] == null) {
+                queuedByKey[index] = new HashMap<>();
+            }
+            queuedByKey[index].put(key, frame);
+        } else {
+            queues[index].addLast(json);
+        }
+        size++;
+        queuedChars += json.length();
+        
+        if (lane == Lane.EPHEMERAL && queues[index].size() > EPHEMERAL_LIMIT) {
+            remove(index, queues[index].pollFirst());
+            return 1;
+        }
+        return 0;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * True once more frames or characters are queued than any client keeping up would leave
+     */
+    public boolean isOverBudget() {
+        return size > MAX_QUEUED_FRAMES || queuedChars > MAX_QUEUED_CHARS;
+    }
+    
+    /**
+     * Discards everything queued and ignores further frames, for a connection being dropped
+     */
+    public void close() {
+        clear();
+        closed = true;
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    /**
+     * Writes up to budget frames in weighted rounds, control first in each round.
+     * Returns true if frames are left over.
+     */
+    public boolean drain(int budget) {
+        while (size > 0 && budget > 0) {
+            for (Lane lane : LANES) {
+                int index = lane.ordinal();
+                ArrayDeque<Object> queue = queues[index];
+                for (int i = 0; i < lane.weight && budget > 0 && queue != null && !queue.isEmpty(); i++) {
+                    connection.sendMessage(remove(index, queue.pollFirst()));
+                    budget--;
+                }
+            }
+        }
+        return size > 0;
+    }
+    
+    /**
+     * Discards everything queued, e.g. after the connection failed
+     */
+    public void clear() {
+        for (int i = 0; i < LANES.length; i++) {
+            if (queues[i] != null) {
+                queues[i].clear();
+            }
+            if (queuedByKey[i] != null) {
+                queuedByKey[i].clear();
+            }
+        }
+        size = 0;
+        queuedChars = 0;
+    }
+    
+    /**
+     * Accounts for a frame taken off a lane; returns its JSON
+     */
+    private String remove(int index, Object frame) {
+        String json;
+        if (frame instanceof Frame) {
+            queuedByKey[index].remove(((Frame) frame).key, frame);
+            json = ((Frame) frame).json;
+        } else {
+            json = (String) frame;
+        }
+        size--;
+        queuedChars -= json.length();
+        return json;
+    }
+}
@@ -0,0 +1,204 @@
+package com.messaging.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+
+/**
+ * Watches the server's queues and heap and decides how much work to shed.
+ * Levels are cumulative: each one keeps the shedding of the levels below it.
+ * PRIVATE, GROUP and LOGIN on established connections are never shed.
+ */
+public class OverloadController {
+    private static final Logger logger = LoggerFactory.getLogger(OverloadController.class);
+    private static final int MAX_SHARD_QUEUE = Integer.getInteger("overload.maxShardQueue", 10_000);
+    private static final long MAX_FANOUT_DELAY_MS = Long.getLong("overload.maxFanoutDelayMs", 200);
+    private static final int MAX_HANDLER_BACKLOG = Integer.getInteger("overload.maxHandlerBacklog", 100);
+    private static final double MAX_HEAP_FRACTION = Double.parseDouble(System.getProperty("overload.maxHeapFraction", "0.9"));
+    private static final double BROADCAST_RATE = Double.parseDouble(System.getProperty("overload.broadcastRate", "1"));
+    private static final double BROADCAST_BURST = Double.parseDouble(System.getProperty("overload.broadcastBurst", "5"));
+    
+    // Pressure (worst signal / its limit) at which each level is entered
+    private static final double[] ENTER_AT = {0, 1.0, 1.5, 2.0};
+    // Pressure must fall this far below a level's entry point before stepping down
+    private static final double RECOVERY_MARGIN = 0.8;
+    
+    public enum Level {
+        NORMAL,
+        REFUSE_CONNECTIONS,  // new sockets are turned away
+        SHED_EPHEMERAL,      // TYPING and user list refreshes are dropped
+        THROTTLE_BROADCASTS  // public messages are rate limited per sender
+    }
+    
+    private final ShardedConnectionRegistry connections;
+    private final Authenticator authenticator;
+    private final IntSupplier handlerBacklog;  // connections waiting for a thread to read them
+    private final int maxAuthQueue;
+    private final Consumer<Level> onLevelChange;
+    private final Map<String, TokenBucket> broadcastBuckets = new ConcurrentHashMap<>();
+    private volatile Level level = Level.NORMAL;
+    
+    private final AtomicLong refusedConnections = new AtomicLong();
+    private final AtomicLong droppedTyping = new AtomicLong();
+    private final AtomicLong droppedUserLists = new AtomicLong();
+    private final AtomicLong throttledBroadcasts = new AtomicLong();
+    private final AtomicLong levelChanges = new AtomicLong();
+    
+    private static class TokenBucket {
+        private double tokens = BROADCAST_BURST;
+        private long refilledAt = System.nanoTime();
+        
+        synchronized boolean tryTake() {
+            long now = System.nanoTime();
+            tokens = Math.min(BROADCAST_BURST, tokens + (now - refilledAt) / 1e9 * BROADCAST_RATE);
+            refilledAt = now;
+            if (tokens < 1) {
+                return false;
+            }
+            tokens--;
+            return true;
+        }
+    }
+    
+    public OverloadController(ShardedConnectionRegistry connections, Authenticator authenticator,
+                              IntSupplier handlerBacklog, int maxAuthQueue, Consumer<Level> onLevelChange) {
+        this.connections = connections;
+        this.authenticator = authenticator;
+        this.handlerBacklog = handlerBacklog;
+        this.maxAuthQueue = Math.max(1, maxAuthQueue);
+        this.onLevelChange = onLevelChange;
+    }
+    
+    public Level getLevel() {
+        return level;
+    }
+    
+    /**
+     * Reads every signal once and moves the level; meant to run periodically on one thread
+     */
+    public void sample() {
+        int shardQueue = connections.getMaxQueueDepth();
+        long fanoutDelayMs = TimeUnit.NANOSECONDS.toMillis(connections.takeMaxQueueDelayNanos());
+        int authQueue = authenticator.getQueueDepth();
+        int handlerBacklog = this.handlerBacklog.getAsInt();
+        Runtime runtime = Runtime.getRuntime();
+        double heap = (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory();
+        
+        double pressure = Math.max(
+                Math.max((double) shardQueue / MAX_SHARD_QUEUE, (double) fanoutDelayMs / MAX_FANOUT_DELAY_MS),
+                Math.max(Math.max((double) authQueue / maxAuthQueue, (double) handlerBacklog / MAX_HANDLER_BACKLOG),
+                        heap / MAX_HEAP_FRACTION));
+        
+        Level current = level;
+        Level next = current;
+        Level target = levelFor(pressure);
+        if (target.ordinal() > current.ordinal()) {
+            next = target;
+        } else if (target.ordinal() < current.ordinal()
+                && pressure < ENTER_AT[current.ordinal()] * RECOVERY_MARGIN) {
+            next = Level.values()[current.ordinal() - 1];  // step down gradually
+        }
+        if (next == current) {
+            return;
+        }
+        
+        level = next;
+        levelChanges.incrementAndGet();
+        if (next.ordinal() < Level.THROTTLE_BROADCASTS.ordinal()) {
+            broadcastBuckets.clear();
+        }
+        String signals = String.format(
+                "pressure=%.2f shardQueue=%d fanoutDelay=%dms authQueue=%d handlerBacklog=%d heap=%.0f%%",
+                pressure, shardQueue, fanoutDelayMs, authQueue, handlerBacklog, heap * 100);
+        if (next.ordinal() > current.ordinal()) {
+            logger.warn("Overload level {} -> {} ({})", current, next, signals);
+        } else {
+            logger.info("Overload level {} -> {} ({}; {})", current, next, signals, metricsSummary());
+        }
+        onLevelChange.accept(next);
+    }
+    
+    private static Level levelFor(double pressure) {
+        Level[] levels = Level.values();
+        for (int i = levels.length - 1; i > 0; i--) {
+            if (pressure >= ENTER_AT[i]) {
+                return levels[i];
+            }
+        }
+        return Level.NORMAL;
+    }
+    
+    public boolean admitConnection() {
+        if (level.ordinal() >= Level.REFUSE_CONNECTIONS.ordinal()) {
+            refusedConnections.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    public boolean admitTyping() {
+        if (level.ordinal() >= Level.SHED_EPHEMERAL.ordinal()) {
+            droppedTyping.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    public boolean admitUserList() {
+        if (level.ordinal() >= Level.SHED_EPHEMERAL.ordinal()) {
+            droppedUserLists.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Checks a public message against its sender's token bucket while broadcasts are throttled
+     */
+    public boolean admitBroadcast(String sender) {
+        if (level != Level.THROTTLE_BROADCASTS) {
+            return true;
+        }
+        if (broadcastBuckets.computeIfAbsent(sender, name -> new TokenBucket()).tryTake()) {
+            return true;
+        }
+        throttledBroadcasts.incrementAndGet();
+        return false;
+    }
+    
+    public void forget(String sender) {
+        broadcastBuckets.remove(sender);
+    }
+    
+    public long getRefusedConnections() {
+        return refusedConnections.get();
+    }
+    
+    public long getDroppedTyping() {
+        return droppedTyping.get();
+    }
+    
+    public long getDroppedUserLists() {
+        return droppedUserLists.get();
+    }
+    
+    public long getThrottledBroadcasts() {
+        return throttledBroadcasts.get();
+    }
+    
+    public long getLevelChanges() {
+        return levelChanges.get();
+    }
+    
+    public String metricsSummary() {
+        return String.format("refusedConnections=%d droppedTyping=%d droppedUserLists=%d throttledBroadcasts=%d levelChanges=%d slowConsumers=%d",
+                refusedConnections.get(), droppedTyping.get(), droppedUserLists.get(),
+                throttledBroadcasts.get(), levelChanges.get(), connections.getSlowConsumers());
+    }
+}
@@ -0,0 +1,169 @@
+package com.messaging.server;
+
+import com.messaging.model.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Presence of every user the server has seen, in a few primitive arrays rather than
+ * an object per user. Usernames are interned to dense int ids through an open-addressing
+ * hash table; status is a byte and times are epoch milliseconds, indexed by id. Users
+ * who are not offline are also kept in a dense list, so listing them costs nothing per
+ * known-but-offline user. About 35 bytes per user besides the username itself.
+ */
+public class PresenceTable {
+    private static final User.Status[] STATUSES = User.Status.values();
+    private static final byte OFFLINE = (byte) User.Status.OFFLINE.ordinal();
+    
+    private int[] slots = new int[1024];  // id + 1, 0 for an empty slot
+    private String[] names = new String[256];
+    private byte[] statuses = new byte[256];
+    private long[] lastSeen = new long[256];
+    private long[] connectedAt = new long[256];
+    private int[] onlineIndex = new int[256];  // position in online, -1 if offline
+    private int[] online = new int[256];
+    private int size;
+    private int onlineCount;
+    
+    /**
+     * The id of a username, assigning the next one if it is new
+     */
+    public synchronized int intern(String username) {
+        int slot = find(username);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = size++;
+        if (id == names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            statuses = Arrays.copyOf(statuses, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+            connectedAt = Arrays.copyOf(connectedAt, capacity);
+            onlineIndex = Arrays.copyOf(onlineIndex, capacity);
+        }
+        names[id] = username;
+        statuses[id] = OFFLINE;
+        onlineIndex[id] = -1;
+        slots[slot] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+    
+    /**
+     * The id of a known username, or -1
+     */
+    public synchronized int idOf(String username) {
+        return slots[find(username)] - 1;
+    }
+    
+    public synchronized String nameOf(int id) {
+        return names[id];
+    }
+    
+    /**
+     * Sets a user's status, noting when it was last seen and, coming from offline, when it
+     * connected. Returns true if the user went from offline to any other status or back.
+     */
+    public synchronized boolean setStatus(String username, User.Status status, long now) {
+        int id = intern(username);
+        boolean wasOffline = statuses[id] == OFFLINE;
+        statuses[id] = (byte) status.ordinal();
+        lastSeen[id] = now;
+        boolean isOffline = status == User.Status.OFFLINE;
+        if (wasOffline == isOffline) {
+            return false;
+        }
+        if (isOffline) {
+            // Move the last online id into the hole left behind
+            int index = onlineIndex[id];
+            int moved = online[--onlineCount];
+            online[index] = moved;
+            onlineIndex[moved] = index;
+            onlineIndex[id] = -1;
+        } else {
+            if (onlineCount == online.length) {
+                online = Arrays.copyOf(online, online.length * 2);
+            }
+            onlineIndex[id] = onlineCount;
+            online[onlineCount++] = id;
+            connectedAt[id] = now;
+        }
+        return true;
+    }
+    
+    /**
+     * True if the user is known and not offline
+     */
+    public synchronized boolean isOnline(String username) {
+        int id = idOf(username);
+        return id >= 0 && statuses[id] != OFFLINE;
+    }
+    
+    /**
+     * Users who are not offline, in the order they came online except where one left
+     */
+    public synchronized List<String> onlineUsernames() {
+        List<String> usernames = new ArrayList<>(onlineCount);
+        for (int i = 0; i < onlineCount; i++) {
+            usernames.add(names[online[i]]);
+        }
+        return usernames;
+    }
+    
+    public synchronized int getOnlineCount() {
+        return onlineCount;
+    }
+    
+    /**
+     * Number of usernames ever interned
+     */
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * A detached copy of a user's presence, or null if the user is unknown
+     */
+    public synchronized User view(String username) {
+        int id = idOf(username);
+        if (id < 0) {
+            return null;
+        }
+        return new User(names[id], STATUSES[statuses[id]], lastSeen[id], connectedAt[id]);
+    }
+    
+    /**
+     * The slot holding a username, or the empty slot where it would go
+     */
+    private int find(String username) {
+        int mask = slots.length - 1;
+        int slot = mix(username.hashCode()) & mask;
+        while (slots[slot] != 0 && !names[slots[slot] - 1].equals(username)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+    
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = mix(names[id].hashCode()) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+    
+    private static int mix(int hash) {
+        // Spread the bits so similar names ("user1", "user2", ...) do not cluster
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
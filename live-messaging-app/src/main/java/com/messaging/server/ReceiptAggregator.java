@@ -0,0 +1,144 @@
+package com.messaging.server;
+
+import com.messaging.model.Message;
+
+import java.util.*;
+
+/**
+ * Delivered and read receipts for private and group conversations, kept as one pair of
+ * high-water sequences per participant ("read up to N") rather than per message. Updates
+ * only ever raise a mark, and are merged until the next flush, which yields at most one
+ * update per changed conversation however many messages or receipts arrived meanwhile.
+ * The least recently active conversations are forgotten beyond a fixed number.
+ */
+public class ReceiptAggregator {
+    private static final long[] NONE = new long[2];
+    
+    /**
+     * Marks for one conversation to send to its participants: user -> {delivered, read}
+     */
+    public static class Update {
+        private final String conversation;
+        private final Map<String, long[]> marks;
+        
+        Update(String conversation, Map<String, long[]> marks) {
+            this.conversation = conversation;
+            this.marks = marks;
+        }
+        
+        public String getConversation() {
+            return conversation;
+        }
+        
+        public List<String> getParticipants() {
+            return Message.participantsOf(conversation);
+        }
+        
+        public Map<String, long[]> getMarks() {
+            return marks;
+        }
+    }
+    
+    private static class Conversation {
+        final Map<String, long[]> marks = new HashMap<>();  // user -> {delivered, read}
+        final Set<String> changed = new HashSet<>();
+    }
+    
+    private final Map<String, Conversation> conversations;
+    private final Map<String, Set<String>> conversationsByUser = new HashMap<>();
+    private final Set<String> changed = new LinkedHashSet<>();
+    
+    public ReceiptAggregator(int maxConversations) {
+        this.conversations = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Conversation> eldest) {
+                if (size() <= maxConversations) {
+                    return false;
+                }
+                forget(eldest.getKey());
+                return true;
+            }
+        };
+    }
+    
+    /**
+     * True if the id names a private or group conversation the user takes part in
+     */
+    public static boolean accepts(String conversation, String username) {
+        return conversation != null
+                && (conversation.startsWith("dm:") || conversation.startsWith("group:"))
+                && Message.participantsOf(conversation).contains(username);
+    }
+    
+    /**
+     * Raises a participant's marks; reading implies delivery. Returns true if either rose.
+     */
+    public synchronized boolean record(String conversation, String username, long delivered, long read) {
+        delivered = Math.max(delivered, read);
+        Conversation state = conversations.get(conversation);
+        if (state == null) {
+            state = new Conversation();
+            conversations.put(conversation, state);
+            for (String participant : Message.participantsOf(conversation)) {
+                conversationsByUser.computeIfAbsent(participant, u -> new HashSet<>()).add(conversation);
+            }
+        }
+        long[] marks = state.marks.getOrDefault(username, NONE);
+        if (delivered <= marks[0] && read <= marks[1]) {
+            return false;
+        }
+        state.marks.put(username, new long[] {Math.max(marks[0], delivered), Math.max(marks[1], read)});
+        state.changed.add(username);
+        changed.add(conversation);
+        return true;
+    }
+    
+    /**
+     * Takes the marks that changed since the last flush, one update per conversation
+     */
+    public synchronized List<Update> flush() {
+        List<Update> updates = new ArrayList<>(changed.size());
+        for (String conversation : changed) {
+            Conversation state = conversations.get(conversation);
+            if (state == null) {
+                continue;  // forgotten meanwhile
+            }
+            Map<String, long[]> marks = new HashMap<>();
+            for (String username : state.changed) {
+                marks.put(username, state.marks.get(username).clone());
+            }
+            state.changed.clear();
+            updates.add(new Update(conversation, marks));
+        }
+        changed.clear();
+        return updates;
+    }
+    
+    /**
+     * All current marks of the conversations a user takes part in, e.g. for catching up at login
+     */
+    public synchronized List<Update> marksFor(String username) {
+        Set<String> ids = conversationsByUser.getOrDefault(username, Collections.emptySet());
+        List<Update> updates = new ArrayList<>(ids.size());
+        for (String conversation : ids) {
+            Map<String, long[]> marks = new HashMap<>();
+            conversations.get(conversation).marks.forEach((user, pair) -> marks.put(user, pair.clone()));
+            updates.add(new Update(conversation, marks));
+        }
+        return updates;
+    }
+    
+    public synchronized int getConversationCount() {
+        return conversations.size();
+    }
+    
+    private void forget(String conversation) {
+        changed.remove(conversation);
+        for (String participant : Message.participantsOf(conversation)) {
+            Set<String> ids = conversationsByUser.get(participant);
+            if (ids != null && ids.remove(conversation) && ids.isEmpty()) {
+                conversationsByUser.remove(participant);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.messaging.server;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounded ring of recently routed chat messages, used to replay what a
+ * resuming client missed while its connection was down. It is snapshotted,
+ * so clients sent away by a restart can catch up from the next server.
+ * Callers must hold the server's routing lock.
+ */
+public class ReplayBuffer {
+    private final Message[] messages;
+    private final String[] frames;
+    private int head;
+    private int size;
+    private long lastSequence;  // newest routed, whether or not it is still (or was ever) buffered
+    
+    public ReplayBuffer(int capacity) {
+        this.messages = new Message[capacity];
+        this.frames = new String[capacity];
+    }
+    
+    public void add(Message message, String json) {
+        int index = (head + size) % messages.length;
+        if (size == messages.length) {
+            head = (head + 1) % messages.length;
+        } else {
+            size++;
+        }
+        messages[index] = message;
+        frames[index] = json;
+        lastSequence = Math.max(lastSequence, message.getSequence());
+    }
+    
+    /**
+     * Notes that messages up to the given sequence were routed without being added here,
+     * e.g. before a restart that found no snapshot of the buffer
+     */
+    public void skipTo(long sequence) {
+        lastSequence = Math.max(lastSequence, sequence);
+    }
+    
+    public long getLastSequence() {
+        return lastSequence;
+    }
+    
+    /**
+     * Returns true if every message after the given sequence is still buffered
+     */
+    public boolean covers(long afterSequence) {
+        return afterSequence >= lastSequence || (size > 0 && messages[head].getSequence() <= afterSequence + 1);
+    }
+    
+    /**
+     * The buffered frame with the given sequence, or null if it is no longer (or was never) held
+     */
+    public String frameFor(long sequence) {
+        if (size == 0) {
+            return null;
+        }
+        // Every sequenced message passes through here, so sequences are consecutive
+        long offset = sequence - messages[head].getSequence();
+        if (offset < 0 || offset >= size) {
+            return null;
+        }
+        int index = (int) ((head + offset) % messages.length);
+        return messages[index].getSequence() == sequence ? frames[index] : null;
+    }
+    
+    /**
+     * Sequence of the oldest message still buffered, or 0 if there is none
+     */
+    public long getFirstSequence() {
+        return size == 0 ? 0 : messages[head].getSequence();
+    }
+    
+    /**
+     * Buffered messages with a sequence above afterSequence and up to throughSequence that
+     * the user is allowed to see; their frames are at hand through {@link #frameFor(long)}
+     */
+    public List<Message> messagesSince(long afterSequence, long throughSequence, String username) {
+        List<Message> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Message message = messages[(head + i) % messages.length];
+            if (message.getSequence() > throughSequence) {
+                break;
+            }
+            if (message.getSequence() > afterSequence && message.isVisibleTo(username)) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Serialized frames with a sequence above afterSequence and up to throughSequence that
+     * the user is allowed to see
+     */
+    public List<String> framesSince(long afterSequence, long throughSequence, String username) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % messages.length;
+            Message message = messages[index];
+            if (message.getSequence() > throughSequence) {
+                break;
+            }
+            if (message.getSequence() > afterSequence && message.isVisibleTo(username)) {
+                result.add(frames[index]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * A copy to snapshot outside the routing lock
+     */
+    public ReplayBuffer copy() {
+        ReplayBuffer copy = new ReplayBuffer(messages.length);
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % messages.length;
+            copy.add(messages[index], frames[index]);
+        }
+        copy.lastSequence = lastSequence;
+        return copy;
+    }
+    
+    public void writeSnapshot(DataOutput out) throws IOException {
+        out.writeLong(lastSequence);
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            byte[] frame = frames[(head + i) % frames.length].getBytes(StandardCharsets.UTF_8);
+            out.writeInt(frame.length);
+            out.write(frame);
+        }
+    }
+    
+    public void clear() {
+        Arrays.fill(messages, null);
+        Arrays.fill(frames, null);
+        head = 0;
+        size = 0;
+        lastSequence = 0;
+    }
+    
+    /**
+     * Restores the frames, keeping the newest if this buffer is smaller than the one snapshotted
+     */
+    public void readSnapshot(DataInput in, Gson gson) throws IOException {
+        clear();
+        long through = in.readLong();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            byte[] frame = new byte[in.readInt()];
+            in.readFully(frame);
+            String json = new String(frame, StandardCharsets.UTF_8);
+            add(gson.fromJson(json, Message.class), json);
+        }
+        lastSequence = through;
+    }
+}
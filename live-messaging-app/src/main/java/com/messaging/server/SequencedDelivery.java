@@ -0,0 +1,63 @@
+package com.messaging.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hands sequenced messages on strictly in sequence order, whichever routing thread is done
+ * with them first. A hand-off that arrives before its turn is parked, and the thread that
+ * runs its predecessor runs it too, so no routing thread ever waits on another. Hand-offs
+ * run under this object's monitor and must only queue work: frames for the shard workers,
+ * entries for the log writer. Holding the monitor holds back every hand-off, so
+ * {@link #getDelivered()} is then the last sequence any connection has been handed.
+ */
+public class SequencedDelivery {
+    private static final Logger logger = LoggerFactory.getLogger(SequencedDelivery.class);
+    
+    private final Map<Long, Runnable> early = new HashMap<>();  // sequence -> hand-off waiting for its turn
+    private long delivered;
+    
+    /**
+     * Runs the hand-off for a sequence once every lower sequence has been handed off.
+     * Every sequence assigned must come through here exactly once, or those after it stall.
+     */
+    public synchronized void deliver(long sequence, Runnable handOff) {
+        if (sequence != delivered + 1) {
+            early.put(sequence, handOff);
+            return;
+        }
+        Runnable next = handOff;
+        do {
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                logger.error("Hand-off of message {} failed", delivered + 1, e);
+            }
+            delivered++;
+        } while ((next = early.remove(delivered + 1)) != null);
+    }
+    
+    /**
+     * Highest sequence handed off; all below it have been too
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+    
+    /**
+     * Continues after a sequence reached before this started, e.g. recovered from the log
+     */
+    public synchronized void skipTo(long sequence) {
+        delivered = Math.max(delivered, sequence);
+    }
+    
+    /**
+     * Hand-offs parked until a lower sequence comes through
+     */
+    public synchronized int getWaiting() {
+        return early.size();
+    }
+}
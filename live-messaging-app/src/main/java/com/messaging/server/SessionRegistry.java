@@ -0,0 +1,142 @@
+package com.messaging.server;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Tracks resumable sessions so a client that drops and reconnects within the
+ * grace period keeps its identity without a leave/join presence broadcast.
+ */
+public class SessionRegistry {
+    private static final SecureRandom RANDOM = new SecureRandom();
+    
+    private final Map<String, Session> sessionsByToken = new ConcurrentHashMap<>();
+    private final Map<String, Session> sessionsByUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+    private final long graceMillis;
+    
+    public SessionRegistry(ScheduledExecutorService scheduler, long graceMillis) {
+        this.scheduler = scheduler;
+        this.graceMillis = graceMillis;
+    }
+    
+    /**
+     * A login session; detached while its connection is down but within the grace period
+     */
+    public static class Session {
+        private final String username;
+        private final String token;
+        private boolean detached;
+        private ScheduledFuture<?> expiry;
+        
+        Session(String username, String token) {
+            this.username = username;
+            this.token = token;
+        }
+        
+        public String getUsername() {
+            return username;
+        }
+        
+        public String getToken() {
+            return token;
+        }
+        
+        public synchronized boolean isDetached() {
+            return detached;
+        }
+    }
+    
+    /**
+     * Opens a new session for a freshly authenticated user. A session held for a
+     * resume is superseded; returns null if the user has a live session elsewhere.
+     */
+    public synchronized Session claim(String username) {
+        Session existing = sessionsByUser.get(username);
+        if (existing != null) {
+            synchronized (existing) {
+                if (!existing.detached) {
+                    return null;
+                }
+                sessionsByToken.remove(existing.token, existing);
+                cancelExpiry(existing);
+            }
+        }
+        
+        byte[] bytes = new byte[24];
+        RANDOM.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Session session = new Session(username, token);
+        sessionsByToken.put(token, session);
+        sessionsByUser.put(username, session);
+        return session;
+    }
+    
+    /**
+     * Looks up a session by token, checking it belongs to the given user
+     */
+    public Session find(String token, String username) {
+        if (token == null) {
+            return null;
+        }
+        Session session = sessionsByToken.get(token);
+        return session != null && session.username.equals(username) ? session : null;
+    }
+    
+    /**
+     * Starts the grace period; onExpired runs if the client does not resume in time
+     */
+    public void detach(Session session, Consumer<Session> onExpired) {
+        synchronized (session) {
+            if (session.detached) {
+                return;
+            }
+            session.detached = true;
+            session.expiry = scheduler.schedule(() -> {
+                synchronized (session) {
+                    // A resume that won the race clears the flag before we get here
+                    if (!session.detached || !sessionsByToken.remove(session.token, session)) {
+                        return;
+                    }
+                    sessionsByUser.remove(session.username, session);
+                }
+                onExpired.accept(session);
+            }, graceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Cancels a pending expiry; returns false if the session already expired
+     */
+    public boolean reattach(Session session) {
+        synchronized (session) {
+            if (!sessionsByToken.containsKey(session.token)) {
+                return false;
+            }
+            cancelExpiry(session);
+            return true;
+        }
+    }
+    
+    public void invalidate(Session session) {
+        synchronized (session) {
+            sessionsByToken.remove(session.token, session);
+            sessionsByUser.remove(session.username, session);
+            cancelExpiry(session);
+        }
+    }
+    
+    private static void cancelExpiry(Session session) {
+        session.detached = false;
+        if (session.expiry != null) {
+            session.expiry.cancel(false);
+            session.expiry = null;
+        }
+    }
+}
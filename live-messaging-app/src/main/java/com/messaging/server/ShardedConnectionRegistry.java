@@ -0,0 +1,407 @@
+package com.messaging.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connections partitioned by username into shards, each owned by one worker thread.
+ * All writes to a shard's connections, and all changes to its membership, run on that
+ * worker in submission order. A broadcast is handed to every shard at once and fanned
+ * out in parallel. Frames are queued per connection in {@link OutboundLanes} and written
+ * by a drain pass with one flush per connection, so within a lane a client sees frames
+ * in submission order, while chat overtakes queued typing noise. Workers never wait on a
+ * socket: a connection still writing earlier output is skipped until it reports itself
+ * writable, its frames held in its lanes meanwhile, and one whose lanes outgrow their
+ * budget is a slow consumer: its frames are discarded and it is closed.
+ */
+public class ShardedConnectionRegistry {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedConnectionRegistry.class);
+    private static final int DRAIN_BUDGET = Integer.getInteger("server.drainBudget", 64);
+    
+    private final Shard[] shards;
+    private final AtomicLong supersededFrames = new AtomicLong();
+    private final AtomicLong slowConsumers = new AtomicLong();
+    
+    private static class Shard {
+        // Written only by the worker; read by any thread for lookups
+        final Map<String, OutboundLanes> connections = new ConcurrentHashMap<>();
+        final ExecutorService worker;
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicLong maxQueueDelayNanos = new AtomicLong();
+        // Worker-only: lanes of connections written to while not registered, and those with frames waiting
+        final Map<Connection, OutboundLanes> unregistered = new HashMap<>();
+        final ArrayDeque<OutboundLanes> awaitingDrain = new ArrayDeque<>();
+        int parked;
+        boolean drainScheduled;
+        
+        Shard(int index) {
+            this.worker = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "fanout-" + index);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+    
+    public ShardedConnectionRegistry(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive");
+        }
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+        }
+    }
+    
+    public int getShardCount() {
+        return shards.length;
+    }
+    
+    private Shard shardFor(String username) {
+        return shards[Math.floorMod(username.hashCode(), shards.length)];
+    }
+    
+    public Connection register(Connection connection) {
+        return register(connection, null);
+    }
+    
+    /**
+     * Adds a connection after everything already queued on its shard, with an optional
+     * frame guaranteed to reach it before any other. Returns the connection currently
+     * registered under the name, if any.
+     */
+    public Connection register(Connection connection, String firstFrame) {
+        Shard shard = shardFor(connection.getUsername());
+        Connection previous = get(connection.getUsername());
+        execute(shard, () -> {
+            OutboundLanes lanes = shard.unregistered.remove(connection);
+            if (lanes == null) {
+                lanes = newLanes(shard, connection);
+            }
+            shard.connections.put(connection.getUsername(), lanes);
+            if (firstFrame != null) {
+                enqueue(shard, lanes, OutboundLanes.Lane.CONTROL, null, firstFrame);
+            }
+        });
+        return previous;
+    }
+    
+    /**
+     * Removes the connection if it is still the one registered under its name
+     */
+    public void unregister(Connection connection) {
+        Shard shard = shardFor(connection.getUsername());
+        execute(shard, () -> {
+            OutboundLanes lanes = shard.connections.get(connection.getUsername());
+            if (lanes != null && lanes.getConnection() == connection) {
+                // Frames already queued are still drained
+                shard.connections.remove(connection.getUsername());
+            }
+        });
+    }
+    
+    public Connection get(String username) {
+        OutboundLanes lanes = username == null ? null : shardFor(username).connections.get(username);
+        return lanes != null ? lanes.getConnection() : null;
+    }
+    
+    public boolean contains(String username) {
+        return get(username) != null;
+    }
+    
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.connections.size();
+        }
+        return size;
+    }
+    
+    public List<String> usernames() {
+        List<String> usernames = new ArrayList<>(size());
+        for (Shard shard : shards) {
+            usernames.addAll(shard.connections.keySet());
+        }
+        return usernames;
+    }
+    
+    public void broadcast(String json) {
+        broadcast(OutboundLanes.Lane.CHAT, null, json);
+    }
+    
+    /**
+     * Queues a frame for every connection; each shard fans out on its own worker.
+     * A non-null key supersedes a still-queued frame with the same key in that lane.
+     */
+    public void broadcast(OutboundLanes.Lane lane, String key, String json) {
+        for (Shard shard : shards) {
+            execute(shard, () -> {
+                for (OutboundLanes lanes : shard.connections.values()) {
+                    enqueue(shard, lanes, lane, key, json);
+                }
+            });
+        }
+    }
+    
+    public void sendTo(String username, String json) {
+        sendTo(username, OutboundLanes.Lane.CHAT, json);
+    }
+    
+    /**
+     * Queues a frame for whichever connection is registered under the name when it runs
+     */
+    public void sendTo(String username, OutboundLanes.Lane lane, String json) {
+        if (username == null) {
+            return;
+        }
+        Shard shard = shardFor(username);
+        execute(shard, () -> {
+            OutboundLanes lanes = shard.connections.get(username);
+            if (lanes != null) {
+                enqueue(shard, lanes, lane, null, json);
+            }
+        });
+    }
+    
+    public void sendTo(Connection connection, String json) {
+        sendTo(connection, OutboundLanes.Lane.CHAT, json);
+    }
+    
+    /**
+     * Queues a frame for a specific connection, registered or not, in shard order
+     */
+    public void sendTo(Connection connection, OutboundLanes.Lane lane, String json) {
+        Shard shard = shardFor(connection.getUsername());
+        execute(shard, () -> {
+            OutboundLanes lanes = shard.connections.get(connection.getUsername());
+            if (lanes == null || lanes.getConnection() != connection) {
+                lanes = shard.unregistered.computeIfAbsent(connection, c -> newLanes(shard, c));
+            }
+            enqueue(shard, lanes, lane, null, json);
+        });
+    }
+    
+    /**
+     * Frames replaced by a newer one with the same key, or dropped from a full ephemeral lane
+     */
+    public long getSupersededFrames() {
+        return supersededFrames.get();
+    }
+    
+    /**
+     * Connections closed because their queue outgrew its budget
+     */
+    public long getSlowConsumers() {
+        return slowConsumers.get();
+    }
+    
+    // Runs on the shard worker
+    private OutboundLanes newLanes(Shard shard, Connection connection) {
+        OutboundLanes lanes = new OutboundLanes(connection);
+        connection.setWritableListener(() -> execute(shard, () -> unpark(shard, lanes)));
+        return lanes;
+    }
+    
+    // Runs on the shard worker
+    private void unpark(Shard shard, OutboundLanes lanes) {
+        if (!lanes.parked) {
+            return;
+        }
+        lanes.parked = false;
+        shard.parked--;
+        shard.awaitingDrain.addLast(lanes);
+        scheduleDrain(shard);
+    }
+    
+    // Runs on the shard worker
+    private void scheduleDrain(Shard shard) {
+        if (!shard.drainScheduled) {
+            // Fan-out tasks already queued run first and land in the same drain pass
+            shard.drainScheduled = true;
+            execute(shard, () -> drain(shard));
+        }
+    }
+    
+    // Runs on the shard worker
+    private void enqueue(Shard shard, OutboundLanes lanes, OutboundLanes.Lane lane, String key, String json) {
+        if (lanes.isClosed()) {
+            return;
+        }
+        int superseded = lanes.offer(lane, key, json);
+        if (superseded > 0) {
+            supersededFrames.addAndGet(superseded);
+        }
+        if (lanes.isOverBudget()) {
+            dropSlowConsumer(shard, lanes);
+            return;
+        }
+        if (!lanes.awaitingDrain) {
+            lanes.awaitingDrain = true;
+            shard.awaitingDrain.addLast(lanes);
+        }
+        scheduleDrain(shard);
+    }
+    
+    // Runs on the shard worker
+    private void dropSlowConsumer(Shard shard, OutboundLanes lanes) {
+        Connection connection = lanes.getConnection();
+        slowConsumers.incrementAndGet();
+        logger.warn("{} is not reading, closing it as a slow consumer", connection.getUsername());
+        // Stays registered, closed, until the connection's own cleanup unregisters it
+        lanes.close();
+        shard.unregistered.remove(connection, lanes);
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            logger.error("Closing {} failed", connection.getUsername(), e);
+        }
+    }
+    
+    // Runs on the shard worker
+    private void drain(Shard shard) {
+        shard.drainScheduled = false;
+        for (int n = shard.awaitingDrain.size(); n > 0; n--) {
+            OutboundLanes lanes = shard.awaitingDrain.pollFirst();
+            Connection connection = lanes.getConnection();
+            if (lanes.isClosed()) {
+                lanes.awaitingDrain = false;
+                continue;
+            }
+            if (connection.isBacklogged()) {
+                // Its writable listener puts it back once the backlog is taken up
+                lanes.parked = true;
+                shard.parked++;
+                continue;
+            }
+            boolean more;
+            try {
+                more = lanes.drain(DRAIN_BUDGET);
+                connection.flush();
+            } catch (RuntimeException e) {
+                logger.error("Writing to {} failed, dropping its queued frames", connection.getUsername(), e);
+                lanes.clear();
+                more = false;
+            }
+            if (more) {
+                shard.awaitingDrain.addLast(lanes);
+            } else {
+                lanes.awaitingDrain = false;
+                shard.unregistered.remove(connection, lanes);
+            }
+        }
+        if (!shard.awaitingDrain.isEmpty()) {
+            // Budget used up somewhere; let other queued work in before continuing
+            scheduleDrain(shard);
+        }
+    }
+    
+    /**
+     * Waits until every frame queued so far has been handed to its connection, or the
+     * timeout passes. Returns whether everything was handed over.
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            // Each shard answers from its own worker, behind the fan-out already queued there
+            List<CompletableFuture<Boolean>> probes = new ArrayList<>(shards.length);
+            for (Shard shard : shards) {
+                CompletableFuture<Boolean> idle = new CompletableFuture<>();
+                execute(shard, () -> idle.complete(shard.awaitingDrain.isEmpty() && shard.parked == 0));
+                probes.add(idle);
+            }
+            boolean drained = true;
+            for (CompletableFuture<Boolean> probe : probes) {
+                try {
+                    drained &= probe.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException | TimeoutException e) {
+                    return false;
+                }
+            }
+            if (drained) {
+                return true;
+            }
+            if (System.nanoTime() >= deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+    }
+    
+    /**
+     * Tasks waiting on the most backed-up shard
+     */
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (Shard shard : shards) {
+            max = Math.max(max, shard.queued.get());
+        }
+        return max;
+    }
+    
+    /**
+     * Longest time any task waited for its shard worker since the previous call
+     */
+    public long takeMaxQueueDelayNanos() {
+        long max = 0;
+        for (Shard shard : shards) {
+            max = Math.max(max, shard.maxQueueDelayNanos.getAndSet(0));
+        }
+        return max;
+    }
+    
+    private void execute(Shard shard, Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        shard.queued.incrementAndGet();
+        try {
+            shard.worker.execute(() -> {
+                shard.queued.decrementAndGet();
+                long delay = System.nanoTime() - enqueuedAt;
+                shard.maxQueueDelayNanos.accumulateAndGet(delay, Math::max);
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    logger.error("Fan-out task failed", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            shard.queued.decrementAndGet();
+            logger.debug("Registry is shut down, dropping task");
+        }
+    }
+    
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.worker.shutdown();
+        }
+    }
+    
+    /**
+     * Waits for queued fan-out to finish after shutdown
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Shard shard : shards) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || !shard.worker.awaitTermination(remaining, TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
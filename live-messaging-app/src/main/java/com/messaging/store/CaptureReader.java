@@ -0,0 +1,111 @@
+package com.messaging.store;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Reads back a file written by {@link TrafficCapture}, one frame at a time. A capture
+ * cut short (the server was killed, or the disk filled) ends at its last whole record.
+ */
+public class CaptureReader implements Closeable {
+    private final DataInputStream in;
+    private final long startedAt;
+    private long offsetMicros;
+    
+    /**
+     * One recorded frame, or the end of a connection
+     */
+    public static class Entry {
+        private final int connection;
+        private final long offsetMicros;
+        private final byte[] frame;
+        
+        Entry(int connection, long offsetMicros, byte[] frame) {
+            this.connection = connection;
+            this.offsetMicros = offsetMicros;
+            this.frame = frame;
+        }
+        
+        public int getConnection() {
+            return connection;
+        }
+        
+        /**
+         * Microseconds from the start of the capture
+         */
+        public long getOffsetMicros() {
+            return offsetMicros;
+        }
+        
+        /**
+         * The frame without its line terminator, or null if the connection closed here
+         */
+        public byte[] getFrame() {
+            return frame;
+        }
+    }
+    
+    public CaptureReader(Path file) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 64 << 10));
+        try {
+            if (in.readInt() != TrafficCapture.MAGIC) {
+                throw new IOException(file + " is not a traffic capture");
+            }
+            int version = in.readUnsignedByte();
+            if (version != TrafficCapture.VERSION) {
+                throw new IOException(file + " has unsupported capture version " + version);
+            }
+            this.startedAt = in.readLong();
+        } catch (IOException e) {
+            in.close();
+            throw e instanceof EOFException ? new IOException(file + " is not a traffic capture") : e;
+        }
+    }
+    
+    /**
+     * When the capture started, in epoch milliseconds
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+    
+    /**
+     * The next entry, or null at the end of the capture
+     */
+    public Entry next() throws IOException {
+        try {
+            int connection = (int) readVarint();
+            offsetMicros += readVarint();
+            long length = readVarint() - 1;
+            if (length < 0) {
+                return new Entry(connection, offsetMicros, null);
+            }
+            if (length > Integer.MAX_VALUE - 8) {
+                throw new IOException("Corrupt capture: frame of " + length + " bytes");
+            }
+            byte[] frame = new byte[(int) length];
+            in.readFully(frame);
+            return new Entry(connection, offsetMicros, frame);
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+    
+    private long readVarint() throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt capture: varint too long");
+    }
+    
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,321 @@
+package com.messaging.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only, compressed form of a sealed log segment.
+ * Frames are deflated in independent blocks of about 16 KB, followed by a table of
+ * each block's sequence range and position, so reading one message inflates one block.
+ * Layout: block* | (first, last, offset, length, rawLength, frames)* | blockCount | MAGIC
+ */
+public class CompactedSegment implements LogSegment {
+    static final String SUFFIX = ".clog";
+    private static final int MAGIC = 0x434C4F47;  // "CLOG"
+    private static final int BLOCK_BYTES = 16 << 10;
+    private static final int TABLE_ENTRY_BYTES = 8 + 8 + 8 + 4 + 4 + 4;
+    private static final int TRAILER_BYTES = 4 + 4;
+    
+    private final Path path;
+    private final long baseSequence;
+    private final int generation;
+    private final long[] firstSequences;
+    private final long[] lastSequences;
+    private final long[] offsets;
+    private final int[] lengths;
+    private final int[] rawLengths;
+    private final int count;
+    private final long size;
+    
+    private CompactedSegment(Path path, long baseSequence, int generation, ByteBuffer table, int blocks, long size) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+        this.generation = generation;
+        this.firstSequences = new long[blocks];
+        this.lastSequences = new long[blocks];
+        this.offsets = new long[blocks];
+        this.lengths = new int[blocks];
+        this.rawLengths = new int[blocks];
+        int frames = 0;
+        for (int i = 0; i < blocks; i++) {
+            firstSequences[i] = table.getLong();
+            lastSequences[i] = table.getLong();
+            offsets[i] = table.getLong();
+            lengths[i] = table.getInt();
+            rawLengths[i] = table.getInt();
+            frames += table.getInt();
+        }
+        this.count = frames;
+        this.size = size;
+    }
+    
+    /**
+     * Compacted files are named by base sequence and generation, so a rewrite never
+     * reuses the name of a file a reader may still have open
+     */
+    static String fileName(long baseSequence, int generation) {
+        return String.format("%020d.%d%s", baseSequence, generation, SUFFIX);
+    }
+    
+    /**
+     * {base, generation} encoded in a compacted file name, or null if it is not one
+     */
+    static long[] parseName(String fileName) {
+        if (!fileName.endsWith(SUFFIX)) {
+            return null;
+        }
+        String[] parts = fileName.substring(0, fileName.length() - SUFFIX.length()).split("\\.");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new long[] {Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Opens a finished compacted file, failing if its table is missing or damaged
+     */
+    static CompactedSegment open(Path path, long baseSequence, int generation) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER_BYTES) {
+                throw new IOException("Compacted segment " + path + " is truncated");
+            }
+            ByteBuffer trailer = readFully(channel, size - TRAILER_BYTES, TRAILER_BYTES);
+            int blocks = trailer.getInt();
+            if (trailer.getInt() != MAGIC || blocks < 0
+                    || (long) blocks * TABLE_ENTRY_BYTES > size - TRAILER_BYTES) {
+                throw new IOException("Compacted segment " + path + " has no valid block table");
+            }
+            int tableBytes = blocks * TABLE_ENTRY_BYTES;
+            ByteBuffer table = readFully(channel, size - TRAILER_BYTES - tableBytes, tableBytes);
+            return new CompactedSegment(path, baseSequence, generation, table, blocks, size);
+        }
+    }
+    
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+    
+    @Override
+    public Path getPath() {
+        return path;
+    }
+    
+    @Override
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+    
+    public int getGeneration() {
+        return generation;
+    }
+    
+    @Override
+    public long getLastSequence() {
+        return lastSequences.length == 0 ? baseSequence - 1 : lastSequences[lastSequences.length - 1];
+    }
+    
+    @Override
+    public int getCount() {
+        return count;
+    }
+    
+    @Override
+    public long getSize() {
+        return size;
+    }
+    
+    @Override
+    public String read(long sequence) throws IOException {
+        int block = Arrays.binarySearch(firstSequences, sequence);
+        if (block < 0) {
+            block = -block - 2;  // the block starting before it
+        }
+        if (block < 0 || sequence > lastSequences[block]) {
+            return null;
+        }
+        byte[] key = ("\"sequence\":" + sequence).getBytes(StandardCharsets.US_ASCII);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] frames = inflate(channel, block);
+            // Match the sequence in the raw bytes and decode only the frame that has it
+            int start = 0;
+            while (start < frames.length) {
+                int end = start;
+                while (frames[end] != '\n') {
+                    end++;
+                }
+                if (containsSequence(frames, start, end, key)) {
+                    return new String(frames, start, end - start, StandardCharsets.UTF_8);
+                }
+                start = end + 1;
+            }
+        }
+        return null;
+    }
+    
+    private static boolean containsSequence(byte[] bytes, int start, int end, byte[] key) {
+        search:
+        for (int i = start; i + key.length <= end; i++) {
+            for (int j = 0; j < key.length; j++) {
+                if (bytes[i + j] != key[j]) {
+                    continue search;
+                }
+            }
+            // "sequence":12 must not match "sequence":123
+            return i + key.length == end || !Character.isDigit(bytes[i + key.length]);
+        }
+        return false;
+    }
+    
+    @Override
+    public void replay(long afterSequence, MessageLog.FrameConsumer consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int block = 0; block < firstSequences.length; block++) {
+                if (lastSequences[block] <= afterSequence) {
+                    continue;
+                }
+                String frames = new String(inflate(channel, block), StandardCharsets.UTF_8);
+                int start = 0;
+                while (start < frames.length()) {
+                    int end = frames.indexOf('\n', start);
+                    String frame = frames.substring(start, end);
+                    long sequence = Segment.extractSequence(frame);
+                    if (sequence > afterSequence) {
+                        consumer.accept(sequence, frame);
+                    }
+                    start = end + 1;
+                }
+            }
+        }
+    }
+    
+    private byte[] inflate(FileChannel channel, int block) throws IOException {
+        ByteBuffer compressed = readFully(channel, offsets[block], lengths[block]);
+        byte[] raw = new byte[rawLengths[block]];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished()) {
+                int n = inflater.inflate(raw, inflated, raw.length - inflated);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += n;
+            }
+            if (inflated != raw.length) {
+                throw new IOException("Block " + block + " of " + path + " is corrupt");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + block + " of " + path + " is corrupt", e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+    
+    /**
+     * Writes frames, in sequence order, into a new compacted file
+     */
+    static class Writer implements Closeable {
+        private final FileOutputStream file;
+        private final DataOutputStream out;
+        private final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_BYTES + 4096);
+        private final ByteArrayOutputStream table = new ByteArrayOutputStream();
+        private final DataOutputStream tableOut = new DataOutputStream(table);
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        private final byte[] deflateBuffer = new byte[BLOCK_BYTES];
+        private long offset;
+        private long blockFirst = -1;
+        private long blockLast;
+        private int blockFrames;
+        private int blocks;
+        private int frames;
+        
+        Writer(Path path) throws IOException {
+            this.file = new FileOutputStream(path.toFile());
+            this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        }
+        
+        void add(long sequence, String json) throws IOException {
+            if (blockFirst < 0) {
+                blockFirst = sequence;
+            }
+            block.write(json.getBytes(StandardCharsets.UTF_8));
+            block.write('\n');
+            blockLast = sequence;
+            blockFrames++;
+            frames++;
+            if (block.size() >= BLOCK_BYTES) {
+                writeBlock();
+            }
+        }
+        
+        int getFrames() {
+            return frames;
+        }
+        
+        private void writeBlock() throws IOException {
+            byte[] raw = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished()) {
+                int n = deflater.deflate(deflateBuffer);
+                out.write(deflateBuffer, 0, n);
+                length += n;
+            }
+            tableOut.writeLong(blockFirst);
+            tableOut.writeLong(blockLast);
+            tableOut.writeLong(offset);
+            tableOut.writeInt(length);
+            tableOut.writeInt(raw.length);
+            tableOut.writeInt(blockFrames);
+            offset += length;
+            blocks++;
+            block.reset();
+            blockFirst = -1;
+            blockFrames = 0;
+        }
+        
+        /**
+         * Writes the last block and the table; the file is only valid after this returns
+         */
+        void finish() throws IOException {
+            if (blockFrames > 0) {
+                writeBlock();
+            }
+            table.writeTo(out);
+            out.writeInt(blocks);
+            out.writeInt(MAGIC);
+            out.flush();
+            file.getFD().sync();  // durable before it replaces the source segment
+        }
+        
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.messaging.store;
+
+import com.messaging.util.DataStrings;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sequence, timestamp and size of every message still on disk, per conversation,
+ * so retention can be decided without reading the log. About 20 bytes per message.
+ */
+class ConversationLedger {
+    private static class History {
+        long[] sequences = new long[16];
+        long[] timestamps = new long[16];
+        int[] sizes = new int[16];
+        int head;
+        int tail;
+        long bytes;
+        
+        void add(long sequence, long timestamp, int size) {
+            if (tail == sequences.length) {
+                if (head > sequences.length / 2) {
+                    // Reuse the room freed by expired messages before growing
+                    int live = tail - head;
+                    System.arraycopy(sequences, head, sequences, 0, live);
+                    System.arraycopy(timestamps, head, timestamps, 0, live);
+                    System.arraycopy(sizes, head, sizes, 0, live);
+                    head = 0;
+                    tail = live;
+                } else {
+                    sequences = Arrays.copyOf(sequences, tail * 2);
+                    timestamps = Arrays.copyOf(timestamps, tail * 2);
+                    sizes = Arrays.copyOf(sizes, tail * 2);
+                }
+            }
+            sequences[tail] = sequence;
+            timestamps[tail] = timestamp;
+            sizes[tail] = size;
+            tail++;
+            bytes += size;
+        }
+    }
+    
+    /**
+     * Messages that have fallen out of retention: all their sequences, sorted, and per
+     * conversation the number of leading ledger entries they account for
+     */
+    static class Expiry {
+        final long[] sequences;
+        final Map<String, Integer> counts;
+        
+        Expiry(long[] sequences, Map<String, Integer> counts) {
+            this.sequences = sequences;
+            this.counts = counts;
+        }
+        
+        boolean isEmpty() {
+            return sequences.length == 0;
+        }
+        
+        boolean contains(long sequence) {
+            return Arrays.binarySearch(sequences, sequence) >= 0;
+        }
+        
+        /**
+         * True if any expired sequence falls within [first, last]
+         */
+        boolean overlaps(long first, long last) {
+            int index = Arrays.binarySearch(sequences, first);
+            if (index >= 0) {
+                return true;
+            }
+            index = -index - 1;
+            return index < sequences.length && sequences[index] <= last;
+        }
+    }
+    
+    private final Map<String, History> histories = new HashMap<>();
+    private long messages;
+    private long lastSequence;
+    
+    /**
+     * Adds a message; ones at or below the last sequence recorded (e.g. replayed
+     * after a snapshot that already had them) are ignored
+     */
+    synchronized void record(String conversation, long sequence, long timestamp, int size) {
+        if (sequence <= lastSequence) {
+            return;
+        }
+        histories.computeIfAbsent(conversation, c -> new History()).add(sequence, timestamp, size);
+        messages++;
+        lastSequence = sequence;
+    }
+    
+    synchronized long getLastSequence() {
+        return lastSequence;
+    }
+    
+    synchronized long getMessages() {
+        return messages;
+    }
+    
+    synchronized int getConversations() {
+        return histories.size();
+    }
+    
+    /**
+     * Works out which messages up to maxSequence the policies no longer keep.
+     * Nothing is forgotten until {@link #release} confirms they were removed from disk.
+     */
+    synchronized Expiry expire(RetentionPolicies policies, long now, long maxSequence) {
+        Map<String, Integer> counts = new HashMap<>();
+        long[] expired = new long[64];
+        int total = 0;
+        for (Map.Entry<String, History> entry : histories.entrySet()) {
+            History history = entry.getValue();
+            RetentionPolicy policy = policies.forConversation(entry.getKey());
+            if (policy.isUnlimited()) {
+                continue;
+            }
+            long oldestKept = policy.getMaxAgeMs() > 0 ? now - policy.getMaxAgeMs() : Long.MIN_VALUE;
+            int live = history.tail - history.head;
+            long bytes = history.bytes;
+            int cut = history.head;
+            // Expire from the oldest end while any limit is exceeded; the active segment is never touched
+            while (cut < history.tail && history.sequences[cut] <= maxSequence
+                    && (history.timestamps[cut] < oldestKept
+                        || (policy.getMaxMessages() > 0 && live > policy.getMaxMessages())
+                        || (policy.getMaxBytes() > 0 && bytes > policy.getMaxBytes()))) {
+                live--;
+                bytes -= history.sizes[cut];
+                cut++;
+            }
+            int count = cut - history.head;
+            if (count == 0) {
+                continue;
+            }
+            if (total + count > expired.length) {
+                expired = Arrays.copyOf(expired, Math.max(expired.length * 2, total + count));
+            }
+            System.arraycopy(history.sequences, history.head, expired, total, count);
+            total += count;
+            counts.put(entry.getKey(), count);
+        }
+        long[] sequences = Arrays.copyOf(expired, total);
+        Arrays.sort(sequences);
+        return new Expiry(sequences, counts);
+    }
+    
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeLong(lastSequence);
+        out.writeInt(histories.size());
+        for (Map.Entry<String, History> entry : histories.entrySet()) {
+            History history = entry.getValue();
+            DataStrings.write(out, entry.getKey());
+            out.writeInt(history.tail - history.head);
+            for (int i = history.head; i < history.tail; i++) {
+                out.writeLong(history.sequences[i]);
+                out.writeLong(history.timestamps[i]);
+                out.writeInt(history.sizes[i]);
+            }
+        }
+    }
+    
+    synchronized void clear() {
+        histories.clear();
+        messages = 0;
+        lastSequence = 0;
+    }
+    
+    synchronized void readFrom(DataInput in) throws IOException {
+        clear();
+        lastSequence = in.readLong();
+        int conversations = in.readInt();
+        for (int i = 0; i < conversations; i++) {
+            String conversation = DataStrings.read(in);
+            int count = in.readInt();
+            History history = new History();
+            for (int j = 0; j < count; j++) {
+                history.add(in.readLong(), in.readLong(), in.readInt());
+            }
+            histories.put(conversation, history);
+            messages += count;
+        }
+    }
+    
+    /**
+     * Forgets messages once an expiry has been applied to the log.
+     * Returns, per conversation, the newest sequence that is now gone.
+     */
+    synchronized Map<String, Long> release(Expiry expiry) {
+        Map<String, Long> expiredThrough = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : expiry.counts.entrySet()) {
+            History history = histories.get(entry.getKey());
+            for (int i = 0; i < entry.getValue(); i++) {
+                history.bytes -= history.sizes[history.head++];
+            }
+            expiredThrough.put(entry.getKey(), history.sequences[history.head - 1]);
+            messages -= entry.getValue();
+            if (history.head == history.tail) {
+                histories.remove(entry.getKey());
+            }
+        }
+        return expiredThrough;
+    }
+}
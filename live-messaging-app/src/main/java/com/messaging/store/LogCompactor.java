@@ -0,0 +1,270 @@
+package com.messaging.store;
+
+import com.messaging.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Background maintenance of the message log. Sealed segments older than the newest
+ * few are rewritten into compressed {@link CompactedSegment}s, dropping messages that
+ * have fallen out of their conversation's retention; a segment left with nothing is
+ * deleted. Rewrites go to a new file that is swapped in atomically, so writers never
+ * wait and readers see either the old or the new file.
+ * <p>
+ * I/O is paced to a byte rate and stops while the server reports load, so
+ * compaction does not compete with live fan-out.
+ */
+public class LogCompactor implements MessageLog.Listener, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(LogCompactor.class);
+    private static final long PAUSE_POLL_MS = 200;
+    
+    /**
+     * Told, on the compactor thread, when a conversation's older messages have been removed
+     */
+    public interface RetentionListener {
+        void onExpired(String conversation, long throughSequence);
+    }
+    
+    private final MessageLog log;
+    private final RetentionPolicies policies;
+    private final Function<Message, String> conversationOf;
+    private final BooleanSupplier busy;
+    private final ConversationLedger ledger = new ConversationLedger();
+    private final List<RetentionListener> listeners = new CopyOnWriteArrayList<>();
+    private final int hotSegments;
+    private final long bytesPerSecond;
+    private final long intervalMs;
+    private final Thread thread;
+    private volatile boolean running = true;
+    
+    private long paceStartedNanos;
+    private long pacedBytes;
+    private volatile long droppedMessages;
+    private volatile long reclaimedBytes;
+    
+    /**
+     * @param conversationOf names the conversation a message belongs to, for retention
+     * @param busy           true while the server is shedding load; compaction waits it out
+     * @param hotSegments    newest segments left uncompressed (at least 1, the one being appended to)
+     */
+    public LogCompactor(MessageLog log, RetentionPolicies policies, Function<Message, String> conversationOf,
+                        BooleanSupplier busy, int hotSegments, long bytesPerSecond, long intervalMs) {
+        this.log = log;
+        this.policies = policies;
+        this.conversationOf = conversationOf;
+        this.busy = busy;
+        this.hotSegments = Math.max(1, hotSegments);
+        this.bytesPerSecond = Math.max(1, bytesPerSecond);
+        this.intervalMs = intervalMs;
+        this.thread = new Thread(this::run, "log-compactor");
+        this.thread.setDaemon(true);
+        this.thread.setPriority(Thread.MIN_PRIORITY);
+    }
+    
+    /**
+     * Accounts for a message already in the log, e.g. while replaying it at startup
+     */
+    public void record(Message message, String json) {
+        if (policies.isUnlimited()) {
+            return;
+        }
+        ledger.record(conversationOf.apply(message), message.getSequence(), message.getTimestampMillis(),
+                json.length() + 1);
+    }
+    
+    /**
+     * Highest sequence accounted for; replaying the log from here brings retention up to date
+     */
+    public long getLastSequence() {
+        return policies.isUnlimited() ? Long.MAX_VALUE : ledger.getLastSequence();  // nothing is tracked without limits
+    }
+    
+    /**
+     * Forgets everything recorded, e.g. before replaying the whole log again
+     */
+    public void clear() {
+        ledger.clear();
+    }
+    
+    public void writeSnapshot(DataOutput out) throws IOException {
+        ledger.writeTo(out);
+    }
+    
+    public void readSnapshot(DataInput in) throws IOException {
+        ledger.readFrom(in);
+    }
+    
+    @Override
+    public void onAppended(Message message, String json) {
+        record(message, json);
+    }
+    
+    public void addRetentionListener(RetentionListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void start() {
+        thread.start();
+    }
+    
+    private void run() {
+        while (running) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(intervalMs);
+                compact();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                logger.error("Log compaction failed", e);
+            }
+        }
+    }
+    
+    /**
+     * One pass over the log: applies retention and compresses sealed segments
+     */
+    public void compact() throws InterruptedException {
+        List<LogSegment> segments = log.getSegments();
+        int sealed = segments.size() - hotSegments;
+        if (sealed <= 0) {
+            return;
+        }
+        long started = System.nanoTime();
+        long maxSequence = segments.get(sealed - 1).getLastSequence();
+        ConversationLedger.Expiry expiry = ledger.expire(policies, System.currentTimeMillis(), maxSequence);
+        int rewritten = 0;
+        boolean complete = true;
+        for (LogSegment segment : segments.subList(0, sealed)) {
+            if (!running) {
+                return;
+            }
+            if (segment instanceof CompactedSegment
+                    && !expiry.overlaps(segment.getBaseSequence(), segment.getLastSequence())) {
+                continue;  // already compressed and nothing in it has expired
+            }
+            try {
+                rewrite(segment, expiry);
+                rewritten++;
+            } catch (IOException e) {
+                complete = false;
+                logger.error("Could not compact {}", segment.getPath(), e);
+            }
+        }
+        if (complete && !expiry.isEmpty()) {
+            for (Map.Entry<String, Long> expired : ledger.release(expiry).entrySet()) {
+                for (RetentionListener listener : listeners) {
+                    listener.onExpired(expired.getKey(), expired.getValue());
+                }
+            }
+        }
+        if (rewritten > 0) {
+            logger.info("Compacted {} segment(s) in {} ms: dropped {} expired message(s), {} KB reclaimed so far",
+                    rewritten, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                    expiry.sequences.length, reclaimedBytes >> 10);
+        }
+    }
+    
+    private void rewrite(LogSegment segment, ConversationLedger.Expiry expiry) throws IOException, InterruptedException {
+        int generation = segment instanceof CompactedSegment ? ((CompactedSegment) segment).getGeneration() + 1 : 0;
+        Path target = log.getColdDirectory().resolve(CompactedSegment.fileName(segment.getBaseSequence(), generation));
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int kept;
+        try (CompactedSegment.Writer writer = new CompactedSegment.Writer(temp)) {
+            long[] dropped = new long[1];
+            try {
+                segment.replay(segment.getBaseSequence() - 1, (sequence, json) -> {
+                    pace(json.length() + 1);
+                    if (expiry.contains(sequence)) {
+                        dropped[0]++;
+                    } else {
+                        writer.add(sequence, json);
+                    }
+                });
+            } catch (InterruptedIOException e) {
+                throw new InterruptedException("Compaction stopped");
+            }
+            kept = writer.getFrames();
+            writer.finish();
+            droppedMessages += dropped[0];
+        } catch (IOException | InterruptedException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        LogSegment replacement = null;
+        if (kept > 0) {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            replacement = CompactedSegment.open(target, segment.getBaseSequence(), generation);
+        } else {
+            Files.delete(temp);
+        }
+        reclaimedBytes += segment.getSize() - (replacement != null ? replacement.getSize() : 0);
+        log.replaceSegment(segment, replacement);
+    }
+    
+    /**
+     * Sleeps as needed to keep compaction I/O under the configured rate, and while the server is busy
+     */
+    private void pace(int bytes) throws InterruptedIOException {
+        try {
+            if (busy.getAsBoolean()) {
+                while (running && busy.getAsBoolean()) {
+                    Thread.sleep(PAUSE_POLL_MS);
+                }
+                paceStartedNanos = 0;
+            }
+            if (!running) {
+                throw new InterruptedIOException("Compactor closed");
+            }
+            long now = System.nanoTime();
+            if (paceStartedNanos == 0 || now - paceStartedNanos > TimeUnit.SECONDS.toNanos(1)) {
+                paceStartedNanos = now;
+                pacedBytes = 0;
+            }
+            pacedBytes += bytes;
+            long dueNanos = pacedBytes * 1_000_000_000L / bytesPerSecond;
+            long aheadNanos = dueNanos - (now - paceStartedNanos);
+            if (aheadNanos > TimeUnit.MILLISECONDS.toNanos(10)) {
+                TimeUnit.NANOSECONDS.sleep(aheadNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compaction interrupted");
+        }
+    }
+    
+    public long getDroppedMessages() {
+        return droppedMessages;
+    }
+    
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+    
+    @Override
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(5_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
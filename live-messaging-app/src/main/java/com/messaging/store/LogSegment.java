@@ -0,0 +1,36 @@
+package com.messaging.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A file holding a contiguous range of the message log, either the plain
+ * appendable form or the compressed form older history is compacted into
+ */
+public interface LogSegment {
+    Path getPath();
+    
+    /**
+     * Sequence the segment started at; it may have lost its oldest frames to retention
+     */
+    long getBaseSequence();
+    
+    long getLastSequence();
+    
+    int getCount();
+    
+    /**
+     * Bytes on disk
+     */
+    long getSize();
+    
+    /**
+     * Reads the frame for a sequence, or null if this segment does not hold it
+     */
+    String read(long sequence) throws IOException;
+    
+    /**
+     * Streams the frames after the given sequence, oldest first
+     */
+    void replay(long afterSequence, MessageLog.FrameConsumer consumer) throws IOException;
+}
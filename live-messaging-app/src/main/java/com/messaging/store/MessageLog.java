@@ -0,0 +1,382 @@
+package com.messaging.store;
+
+import com.messaging.model.Message;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only, segmented log of routed chat messages.
+ * The routing path only hands frames to a queue; a dedicated writer thread appends
+ * them in batches, flushes once per batch and then notifies listeners (e.g. the search
+ * index), so neither disk I/O nor indexing ever runs on the send path.
+ * Sealed segments may be swapped for compacted ones (see {@link LogCompactor}) while
+ * the log is live; readers that lose the race to a swap retry on the replacement.
+ */
+public class MessageLog implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(MessageLog.class);
+    private static final int MAX_BATCH = 1024;
+    
+    /**
+     * Receives every message after it has been written, on the log writer thread
+     */
+    public interface Listener {
+        void onAppended(Message message, String json);
+    }
+    
+    public interface FrameConsumer {
+        void accept(long sequence, String json) throws IOException;
+    }
+    
+    private static class Entry {
+        final Message message;
+        final String json;
+        
+        Entry(Message message, String json) {
+            this.message = message;
+            this.json = json;
+        }
+    }
+    
+    private static final Entry CLOSE = new Entry(null, null);
+    
+    private final Path directory;
+    private final Path coldDirectory;
+    private final long segmentBytes;
+    private final BlockingQueue<Entry> queue;
+    private final List<LogSegment> segments = new CopyOnWriteArrayList<>();
+    private final Object segmentsLock = new Object();  // serializes structural changes to segments
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong droppedAppends = new AtomicLong();
+    private final Thread writerThread;
+    private Segment active;     // writer thread only
+    private OutputStream out;  // writer thread only
+    private volatile long lastSequence;
+    
+    public MessageLog(Path directory, long segmentBytes, int queueCapacity) throws IOException {
+        this(directory, directory, segmentBytes, queueCapacity);
+    }
+    
+    /**
+     * A log whose compacted segments are kept in coldDirectory, e.g. on cheaper storage
+     */
+    public MessageLog(Path directory, Path coldDirectory, long segmentBytes, int queueCapacity) throws IOException {
+        this.directory = directory;
+        this.coldDirectory = coldDirectory;
+        this.segmentBytes = segmentBytes;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Files.createDirectories(directory);
+        Files.createDirectories(coldDirectory);
+        loadSegments();
+        this.writerThread = new Thread(this::writeLoop, "message-log");
+        this.writerThread.setDaemon(true);
+    }
+    
+    private void loadSegments() throws IOException {
+        SortedMap<Long, Path> plain = new TreeMap<>();
+        SortedMap<Long, long[]> compacted = new TreeMap<>();  // base -> {base, generation}
+        Map<Long, Path> compactedDirs = new HashMap<>();
+        for (Path dir : new LinkedHashSet<>(Arrays.asList(directory, coldDirectory))) {
+            try (var files = Files.list(dir)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    long[] parsed = CompactedSegment.parseName(name);
+                    if (name.endsWith(".tmp")) {
+                        Files.delete(file);  // a compaction cut short by a crash
+                    } else if (parsed != null) {
+                        long[] existing = compacted.get(parsed[0]);
+                        if (existing == null || existing[1] < parsed[1]) {
+                            compacted.put(parsed[0], parsed);
+                            compactedDirs.put(parsed[0], dir);
+                        }
+                    } else if (Segment.parseBaseSequence(name) >= 0) {
+                        plain.put(Segment.parseBaseSequence(name), file);
+                    }
+                }
+            }
+        }
+        
+        SortedSet<Long> bases = new TreeSet<>(plain.keySet());
+        bases.addAll(compacted.keySet());
+        for (long base : bases) {
+            LogSegment segment = null;
+            long[] name = compacted.get(base);
+            if (name != null) {
+                Path path = compactedDirs.get(base).resolve(CompactedSegment.fileName(base, (int) name[1]));
+                try {
+                    segment = CompactedSegment.open(path, base, (int) name[1]);
+                    removeSuperseded(base, (int) name[1], plain.get(base));
+                } catch (IOException e) {
+                    logger.warn("Ignoring unreadable compacted segment {}: {}", path, e.getMessage());
+                }
+            }
+            if (segment == null && plain.containsKey(base)) {
+                Segment loaded = new Segment(plain.get(base), base);
+                loaded.load();
+                segment = loaded;
+            }
+            if (segment != null) {
+                segments.add(segment);
+                lastSequence = Math.max(lastSequence, segment.getLastSequence());
+            }
+        }
+        if (!segments.isEmpty() && segments.get(segments.size() - 1) instanceof Segment) {
+            // Drop a frame torn by a crash so appends start on a clean line
+            active = (Segment) segments.get(segments.size() - 1);
+            try (FileChannel channel = FileChannel.open(active.getPath(), StandardOpenOption.WRITE)) {
+                if (channel.size() > active.getSize()) {
+                    logger.warn("Truncating torn tail of {}", active.getPath());
+                    channel.truncate(active.getSize());
+                }
+            }
+        }
+        logger.info("Message log at {}: {} segment(s), last sequence {}", directory, segments.size(), lastSequence);
+    }
+    
+    /**
+     * Deletes what a finished compaction replaced but did not get to remove before a crash
+     */
+    private void removeSuperseded(long base, int generation, Path plain) throws IOException {
+        if (plain != null) {
+            Files.deleteIfExists(plain);
+        }
+        for (int older = 0; older < generation; older++) {
+            Files.deleteIfExists(coldDirectory.resolve(CompactedSegment.fileName(base, older)));
+            Files.deleteIfExists(directory.resolve(CompactedSegment.fileName(base, older)));
+        }
+    }
+    
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    public void start() {
+        writerThread.start();
+    }
+    
+    /**
+     * Queues a routed message for writing; never blocks. Returns false (and counts
+     * the loss) if the writer has fallen too far behind.
+     */
+    public boolean append(Message message, String json) {
+        if (queue.offer(new Entry(message, json))) {
+            return true;
+        }
+        if (droppedAppends.incrementAndGet() % 1000 == 1) {
+            logger.warn("Message log queue full, {} message(s) not persisted so far", droppedAppends.get());
+        }
+        return false;
+    }
+    
+    /**
+     * Highest sequence written (or loaded at startup)
+     */
+    public long getLastSequence() {
+        return lastSequence;
+    }
+    
+    public long getDroppedAppends() {
+        return droppedAppends.get();
+    }
+    
+    public Path getColdDirectory() {
+        return coldDirectory;
+    }
+    
+    /**
+     * Segments oldest first; the last one is being appended to
+     */
+    public List<LogSegment> getSegments() {
+        return new ArrayList<>(segments);
+    }
+    
+    /**
+     * Swaps a sealed segment for its compacted form, or drops it if replacement is null,
+     * then deletes the old file. Readers still holding the old segment retry on the new one.
+     */
+    void replaceSegment(LogSegment old, LogSegment replacement) throws IOException {
+        synchronized (segmentsLock) {
+            int index = segments.indexOf(old);
+            if (index < 0) {
+                throw new IllegalStateException(old.getPath() + " is not part of the log");
+            }
+            if (replacement != null) {
+                segments.set(index, replacement);
+            } else {
+                segments.remove(index);
+            }
+        }
+        Files.deleteIfExists(old.getPath());
+    }
+    
+    /**
+     * Reads one message frame by sequence, or null if it is not in the log
+     */
+    public String read(long sequence) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            LogSegment segment = segmentFor(sequence);
+            try {
+                return segment != null ? segment.read(sequence) : null;
+            } catch (NoSuchFileException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+                // compacted away under us; look again
+            }
+        }
+    }
+    
+    private LogSegment segmentFor(long sequence) {
+        LogSegment found = null;
+        for (LogSegment segment : segments) {
+            if (segment.getBaseSequence() > sequence) {
+                break;
+            }
+            found = segment;
+        }
+        return found;
+    }
+    
+    /**
+     * Streams every frame after the given sequence, oldest first, to the consumer
+     */
+    public void replay(long afterSequence, FrameConsumer consumer) throws IOException {
+        long[] delivered = {afterSequence};
+        FrameConsumer tracking = (sequence, json) -> {
+            consumer.accept(sequence, json);
+            delivered[0] = sequence;
+        };
+        for (int attempt = 0; ; attempt++) {
+            try {
+                for (LogSegment segment : getSegments()) {
+                    if (segment.getLastSequence() > delivered[0]) {
+                        segment.replay(delivered[0], tracking);
+                    }
+                }
+                return;
+            } catch (NoSuchFileException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+                // a segment was compacted away under us; carry on from the new list
+            }
+        }
+    }
+    
+    private void writeLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                boolean closing = write(batch);
+                batch.clear();
+                if (closing) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeOutput();
+        }
+    }
+    
+    private boolean write(List<Entry> batch) {
+        boolean closing = false;
+        List<Entry> written = new ArrayList<>(batch.size());
+        try {
+            for (Entry entry : batch) {
+                if (entry == CLOSE) {
+                    closing = true;
+                    break;
+                }
+                long sequence = entry.message.getSequence();
+                if (sequence <= lastSequence) {
+                    continue;  // already on disk from before a restart
+                }
+                byte[] bytes = (entry.json + "\n").getBytes(StandardCharsets.UTF_8);
+                Segment segment = writableSegment(sequence);
+                out.write(bytes);
+                segment.indexAppended(sequence, bytes.length);
+                lastSequence = sequence;
+                written.add(entry);
+            }
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.error("Error writing message log", e);
+        }
+        
+        for (Entry entry : written) {
+            for (Listener listener : listeners) {
+                try {
+                    listener.onAppended(entry.message, entry.json);
+                } catch (RuntimeException e) {
+                    logger.error("Message log listener failed", e);
+                }
+            }
+        }
+        return closing;
+    }
+    
+    /**
+     * The segment to append to, rolling over to a new file once the current one is full
+     */
+    private Segment writableSegment(long sequence) throws IOException {
+        if (active != null && active.getSize() < segmentBytes) {
+            if (out == null) {
+                out = new BufferedOutputStream(new FileOutputStream(active.getPath().toFile(), true), 1 << 16);
+            }
+            return active;
+        }
+        if (out != null) {
+            out.flush();
+            out.close();
+        }
+        Segment next = new Segment(directory.resolve(Segment.fileName(sequence)), sequence);
+        out = new BufferedOutputStream(new FileOutputStream(next.getPath().toFile(), true), 1 << 16);
+        synchronized (segmentsLock) {
+            segments.add(next);
+        }
+        active = next;
+        return next;
+    }
+    
+    private void closeOutput() {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+        } catch (IOException e) {
+            logger.error("Error closing message log", e);
+        }
+    }
+    
+    /**
+     * Writes out everything queued so far and stops the writer
+     */
+    @Override
+    public void close() {
+        try {
+            queue.put(CLOSE);
+            writerThread.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
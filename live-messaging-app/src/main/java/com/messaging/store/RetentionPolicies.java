@@ -0,0 +1,139 @@
+package com.messaging.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Resolves the retention policy of a conversation: an entry for that exact
+ * conversation in the retention file, then the limits for its kind
+ * (retention.public.*, retention.dm.*, retention.group.*), then the global
+ * retention.* limits. Limits are maxAge (e.g. 30d, 12h), maxMessages and
+ * maxBytes (e.g. 500k, 10m).
+ * <p>
+ * The file has one conversation per line, e.g. {@code group:alice,bob,carol maxAge=7d maxMessages=1000}.
+ */
+public class RetentionPolicies {
+    private static final Logger logger = LoggerFactory.getLogger(RetentionPolicies.class);
+    
+    private final RetentionPolicy global;
+    private final Map<String, RetentionPolicy> byKind = new HashMap<>();
+    private final Map<String, RetentionPolicy> byConversation = new HashMap<>();
+    
+    public RetentionPolicies(RetentionPolicy global) {
+        this.global = global;
+    }
+    
+    /**
+     * Policies from the retention.* system properties and, if it exists, the given file
+     */
+    public static RetentionPolicies load(Path file) throws IOException {
+        RetentionPolicies policies = new RetentionPolicies(fromSystemProperties("retention."));
+        for (String kind : new String[] {"public", "dm", "group"}) {
+            RetentionPolicy policy = fromSystemProperties("retention." + kind + ".");
+            if (!policy.isUnlimited()) {
+                policies.byKind.put(kind, policy);
+            }
+        }
+        if (file != null && Files.exists(file)) {
+            int lineNumber = 0;
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    long maxAgeMs = 0;
+                    long maxMessages = 0;
+                    long maxBytes = 0;
+                    for (int i = 1; i < fields.length; i++) {
+                        String[] setting = fields[i].split("=", 2);
+                        String value = setting.length == 2 ? setting[1] : "";
+                        switch (setting[0]) {
+                            case "maxAge":
+                                maxAgeMs = parseDuration(value);
+                                break;
+                            case "maxMessages":
+                                maxMessages = Long.parseLong(value);
+                                break;
+                            case "maxBytes":
+                                maxBytes = parseSize(value);
+                                break;
+                            default:
+                                throw new IllegalArgumentException("unknown limit " + setting[0]);
+                        }
+                    }
+                    policies.byConversation.put(fields[0], new RetentionPolicy(maxAgeMs, maxMessages, maxBytes));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Ignoring line {} of {}: {}", lineNumber, file, e.getMessage());
+                }
+            }
+            logger.info("Loaded retention for {} conversation(s) from {}", policies.byConversation.size(), file);
+        }
+        return policies;
+    }
+    
+    private static RetentionPolicy fromSystemProperties(String prefix) {
+        return new RetentionPolicy(
+                parseDuration(System.getProperty(prefix + "maxAge", "0")),
+                Long.getLong(prefix + "maxMessages", 0),
+                parseSize(System.getProperty(prefix + "maxBytes", "0")));
+    }
+    
+    public RetentionPolicy forConversation(String conversation) {
+        RetentionPolicy policy = byConversation.getOrDefault(conversation, RetentionPolicy.UNLIMITED);
+        int colon = conversation.indexOf(':');
+        String kind = colon < 0 ? conversation : conversation.substring(0, colon);
+        return policy.orElse(byKind.getOrDefault(kind, RetentionPolicy.UNLIMITED)).orElse(global);
+    }
+    
+    /**
+     * True if no conversation has any limit, so nothing ever expires
+     */
+    public boolean isUnlimited() {
+        return global.isUnlimited() && byKind.isEmpty()
+                && byConversation.values().stream().allMatch(RetentionPolicy::isUnlimited);
+    }
+    
+    /**
+     * Milliseconds from a number with an optional ms, s, m, h or d suffix (plain numbers are ms)
+     */
+    static long parseDuration(String value) {
+        String v = value.trim().toLowerCase();
+        if (v.endsWith("ms")) {
+            return Long.parseLong(v.substring(0, v.length() - 2));
+        }
+        long unit;
+        switch (v.isEmpty() ? ' ' : v.charAt(v.length() - 1)) {
+            case 's': unit = 1000L; break;
+            case 'm': unit = 60_000L; break;
+            case 'h': unit = 3_600_000L; break;
+            case 'd': unit = 86_400_000L; break;
+            default: return Long.parseLong(v);
+        }
+        return Long.parseLong(v.substring(0, v.length() - 1)) * unit;
+    }
+    
+    /**
+     * Bytes from a number with an optional k, m or g suffix
+     */
+    static long parseSize(String value) {
+        String v = value.trim().toLowerCase();
+        long unit;
+        switch (v.isEmpty() ? ' ' : v.charAt(v.length() - 1)) {
+            case 'k': unit = 1L << 10; break;
+            case 'm': unit = 1L << 20; break;
+            case 'g': unit = 1L << 30; break;
+            default: return Long.parseLong(v);
+        }
+        return Long.parseLong(v.substring(0, v.length() - 1)) * unit;
+    }
+}
@@ -0,0 +1,50 @@
+package com.messaging.store;
+
+/**
+ * How much of one conversation's history to keep. Each limit is off when 0;
+ * a message is dropped as soon as any limit that is on excludes it.
+ */
+public class RetentionPolicy {
+    public static final RetentionPolicy UNLIMITED = new RetentionPolicy(0, 0, 0);
+    
+    private final long maxAgeMs;
+    private final long maxMessages;
+    private final long maxBytes;
+    
+    public RetentionPolicy(long maxAgeMs, long maxMessages, long maxBytes) {
+        this.maxAgeMs = Math.max(0, maxAgeMs);
+        this.maxMessages = Math.max(0, maxMessages);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+    
+    public long getMaxAgeMs() {
+        return maxAgeMs;
+    }
+    
+    public long getMaxMessages() {
+        return maxMessages;
+    }
+    
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+    
+    public boolean isUnlimited() {
+        return maxAgeMs == 0 && maxMessages == 0 && maxBytes == 0;
+    }
+    
+    /**
+     * This policy with any limit it leaves off taken from the fallback
+     */
+    public RetentionPolicy orElse(RetentionPolicy fallback) {
+        return new RetentionPolicy(
+                maxAgeMs != 0 ? maxAgeMs : fallback.maxAgeMs,
+                maxMessages != 0 ? maxMessages : fallback.maxMessages,
+                maxBytes != 0 ? maxBytes : fallback.maxBytes);
+    }
+    
+    @Override
+    public String toString() {
+        return "RetentionPolicy{maxAgeMs=" + maxAgeMs + ", maxMessages=" + maxMessages + ", maxBytes=" + maxBytes + "}";
+    }
+}
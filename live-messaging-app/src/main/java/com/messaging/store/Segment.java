@@ -0,0 +1,209 @@
+package com.messaging.store;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * One file of the message log: JSON frames, one per line, in sequence order.
+ * Keeps the byte offset of every frame so a single message can be read without a scan.
+ */
+public class Segment implements LogSegment {
+    private final Path path;
+    private final long baseSequence;
+    private long[] sequences = new long[256];
+    private long[] offsets = new long[256];
+    private int count;
+    private long size;
+    
+    Segment(Path path, long baseSequence) {
+        this.path = path;
+        this.baseSequence = baseSequence;
+    }
+    
+    static String fileName(long baseSequence) {
+        return String.format("%020d.log", baseSequence);
+    }
+    
+    /**
+     * Base sequence encoded in a segment file name, or -1 if it is not a segment
+     */
+    static long parseBaseSequence(String fileName) {
+        if (!fileName.endsWith(".log")) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - 4));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    @Override
+    public Path getPath() {
+        return path;
+    }
+    
+    @Override
+    public long getBaseSequence() {
+        return baseSequence;
+    }
+    
+    @Override
+    public synchronized long getLastSequence() {
+        return count == 0 ? baseSequence - 1 : sequences[count - 1];
+    }
+    
+    @Override
+    public synchronized int getCount() {
+        return count;
+    }
+    
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+    
+    /**
+     * Records that a frame of the given length now sits at the end of the file
+     */
+    synchronized void indexAppended(long sequence, int length) {
+        if (count == sequences.length) {
+            sequences = Arrays.copyOf(sequences, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        sequences[count] = sequence;
+        offsets[count] = size;
+        count++;
+        size += length;
+    }
+    
+    /**
+     * Rebuilds the offset index from the file, stopping at a torn last line.
+     * Works on raw bytes since this runs over the whole hot log at every startup.
+     */
+    void load() throws IOException {
+        byte[] buffer = new byte[1 << 20];
+        int filled = 0;
+        try (InputStream in = new FileInputStream(path.toFile())) {
+            int read;
+            while ((read = in.read(buffer, filled, buffer.length - filled)) > 0) {
+                int scanned = filled;
+                filled += read;
+                int start = 0;
+                for (int i = scanned; i < filled; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    long sequence = extractSequence(buffer, start, i);
+                    if (sequence > 0) {
+                        indexAppended(sequence, i - start + 1);
+                    } else {
+                        size += i - start + 1;  // unreadable frame; skip over it
+                    }
+                    start = i + 1;
+                }
+                // Carry the partial last line over, growing the buffer for a frame larger than it
+                filled -= start;
+                System.arraycopy(buffer, start, buffer, 0, filled);
+                if (filled == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+            }
+        }
+    }
+    
+    @Override
+    public String read(long sequence) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            int index = Arrays.binarySearch(sequences, 0, count, sequence);
+            if (index < 0) {
+                return null;
+            }
+            offset = offsets[index];
+            long end = index + 1 < count ? offsets[index + 1] : size;
+            length = (int) (end - offset);  // up to the next indexed frame, maybe past a skipped one
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new EOFException("Segment " + path + " is shorter than its index");
+                }
+            }
+        }
+        byte[] bytes = buffer.array();
+        int newline = 0;
+        while (bytes[newline] != '\n') {
+            newline++;
+        }
+        return new String(bytes, 0, newline, StandardCharsets.UTF_8);
+    }
+    
+    @Override
+    public void replay(long afterSequence, MessageLog.FrameConsumer consumer) throws IOException {
+        long end = getSize();  // frames appended while replaying are left for the next reader
+        long position = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while (position < end && (line = reader.readLine()) != null) {
+                position += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                long sequence = extractSequence(line);
+                if (sequence > afterSequence) {
+                    consumer.accept(sequence, line);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Pulls "sequence" out of a serialized frame without a full parse
+     */
+    private static final byte[] SEQUENCE_KEY = "\"sequence\":".getBytes(StandardCharsets.US_ASCII);
+    
+    /**
+     * Same as {@link #extractSequence(String)} over the UTF-8 bytes of a frame
+     */
+    static long extractSequence(byte[] frame, int start, int end) {
+        search:
+        for (int i = start; i + SEQUENCE_KEY.length <= end; i++) {
+            for (int j = 0; j < SEQUENCE_KEY.length; j++) {
+                if (frame[i + j] != SEQUENCE_KEY[j]) {
+                    continue search;
+                }
+            }
+            long sequence = 0;
+            int digits = 0;
+            for (int k = i + SEQUENCE_KEY.length; k < end && frame[k] >= '0' && frame[k] <= '9' && digits < 19; k++) {
+                sequence = sequence * 10 + (frame[k] - '0');
+                digits++;
+            }
+            return digits > 0 ? sequence : -1;
+        }
+        return -1;
+    }
+    
+    static long extractSequence(String json) {
+        int key = json.indexOf("\"sequence\":");
+        if (key < 0) {
+            return -1;
+        }
+        int start = key + "\"sequence\":".length();
+        int end = start;
+        while (end < json.length() && Character.isDigit(json.charAt(end))) {
+            end++;
+        }
+        try {
+            return Long.parseLong(json.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
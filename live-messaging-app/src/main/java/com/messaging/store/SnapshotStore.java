@@ -0,0 +1,157 @@
+package com.messaging.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Point-in-time copies of server state, so a restart replays only the tail of the
+ * message log. A snapshot is a set of named sections, each owned by one component
+ * and written in that component's own format, followed by a CRC32 of everything
+ * before it. Files are written under a temporary name and moved into place; the
+ * newest file that passes its checksum wins, older ones are pruned.
+ */
+public class SnapshotStore {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotStore.class);
+    private static final int MAGIC = 0x534E4150;  // "SNAP"
+    private static final int VERSION = 3;  // 3: conversation numbering keeps the floor of forgotten counters
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int KEEP = 2;
+    
+    private final Path directory;
+    
+    /**
+     * A loaded snapshot: the sequence it was taken at and its sections by name
+     */
+    public static class Snapshot {
+        private final long sequence;
+        private final Map<String, byte[]> sections;
+        
+        Snapshot(long sequence, Map<String, byte[]> sections) {
+            this.sequence = sequence;
+            this.sections = sections;
+        }
+        
+        public long getSequence() {
+            return sequence;
+        }
+        
+        /**
+         * A section's contents, or null if the snapshot has none by that name
+         */
+        public DataInputStream section(String name) {
+            byte[] bytes = sections.get(name);
+            return bytes != null ? new DataInputStream(new ByteArrayInputStream(bytes)) : null;
+        }
+    }
+    
+    public SnapshotStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+    
+    /**
+     * Writes a snapshot taken at the given sequence and removes all but the newest few
+     */
+    public Path write(long sequence, Map<String, byte[]> sections) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, sequence, SUFFIX));
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        FileOutputStream file = new FileOutputStream(temp.toFile());
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sequence);
+            out.writeInt(sections.size());
+            for (Map.Entry<String, byte[]> section : sections.entrySet()) {
+                out.writeUTF(section.getKey());
+                out.writeInt(section.getValue().length);
+                out.write(section.getValue());
+            }
+            out.flush();
+            new DataOutputStream(file).writeLong(crc.getValue());
+            file.getFD().sync();
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        prune();
+        return target;
+    }
+    
+    /**
+     * The newest intact snapshot, or null if there is none
+     */
+    public Snapshot readLatest() throws IOException {
+        List<Path> files = list();
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException e) {
+                logger.warn("Skipping unreadable snapshot {}: {}", files.get(i), e.getMessage());
+            }
+        }
+        return null;
+    }
+    
+    private Snapshot read(Path path) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+            DataInputStream in = new DataInputStream(new CheckedInputStream(file, crc));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("not a snapshot of this version");
+            }
+            long sequence = in.readLong();
+            int count = in.readInt();
+            Map<String, byte[]> sections = new LinkedHashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                sections.put(name, bytes);
+            }
+            long expected = crc.getValue();
+            if (new DataInputStream(file).readLong() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+            return new Snapshot(sequence, sections);
+        }
+    }
+    
+    private List<Path> list() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (var entries = Files.list(directory)) {
+            entries.forEach(file -> {
+                String name = file.getFileName().toString();
+                if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+                    files.add(file);
+                } else if (name.startsWith(PREFIX) && name.endsWith(".tmp")) {
+                    file.toFile().delete();  // left by a crash mid-write
+                }
+            });
+        }
+        files.sort(null);  // zero-padded sequence, so name order is age order
+        return files;
+    }
+    
+    private void prune() throws IOException {
+        List<Path> files = list();
+        for (int i = 0; i < files.size() - KEEP; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.messaging.store;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records inbound client frames with their arrival times, so a load seen in production
+ * can be replayed against a local server (see {@link CaptureReader}). Reading threads only
+ * copy the frame and hand it to a queue; a writer thread encodes and writes it, and frames
+ * are dropped (and counted) rather than ever holding up a connection.
+ *
+ * The file is a header (magic, version, start time in epoch milliseconds) followed by one
+ * record per frame, each three unsigned varints and the frame bytes: connection number,
+ * microseconds since the previous record, and frame length plus one, zero marking the end
+ * of the connection. Passwords and resume tokens are blanked out of LOGIN frames.
+ */
+public class TrafficCapture implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TrafficCapture.class);
+    static final int MAGIC = 0x4C4D4341;  // "LMCA"
+    static final int VERSION = 1;
+    private static final int MAX_BATCH = 1024;
+    private static final byte[] LOGIN = "\"LOGIN\"".getBytes(StandardCharsets.US_ASCII);
+    
+    private static class Record {
+        final int connection;
+        final long nanos;
+        final byte[] frame;  // null when the connection closed
+        
+        Record(int connection, long nanos, byte[] frame) {
+            this.connection = connection;
+            this.nanos = nanos;
+            this.frame = frame;
+        }
+    }
+    
+    private static final Record CLOSE = new Record(0, 0, null);
+    
+    private final Path file;
+    private final BlockingQueue<Record> queue;
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writerThread;
+    private final DataOutputStream out;  // writer thread only
+    private final long startNanos;
+    private long lastMicros;             // writer thread only
+    private long frames;                 // writer thread only
+    private volatile boolean closed;
+    
+    private TrafficCapture(Path file, int queueCapacity, DataOutputStream out) {
+        this.file = file;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.out = out;
+        this.startNanos = System.nanoTime();
+        this.writerThread = new Thread(this::writeLoop, "traffic-capture");
+        this.writerThread.setDaemon(true);
+    }
+    
+    /**
+     * Starts a capture, replacing any file already there
+     */
+    public static TrafficCapture open(Path file, int queueCapacity) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 << 10));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeLong(System.currentTimeMillis());
+        TrafficCapture capture = new TrafficCapture(file, queueCapacity, out);
+        capture.writerThread.start();
+        logger.info("Capturing inbound traffic to {}", file);
+        return capture;
+    }
+    
+    /**
+     * Queues a frame a connection sent; never blocks. The array is kept, so it must be a copy.
+     */
+    public void record(int connection, byte[] frame) {
+        enqueue(new Record(connection, System.nanoTime(), frame));
+    }
+    
+    /**
+     * Marks the end of a connection, so a replay closes its socket at the same point
+     */
+    public void closed(int connection) {
+        enqueue(new Record(connection, System.nanoTime(), null));
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    private void enqueue(Record record) {
+        if (closed || queue.offer(record)) {
+            return;
+        }
+        if (dropped.incrementAndGet() % 1000 == 1) {
+            logger.warn("Traffic capture queue full, {} frame(s) not captured so far", dropped.get());
+        }
+    }
+    
+    private void writeLoop() {
+        List<Record> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                Record first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    out.flush();  // quiet: make what there is readable
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                for (Record record : batch) {
+                    if (record == CLOSE) {
+                        return;
+                    }
+                    write(record);
+                }
+                batch.clear();
+            }
+        } catch (IOException e) {
+            logger.error("Traffic capture to {} failed, stopping it", file, e);
+            closed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.error("Error closing traffic capture", e);
+            }
+            logger.info("Captured {} frame(s) to {} ({} dropped)", frames, file, dropped.get());
+        }
+    }
+    
+    private void write(Record record) throws IOException {
+        // Records from different reading threads may be queued slightly out of time order
+        long micros = Math.max(lastMicros, (record.nanos - startNanos) / 1000);
+        writeVarint(out, record.connection);
+        writeVarint(out, micros - lastMicros);
+        lastMicros = micros;
+        if (record.frame == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] frame = redact(record.frame);
+        writeVarint(out, frame.length + 1L);
+        out.write(frame);
+        frames++;
+    }
+    
+    /**
+     * A LOGIN frame without its password and resume token; other frames as they are
+     */
+    static byte[] redact(byte[] frame) {
+        if (indexOf(frame, LOGIN) < 0) {
+            return frame;
+        }
+        try {
+            JsonElement json = JsonParser.parseString(new String(frame, StandardCharsets.UTF_8));
+            if (!json.isJsonObject()) {
+                return frame;
+            }
+            JsonObject object = (JsonObject) json;
+            JsonElement type = object.get("type");
+            if (type == null || !type.isJsonPrimitive() || !"LOGIN".equals(type.getAsString())) {
+                return frame;
+            }
+            object.remove("content");
+            object.remove("resumeToken");
+            return object.toString().getBytes(StandardCharsets.UTF_8);
+        } catch (JsonParseException e) {
+            return frame;  // the server could not read it either
+        }
+    }
+    
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i <= bytes.length - pattern.length; i++) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    /**
+     * Writes out everything queued so far and stops the writer; frames recorded afterwards are ignored
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            // The writer may have given up already, leaving the queue full
+            if (queue.offer(CLOSE, 10, TimeUnit.SECONDS)) {
+                writerThread.join(10_000);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
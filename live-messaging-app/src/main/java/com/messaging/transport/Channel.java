@@ -0,0 +1,50 @@
+package com.messaging.transport;
+
+/**
+ * Server side of one connection, as the server writes to it
+ */
+public interface Channel {
+    
+    /**
+     * Where the connection comes from, for logging
+     */
+    String getRemoteAddress();
+    
+    /**
+     * Writes one frame, without its line terminator; may be buffered until flush.
+     * Meant for one writing thread at a time, and never blocks on a slow peer.
+     * A failed write surfaces as the connection closing.
+     */
+    void send(String frame);
+    
+    /**
+     * Starts writing what was sent; may return before the peer has it
+     */
+    void flush();
+    
+    /**
+     * True while output flushed earlier is still waiting to be written; a sender with more
+     * should hold it until the writable listener runs rather than pile it up here.
+     * The listener runs only after this has returned true.
+     */
+    default boolean isBacklogged() {
+        return false;
+    }
+    
+    /**
+     * Sets what to run, on any thread, once a reported backlog has been taken up or the connection closed
+     */
+    default void setWritableListener(Runnable listener) {
+    }
+    
+    /**
+     * Turns a new connection away with a notice, if the transport can deliver one cheaply, and closes it
+     */
+    void refuse(String notice);
+    
+    /**
+     * Closes the connection from any thread, after output already flushed where the transport
+     * can finish it in time; its handler is then told it closed
+     */
+    void close();
+}
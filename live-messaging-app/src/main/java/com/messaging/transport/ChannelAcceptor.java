@@ -0,0 +1,13 @@
+package com.messaging.transport;
+
+/**
+ * Decides what becomes of a new connection
+ */
+public interface ChannelAcceptor {
+    
+    /**
+     * Returns the handler for the connection's frames, or null after refusing it with
+     * {@link Channel#refuse}. Called on the transport's accepting thread, so it must be quick.
+     */
+    ChannelHandler accept(Channel channel);
+}
@@ -0,0 +1,23 @@
+package com.messaging.transport;
+
+/**
+ * Receives what arrives on one connection. Calls for a connection never overlap.
+ */
+public interface ChannelHandler {
+    
+    /**
+     * One inbound frame; it is only valid during the call
+     */
+    void onFrame(Frame frame);
+    
+    /**
+     * The peer broke the framing, e.g. with a frame over the size limit. Nothing more will be
+     * read; the handler may still write an explanation before the connection closes.
+     */
+    void onProtocolError(String reason);
+    
+    /**
+     * The connection has ended, by either side; called exactly once, and last
+     */
+    void onClosed();
+}
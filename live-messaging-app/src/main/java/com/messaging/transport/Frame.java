@@ -0,0 +1,19 @@
+package com.messaging.transport;
+
+import java.io.Reader;
+
+/**
+ * One inbound frame, valid only while the handler it was passed to runs
+ */
+public interface Frame {
+    
+    /**
+     * The frame's text, for a JSON parser to consume
+     */
+    Reader reader();
+    
+    /**
+     * A copy of the frame's UTF-8 bytes, without the line terminator, to keep past the call
+     */
+    byte[] copyBytes();
+}
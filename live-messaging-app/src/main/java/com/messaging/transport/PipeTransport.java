@@ -0,0 +1,163 @@
+package com.messaging.transport;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connections inside one JVM, for driving the server's routing, presence and fan-out
+ * without sockets or the kernel in the way. Nothing is buffered and no thread is started:
+ * a simulated client's frame is handled on the thread that sends it, and a frame the server
+ * writes is handed to the client's listener on the server thread that writes it. A connection
+ * costs a few small objects, so millions fit in one heap, and a single sending thread makes
+ * the server see frames in exactly the order they were sent.
+ */
+public class PipeTransport implements Transport {
+    
+    /**
+     * Client side of a pipe: receives what the server sends, on the server's threads
+     */
+    public interface Listener {
+        
+        void onFrame(String frame);
+        
+        /**
+         * The connection ended, by either side
+         */
+        default void onClosed() {
+        }
+    }
+    
+    private final AtomicLong connections = new AtomicLong();
+    private volatile ChannelAcceptor acceptor;
+    
+    @Override
+    public void start(ChannelAcceptor acceptor) {
+        this.acceptor = acceptor;
+    }
+    
+    /**
+     * Connects a simulated client. A connection the server refuses comes back already closed,
+     * after its listener has been given the notice.
+     */
+    public Pipe connect(Listener listener) throws IOException {
+        ChannelAcceptor current = acceptor;
+        if (current == null) {
+            throw new IOException("Connection refused: transport not listening");
+        }
+        Pipe pipe = new Pipe("pipe-" + connections.incrementAndGet(), listener);
+        pipe.handler = current.accept(pipe.serverEnd);
+        if (pipe.handler == null) {
+            pipe.closed.set(true);
+        }
+        return pipe;
+    }
+    
+    @Override
+    public int getBacklog() {
+        return 0;
+    }
+    
+    @Override
+    public void close() {
+        acceptor = null;
+    }
+    
+    @Override
+    public String toString() {
+        return "in-memory pipes";
+    }
+    
+    /**
+     * One simulated connection, as its client uses it. Like a socket's reading side it is
+     * meant for one sending thread at a time.
+     */
+    public static class Pipe {
+        private final String name;
+        private final Listener listener;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Channel serverEnd = new ServerEnd();
+        private volatile ChannelHandler handler;
+        
+        private Pipe(String name, Listener listener) {
+            this.name = name;
+            this.listener = listener;
+        }
+        
+        /**
+         * Hands a frame to the server, which handles it before this returns; false once the connection is closed
+         */
+        public boolean send(String frame) {
+            if (closed.get()) {
+                return false;
+            }
+            handler.onFrame(new TextFrame(frame));
+            return true;
+        }
+        
+        public boolean isOpen() {
+            return !closed.get();
+        }
+        
+        /**
+         * Ends the connection, as if the client's socket closed
+         */
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                handler.onClosed();
+                listener.onClosed();
+            }
+        }
+        
+        private class ServerEnd implements Channel {
+            
+            @Override
+            public String getRemoteAddress() {
+                return name;
+            }
+            
+            @Override
+            public void send(String frame) {
+                if (!closed.get()) {
+                    listener.onFrame(frame);
+                }
+            }
+            
+            @Override
+            public void flush() {
+            }
+            
+            @Override
+            public void refuse(String notice) {
+                listener.onFrame(notice);
+                listener.onClosed();
+            }
+            
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        }
+    }
+    
+    private static class TextFrame implements Frame {
+        private final String text;
+        
+        TextFrame(String text) {
+            this.text = text;
+        }
+        
+        @Override
+        public Reader reader() {
+            return new StringReader(text);
+        }
+        
+        @Override
+        public byte[] copyBytes() {
+            return text.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package com.messaging.transport;
+
+import com.messaging.util.FrameDecoder;
+import com.messaging.util.FrameTooLargeException;
+import com.messaging.util.Tls;
+import com.messaging.util.TlsStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Newline-delimited frames over TCP, optionally inside TLS. One thread accepts; each
+ * connection is then read by a thread of a fixed pool, which also runs the TLS handshake,
+ * so a slow or hostile peer never holds up accepting. Frames sent are buffered per
+ * connection and written by a writer thread, so a peer that stops reading blocks only its
+ * own writer, and a connection whose write stalls past the write timeout is closed.
+ */
+public class TcpTransport implements Transport {
+    private static final Logger logger = LoggerFactory.getLogger(TcpTransport.class);
+    // Shared by every transport in the process; keeps timing writes out while connections drain after close
+    private static final ScheduledExecutorService WRITE_WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "write-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final int port;
+    private final int maxFrameBytes;
+    private final int writeTimeoutMs;
+    private final ThreadPoolExecutor readers;
+    // Grows with the connections mid-write; idle threads go away on their own
+    private final ExecutorService writers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<TcpChannel> writing = ConcurrentHashMap.newKeySet();
+    private final Path keyStore;  // null for plaintext
+    private final char[] keyStorePassword;
+    private final String[] protocols;
+    private final int handshakeTimeoutMs;
+    private final int sessionCacheSize;
+    private final int sessionTimeoutSeconds;
+    private SSLContext tlsContext;
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+    
+    public TcpTransport(int port, int readerThreads, int maxFrameBytes, int writeTimeoutMs) {
+        this(port, readerThreads, maxFrameBytes, writeTimeoutMs, null, null, null, 0, 0, 0);
+    }
+    
+    /**
+     * A transport accepting only TLS, with the key and certificate chain in a PKCS12 or JKS
+     * key store (null for plaintext); the key store is read when the transport starts
+     */
+    public TcpTransport(int port, int readerThreads, int maxFrameBytes, int writeTimeoutMs, Path keyStore,
+                        char[] keyStorePassword, String[] protocols, int handshakeTimeoutMs,
+                        int sessionCacheSize, int sessionTimeoutSeconds) {
+        this.port = port;
+        this.maxFrameBytes = maxFrameBytes;
+        this.writeTimeoutMs = writeTimeoutMs;
+        this.readers = (ThreadPoolExecutor) Executors.newFixedThreadPool(readerThreads);
+        this.keyStore = keyStore;
+        this.keyStorePassword = keyStorePassword;
+        this.protocols = protocols;
+        this.handshakeTimeoutMs = handshakeTimeoutMs;
+        this.sessionCacheSize = sessionCacheSize;
+        this.sessionTimeoutSeconds = sessionTimeoutSeconds;
+    }
+    
+    @Override
+    public void start(ChannelAcceptor acceptor) throws IOException {
+        if (keyStore != null) {
+            tlsContext = Tls.serverContext(keyStore, keyStorePassword, sessionCacheSize, sessionTimeoutSeconds);
+        }
+        serverSocket = new ServerSocket(port);
+        running = true;
+        long period = Math.max(10, writeTimeoutMs / 4);
+        WRITE_WATCHDOG.scheduleWithFixedDelay(this::closeStalledWriters, period, period, TimeUnit.MILLISECONDS);
+        // Not a daemon: a server started from main lives as long as it accepts
+        Thread thread = new Thread(() -> acceptConnections(acceptor), "acceptor");
+        thread.start();
+    }
+    
+    /**
+     * The port listened on, once started
+     */
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+    
+    public boolean isSecure() {
+        return keyStore != null;
+    }
+    
+    @Override
+    public int getBacklog() {
+        return readers.getQueue().size();
+    }
+    
+    private void acceptConnections(ChannelAcceptor acceptor) {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                TcpChannel channel = new TcpChannel(socket);
+                ChannelHandler handler = acceptor.accept(channel);
+                if (handler != null) {
+                    readers.execute(() -> serve(channel, handler));
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.error("Error accepting connection", e);
+                }
+            }
+        }
+    }
+    
+    private void serve(TcpChannel channel, ChannelHandler handler) {
+        FrameDecoder decoder = null;
+        try {
+            decoder = channel.open();
+            DecodedFrame frame = new DecodedFrame(decoder);
+            while ((frame.reader = decoder.nextFrame()) != null) {
+                handler.onFrame(frame);
+            }
+        } catch (FrameTooLargeException e) {
+            handler.onProtocolError(e.getMessage());
+        } catch (SSLException | SocketTimeoutException e) {
+            // Scanners, plaintext clients and peers that reject the certificate end up here
+            logger.info("TLS with {} failed: {}", channel.getRemoteAddress(), e.getMessage());
+        } catch (IOException e) {
+            if (channel.closed.get()) {
+                logger.debug("Connection from {} closed by the server: {}", channel.getRemoteAddress(), e.getMessage());
+            } else {
+                logger.error("Error handling client", e);
+            }
+        } finally {
+            handler.onClosed();
+            channel.close();
+            if (decoder != null) {
+                decoder.release();
+            }
+        }
+    }
+    
+    private void closeStalledWriters() {
+        long now = System.nanoTime();
+        for (TcpChannel channel : writing) {
+            long startedAt = channel.writeStartedAt;
+            if (startedAt != 0 && now - startedAt > TimeUnit.MILLISECONDS.toNanos(writeTimeoutMs)) {
+                logger.warn("Write to {} stalled for over {} ms, closing it", channel.getRemoteAddress(), writeTimeoutMs);
+                channel.closeSocket();
+            }
+        }
+    }
+    
+    /**
+     * Stops accepting and lets the reader threads finish with the connections they have
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverSocket != null && !serverSocket.isClosed()) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            logger.error("Error closing server socket", e);
+        }
+        readers.shutdown();
+    }
+    
+    @Override
+    public String toString() {
+        return "port " + getPort() + (isSecure() ? " (TLS)" : "");
+    }
+    
+    private static class DecodedFrame implements Frame {
+        private final FrameDecoder decoder;
+        Reader reader;
+        
+        DecodedFrame(FrameDecoder decoder) {
+            this.decoder = decoder;
+        }
+        
+        @Override
+        public Reader reader() {
+            return reader;
+        }
+        
+        @Override
+        public byte[] copyBytes() {
+            return decoder.copyFrame();
+        }
+    }
+    
+    private class TcpChannel implements Channel {
+        private final Socket socket;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile TlsStream tls;  // null for plaintext
+        private volatile Writer writer;
+        // Guarded by this: frames sent but not yet handed to the writer thread
+        private StringBuilder unwritten = new StringBuilder();
+        private boolean writeScheduled;
+        private boolean closeRequested;
+        private boolean backlogReported;
+        private Runnable writableListener;
+        volatile long writeStartedAt;  // 0 while no write is in progress
+        
+        TcpChannel(Socket socket) {
+            this.socket = socket;
+        }
+        
+        /**
+         * Shakes hands if need be and sets up the streams; on the reading thread
+         */
+        FrameDecoder open() throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            if (tlsContext != null) {
+                tls = new TlsStream(Tls.serverEngine(tlsContext, protocols), in, out);
+                socket.setSoTimeout(handshakeTimeoutMs);
+                tls.handshake();
+                socket.setSoTimeout(0);
+                in = tls.getInputStream();
+                out = tls.getOutputStream();
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            return new FrameDecoder(in, maxFrameBytes);
+        }
+        
+        @Override
+        public String getRemoteAddress() {
+            return String.valueOf(socket.getInetAddress());
+        }
+        
+        @Override
+        public void send(String frame) {
+            synchronized (this) {
+                if (closeRequested) {
+                    return;
+                }
+                unwritten.append(frame).append('\n');
+            }
+        }
+        
+        /**
+         * Hands what was sent to a writer thread; never waits for the peer
+         */
+        @Override
+        public void flush() {
+            synchronized (this) {
+                if (writeScheduled || unwritten.length() == 0 || writer == null) {
+                    return;
+                }
+                writeScheduled = true;
+            }
+            writers.execute(this::writeOut);
+        }
+        
+        /**
+         * True while one batch is being written and the next is already waiting behind it
+         */
+        @Override
+        public synchronized boolean isBacklogged() {
+            if (writeScheduled && unwritten.length() > 0 && !closeRequested) {
+                backlogReported = true;
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        public synchronized void setWritableListener(Runnable listener) {
+            this.writableListener = listener;
+        }
+        
+        // Tells whoever saw a backlog that it has been taken up; call outside the lock
+        private void notifyWritable() {
+            Runnable listener;
+            synchronized (this) {
+                if (!backlogReported) {
+                    return;
+                }
+                backlogReported = false;
+                listener = writableListener;
+            }
+            if (listener != null) {
+                listener.run();
+            }
+        }
+        
+        // On a writer thread, one per channel at a time
+        private void writeOut() {
+            writing.add(this);
+            try {
+                while (true) {
+                    String batch;
+                    synchronized (this) {
+                        if (unwritten.length() == 0) {
+                            writeScheduled = false;
+                            break;
+                        }
+                        batch = unwritten.toString();
+                        // Don't keep a burst's worth of capacity around for an idle connection
+                        unwritten = unwritten.capacity() > 8192 ? new StringBuilder() : unwritten.delete(0, batch.length());
+                    }
+                    notifyWritable();
+                    writeStartedAt = System.nanoTime();
+                    writer.write(batch);
+                    writer.flush();
+                    writeStartedAt = 0;
+                }
+            } catch (IOException e) {
+                // The reading thread sees the socket close and ends the connection
+                logger.debug("Writing to {} failed: {}", getRemoteAddress(), e.getMessage());
+                synchronized (this) {
+                    closeRequested = true;
+                    writeScheduled = false;
+                    unwritten = new StringBuilder();
+                }
+            } finally {
+                writeStartedAt = 0;
+                writing.remove(this);
+            }
+            boolean closeNow;
+            synchronized (this) {
+                closeNow = closeRequested && !writeScheduled;
+            }
+            if (closeNow) {
+                closeSocket();
+            }
+        }
+        
+        /**
+         * Over TLS the notice would need a handshake, which is exactly the work being shed,
+         * so the socket is just closed; the client retries with backoff either way
+         */
+        @Override
+        public void refuse(String notice) {
+            try (Socket closing = socket) {
+                if (tlsContext != null) {
+                    return;
+                }
+                closing.setSoTimeout(1000);
+                PrintWriter out = new PrintWriter(closing.getOutputStream(), true);
+                out.println(notice);
+            } catch (IOException e) {
+                logger.debug("Error refusing connection", e);
+            }
+        }
+        
+        /**
+         * Closes the connection once output already flushed is written, or the write
+         * times out; the reading thread then ends the connection
+         */
+        @Override
+        public void close() {
+            boolean closeNow;
+            synchronized (this) {
+                closeRequested = true;
+                closeNow = !writeScheduled;
+            }
+            if (closeNow) {
+                closeSocket();
+            }
+        }
+        
+        void closeSocket() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                TlsStream tls = this.tls;
+                if (tls != null && writeStartedAt == 0) {
+                    tls.closeOutbound();
+                }
+                socket.close();
+            } catch (IOException e) {
+                logger.error("Error closing socket", e);
+            }
+            // Whatever is still waiting to be sent can now be dropped
+            notifyWritable();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.messaging.transport;
+
+import java.io.IOException;
+
+/**
+ * How clients reach the server: TCP sockets in production, or in-memory pipes to drive the
+ * server's routing without a network stack. A transport reads each connection's frames and
+ * hands them, in order and one at a time, to the handler the acceptor gave it for that
+ * connection; writing goes through the connection's {@link Channel}.
+ */
+public interface Transport {
+    
+    /**
+     * Starts taking connections and returns; from now on the acceptor is called for each new one
+     */
+    void start(ChannelAcceptor acceptor) throws IOException;
+    
+    /**
+     * Connections accepted but still waiting for the transport to start reading them
+     */
+    int getBacklog();
+    
+    /**
+     * Stops taking connections. Those already open stay open until they are closed.
+     */
+    void close();
+}
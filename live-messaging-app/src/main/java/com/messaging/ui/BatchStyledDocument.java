@@ -0,0 +1,59 @@
+package com.messaging.ui;
+
+import javax.swing.text.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Styled document that collects appended runs and inserts them in a single edit.
+ * One insert means one document event and one layout pass per batch instead of
+ * one per string.
+ */
+public class BatchStyledDocument extends DefaultStyledDocument {
+    private static final char[] EOL = {'\n'};
+    
+    private final List<ElementSpec> batch = new ArrayList<>();
+    
+    public void appendBatchString(String text, AttributeSet attributes) {
+        if (text.isEmpty()) {
+            return;
+        }
+        AttributeSet copy = attributes != null ? attributes.copyAttributes() : SimpleAttributeSet.EMPTY;
+        char[] chars = text.toCharArray();
+        batch.add(new ElementSpec(copy, ElementSpec.ContentType, chars, 0, chars.length));
+    }
+    
+    public void appendBatchLineFeed(AttributeSet attributes) {
+        AttributeSet copy = attributes != null ? attributes.copyAttributes() : SimpleAttributeSet.EMPTY;
+        batch.add(new ElementSpec(copy, ElementSpec.ContentType, EOL, 0, 1));
+        AttributeSet paragraphAttributes = getParagraphElement(0).getAttributes();
+        batch.add(new ElementSpec(null, ElementSpec.EndTagType));
+        batch.add(new ElementSpec(paragraphAttributes, ElementSpec.StartTagType));
+    }
+    
+    /**
+     * Inserts everything collected since the last call at the end of the document
+     */
+    public void flushBatch() throws BadLocationException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        ElementSpec[] inserts = batch.toArray(new ElementSpec[0]);
+        batch.clear();
+        insert(getLength(), inserts);
+    }
+    
+    /**
+     * Removes whole lines from the top so that at most maxLines remain
+     */
+    public void trimToLines(int maxLines) throws BadLocationException {
+        Element root = getDefaultRootElement();
+        // The last paragraph is always the empty one after the final newline
+        int lines = root.getElementCount() - 1;
+        if (lines <= maxLines) {
+            return;
+        }
+        Element firstKept = root.getElement(lines - maxLines);
+        remove(0, firstKept.getStartOffset());
+    }
+}
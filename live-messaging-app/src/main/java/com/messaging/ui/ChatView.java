@@ -0,0 +1,31 @@
+package com.messaging.ui;
+
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * Display surface for the conversation shown in {@link ChatWindow}.
+ * All methods are called on the Event Dispatch Thread.
+ */
+public interface ChatView {
+    
+    /**
+     * Component to place in the window, already wrapped in a scroll pane
+     */
+    JComponent getComponent();
+    
+    /**
+     * Appends a batch of messages (chat and system) in arrival order
+     */
+    void appendMessages(List<Message> messages);
+    
+    /**
+     * Called when delivery or read receipts changed; views that show them repaint
+     */
+    default void receiptsUpdated() {
+    }
+    
+    void clear();
+}
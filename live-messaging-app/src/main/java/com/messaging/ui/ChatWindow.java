@@ -4,30 +4,44 @@ import com.messaging.client.MessagingClient;
 import com.messaging.model.Message;
 
 import javax.swing.*;
-import javax.swing.text.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Main chat window UI
  */
 public class ChatWindow extends JFrame {
+    private static final int MAX_LINES = Integer.getInteger("chat.maxLines", 5000);
+    private static final int MAX_MESSAGES = Integer.getInteger("chat.maxMessages", 100_000);
+    private static final String VIEW_MODE = System.getProperty("chat.view", "text");
+    private static final int RENDER_INTERVAL_MS = Integer.getInteger("chat.renderIntervalMs", 16);
+    private static final int MAX_BATCH_SIZE = 500;
+    
     private final MessagingClient client;
+    // Nothing older than the view retains is worth queueing for it
+    private final BlockingQueue<Message> pendingMessages = new LinkedBlockingQueue<>(
+            "list".equalsIgnoreCase(VIEW_MODE) ? MAX_MESSAGES : MAX_LINES);
+    private Timer renderTimer;
     
-    private JTextPane chatArea;
+    private ChatView chatView;
     private JTextField messageField;
     private JButton sendButton;
     private JList<String> userList;
-    private DefaultListModel<String> userListModel;
+    private OnlineUsersModel onlineUsersModel;
+    private FilteredUserListModel userListModel;
+    private JTextField userSearchField;
     private JLabel statusLabel;
+    private JLabel receiptLabel;
+    private volatile Message lastPrivateSent;  // newest private or group message of ours, for the status bar
     private JComboBox<String> recipientComboBox;
-    private StyledDocument doc;
-    
-    private Style myMessageStyle;
-    private Style otherMessageStyle;
-    private Style systemMessageStyle;
-    private Style timestampStyle;
+    private SearchPanel searchPanel;
     
     public ChatWindow(MessagingClient client) {
         this.client = client;
@@ -38,56 +52,79 @@ public class ChatWindow extends JFrame {
         setLocationRelativeTo(null);
         
         initComponents();
-        initStyles();  // Call after initComponents so chatArea exists
+        
+        // Render queued messages in batches, one per tick
+        renderTimer = new Timer(RENDER_INTERVAL_MS, e -> renderPendingMessages());
+        renderTimer.start();
         
         // Handle window closing
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
+                renderTimer.stop();
                 client.disconnect();
             }
+            
+            @Override
+            public void windowActivated(WindowEvent e) {
+                client.markAllRead();
+            }
         });
     }
     
-    private void initStyles() {
-        // Text styles for different message types
-        myMessageStyle = chatArea.addStyle("myMessageStyle", null);
-        StyleConstants.setForeground(myMessageStyle, new Color(100, 181, 246));
-        StyleConstants.setBold(myMessageStyle, true);
-        
-        otherMessageStyle = chatArea.addStyle("otherMessageStyle", null);
-        StyleConstants.setForeground(otherMessageStyle, new Color(255, 193, 7));
-        StyleConstants.setBold(otherMessageStyle, true);
-        
-        systemMessageStyle = chatArea.addStyle("systemMessageStyle", null);
-        StyleConstants.setForeground(systemMessageStyle, new Color(158, 158, 158));
-        StyleConstants.setItalic(systemMessageStyle, true);
-        StyleConstants.setAlignment(systemMessageStyle, StyleConstants.ALIGN_CENTER);
-        
-        timestampStyle = chatArea.addStyle("timestampStyle", null);
-        StyleConstants.setForeground(timestampStyle, new Color(117, 117, 117));
-        StyleConstants.setFontSize(timestampStyle, 10);
-    }
-    
     private void initComponents() {
         // Main panel
         JPanel mainPanel = new JPanel(new BorderLayout(5, 5));
         mainPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
         
         // Chat area
-        chatArea = new JTextPane();
-        chatArea.setEditable(false);
-        doc = chatArea.getStyledDocument();
-        JScrollPane chatScroll = new JScrollPane(chatArea);
-        chatScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        if ("list".equalsIgnoreCase(VIEW_MODE)) {
+            chatView = new MessageListView(client.getUsername(), MAX_MESSAGES,
+                    message -> client.getReceipts().statusOf(message, client.getUsername()));
+        } else {
+            chatView = new TextPaneChatView(client.getUsername(), MAX_LINES);
+        }
         
         // User list
-        userListModel = new DefaultListModel<>();
+        onlineUsersModel = new OnlineUsersModel();
+        userListModel = new FilteredUserListModel(onlineUsersModel);
         userList = new JList<>(userListModel);
         userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-        userList.setBorder(BorderFactory.createTitledBorder("Online Users"));
+        userList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, "🟢 " + value, index, isSelected, cellHasFocus);
+            }
+        });
+        // A prototype keeps JList from measuring every row when thousands of users are online
+        userList.setPrototypeCellValue("WWWWWWWWWWWWWWWW");
         JScrollPane userScroll = new JScrollPane(userList);
-        userScroll.setPreferredSize(new Dimension(180, 0));
+        
+        userSearchField = new JTextField();
+        userSearchField.setToolTipText("Filter online users");
+        userSearchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                userListModel.setFilter(userSearchField.getText());
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                userListModel.setFilter(userSearchField.getText());
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                userListModel.setFilter(userSearchField.getText());
+            }
+        });
+        
+        JPanel userPanel = new JPanel(new BorderLayout(5, 5));
+        userPanel.setBorder(BorderFactory.createTitledBorder("Online Users"));
+        userPanel.add(userSearchField, BorderLayout.NORTH);
+        userPanel.add(userScroll, BorderLayout.CENTER);
+        userPanel.setPreferredSize(new Dimension(180, 0));
         
         // Message input panel
         JPanel inputPanel = new JPanel(new BorderLayout(5, 5));
@@ -95,7 +132,8 @@ public class ChatWindow extends JFrame {
         // Recipient selector
         JPanel topInputPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         topInputPanel.add(new JLabel("To:"));
-        recipientComboBox = new JComboBox<>(new String[]{"Everyone"});
+        recipientComboBox = new JComboBox<>(new RecipientComboBoxModel(onlineUsersModel));
+        recipientComboBox.setPrototypeDisplayValue("WWWWWWWWWWWW");
         recipientComboBox.setPreferredSize(new Dimension(150, 25));
         topInputPanel.add(recipientComboBox);
         
@@ -129,14 +167,26 @@ public class ChatWindow extends JFrame {
         // Status bar
         statusLabel = new JLabel("Connected as " + client.getUsername());
         statusLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        receiptLabel = new JLabel();
+        receiptLabel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        JPanel statusBar = new JPanel(new BorderLayout());
+        statusBar.add(statusLabel, BorderLayout.CENTER);
+        statusBar.add(receiptLabel, BorderLayout.EAST);
+        
+        // History search, hidden until asked for
+        searchPanel = new SearchPanel(client, () -> setSearchVisible(false));
+        searchPanel.setVisible(false);
+        JPanel centerPanel = new JPanel(new BorderLayout(5, 5));
+        centerPanel.add(searchPanel, BorderLayout.NORTH);
+        centerPanel.add(chatView.getComponent(), BorderLayout.CENTER);
         
         // Assemble UI
-        mainPanel.add(chatScroll, BorderLayout.CENTER);
-        mainPanel.add(userScroll, BorderLayout.EAST);
+        mainPanel.add(centerPanel, BorderLayout.CENTER);
+        mainPanel.add(userPanel, BorderLayout.EAST);
         mainPanel.add(inputPanel, BorderLayout.SOUTH);
         
         add(mainPanel, BorderLayout.CENTER);
-        add(statusLabel, BorderLayout.SOUTH);
+        add(statusBar, BorderLayout.SOUTH);
         
         // Menu bar
         createMenuBar();
@@ -155,6 +205,12 @@ public class ChatWindow extends JFrame {
         clearMenuItem.addActionListener(e -> clearChat());
         fileMenu.add(clearMenuItem);
         
+        JMenuItem searchMenuItem = new JMenuItem("Search History...");
+        searchMenuItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F,
+                Toolkit.getDefaultToolkit().getMenuShortcutKeyMaskEx()));
+        searchMenuItem.addActionListener(e -> setSearchVisible(true));
+        fileMenu.add(searchMenuItem);
+        
         fileMenu.addSeparator();
         
         JMenuItem exitMenuItem = new JMenuItem("Exit");
@@ -185,76 +241,109 @@ public class ChatWindow extends JFrame {
         
         String recipient = (String) recipientComboBox.getSelectedItem();
         
-        if (recipient != null && !recipient.equals("Everyone")) {
+        CompletableFuture<Message> delivery;
+        if (recipient != null && !recipient.equals(RecipientComboBoxModel.EVERYONE)) {
             // Private message
-            client.sendPrivateMessage(recipient, text);
+            delivery = client.sendPrivateMessage(recipient, text);
         } else {
             // Public message
-            client.sendTextMessage(text);
+            delivery = client.sendTextMessage(text);
         }
+        // The send is queued; only report back if the server never confirms it
+        delivery.exceptionally(error -> {
+            displaySystemMessage("Message not delivered: " + text);
+            return null;
+        });
         
         messageField.setText("");
         messageField.requestFocus();
     }
     
     public void displayMessage(Message message) {
+        if ((message.isPrivate() || message.isGroup()) && client.getUsername().equals(message.getSender())) {
+            lastPrivateSent = message;
+        }
+        enqueue(message);
+    }
+    
+    /**
+     * Called by the client when delivery or read receipts arrive
+     */
+    public void receiptsUpdated() {
         SwingUtilities.invokeLater(() -> {
-            try {
-                boolean isMyMessage = message.getSender().equals(client.getUsername());
-                boolean isPrivate = message.isPrivate();
-                
-                // Timestamp
-                doc.insertString(doc.getLength(), "[" + message.getFormattedTimestamp() + "] ", timestampStyle);
-                
-                // Sender
-                Style senderStyle = isMyMessage ? myMessageStyle : otherMessageStyle;
-                doc.insertString(doc.getLength(), message.getSender(), senderStyle);
-                
-                // Private indicator
-                if (isPrivate) {
-                    doc.insertString(doc.getLength(), " (private to " + message.getReceiver() + ")", timestampStyle);
-                }
-                
-                // Message content
-                doc.insertString(doc.getLength(), ": " + message.getContent() + "\n", null);
-                
-                // Auto-scroll to bottom
-                chatArea.setCaretPosition(doc.getLength());
-                
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-            }
+            chatView.receiptsUpdated();
+            updateReceiptLabel();
         });
     }
     
+    private void updateReceiptLabel() {
+        Message last = lastPrivateSent;
+        String status = last != null ? client.getReceipts().statusOf(last, client.getUsername()) : null;
+        receiptLabel.setText(status != null ? "Last message to " + last.getReceiver() + ": " + status : "");
+    }
+    
     public void displaySystemMessage(String text) {
+        enqueue(new Message(Message.MessageType.SYSTEM, "SERVER", text));
+    }
+    
+    /**
+     * Queues a message for the next render tick, dropping the oldest queued one when full
+     */
+    private void enqueue(Message message) {
+        while (!pendingMessages.offer(message)) {
+            pendingMessages.poll();
+        }
+    }
+    
+    /**
+     * Drains queued messages into the chat view as one batch (runs on the EDT)
+     */
+    private void renderPendingMessages() {
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        
+        List<Message> batch = new ArrayList<>(Math.min(pendingMessages.size(), MAX_BATCH_SIZE));
+        Message message;
+        while (batch.size() < MAX_BATCH_SIZE && (message = pendingMessages.poll()) != null) {
+            batch.add(message);
+        }
+        chatView.appendMessages(batch);
+        if (isActive()) {
+            client.markRead(batch);
+        }
+        updateReceiptLabel();
+    }
+    
+    public void updateUserList(List<String> users) {
         SwingUtilities.invokeLater(() -> {
-            try {
-                doc.insertString(doc.getLength(), "*** " + text + " ***\n", systemMessageStyle);
-                chatArea.setCaretPosition(doc.getLength());
-            } catch (BadLocationException e) {
-                e.printStackTrace();
-            }
+            onlineUsersModel.setUsers(users, client.getUsername());
+            updateOnlineCount();
         });
     }
     
-    public void updateUserList(List<String> users) {
+    public void userJoined(String user) {
         SwingUtilities.invokeLater(() -> {
-            userListModel.clear();
-            recipientComboBox.removeAllItems();
-            recipientComboBox.addItem("Everyone");
-            
-            for (String user : users) {
-                if (!user.equals(client.getUsername())) {
-                    userListModel.addElement("🟢 " + user);
-                    recipientComboBox.addItem(user);
-                }
+            if (!user.equals(client.getUsername())) {
+                onlineUsersModel.addUser(user);
+                updateOnlineCount();
             }
-            
-            statusLabel.setText("Connected as " + client.getUsername() + " | " + users.size() + " users online");
         });
     }
     
+    public void userLeft(String user) {
+        SwingUtilities.invokeLater(() -> {
+            onlineUsersModel.removeUser(user);
+            updateOnlineCount();
+        });
+    }
+    
+    private void updateOnlineCount() {
+        // The model leaves out this user
+        statusLabel.setText("Connected as " + client.getUsername() + " | "
+                + (onlineUsersModel.getSize() + 1) + " users online");
+    }
+    
     public void showTypingIndicator(String username) {
         // Could implement a typing indicator UI here
         // For now, just log it
@@ -263,15 +352,22 @@ public class ChatWindow extends JFrame {
         }
     }
     
-    private void clearChat() {
-        try {
-            doc.remove(0, doc.getLength());
-            displaySystemMessage("Chat cleared");
-        } catch (BadLocationException e) {
-            e.printStackTrace();
+    private void setSearchVisible(boolean visible) {
+        searchPanel.setVisible(visible);
+        searchPanel.getParent().revalidate();
+        if (visible) {
+            searchPanel.focusQuery();
+        } else {
+            messageField.requestFocusInWindow();
         }
     }
     
+    private void clearChat() {
+        pendingMessages.clear();
+        chatView.clear();
+        displaySystemMessage("Chat cleared");
+    }
+    
     private void showAboutDialog() {
         String message = "Live Messaging Application\n\n" +
                         "Version: 1.0.0\n" +
@@ -280,6 +376,7 @@ public class ChatWindow extends JFrame {
                         "• Real-time messaging\n" +
                         "• Private messaging\n" +
                         "• User presence\n" +
+                        "• History search\n" +
                         "• Modern UI";
         
         JOptionPane.showMessageDialog(
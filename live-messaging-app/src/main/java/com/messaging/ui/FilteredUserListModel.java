@@ -0,0 +1,78 @@
+package com.messaging.ui;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filtered view over {@link OnlineUsersModel} for the user list search box.
+ * Source changes are applied incrementally, one event per run of rows; changing
+ * the filter re-runs a single merge diff, which stays cheap at tens of thousands of users.
+ */
+public class FilteredUserListModel extends SortedStringListModel implements ListDataListener {
+    private final OnlineUsersModel source;
+    private String filter = "";
+    
+    public FilteredUserListModel(OnlineUsersModel source) {
+        this.source = source;
+        source.addListDataListener(this);
+        refilter();
+    }
+    
+    public void setFilter(String filter) {
+        String normalized = filter == null ? "" : filter.trim().toLowerCase();
+        if (normalized.equals(this.filter)) {
+            return;
+        }
+        this.filter = normalized;
+        refilter();
+    }
+    
+    public String getFilter() {
+        return filter;
+    }
+    
+    private boolean matches(String user) {
+        return filter.isEmpty() || user.toLowerCase().contains(filter);
+    }
+    
+    private void refilter() {
+        List<String> target = new ArrayList<>();
+        for (int i = 0; i < source.getSize(); i++) {
+            String user = source.getElementAt(i);
+            if (matches(user)) {
+                target.add(user);
+            }
+        }
+        replaceWith(target);
+    }
+    
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        // The source is sorted, so the matching names come out sorted too
+        List<String> added = new ArrayList<>();
+        for (int i = e.getIndex0(); i <= e.getIndex1(); i++) {
+            String user = source.getElementAt(i);
+            if (matches(user)) {
+                added.add(user);
+            }
+        }
+        insertAll(added);
+    }
+    
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        // The removed names are already gone from the source, but they were exactly the
+        // ones between the rows now either side of the gap
+        int index = e.getIndex0();
+        String after = index > 0 ? source.getElementAt(index - 1) : null;
+        String before = index < source.getSize() ? source.getElementAt(index) : null;
+        removeBetween(after, before);
+    }
+    
+    @Override
+    public void contentsChanged(ListDataEvent e) {
+        refilter();
+    }
+}
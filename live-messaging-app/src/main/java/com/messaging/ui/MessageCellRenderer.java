@@ -0,0 +1,271 @@
+package com.messaging.ui;
+
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+/**
+ * Lightweight renderer for {@link MessageListView}.
+ * Paints timestamp, sender and content directly instead of building styled text,
+ * wrapping the content to the list's width. Row heights are measured once per
+ * message, width and receipt status and remembered, so {@link MessageListUI} can
+ * check a painted row's height for the cost of a lookup; a message dropped from the
+ * history drops out of the cache with it.
+ */
+public class MessageCellRenderer extends JComponent implements ListCellRenderer<Message> {
+    private static final Color MY_MESSAGE_COLOR = new Color(100, 181, 246);
+    private static final Color OTHER_MESSAGE_COLOR = new Color(255, 193, 7);
+    private static final Color SYSTEM_MESSAGE_COLOR = new Color(158, 158, 158);
+    private static final Color TIMESTAMP_COLOR = new Color(117, 117, 117);
+    private static final int PADDING = 4;
+    
+    private final String username;
+    private final Function<Message, String> receiptStatus;
+    private final Map<Message, Measured> measured = new WeakHashMap<>();
+    private int measuredWidth;
+    private Font measuredFont;
+    private JList<? extends Message> list;
+    private Message message;
+    private boolean selected;
+    private Color selectionBackground;
+    
+    /**
+     * A message's height at the measured width, and the status it was measured with
+     */
+    private static class Measured {
+        final String status;
+        final int height;
+        
+        Measured(String status, int height) {
+            this.status = status;
+            this.height = height;
+        }
+    }
+    
+    /**
+     * One row's text broken into lines
+     */
+    private static class Wrapped {
+        final int prefixWidth;  // timestamp, sender and indicator ahead of the first line
+        final List<String> lines;
+        final boolean statusOnOwnLine;
+        
+        Wrapped(int prefixWidth, List<String> lines, boolean statusOnOwnLine) {
+            this.prefixWidth = prefixWidth;
+            this.lines = lines;
+            this.statusOnOwnLine = statusOnOwnLine;
+        }
+        
+        int lineCount() {
+            return lines.size() + (statusOnOwnLine ? 1 : 0);
+        }
+    }
+    
+    public MessageCellRenderer(String username) {
+        this(username, message -> null);
+    }
+    
+    public MessageCellRenderer(String username, Function<Message, String> receiptStatus) {
+        this.username = username;
+        this.receiptStatus = receiptStatus;
+        setOpaque(true);
+    }
+    
+    /**
+     * Height of a one-line row in the given list; stands in for rows not yet measured
+     */
+    public int rowHeight(JList<?> list) {
+        FontMetrics metrics = list.getFontMetrics(list.getFont());
+        return metrics.getHeight() + PADDING;
+    }
+    
+    /**
+     * Forgets measured heights, e.g. after the font changed
+     */
+    public void clearHeights() {
+        measured.clear();
+    }
+    
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Message> list, Message value,
+                                                  int index, boolean isSelected, boolean cellHasFocus) {
+        this.list = list;
+        this.message = value;
+        this.selected = isSelected;
+        this.selectionBackground = list.getSelectionBackground();
+        setFont(list.getFont());
+        setBackground(list.getBackground());
+        setForeground(list.getForeground());
+        return this;
+    }
+    
+    @Override
+    public Dimension getPreferredSize() {
+        if (list == null || message == null || list.getWidth() <= 0) {
+            return new Dimension(1, list != null ? rowHeight(list) : PADDING);
+        }
+        int width = list.getWidth();
+        Font font = list.getFont();
+        if (width != measuredWidth || !font.equals(measuredFont)) {
+            measured.clear();
+            measuredWidth = width;
+            measuredFont = font;
+        }
+        String status = receiptStatus.apply(message);
+        Measured known = measured.get(message);
+        if (known == null || !Objects.equals(known.status, status)) {
+            FontMetrics metrics = list.getFontMetrics(font);
+            Wrapped wrapped = wrap(message, status, metrics, list.getFontMetrics(font.deriveFont(Font.BOLD)), width);
+            known = new Measured(status, wrapped.lineCount() * metrics.getHeight() + PADDING);
+            measured.put(message, known);
+        }
+        return new Dimension(1, known.height);
+    }
+    
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(selected ? selectionBackground : getBackground());
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (message == null) {
+            return;
+        }
+        
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        Font plain = getFont();
+        Font bold = plain.deriveFont(Font.BOLD);
+        FontMetrics metrics = g2.getFontMetrics(plain);
+        int lineHeight = metrics.getHeight();
+        int baseline = PADDING / 2 + metrics.getAscent();
+        String status = receiptStatus.apply(message);
+        Wrapped wrapped = wrap(message, status, metrics, g2.getFontMetrics(bold), getWidth());
+        
+        if (message.getType() == Message.MessageType.SYSTEM) {
+            Font italic = plain.deriveFont(Font.ITALIC);
+            g2.setFont(italic);
+            g2.setColor(SYSTEM_MESSAGE_COLOR);
+            FontMetrics italicMetrics = g2.getFontMetrics(italic);
+            for (String line : wrapped.lines) {
+                int width = italicMetrics.stringWidth(line);
+                g2.drawString(line, Math.max(PADDING, (getWidth() - width) / 2), baseline);
+                baseline += lineHeight;
+            }
+            return;
+        }
+        
+        int x = PADDING;
+        g2.setFont(plain);
+        g2.setColor(TIMESTAMP_COLOR);
+        String timestamp = "[" + message.getFormattedTimestamp() + "] ";
+        g2.drawString(timestamp, x, baseline);
+        x += metrics.stringWidth(timestamp);
+        
+        g2.setFont(bold);
+        g2.setColor(username.equals(message.getSender()) ? MY_MESSAGE_COLOR : OTHER_MESSAGE_COLOR);
+        g2.drawString(message.getSender(), x, baseline);
+        x += g2.getFontMetrics(bold).stringWidth(message.getSender());
+        
+        g2.setFont(plain);
+        String indicator = indicator(message);
+        if (indicator != null) {
+            g2.setColor(TIMESTAMP_COLOR);
+            g2.drawString(indicator, x, baseline);
+        }
+        
+        g2.setColor(getForeground());
+        for (int i = 0; i < wrapped.lines.size(); i++) {
+            g2.drawString(wrapped.lines.get(i), i == 0 ? wrapped.prefixWidth : PADDING, baseline);
+            baseline += lineHeight;
+        }
+        
+        // Right-aligned on the last line, or a line of its own if the text reaches that far
+        if (status != null) {
+            if (!wrapped.statusOnOwnLine) {
+                baseline -= lineHeight;
+            }
+            g2.setColor(TIMESTAMP_COLOR);
+            g2.drawString(status, getWidth() - PADDING - metrics.stringWidth(status), baseline);
+        }
+    }
+    
+    private static String indicator(Message message) {
+        if (!message.isPrivate()) {
+            return null;
+        }
+        return message.isGroup()
+                ? " (group " + message.getReceiver() + ")"
+                : " (private to " + message.getReceiver() + ")";
+    }
+    
+    /**
+     * Lays a message out in rows of the given width; the same for measuring and painting
+     */
+    private static Wrapped wrap(Message message, String status, FontMetrics plain, FontMetrics bold, int width) {
+        int lineWidth = Math.max(1, width - 2 * PADDING);
+        if (message.getType() == Message.MessageType.SYSTEM) {
+            // Italic is about as wide as plain; close enough to break lines
+            return new Wrapped(PADDING, wrap("*** " + message.getContent() + " ***", plain, lineWidth, lineWidth), false);
+        }
+        
+        int prefixWidth = PADDING + plain.stringWidth("[" + message.getFormattedTimestamp() + "] ")
+                + bold.stringWidth(message.getSender());
+        String indicator = indicator(message);
+        if (indicator != null) {
+            prefixWidth += plain.stringWidth(indicator);
+        }
+        List<String> lines = wrap(": " + message.getContent(), plain, lineWidth - (prefixWidth - PADDING), lineWidth);
+        
+        boolean statusOnOwnLine = false;
+        if (status != null) {
+            int lastLineEnd = (lines.size() == 1 ? prefixWidth : PADDING) + plain.stringWidth(lines.get(lines.size() - 1));
+            statusOnOwnLine = lastLineEnd + PADDING + plain.stringWidth(status) > width - PADDING;
+        }
+        return new Wrapped(prefixWidth, lines, statusOnOwnLine);
+    }
+    
+    /**
+     * Breaks text into lines, the first at most firstWidth wide and the rest at most width,
+     * after a space where there is one and mid-word where there isn't; newlines are kept
+     */
+    private static List<String> wrap(String text, FontMetrics metrics, int firstWidth, int width) {
+        List<String> lines = new ArrayList<>();
+        int lineWidth = firstWidth;
+        for (String paragraph : text.split("\n", -1)) {
+            int start = 0;
+            do {
+                int end = start;
+                int used = 0;
+                int lastSpace = -1;
+                while (end < paragraph.length()) {
+                    char c = paragraph.charAt(end);
+                    int advance = metrics.charWidth(c);
+                    if (used + advance > lineWidth) {
+                        break;
+                    }
+                    if (c == ' ') {
+                        lastSpace = end;
+                    }
+                    used += advance;
+                    end++;
+                }
+                if (end < paragraph.length() && lastSpace >= start) {
+                    end = lastSpace + 1;
+                } else if (end == start && lineWidth == width && start < paragraph.length()) {
+                    end = start + 1;  // not one character fits; take it anyway
+                }
+                // Otherwise nothing fits after the prefix, and the text starts on the next line
+                lines.add(paragraph.substring(start, end));
+                start = end;
+                lineWidth = width;
+            } while (start < paragraph.length());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,84 @@
+package com.messaging.ui;
+
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * List model over a fixed-capacity ring of messages.
+ * Appends and trims are O(batch) and fire one interval event each, so the
+ * cost of an update does not depend on how much history is retained.
+ */
+public class MessageListModel extends AbstractListModel<Message> {
+    private final Message[] ring;
+    private int head;   // index of the oldest message
+    private int size;
+    
+    public MessageListModel(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.ring = new Message[capacity];
+    }
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    @Override
+    public Message getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return ring[(head + index) % ring.length];
+    }
+    
+    public int getCapacity() {
+        return ring.length;
+    }
+    
+    public void addAll(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        
+        // Only the newest `capacity` messages of an oversized batch can survive
+        int skip = Math.max(0, messages.size() - ring.length);
+        int incoming = messages.size() - skip;
+        
+        int overflow = size + incoming - ring.length;
+        if (overflow > 0) {
+            removeOldest(overflow);
+        }
+        
+        int firstIndex = size;
+        for (int i = skip; i < messages.size(); i++) {
+            ring[(head + size) % ring.length] = messages.get(i);
+            size++;
+        }
+        fireIntervalAdded(this, firstIndex, size - 1);
+    }
+    
+    private void removeOldest(int count) {
+        for (int i = 0; i < count; i++) {
+            ring[(head + i) % ring.length] = null;
+        }
+        head = (head + count) % ring.length;
+        size -= count;
+        fireIntervalRemoved(this, 0, count - 1);
+    }
+    
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        int oldSize = size;
+        Arrays.fill(ring, null);
+        head = 0;
+        size = 0;
+        fireIntervalRemoved(this, 0, oldSize - 1);
+    }
+}
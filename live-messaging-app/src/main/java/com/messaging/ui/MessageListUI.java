@@ -0,0 +1,104 @@
+package com.messaging.ui;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import javax.swing.plaf.basic.BasicListUI;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * List UI for {@link MessageListView} that keeps every row's height between layouts.
+ * Plain JList measures every row whenever anything changes, which with a long history
+ * means asking the renderer about every message on each append. Here an append measures
+ * only the new rows, a trim forgets the dropped ones, and everything is measured again
+ * only when the width or font changes. A row whose height changed since it was measured
+ * (a receipt status that no longer fits beside the text) is corrected when it is painted,
+ * so a receipt update only has to repaint the visible rows.
+ */
+public class MessageListUI extends BasicListUI {
+    private static final int UNKNOWN = -1;
+    
+    private int[] heights = new int[0];  // per row, UNKNOWN until measured
+    private int measuredWidth = -1;
+    private Font measuredFont;
+    
+    private final ListDataListener rows = new ListDataListener() {
+        @Override
+        public void intervalAdded(ListDataEvent e) {
+            int count = e.getIndex1() - e.getIndex0() + 1;
+            int[] grown = new int[heights.length + count];
+            System.arraycopy(heights, 0, grown, 0, e.getIndex0());
+            Arrays.fill(grown, e.getIndex0(), e.getIndex0() + count, UNKNOWN);
+            System.arraycopy(heights, e.getIndex0(), grown, e.getIndex0() + count, heights.length - e.getIndex0());
+            heights = grown;
+        }
+        
+        @Override
+        public void intervalRemoved(ListDataEvent e) {
+            int count = e.getIndex1() - e.getIndex0() + 1;
+            int[] shrunk = new int[heights.length - count];
+            System.arraycopy(heights, 0, shrunk, 0, e.getIndex0());
+            System.arraycopy(heights, e.getIndex1() + 1, shrunk, e.getIndex0(), shrunk.length - e.getIndex0());
+            heights = shrunk;
+        }
+        
+        @Override
+        public void contentsChanged(ListDataEvent e) {
+            if (e.getIndex0() < 0 || heights.length != list.getModel().getSize()) {
+                heights = new int[list.getModel().getSize()];
+                Arrays.fill(heights, UNKNOWN);
+            } else {
+                Arrays.fill(heights, e.getIndex0(), Math.min(e.getIndex1() + 1, heights.length), UNKNOWN);
+            }
+        }
+    };
+    
+    @Override
+    public void installUI(JComponent c) {
+        super.installUI(c);
+        heights = new int[list.getModel().getSize()];
+        Arrays.fill(heights, UNKNOWN);
+        list.getModel().addListDataListener(rows);
+    }
+    
+    @Override
+    public void uninstallUI(JComponent c) {
+        list.getModel().removeListDataListener(rows);
+        super.uninstallUI(c);
+    }
+    
+    @Override
+    protected void updateLayoutState() {
+        if (list.getWidth() != measuredWidth || !list.getFont().equals(measuredFont)) {
+            measuredWidth = list.getWidth();
+            measuredFont = list.getFont();
+            Arrays.fill(heights, UNKNOWN);
+        }
+        ListModel<Object> model = list.getModel();
+        ListCellRenderer<Object> renderer = list.getCellRenderer();
+        for (int i = 0; i < heights.length; i++) {
+            if (heights[i] == UNKNOWN) {
+                Component c = renderer.getListCellRendererComponent(list, model.getElementAt(i), i, false, false);
+                rendererPane.add(c);
+                heights[i] = c.getPreferredSize().height;
+            }
+        }
+        cellWidth = list.getFixedCellWidth();
+        cellHeight = -1;
+        cellHeights = heights;
+    }
+    
+    @Override
+    protected void paintCell(Graphics g, int row, Rectangle rowBounds, ListCellRenderer<Object> cellRenderer,
+                             ListModel<Object> dataModel, ListSelectionModel selModel, int leadIndex) {
+        Component c = cellRenderer.getListCellRendererComponent(list, dataModel.getElementAt(row), row, false, false);
+        int height = c.getPreferredSize().height;
+        if (height != rowBounds.height && row < cellHeights.length) {
+            cellHeights[row] = height;
+            list.revalidate();
+            list.repaint();
+        }
+        super.paintCell(g, row, rowBounds, cellRenderer, dataModel, selModel, leadIndex);
+    }
+}
@@ -0,0 +1,102 @@
+package com.messaging.ui;
+
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Virtualized chat view for very long histories.
+ * Messages live in a {@link MessageListModel} ring and are painted by a shared
+ * {@link MessageCellRenderer}, which wraps long messages to the viewport width.
+ * JList only paints the rows inside the viewport, and {@link MessageListUI} keeps
+ * each row's height between layouts, so an append measures only the new rows and
+ * memory is the retained Message objects plus one height each.
+ */
+public class MessageListView implements ChatView {
+    private final MessageListModel model;
+    private final JList<Message> list;
+    private final JScrollPane scrollPane;
+    private final MessageCellRenderer renderer;
+    
+    public MessageListView(String username, int maxMessages) {
+        this(username, maxMessages, message -> null);
+    }
+    
+    /**
+     * @param receiptStatus delivery status to show after a message, or null for none
+     */
+    public MessageListView(String username, int maxMessages, Function<Message, String> receiptStatus) {
+        model = new MessageListModel(maxMessages);
+        renderer = new MessageCellRenderer(username, receiptStatus);
+        
+        list = new JList<>(model) {
+            @Override
+            public void updateUI() {
+                setUI(new MessageListUI());
+                // Look-and-feel changes may change the font, so measured heights are stale
+                renderer.clearHeights();
+            }
+        };
+        list.setCellRenderer(renderer);
+        list.setFixedCellWidth(1);  // never measure rows for the preferred width; the list tracks the viewport
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.addComponentListener(new ComponentAdapter() {
+            private int width;
+            
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (list.getWidth() != width) {
+                    width = list.getWidth();
+                    relayout();
+                }
+            }
+        });
+        
+        scrollPane = new JScrollPane(list);
+        scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
+    }
+    
+    @Override
+    public JComponent getComponent() {
+        return scrollPane;
+    }
+    
+    @Override
+    public void appendMessages(List<Message> messages) {
+        boolean followTail = isScrolledToBottom();
+        model.addAll(messages);
+        if (followTail && model.getSize() > 0) {
+            list.ensureIndexIsVisible(model.getSize() - 1);
+        }
+    }
+    
+    private boolean isScrolledToBottom() {
+        JScrollBar bar = scrollPane.getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - renderer.rowHeight(list);
+    }
+    
+    /**
+     * Makes the list lay out its rows again, which measures them all if the width changed
+     */
+    private void relayout() {
+        // JList keeps its layout until a layout property changes
+        list.setFixedCellHeight(0);
+        list.setFixedCellHeight(-1);
+    }
+    
+    @Override
+    public void receiptsUpdated() {
+        // Only visible rows show a status; one that needs a line of its own is re-measured as it is painted
+        list.repaint();
+    }
+    
+    @Override
+    public void clear() {
+        model.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package com.messaging.ui;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Sorted set of online users shared by the user list and the recipient selector.
+ * The server sends a full snapshot on login and single joins and leaves after that;
+ * snapshots are diffed against the current contents, so either produces one list
+ * event per changed run.
+ */
+public class OnlineUsersModel extends SortedStringListModel {
+    
+    /**
+     * Applies a full USER_LIST snapshot, ignoring the given local user
+     */
+    public void setUsers(Collection<String> users, String excludedUser) {
+        List<String> target = new ArrayList<>(users.size());
+        for (String user : users) {
+            if (!user.equals(excludedUser)) {
+                target.add(user);
+            }
+        }
+        target.sort(ORDER);
+        dedupeSorted(target);
+        replaceWith(target);
+    }
+    
+    public void addUser(String user) {
+        insertSorted(user);
+    }
+    
+    public void removeUser(String user) {
+        removeItem(user);
+    }
+    
+    /**
+     * Returns a copy of the current users in display order
+     */
+    public List<String> getUsers() {
+        return new ArrayList<>(items);
+    }
+    
+    private static void dedupeSorted(List<String> sorted) {
+        int write = 0;
+        for (int read = 0; read < sorted.size(); read++) {
+            if (write == 0 || !sorted.get(read).equals(sorted.get(write - 1))) {
+                sorted.set(write++, sorted.get(read));
+            }
+        }
+        sorted.subList(write, sorted.size()).clear();
+    }
+}
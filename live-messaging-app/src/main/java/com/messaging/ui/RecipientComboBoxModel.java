@@ -0,0 +1,65 @@
+package com.messaging.ui;
+
+import javax.swing.*;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * Recipient selector model: "Everyone" followed by the shared {@link OnlineUsersModel}.
+ * Source events are forwarded shifted by one row instead of rebuilding the combo box.
+ */
+public class RecipientComboBoxModel extends AbstractListModel<String>
+        implements ComboBoxModel<String>, ListDataListener {
+    public static final String EVERYONE = "Everyone";
+    
+    private final OnlineUsersModel source;
+    private Object selectedItem = EVERYONE;
+    
+    public RecipientComboBoxModel(OnlineUsersModel source) {
+        this.source = source;
+        source.addListDataListener(this);
+    }
+    
+    @Override
+    public int getSize() {
+        return source.getSize() + 1;
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        return index == 0 ? EVERYONE : source.getElementAt(index - 1);
+    }
+    
+    @Override
+    public void setSelectedItem(Object item) {
+        Object newSelection = item != null ? item : EVERYONE;
+        if (!newSelection.equals(selectedItem)) {
+            selectedItem = newSelection;
+            fireContentsChanged(this, -1, -1);
+        }
+    }
+    
+    @Override
+    public Object getSelectedItem() {
+        return selectedItem;
+    }
+    
+    @Override
+    public void intervalAdded(ListDataEvent e) {
+        fireIntervalAdded(this, e.getIndex0() + 1, e.getIndex1() + 1);
+    }
+    
+    @Override
+    public void intervalRemoved(ListDataEvent e) {
+        fireIntervalRemoved(this, e.getIndex0() + 1, e.getIndex1() + 1);
+        // Fall back to broadcast if the selected recipient went offline
+        if (!EVERYONE.equals(selectedItem) && !source.contains((String) selectedItem)) {
+            setSelectedItem(EVERYONE);
+        }
+    }
+    
+    @Override
+    public void contentsChanged(ListDataEvent e) {
+        fireContentsChanged(this, e.getIndex0() + 1, e.getIndex1() + 1);
+    }
+}
@@ -0,0 +1,100 @@
+package com.messaging.ui;
+
+import com.messaging.client.MessagingClient;
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Collapsible history search above the chat: runs the query on the server and lists
+ * the hits with their full date, newest first
+ */
+public class SearchPanel extends JPanel {
+    private final MessagingClient client;
+    private final JTextField queryField;
+    private final JButton searchButton;
+    private final DefaultListModel<Message> results = new DefaultListModel<>();
+    private final JLabel summaryLabel;
+    
+    public SearchPanel(MessagingClient client, Runnable onClose) {
+        super(new BorderLayout(5, 5));
+        this.client = client;
+        setBorder(BorderFactory.createTitledBorder("Search History"));
+        
+        queryField = new JTextField();
+        queryField.addActionListener(e -> runSearch());
+        searchButton = new JButton("Search");
+        searchButton.addActionListener(e -> runSearch());
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> onClose.run());
+        
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttons.add(searchButton);
+        buttons.add(closeButton);
+        
+        JPanel queryPanel = new JPanel(new BorderLayout(5, 5));
+        queryPanel.add(queryField, BorderLayout.CENTER);
+        queryPanel.add(buttons, BorderLayout.EAST);
+        
+        JList<Message> resultList = new JList<>(results);
+        resultList.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                return super.getListCellRendererComponent(list, describe((Message) value), index,
+                        isSelected, cellHasFocus);
+            }
+        });
+        resultList.setPrototypeCellValue(new Message(Message.MessageType.TEXT, "WWWWWWWW", "W"));
+        JScrollPane resultScroll = new JScrollPane(resultList);
+        resultScroll.setPreferredSize(new Dimension(0, 160));
+        
+        summaryLabel = new JLabel(" ");
+        
+        add(queryPanel, BorderLayout.NORTH);
+        add(resultScroll, BorderLayout.CENTER);
+        add(summaryLabel, BorderLayout.SOUTH);
+    }
+    
+    public void focusQuery() {
+        queryField.requestFocusInWindow();
+        queryField.selectAll();
+    }
+    
+    private void runSearch() {
+        String query = queryField.getText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        searchButton.setEnabled(false);
+        summaryLabel.setText("Searching...");
+        client.search(query).whenComplete((hits, error) -> SwingUtilities.invokeLater(() -> {
+            searchButton.setEnabled(true);
+            results.clear();
+            if (error != null) {
+                summaryLabel.setText("Search failed: " + error.getMessage());
+                return;
+            }
+            showResults(hits);
+        }));
+    }
+    
+    private void showResults(List<Message> hits) {
+        for (Message hit : hits) {
+            results.addElement(hit);
+        }
+        summaryLabel.setText(hits.isEmpty() ? "No matches" : hits.size() + " match(es)");
+    }
+    
+    private static String describe(Message message) {
+        String target = "";
+        if (message.isGroup()) {
+            target = " (group " + message.getReceiver() + ")";
+        } else if (message.isPrivate()) {
+            target = " → " + message.getReceiver();
+        }
+        return "[" + message.getFormattedDate() + "] " + message.getSender() + target + ": " + message.getContent();
+    }
+}
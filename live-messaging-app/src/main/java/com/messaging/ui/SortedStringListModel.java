@@ -0,0 +1,149 @@
+package com.messaging.ui;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * List model that keeps its strings sorted and applies changes as minimal
+ * interval events: replacing the contents fires one event per contiguous run
+ * of inserted or removed rows instead of one per element.
+ */
+public abstract class SortedStringListModel extends AbstractListModel<String> {
+    public static final Comparator<String> ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+    
+    protected final List<String> items = new ArrayList<>();
+    
+    @Override
+    public int getSize() {
+        return items.size();
+    }
+    
+    @Override
+    public String getElementAt(int index) {
+        return items.get(index);
+    }
+    
+    public int indexOf(String item) {
+        int index = Collections.binarySearch(items, item, ORDER);
+        return index >= 0 ? index : -1;
+    }
+    
+    public boolean contains(String item) {
+        return indexOf(item) >= 0;
+    }
+    
+    protected boolean insertSorted(String item) {
+        int index = Collections.binarySearch(items, item, ORDER);
+        if (index >= 0) {
+            return false;
+        }
+        int insertAt = -index - 1;
+        items.add(insertAt, item);
+        fireIntervalAdded(this, insertAt, insertAt);
+        return true;
+    }
+    
+    /**
+     * Inserts items sorted by ORDER, one event per run landing between the same two rows
+     */
+    protected void insertAll(List<String> sorted) {
+        int j = 0;
+        while (j < sorted.size()) {
+            int index = Collections.binarySearch(items, sorted.get(j), ORDER);
+            if (index >= 0) {
+                j++;
+                continue;
+            }
+            int insertAt = -index - 1;
+            int end = j + 1;
+            while (end < sorted.size()
+                    && (insertAt == items.size() || ORDER.compare(sorted.get(end), items.get(insertAt)) < 0)) {
+                end++;
+            }
+            items.addAll(insertAt, sorted.subList(j, end));
+            fireIntervalAdded(this, insertAt, insertAt + (end - j) - 1);
+            j = end;
+        }
+    }
+    
+    /**
+     * Removes every item strictly between after and before (null for an open end) in one event
+     */
+    protected void removeBetween(String after, String before) {
+        int from = 0;
+        if (after != null) {
+            int index = Collections.binarySearch(items, after, ORDER);
+            from = index >= 0 ? index + 1 : -index - 1;
+        }
+        int to = items.size();
+        if (before != null) {
+            int index = Collections.binarySearch(items, before, ORDER);
+            to = index >= 0 ? index : -index - 1;
+        }
+        if (from < to) {
+            items.subList(from, to).clear();
+            fireIntervalRemoved(this, from, to - 1);
+        }
+    }
+    
+    protected boolean removeItem(String item) {
+        int index = indexOf(item);
+        if (index < 0) {
+            return false;
+        }
+        items.remove(index);
+        fireIntervalRemoved(this, index, index);
+        return true;
+    }
+    
+    /**
+     * Turns the current contents into target (which must be sorted by ORDER and
+     * free of duplicates) with a single merge pass.
+     */
+    protected void replaceWith(List<String> target) {
+        int i = 0;
+        int j = 0;
+        while (i < items.size() || j < target.size()) {
+            if (i == items.size()) {
+                int count = target.size() - j;
+                items.addAll(target.subList(j, target.size()));
+                fireIntervalAdded(this, i, i + count - 1);
+                return;
+            }
+            if (j == target.size()) {
+                int oldSize = items.size();
+                items.subList(i, oldSize).clear();
+                fireIntervalRemoved(this, i, oldSize - 1);
+                return;
+            }
+            
+            int cmp = ORDER.compare(items.get(i), target.get(j));
+            if (cmp == 0) {
+                i++;
+                j++;
+            } else if (cmp < 0) {
+                // Run of current items that are gone from the target
+                int end = i + 1;
+                while (end < items.size() && ORDER.compare(items.get(end), target.get(j)) < 0) {
+                    end++;
+                }
+                items.subList(i, end).clear();
+                fireIntervalRemoved(this, i, end - 1);
+            } else {
+                // Run of target items missing from the current contents
+                int end = j + 1;
+                while (end < target.size() && ORDER.compare(target.get(end), items.get(i)) < 0) {
+                    end++;
+                }
+                items.addAll(i, target.subList(j, end));
+                fireIntervalAdded(this, i, i + (end - j) - 1);
+                i += end - j;
+                j = end;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.messaging.ui;
+
+import com.messaging.model.Message;
+
+import javax.swing.*;
+import javax.swing.text.*;
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Chat view rendering messages as styled text in a JTextPane, trimmed to a fixed number of lines
+ */
+public class TextPaneChatView implements ChatView {
+    private static final int SCROLL_FOLLOW_SLACK = 16;
+    
+    private final String username;
+    private final int maxLines;
+    private final JTextPane chatArea;
+    private final JScrollPane chatScroll;
+    private final BatchStyledDocument doc;
+    
+    private Style myMessageStyle;
+    private Style otherMessageStyle;
+    private Style systemMessageStyle;
+    private Style timestampStyle;
+    
+    public TextPaneChatView(String username, int maxLines) {
+        this.username = username;
+        this.maxLines = maxLines;
+        
+        doc = new BatchStyledDocument();
+        chatArea = new JTextPane(doc);
+        chatArea.setEditable(false);
+        // Scrolling is driven by appendMessages so reading history is not interrupted
+        ((DefaultCaret) chatArea.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        chatScroll = new JScrollPane(chatArea);
+        chatScroll.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_ALWAYS);
+        
+        initStyles();
+    }
+    
+    private void initStyles() {
+        // Text styles for different message types
+        myMessageStyle = chatArea.addStyle("myMessageStyle", null);
+        StyleConstants.setForeground(myMessageStyle, new Color(100, 181, 246));
+        StyleConstants.setBold(myMessageStyle, true);
+        
+        otherMessageStyle = chatArea.addStyle("otherMessageStyle", null);
+        StyleConstants.setForeground(otherMessageStyle, new Color(255, 193, 7));
+        StyleConstants.setBold(otherMessageStyle, true);
+        
+        systemMessageStyle = chatArea.addStyle("systemMessageStyle", null);
+        StyleConstants.setForeground(systemMessageStyle, new Color(158, 158, 158));
+        StyleConstants.setItalic(systemMessageStyle, true);
+        StyleConstants.setAlignment(systemMessageStyle, StyleConstants.ALIGN_CENTER);
+        
+        timestampStyle = chatArea.addStyle("timestampStyle", null);
+        StyleConstants.setForeground(timestampStyle, new Color(117, 117, 117));
+        StyleConstants.setFontSize(timestampStyle, 10);
+    }
+    
+    @Override
+    public JComponent getComponent() {
+        return chatScroll;
+    }
+    
+    @Override
+    public void appendMessages(List<Message> messages) {
+        boolean followTail = isScrolledToBottom();
+        
+        for (Message message : messages) {
+            appendMessage(message);
+        }
+        
+        try {
+            doc.flushBatch();
+            doc.trimToLines(maxLines);
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+        
+        if (followTail) {
+            chatArea.setCaretPosition(doc.getLength());
+        }
+    }
+    
+    private void appendMessage(Message message) {
+        if (message.getType() == Message.MessageType.SYSTEM) {
+            doc.appendBatchString("*** " + message.getContent() + " ***", systemMessageStyle);
+            doc.appendBatchLineFeed(systemMessageStyle);
+            return;
+        }
+        
+        boolean isMyMessage = message.getSender().equals(username);
+        
+        // Timestamp
+        doc.appendBatchString("[" + message.getFormattedTimestamp() + "] ", timestampStyle);
+        
+        // Sender
+        Style senderStyle = isMyMessage ? myMessageStyle : otherMessageStyle;
+        doc.appendBatchString(message.getSender(), senderStyle);
+        
+        // Private / group indicator
+        if (message.isGroup()) {
+            doc.appendBatchString(" (group " + message.getReceiver() + ")", timestampStyle);
+        } else if (message.isPrivate()) {
+            doc.appendBatchString(" (private to " + message.getReceiver() + ")", timestampStyle);
+        }
+        
+        // Message content
+        doc.appendBatchString(": " + message.getContent(), null);
+        doc.appendBatchLineFeed(null);
+    }
+    
+    private boolean isScrolledToBottom() {
+        JScrollBar bar = chatScroll.getVerticalScrollBar();
+        return bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - SCROLL_FOLLOW_SLACK;
+    }
+    
+    @Override
+    public void clear() {
+        try {
+            doc.remove(0, doc.getLength());
+        } catch (BadLocationException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.messaging.util;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Byte arrays for reuse across connections, in power-of-two sizes from 4 KB up.
+ * Buffers are handed back when no longer needed; the pool keeps them until the
+ * total it holds reaches its limit, beyond which released buffers are left to GC.
+ */
+public class BufferPool {
+    public static final BufferPool SHARED = new BufferPool(Long.getLong("buffers.maxPooledBytes", 64L << 20));
+    
+    private static final int MIN_SHIFT = 12;  // 4 KB
+    private static final int MAX_SHIFT = 30;
+    
+    private final ConcurrentLinkedQueue<byte[]>[] free;
+    private final AtomicLong pooledBytes = new AtomicLong();
+    private final long maxPooledBytes;
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public BufferPool(long maxPooledBytes) {
+        this.maxPooledBytes = maxPooledBytes;
+        this.free = new ConcurrentLinkedQueue[MAX_SHIFT - MIN_SHIFT + 1];
+        for (int i = 0; i < free.length; i++) {
+            free[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+    
+    /**
+     * A buffer of at least the given size; its contents are undefined
+     */
+    public byte[] acquire(int minSize) {
+        int shift = shiftFor(minSize);
+        byte[] buffer = free[shift - MIN_SHIFT].poll();
+        if (buffer != null) {
+            pooledBytes.addAndGet(-buffer.length);
+            return buffer;
+        }
+        return new byte[1 << shift];
+    }
+    
+    /**
+     * Hands a buffer back; the caller must not touch it afterwards
+     */
+    public void release(byte[] buffer) {
+        int length = buffer.length;
+        if (Integer.bitCount(length) != 1 || length < 1 << MIN_SHIFT) {
+            return;  // not one of ours
+        }
+        if (pooledBytes.addAndGet(length) > maxPooledBytes) {
+            pooledBytes.addAndGet(-length);
+            return;
+        }
+        free[Integer.numberOfTrailingZeros(length) - MIN_SHIFT].offer(buffer);
+    }
+    
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+    
+    private static int shiftFor(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return MIN_SHIFT;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        if (shift > MAX_SHIFT) {
+            throw new IllegalArgumentException("Buffer too large: " + size);
+        }
+        return shift;
+    }
+}
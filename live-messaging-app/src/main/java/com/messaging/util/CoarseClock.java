@@ -0,0 +1,35 @@
+package com.messaging.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wall-clock time in epoch milliseconds, read from a field a daemon thread refreshes every
+ * few milliseconds rather than asked of the OS on each call. For stamping messages and
+ * presence, where a few milliseconds do not matter and the call happens per frame; order
+ * comes from sequences, never from these times.
+ */
+public final class CoarseClock {
+    private static final long RESOLUTION_MS = Math.max(1, Long.getLong("clock.resolutionMs", 10));
+    private static volatile long now = System.currentTimeMillis();
+    
+    static {
+        Thread ticker = new Thread(() -> {
+            while (true) {
+                LockSupport.parkNanos(RESOLUTION_MS * 1_000_000);
+                now = System.currentTimeMillis();
+            }
+        }, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+    
+    private CoarseClock() {
+    }
+    
+    /**
+     * The current time, at most about clock.resolutionMs behind
+     */
+    public static long millis() {
+        return now;
+    }
+}
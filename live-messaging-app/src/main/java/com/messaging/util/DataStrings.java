@@ -0,0 +1,49 @@
+package com.messaging.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Strings in binary snapshots, written as a varint byte count and UTF-8. Unlike
+ * {@link DataOutput#writeUTF(String)} there is no 64 KB limit, which names and ids
+ * chosen by clients could otherwise reach and so break every snapshot after it.
+ */
+public final class DataStrings {
+    private static final int MAX_BYTES = 1 << 26;  // far beyond any frame; guards a corrupt length
+    
+    private DataStrings() {
+    }
+    
+    public static void write(DataOutput out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        while ((length & ~0x7F) != 0) {
+            out.writeByte((length & 0x7F) | 0x80);
+            length >>>= 7;
+        }
+        out.writeByte(length);
+        out.write(bytes);
+    }
+    
+    public static String read(DataInput in) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (shift > 28) {
+                throw new IOException("Malformed string length");
+            }
+            int b = in.readUnsignedByte();
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length < 0 || length > MAX_BYTES) {
+            throw new IOException("String of " + length + " bytes is out of range");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
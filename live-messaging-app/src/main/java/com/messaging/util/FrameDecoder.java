@@ -0,0 +1,224 @@
+package com.messaging.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Splits a stream of newline-terminated UTF-8 frames. Bytes are read into a buffer
+ * borrowed from a {@link BufferPool}, which is swapped for a larger pooled one only
+ * while a frame needs it and never beyond the maximum frame size, so a peer that
+ * never sends a newline costs at most that much memory before the decoder gives up.
+ * Each frame is exposed as a {@link Reader} decoding straight from the buffer, so
+ * a JSON parser can consume it without an intermediate String.
+ * Not thread-safe; one decoder per connection, used by its reading thread.
+ */
+public class FrameDecoder {
+    private static final int INITIAL_BUFFER = 8 << 10;
+    
+    private final InputStream in;
+    private final int maxFrameBytes;
+    private final BufferPool pool;
+    private final FrameReader reader = new FrameReader();
+    private byte[] buffer;
+    private int start;  // first byte not yet handed out
+    private int end;    // end of the bytes read so far
+    private int lastStart;  // bounds of the frame last returned
+    private int lastEnd;
+    
+    public FrameDecoder(InputStream in, int maxFrameBytes) {
+        this(in, maxFrameBytes, BufferPool.SHARED);
+    }
+    
+    public FrameDecoder(InputStream in, int maxFrameBytes, BufferPool pool) {
+        this.in = in;
+        this.maxFrameBytes = maxFrameBytes;
+        this.pool = pool;
+        this.buffer = pool.acquire(Math.min(INITIAL_BUFFER, maxFrameBytes));
+    }
+    
+    /**
+     * Reads the next frame, without its line terminator. The maximum frame size includes the
+     * terminator, so a power-of-two limit never needs a buffer twice that size. The reader
+     * stays valid until the next call. Returns null at the end of the stream; a final frame with no newline is
+     * still returned, as BufferedReader.readLine would.
+     *
+     * @throws FrameTooLargeException if a frame is longer than the maximum
+     */
+    public Reader nextFrame() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Decoder released");
+        }
+        if (start == end && buffer.length > INITIAL_BUFFER) {
+            // The large frame that needed this buffer has been consumed
+            pool.release(buffer);
+            buffer = pool.acquire(Math.min(INITIAL_BUFFER, maxFrameBytes));
+            start = 0;
+            end = 0;
+        }
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    if (i - start >= maxFrameBytes) {
+                        throw new FrameTooLargeException(maxFrameBytes);
+                    }
+                    int frameEnd = i > start && buffer[i - 1] == '\r' ? i - 1 : i;
+                    markFrame(start, frameEnd);
+                    start = i + 1;
+                    return reader;
+                }
+            }
+            if (end - start >= maxFrameBytes) {
+                throw new FrameTooLargeException(maxFrameBytes);
+            }
+            scanned = end;
+            if (end == buffer.length) {
+                makeRoom();
+                scanned = end;
+            }
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                if (start == end) {
+                    return null;
+                }
+                markFrame(start, end);
+                start = end;
+                return reader;
+            }
+            end += read;
+        }
+    }
+    
+    /**
+     * A copy of the bytes of the frame last returned, e.g. to keep past the next call
+     */
+    public byte[] copyFrame() {
+        return Arrays.copyOfRange(buffer, lastStart, lastEnd);
+    }
+    
+    private void markFrame(int from, int to) {
+        lastStart = from;
+        lastEnd = to;
+        reader.reset(buffer, from, to);
+    }
+    
+    /**
+     * Returns the buffer to the pool; the decoder cannot be used afterwards
+     */
+    public void release() {
+        if (buffer != null) {
+            pool.release(buffer);
+            buffer = null;
+        }
+    }
+    
+    /**
+     * Moves the unfinished frame to the front, or into a bigger buffer if it fills this one
+     */
+    private void makeRoom() {
+        int pending = end - start;
+        byte[] target = buffer;
+        if (start == 0) {
+            // The limit counts the terminator, so a full buffer of that size is already too long
+            target = pool.acquire(Math.min(buffer.length * 2, maxFrameBytes));
+        }
+        System.arraycopy(buffer, start, target, 0, pending);
+        if (target != buffer) {
+            pool.release(buffer);
+            buffer = target;
+        }
+        start = 0;
+        end = pending;
+    }
+    
+    /**
+     * Decodes UTF-8 from a range of the decoder's buffer; malformed input becomes U+FFFD
+     */
+    private static class FrameReader extends Reader {
+        private byte[] bytes;
+        private int position;
+        private int limit;
+        private char pendingLowSurrogate;
+        
+        void reset(byte[] bytes, int from, int to) {
+            this.bytes = bytes;
+            this.position = from;
+            this.limit = to;
+            this.pendingLowSurrogate = 0;
+        }
+        
+        @Override
+        public int read(char[] chars, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            int count = 0;
+            if (pendingLowSurrogate != 0) {
+                chars[offset + count++] = pendingLowSurrogate;
+                pendingLowSurrogate = 0;
+            }
+            while (count < length && position < limit) {
+                int b = bytes[position];
+                if (b >= 0) {
+                    // ASCII, by far the common case in JSON
+                    chars[offset + count++] = (char) b;
+                    position++;
+                    continue;
+                }
+                int codePoint = decodeMultiByte();
+                if (codePoint < 0x10000) {
+                    chars[offset + count++] = (char) codePoint;
+                } else {
+                    chars[offset + count++] = Character.highSurrogate(codePoint);
+                    if (count < length) {
+                        chars[offset + count++] = Character.lowSurrogate(codePoint);
+                    } else {
+                        pendingLowSurrogate = Character.lowSurrogate(codePoint);
+                    }
+                }
+            }
+            return count == 0 ? -1 : count;
+        }
+        
+        private int decodeMultiByte() {
+            int lead = bytes[position] & 0xFF;
+            int extra;
+            int codePoint;
+            int min;
+            if ((lead & 0xE0) == 0xC0) {
+                extra = 1;
+                codePoint = lead & 0x1F;
+                min = 0x80;
+            } else if ((lead & 0xF0) == 0xE0) {
+                extra = 2;
+                codePoint = lead & 0x0F;
+                min = 0x800;
+            } else if ((lead & 0xF8) == 0xF0) {
+                extra = 3;
+                codePoint = lead & 0x07;
+                min = 0x10000;
+            } else {
+                position++;
+                return 0xFFFD;
+            }
+            position++;
+            for (int i = 0; i < extra; i++) {
+                if (position >= limit || (bytes[position] & 0xC0) != 0x80) {
+                    return 0xFFFD;  // truncated sequence; resume at the offending byte
+                }
+                codePoint = (codePoint << 6) | (bytes[position++] & 0x3F);
+            }
+            if (codePoint < min || codePoint > 0x10FFFF
+                    || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return 0xFFFD;
+            }
+            return codePoint;
+        }
+        
+        @Override
+        public void close() {
+        }
+    }
+}
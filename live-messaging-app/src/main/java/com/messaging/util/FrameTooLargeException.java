@@ -0,0 +1,13 @@
+package com.messaging.util;
+
+import java.net.ProtocolException;
+
+/**
+ * The peer sent a frame longer than the decoder accepts; the stream cannot be resynchronized
+ */
+public class FrameTooLargeException extends ProtocolException {
+    
+    public FrameTooLargeException(int maxFrameBytes) {
+        super("Frame exceeds " + maxFrameBytes + " bytes with its terminator");
+    }
+}
@@ -1,25 +0,0 @@
-package com.messaging.util;
-
-import com.google.gson.*;
-import java.lang.reflect.Type;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-
-/**
- * Gson adapter for LocalDateTime serialization/deserialization
- */
-public class LocalDateTimeAdapter implements JsonSerializer<LocalDateTime>, JsonDeserializer<LocalDateTime> {
-    
-    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
-    
-    @Override
-    public JsonElement serialize(LocalDateTime dateTime, Type type, JsonSerializationContext context) {
-        return new JsonPrimitive(dateTime.format(FORMATTER));
-    }
-    
-    @Override
-    public LocalDateTime deserialize(JsonElement json, Type type, JsonDeserializationContext context) 
-            throws JsonParseException {
-        return LocalDateTime.parse(json.getAsString(), FORMATTER);
-    }
-}
@@ -0,0 +1,43 @@
+package com.messaging.util;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Gson adapter keeping an epoch-millisecond field as an ISO-8601 local date-time on the
+ * wire, so logs and clients from before timestamps were held as numbers still read. A bare
+ * number is accepted too.
+ */
+public class TimestampAdapter extends TypeAdapter<Long> {
+    
+    @Override
+    public void write(JsonWriter out, Long millis) throws IOException {
+        if (millis == null) {
+            out.nullValue();
+        } else {
+            out.value(TimestampFormat.iso(millis));
+        }
+    }
+    
+    @Override
+    public Long read(JsonReader in) throws IOException {
+        JsonToken token = in.peek();
+        if (token == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        if (token == JsonToken.NUMBER) {
+            return in.nextLong();
+        }
+        try {
+            return TimestampFormat.parseIso(in.nextString());
+        } catch (IllegalArgumentException e) {
+            throw new JsonParseException(e.getMessage(), e);
+        }
+    }
+}
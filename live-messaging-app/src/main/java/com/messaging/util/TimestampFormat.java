@@ -0,0 +1,136 @@
+package com.messaging.util;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Epoch-millisecond timestamps to and from text in the local time zone. Messages come in
+ * bursts, so each pattern remembers the last second it formatted: every other timestamp in
+ * that second reuses the text, and for the wire form only the milliseconds are appended.
+ * Safe to share between threads.
+ */
+public final class TimestampFormat {
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final Memo TIME = new Memo(DateTimeFormatter.ofPattern("HH:mm:ss"));
+    private static final Memo DATE_TIME = new Memo(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    private static final Memo ISO_SECONDS = new Memo(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss"));
+    
+    /**
+     * A second and its text, replaced as a whole so readers never see a mismatched pair
+     */
+    private static class Formatted {
+        final long second;
+        final String text;
+        
+        Formatted(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+    
+    private static class Memo {
+        private final DateTimeFormatter formatter;
+        private volatile Formatted last = new Formatted(Long.MIN_VALUE, null);
+        
+        Memo(DateTimeFormatter formatter) {
+            this.formatter = formatter;
+        }
+        
+        String format(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            Formatted cached = last;
+            if (cached.second != second) {
+                cached = new Formatted(second, formatter.format(LocalDateTime.ofInstant(Instant.ofEpochSecond(second), ZONE)));
+                last = cached;
+            }
+            return cached.text;
+        }
+    }
+    
+    private TimestampFormat() {
+    }
+    
+    /**
+     * Time of day, e.g. 14:03:27
+     */
+    public static String time(long millis) {
+        return TIME.format(millis);
+    }
+    
+    /**
+     * Date and time of day, e.g. 2024-05-01 14:03:27
+     */
+    public static String dateTime(long millis) {
+        return DATE_TIME.format(millis);
+    }
+    
+    /**
+     * ISO-8601 local date-time with milliseconds, e.g. 2024-05-01T14:03:27.045
+     */
+    public static String iso(long millis) {
+        String seconds = ISO_SECONDS.format(millis);
+        int fraction = Math.floorMod(millis, 1000);
+        if (fraction == 0) {
+            return seconds;
+        }
+        char[] text = new char[seconds.length() + 4];
+        seconds.getChars(0, seconds.length(), text, 0);
+        text[seconds.length()] = '.';
+        text[seconds.length() + 1] = (char) ('0' + fraction / 100);
+        text[seconds.length() + 2] = (char) ('0' + fraction / 10 % 10);
+        text[seconds.length() + 3] = (char) ('0' + fraction % 10);
+        return new String(text);
+    }
+    
+    /**
+     * Parses an ISO-8601 local date-time, with or without a fraction of a second. Text in
+     * the same second as the last one formatted or parsed skips the full parser.
+     */
+    public static long parseIso(String text) {
+        Formatted cached = ISO_SECONDS.last;
+        if (cached.text != null && text.startsWith(cached.text)) {
+            int millis = parseFraction(text, cached.text.length());
+            if (millis >= 0) {
+                return cached.second * 1000 + millis;
+            }
+        }
+        long millis;
+        try {
+            millis = LocalDateTime.parse(text).atZone(ZONE).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Not an ISO local date-time: " + text, e);
+        }
+        ISO_SECONDS.format(millis);
+        return millis;
+    }
+    
+    /**
+     * Milliseconds in a fraction starting at from (".045", ".0451", or nothing), or -1 if
+     * there is anything else there
+     */
+    private static int parseFraction(String text, int from) {
+        if (from == text.length()) {
+            return 0;
+        }
+        if (text.charAt(from) != '.' || from + 1 == text.length() || text.length() - from > 10) {
+            return -1;
+        }
+        int millis = 0;
+        for (int i = from + 1; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            if (i <= from + 3) {
+                millis = millis * 10 + (c - '0');
+            }
+        }
+        for (int i = text.length(); i <= from + 3; i++) {
+            millis *= 10;
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,90 @@
+package com.messaging.util;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * SSL contexts and engines for the client and server. A context holds the session cache, so
+ * each side keeps one for its lifetime: a client reconnecting through the same context offers
+ * its last session and, if the server still accepts it (TLS 1.3 tickets are kept by the
+ * client, not the server), skips the certificate exchange and signature checks.
+ */
+public class Tls {
+    
+    private Tls() {
+    }
+    
+    /**
+     * Context presenting the key and certificate chain in a PKCS12 or JKS key store
+     */
+    public static SSLContext serverContext(Path keyStore, char[] password, int sessionCacheSize,
+                                           int sessionTimeoutSeconds) throws IOException {
+        try {
+            KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+            keys.init(load(keyStore, password), password);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keys.getKeyManagers(), null, null);
+            context.getServerSessionContext().setSessionCacheSize(sessionCacheSize);
+            context.getServerSessionContext().setSessionTimeout(sessionTimeoutSeconds);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot use key store " + keyStore + ": " + e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Context trusting the certificates in a key store, or the JDK's default authorities if it is null
+     */
+    public static SSLContext clientContext(Path trustStore, char[] password) throws IOException {
+        try {
+            TrustManagerFactory trust = null;
+            if (trustStore != null) {
+                trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                trust.init(load(trustStore, password));
+            }
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(null, trust != null ? trust.getTrustManagers() : null, null);
+            return context;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot use trust store " + trustStore + ": " + e.getMessage(), e);
+        }
+    }
+    
+    public static SSLEngine serverEngine(SSLContext context, String[] protocols) {
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(protocols);
+        return engine;
+    }
+    
+    /**
+     * Engine for one connection; the host and port are what sessions are resumed by, and
+     * the host must match the server certificate
+     */
+    public static SSLEngine clientEngine(SSLContext context, String host, int port, String[] protocols) {
+        SSLEngine engine = context.createSSLEngine(host, port);
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        parameters.setProtocols(protocols);
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+    
+    private static KeyStore load(Path path, char[] password) throws IOException, GeneralSecurityException {
+        try (InputStream in = Files.newInputStream(path)) {
+            KeyStore store = KeyStore.getInstance(KeyStore.getDefaultType());
+            store.load(in, password);
+            return store;
+        }
+    }
+}
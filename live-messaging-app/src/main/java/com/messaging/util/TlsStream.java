@@ -0,0 +1,333 @@
+package com.messaging.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLSession;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TLS over any pair of byte streams, driven by an {@link SSLEngine}. The engine does the
+ * cryptography on buffers this class owns; the streams only ever see whole records, so the
+ * same code serves a socket or anything else that moves bytes. One thread reads while others
+ * write: unwrapping and wrapping run under separate locks, and whichever side the handshake
+ * needs next is driven by the thread that happens to be there.
+ */
+public class TlsStream {
+    private static final Logger logger = LoggerFactory.getLogger(TlsStream.class);
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    
+    private final SSLEngine engine;
+    private final InputStream in;
+    private final OutputStream out;
+    private final ReentrantLock readLock = new ReentrantLock();
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final Condition peerProgress = writeLock.newCondition();  // signalled after handshake records are read
+    private ByteBuffer netIn;   // records read but not yet unwrapped, ready for reading
+    private ByteBuffer appIn;   // plaintext unwrapped but not yet returned, ready for writing
+    private ByteBuffer netOut;  // guarded by writeLock
+    private volatile boolean inboundDone;
+    
+    private final InputStream plainIn = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return TlsStream.this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return TlsStream.this.read(b, off, len);
+        }
+    };
+    
+    private final OutputStream plainOut = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            TlsStream.this.write(new byte[] {(byte) b}, 0, 1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            TlsStream.this.write(b, off, len);
+        }
+        
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    };
+    
+    public TlsStream(SSLEngine engine, InputStream in, OutputStream out) {
+        this.engine = engine;
+        this.in = in;
+        this.out = out;
+        SSLSession session = engine.getSession();
+        this.netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+        this.netIn.flip();
+        this.appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+        this.netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+    }
+    
+    /**
+     * Runs the handshake to completion on the calling thread, before the streams are handed
+     * to anyone else. Plaintext that arrives with the last handshake records is kept for the
+     * first read. Read timeouts of the underlying stream apply.
+     */
+    public void handshake() throws IOException {
+        readLock.lock();
+        writeLock.lock();
+        try {
+            engine.beginHandshake();
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                    && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                switch (status) {
+                    case NEED_WRAP:
+                        status = wrap(EMPTY).getHandshakeStatus();
+                        break;
+                    case NEED_TASK:
+                        runTasks();
+                        status = engine.getHandshakeStatus();
+                        break;
+                    default:
+                        SSLEngineResult result = unwrap();
+                        if (result == null) {
+                            throw new EOFException("Connection closed during TLS handshake");
+                        }
+                        if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                            throw new SSLException("Peer closed the connection during TLS handshake");
+                        }
+                        status = result.getHandshakeStatus();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+            readLock.unlock();
+        }
+    }
+    
+    /**
+     * Plaintext from the peer; meant for one reading thread
+     */
+    public InputStream getInputStream() {
+        return plainIn;
+    }
+    
+    /**
+     * Plaintext to the peer; each write becomes one or more records, flush flushes the underlying stream
+     */
+    public OutputStream getOutputStream() {
+        return plainOut;
+    }
+    
+    public SSLSession getSession() {
+        return engine.getSession();
+    }
+    
+    /**
+     * Tells the peer no more data follows, if no writer is in the way. The underlying streams
+     * stay open; closing them is up to the owner, who is about to anyway.
+     */
+    public void closeOutbound() {
+        if (!writeLock.tryLock()) {
+            return;  // a writer is stuck on a full socket; close_notify could not get out either
+        }
+        try {
+            engine.closeOutbound();
+            for (int i = 0; i < 4 && !engine.isOutboundDone(); i++) {
+                wrap(EMPTY);
+            }
+            out.flush();
+        } catch (IOException e) {
+            logger.debug("Could not send close_notify", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        readLock.lock();
+        try {
+            while (appIn.position() == 0) {
+                if (inboundDone) {
+                    return -1;
+                }
+                SSLEngineResult result = unwrap();
+                if (result == null) {
+                    inboundDone = true;
+                    try {
+                        engine.closeInbound();
+                    } catch (SSLException e) {
+                        logger.debug("Peer closed the connection without close_notify");
+                    }
+                } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    inboundDone = true;
+                } else if (result.getHandshakeStatus() != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                    continueHandshake();
+                }
+            }
+            appIn.flip();
+            int count = Math.min(len, appIn.remaining());
+            appIn.get(b, off, count);
+            appIn.compact();
+            return count;
+        } finally {
+            readLock.unlock();
+        }
+    }
+    
+    private void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer src = ByteBuffer.wrap(b, off, len);
+        writeLock.lock();
+        try {
+            while (src.hasRemaining()) {
+                SSLEngineResult result = wrap(src);
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS connection closed");
+                }
+                if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                } else if (result.bytesConsumed() == 0
+                        && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    awaitPeer();
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * A renegotiation or key update needs the peer's records before data can be sent again;
+     * they arrive through the reading thread. Caller holds writeLock.
+     */
+    private void awaitPeer() throws IOException {
+        try {
+            while (!inboundDone && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                peerProgress.await(100, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the TLS handshake");
+        }
+        if (inboundDone) {
+            throw new SSLException("TLS connection closed during handshake");
+        }
+    }
+    
+    /**
+     * Answers handshake records the reading thread just unwrapped, and wakes writers waiting for them
+     */
+    private void continueHandshake() throws IOException {
+        writeLock.lock();
+        try {
+            while (true) {
+                SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+                if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runTasks();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    wrap(EMPTY);
+                } else {
+                    break;
+                }
+            }
+            out.flush();
+            peerProgress.signalAll();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Unwraps one record into appIn, reading from the network as needed. Returns null at the
+     * end of the underlying stream. Caller holds readLock.
+     */
+    private SSLEngineResult unwrap() throws IOException {
+        while (true) {
+            SSLEngineResult result = engine.unwrap(netIn, appIn);
+            switch (result.getStatus()) {
+                case BUFFER_UNDERFLOW:
+                    if (!fill()) {
+                        return null;
+                    }
+                    break;
+                case BUFFER_OVERFLOW:
+                    appIn = enlarge(appIn, appIn.position() + engine.getSession().getApplicationBufferSize());
+                    break;
+                default:
+                    return result;
+            }
+        }
+    }
+    
+    /**
+     * Reads more records into netIn; false at the end of the stream
+     */
+    private boolean fill() throws IOException {
+        netIn.compact();
+        if (!netIn.hasRemaining()) {
+            netIn = enlarge(netIn, netIn.capacity() + engine.getSession().getPacketBufferSize());
+        }
+        int read = 0;
+        try {
+            read = in.read(netIn.array(), netIn.position(), netIn.remaining());
+        } finally {
+            // Back to reading mode even on a timeout, so the next attempt sees what was already there
+            if (read > 0) {
+                netIn.position(netIn.position() + read);
+            }
+            netIn.flip();
+        }
+        return read >= 0;
+    }
+    
+    /**
+     * Wraps what fits of src into one record and writes it. Caller holds writeLock.
+     */
+    private SSLEngineResult wrap(ByteBuffer src) throws IOException {
+        while (true) {
+            netOut.clear();
+            SSLEngineResult result = engine.wrap(src, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                netOut = ByteBuffer.allocate(netOut.capacity() + engine.getSession().getPacketBufferSize());
+                continue;
+            }
+            if (netOut.position() > 0) {
+                out.write(netOut.array(), 0, netOut.position());
+            }
+            return result;
+        }
+    }
+    
+    private void runTasks() {
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+    
+    /**
+     * A larger copy of a buffer in write mode
+     */
+    private static ByteBuffer enlarge(ByteBuffer buffer, int capacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(capacity, buffer.capacity()));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
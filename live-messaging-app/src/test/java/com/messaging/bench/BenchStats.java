@@ -0,0 +1,56 @@
+package com.messaging.bench;
+
+import java.util.Arrays;
+
+/**
+ * Latency sample collector printing percentiles for the benchmark mains in this package
+ */
+public class BenchStats {
+    private long[] samples;
+    private int count;
+    
+    public BenchStats(int expectedSamples) {
+        this.samples = new long[Math.max(16, expectedSamples)];
+    }
+    
+    public synchronized void record(long nanos) {
+        if (count == samples.length) {
+            samples = Arrays.copyOf(samples, count * 2);
+        }
+        samples[count++] = nanos;
+    }
+    
+    public synchronized int count() {
+        return count;
+    }
+    
+    /**
+     * Percentile in microseconds, p in [0, 100]
+     */
+    public synchronized double percentileMicros(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(count - 1, Math.max(0, Math.ceil(p / 100.0 * count) - 1));
+        return sorted[index] / 1000.0;
+    }
+    
+    public synchronized double meanMicros() {
+        if (count == 0) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 0; i < count; i++) {
+            total += samples[i];
+        }
+        return total / count / 1000.0;
+    }
+    
+    public String summary() {
+        return String.format("n=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus max=%.1fus",
+                count(), meanMicros(), percentileMicros(50), percentileMicros(90),
+                percentileMicros(99), percentileMicros(100));
+    }
+}
@@ -0,0 +1,101 @@
+package com.messaging.bench;
+
+import com.messaging.server.Connection;
+import com.messaging.server.ShardedConnectionRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures broadcast completion latency of {@link ShardedConnectionRegistry} against shard count.
+ * Connections encode each frame to UTF-8 into a private buffer, which stands in for
+ * the per-connection write cost without involving sockets.
+ *
+ * Usage: BroadcastBenchmark [connections] [broadcasts] [shardCounts, e.g. 1,2,4,8]
+ */
+public class BroadcastBenchmark {
+    
+    private static class SinkConnection implements Connection {
+        private final String username;
+        private final AtomicReference<CountDownLatch> pending;
+        private byte[] lastFrame;
+        
+        SinkConnection(String username, AtomicReference<CountDownLatch> pending) {
+            this.username = username;
+            this.pending = pending;
+        }
+        
+        @Override
+        public String getUsername() {
+            return username;
+        }
+        
+        @Override
+        public void sendMessage(String json) {
+            lastFrame = json.getBytes(StandardCharsets.UTF_8);
+            pending.get().countDown();
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        String shardSpec = args.length > 2 ? args[2] : defaultShardCounts();
+        
+        String frame = "{\"type\":\"TEXT\",\"sender\":\"bench\",\"content\":\""
+                + "x".repeat(200) + "\",\"messageId\":\"1-1\",\"sequence\":1}";
+        
+        System.out.printf("Broadcast benchmark: %d connections, %d broadcasts, %d cores%n",
+                connections, broadcasts, Runtime.getRuntime().availableProcessors());
+        
+        for (String spec : shardSpec.split(",")) {
+            int shardCount = Integer.parseInt(spec.trim());
+            ShardedConnectionRegistry registry = new ShardedConnectionRegistry(shardCount);
+            AtomicReference<CountDownLatch> pending = new AtomicReference<>(new CountDownLatch(0));
+            for (int i = 0; i < connections; i++) {
+                registry.register(new SinkConnection("user" + i, pending));
+            }
+            while (registry.size() < connections) {
+                Thread.sleep(1);
+            }
+            
+            // Warm up, then measure one broadcast at a time until every connection has it
+            runBroadcasts(registry, pending, frame, connections, broadcasts / 5, null);
+            BenchStats stats = new BenchStats(broadcasts);
+            long start = System.nanoTime();
+            runBroadcasts(registry, pending, frame, connections, broadcasts, stats);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            
+            System.out.printf("shards=%-3d %s  deliveries/s=%.0f%n",
+                    shardCount, stats.summary(), (double) connections * broadcasts / seconds);
+            registry.shutdown();
+            registry.awaitTermination(10, TimeUnit.SECONDS);
+        }
+    }
+    
+    private static void runBroadcasts(ShardedConnectionRegistry registry, AtomicReference<CountDownLatch> pending,
+                                      String frame, int connections, int broadcasts, BenchStats stats)
+            throws InterruptedException {
+        for (int i = 0; i < broadcasts; i++) {
+            CountDownLatch done = new CountDownLatch(connections);
+            pending.set(done);
+            long start = System.nanoTime();
+            registry.broadcast(frame);
+            done.await();
+            if (stats != null) {
+                stats.record(System.nanoTime() - start);
+            }
+        }
+    }
+    
+    private static String defaultShardCounts() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        StringBuilder spec = new StringBuilder("1");
+        for (int shards = 2; shards <= Math.max(2, cores * 2); shards *= 2) {
+            spec.append(',').append(shards);
+        }
+        return spec.toString();
+    }
+}
@@ -0,0 +1,364 @@
+package com.messaging.bench;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.messaging.store.CaptureReader;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a traffic capture (see capture.file on the server) against a running server over
+ * ordinary sockets: a connection per captured connection, each frame sent at its captured
+ * time divided by the speed-up, or back to back at max. Captured logins carry no password,
+ * so every user logs in with the one given, which a server with auth.autoRegister=true accepts
+ * for new users; frames a connection sent while its login was being checked are held until
+ * the server answers, as the server would otherwise ignore them. Message ids get a suffix
+ * for the run, so replaying twice against the same server is not taken for resends.
+ *
+ * Reports the rate frames went out, chat latency from sending a message to the sender's
+ * copy of it coming back, and (unless at max) how far sending fell behind the schedule,
+ * which says whether the numbers reflect the server or this tool. A captured close waits
+ * for the connection's messages to come back; a LOGOUT does not, so at high speed-ups the
+ * last messages before one may go unanswered, as may any the server sheds under load.
+ *
+ * Usage: CaptureReplay capture-file [speed: 1x, 10x... or max] [host:port] [password]
+ */
+public class CaptureReplay {
+    private static final long ACK_WAIT_NANOS = 10_000_000_000L;
+    private static final Set<String> CHAT_TYPES = Set.of("TEXT", "PRIVATE", "GROUP");
+    
+    private static final AtomicLong framesSent = new AtomicLong();
+    private static final AtomicInteger refusedLogins = new AtomicInteger();
+    private static final AtomicInteger lostConnections = new AtomicInteger();
+    
+    /**
+     * A captured frame ready to send, or the end of a connection
+     */
+    private static class Step {
+        final int connection;
+        final long offsetNanos;
+        final byte[] frame;   // with its newline; null when the connection closed
+        final boolean login;
+        final String chatId;  // message id of a chat message, whose copy is waited for
+        
+        Step(int connection, long offsetNanos, byte[] frame, boolean login, String chatId) {
+            this.connection = connection;
+            this.offsetNanos = offsetNanos;
+            this.frame = frame;
+            this.login = login;
+            this.chatId = chatId;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: CaptureReplay capture-file [1x|10x|...|max] [host:port] [password]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        String speedArg = args.length > 1 ? args[1] : "1x";
+        double speed = speedArg.equalsIgnoreCase("max") ? 0
+                : Double.parseDouble(speedArg.toLowerCase().replace("x", ""));
+        String target = args.length > 2 ? args[2] : "localhost:5000";
+        String host = target.substring(0, target.lastIndexOf(':'));
+        int port = Integer.parseInt(target.substring(target.lastIndexOf(':') + 1));
+        String password = args.length > 3 ? args[3] : "replay";
+        
+        long startedAt;
+        List<Step> steps = new ArrayList<>();
+        String run = Long.toString(System.currentTimeMillis(), 36);
+        try (CaptureReader reader = new CaptureReader(file)) {
+            startedAt = reader.getStartedAt();
+            CaptureReader.Entry entry;
+            while ((entry = reader.next()) != null) {
+                steps.add(prepare(entry, password, run));
+            }
+        }
+        if (steps.isEmpty()) {
+            System.out.println("Capture " + file + " holds no frames");
+            return;
+        }
+        long capturedNanos = steps.get(steps.size() - 1).offsetNanos;
+        long frames = steps.stream().filter(step -> step.frame != null).count();
+        long chats = steps.stream().filter(step -> step.chatId != null).count();
+        System.out.printf("Capture %s from %s: %,d frames (%,d chat) on %,d connections over %.1f s%n",
+                file, new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(startedAt)), frames, chats,
+                steps.stream().mapToInt(step -> step.connection).distinct().count(), capturedNanos / 1e9);
+        System.out.printf("Replaying at %s against %s:%d%n", speed == 0 ? "max speed" : speedArg, host, port);
+        
+        BenchStats latency = new BenchStats((int) chats);
+        BenchStats lag = new BenchStats(steps.size());
+        Map<Integer, ReplayConnection> connections = new HashMap<>();
+        List<ReplayConnection> all = new ArrayList<>();
+        long start = System.nanoTime();
+        for (Step step : steps) {
+            if (speed > 0) {
+                long due = start + (long) (step.offsetNanos / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                lag.record(System.nanoTime() - due);
+            }
+            ReplayConnection connection = connections.get(step.connection);
+            if (step.frame == null) {
+                if (connection != null) {
+                    connection.finish();
+                    connections.remove(step.connection);
+                }
+                continue;
+            }
+            if (connection == null) {
+                connection = new ReplayConnection(host, port, latency);
+                connections.put(step.connection, connection);
+                all.add(connection);
+            }
+            connection.send(step);
+        }
+        double sendSeconds = (System.nanoTime() - start) / 1e9;
+        
+        // Copies of the last messages are still on their way back
+        long deadline = System.nanoTime() + ACK_WAIT_NANOS;
+        while (all.stream().anyMatch(ReplayConnection::isWaiting) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long unanswered = 0;
+        for (ReplayConnection connection : all) {
+            unanswered += connection.pendingCount();
+            connection.close();
+        }
+        
+        System.out.printf("Sent %,d frames on %,d connections in %.2f s: %,.0f frames/s (captured rate %,.0f/s)%n",
+                framesSent.get(), all.size(), sendSeconds, framesSent.get() / sendSeconds,
+                capturedNanos > 0 ? frames / (capturedNanos / 1e9) : 0);
+        System.out.printf("Chat round trip, %,d of %,d answered in %.2f s: %s%n",
+                latency.count(), latency.count() + unanswered, seconds, latency.summary());
+        if (speed > 0) {
+            System.out.printf("Schedule lag %s%n", lag.summary());
+        }
+        if (lostConnections.get() > 0) {
+            System.out.printf("%,d connection(s) closed by the server before the capture closed them%n",
+                    lostConnections.get());
+        }
+        if (refusedLogins.get() > 0) {
+            System.out.printf("%,d login(s) refused; frames on those connections were not sent%n", refusedLogins.get());
+        }
+    }
+    
+    /**
+     * Puts the replay password into logins, drops what ties them to the captured server's
+     * sessions and history, and makes message ids unique to this run
+     */
+    private static Step prepare(CaptureReader.Entry entry, String password, String run) {
+        long offsetNanos = entry.getOffsetMicros() * 1000;
+        if (entry.getFrame() == null) {
+            return new Step(entry.getConnection(), offsetNanos, null, false, null);
+        }
+        String frame = new String(entry.getFrame(), StandardCharsets.UTF_8);
+        boolean login = false;
+        String chatId = null;
+        try {
+            JsonElement json = JsonParser.parseString(frame);
+            if (json.isJsonObject()) {
+                JsonObject object = (JsonObject) json;
+                String type = object.has("type") ? object.get("type").getAsString() : "";
+                if (type.equals("LOGIN")) {
+                    login = true;
+                    object.addProperty("content", password);
+                    object.remove("resumeToken");
+                    object.remove("sequence");
+                }
+                if (object.has("messageId") && object.get("messageId").isJsonPrimitive()) {
+                    String messageId = object.get("messageId").getAsString() + "." + run;
+                    object.addProperty("messageId", messageId);
+                    if (CHAT_TYPES.contains(type)) {
+                        chatId = messageId;
+                    }
+                }
+                frame = object.toString();
+            }
+        } catch (JsonParseException | UnsupportedOperationException | IllegalStateException e) {
+            // sent as captured; the server gets to reject it again
+        }
+        byte[] bytes = (frame + "\n").getBytes(StandardCharsets.UTF_8);
+        return new Step(entry.getConnection(), offsetNanos, bytes, login, chatId);
+    }
+    
+    /**
+     * One replayed client: frames go out on the replaying thread, replies are read on a thread of its own
+     */
+    private static class ReplayConnection implements Closeable {
+        private final Socket socket;
+        private final OutputStream out;
+        private final BenchStats latency;
+        private final Map<String, Long> pending = new ConcurrentHashMap<>();  // chat message id -> sent at
+        private final List<Step> held = new ArrayList<>();
+        private boolean awaitingLogin;
+        private boolean finishing;  // the captured connection has ended
+        private boolean refused;
+        
+        ReplayConnection(String host, int port, BenchStats latency) throws IOException {
+            this.socket = new Socket(host, port);
+            this.socket.setTcpNoDelay(true);
+            this.out = new BufferedOutputStream(socket.getOutputStream(), 16 << 10);
+            this.latency = latency;
+            Thread reader = new Thread(this::readLoop, "replay-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+        
+        synchronized void send(Step step) {
+            if (refused || socket.isClosed()) {
+                return;
+            }
+            if (awaitingLogin) {
+                held.add(step);
+                return;
+            }
+            write(step);
+            awaitingLogin = step.login;
+        }
+        
+        /**
+         * Closes the connection where the captured one closed, once frames held behind its login
+         * are sent and its chat messages have come back, so none of them goes unmeasured
+         */
+        synchronized void finish() {
+            finishing = true;
+            closeIfFinished();
+        }
+        
+        private void closeIfFinished() {
+            if (finishing && !awaitingLogin && pending.isEmpty()) {
+                close();
+            }
+        }
+        
+        private void write(Step step) {
+            if (step.chatId != null) {
+                pending.put(step.chatId, System.nanoTime());
+            }
+            try {
+                out.write(step.frame);
+                out.flush();
+                framesSent.incrementAndGet();
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    lostConnections.incrementAndGet();
+                    closeQuietly();
+                }
+            }
+        }
+        
+        private void readLoop() {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long received = System.nanoTime();
+                    if (isAwaitingLogin()) {
+                        loginAnswered(line.contains("\"type\":\"LOGIN\""));
+                        continue;
+                    }
+                    if (pending.isEmpty()) {
+                        continue;
+                    }
+                    String messageId = messageIdOf(line);
+                    if (messageId != null) {
+                        answered(messageId, received);
+                    }
+                }
+            } catch (IOException e) {
+                // closed by the replay
+            } finally {
+                close();  // answers still missing will not come
+            }
+        }
+        
+        private synchronized void answered(String messageId, long received) {
+            Long sent = pending.remove(messageId);
+            if (sent != null) {
+                latency.record(received - sent);
+                closeIfFinished();
+            }
+        }
+        
+        private synchronized boolean isAwaitingLogin() {
+            return awaitingLogin;
+        }
+        
+        /**
+         * Sends what was held behind the login, unless the server said no
+         */
+        private synchronized void loginAnswered(boolean accepted) {
+            awaitingLogin = false;
+            if (!accepted) {
+                refused = true;
+                refusedLogins.incrementAndGet();
+                held.clear();
+                return;
+            }
+            while (!held.isEmpty() && !awaitingLogin) {
+                Step step = held.remove(0);
+                write(step);
+                awaitingLogin = step.login;
+            }
+            closeIfFinished();
+        }
+        
+        /**
+         * Whether a login or chat message sent on the connection is still to be answered
+         */
+        synchronized boolean isWaiting() {
+            return (awaitingLogin || !pending.isEmpty()) && !socket.isClosed();
+        }
+        
+        /**
+         * Chat messages not answered, including any still held behind the login
+         */
+        synchronized int pendingCount() {
+            return pending.size() + (int) held.stream().filter(step -> step.chatId != null).count();
+        }
+        
+        @Override
+        public synchronized void close() {
+            held.clear();
+            closeQuietly();
+        }
+        
+        private void closeQuietly() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing more to send on it anyway
+            }
+        }
+        
+        /**
+         * The message id of a frame the server wrote, without parsing the whole frame
+         */
+        private static String messageIdOf(String line) {
+            String key = "\"messageId\":\"";
+            int start = line.indexOf(key);
+            if (start < 0) {
+                return null;
+            }
+            start += key.length();
+            int end = line.indexOf('"', start);
+            return end < 0 ? null : line.substring(start, end);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.messaging.bench;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+import com.messaging.search.SearchIndex;
+import com.messaging.store.LogCompactor;
+import com.messaging.store.LogSegment;
+import com.messaging.store.MessageLog;
+import com.messaging.store.RetentionPolicies;
+import com.messaging.store.RetentionPolicy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Writes a synthetic history to a fresh message log, then compacts every sealed segment
+ * once with no rate limit and no retention limits. Reports on-disk size before and after,
+ * compaction throughput, and single-message read latency from plain and compacted segments.
+ *
+ * Usage: CompactionBenchmark [messages] [segment MB] [reads]
+ */
+public class CompactionBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        long segmentBytes = (args.length > 1 ? Long.parseLong(args[1]) : 8) << 20;
+        int reads = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        Gson gson = new Gson();
+        Random random = new Random(42);
+        Path dir = Files.createTempDirectory("compaction-bench");
+        
+        System.out.printf("Compaction benchmark: %d messages, %d MB segments%n", messages, segmentBytes >> 20);
+        try {
+            MessageLog log = new MessageLog(dir, segmentBytes, messages + 1);
+            LogCompactor compactor = new LogCompactor(log, new RetentionPolicies(RetentionPolicy.UNLIMITED),
+                    SearchIndex::scopeOf, () -> false, 1, Long.MAX_VALUE, Long.MAX_VALUE);
+            log.addListener(compactor);
+            log.start();
+            
+            for (int i = 1; i <= messages; i++) {
+                String sender = "user" + random.nextInt(50);
+                Message message = random.nextInt(10) < 6
+                        ? new Message(Message.MessageType.TEXT, sender, "message number " + i + " from " + sender)
+                        : new Message(Message.MessageType.PRIVATE, sender, "user" + random.nextInt(5),
+                                "private note " + i + " for a friend");
+                message.setSequence(i);
+                log.append(message, gson.toJson(message));
+            }
+            while (log.getLastSequence() < messages) {
+                Thread.sleep(10);
+            }
+            
+            long before = diskBytes(log);
+            System.out.printf("plain:     %d segments, %.1f MB   reads %s%n",
+                    log.getSegments().size(), before / 1e6, readLatency(log, messages, reads, random).summary());
+            
+            long start = System.nanoTime();
+            compactor.compact();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long after = diskBytes(log);
+            System.out.printf("compacted: %d segments, %.1f MB   reads %s%n",
+                    log.getSegments().size(), after / 1e6, readLatency(log, messages, reads, random).summary());
+            System.out.printf("compaction: %.2fs (%.0f MB/s read), %.1fx smaller%n",
+                    seconds, before / 1e6 / seconds, (double) before / after);
+            log.close();
+        } finally {
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    private static long diskBytes(MessageLog log) {
+        long bytes = 0;
+        for (LogSegment segment : log.getSegments()) {
+            bytes += segment.getSize();
+        }
+        return bytes;
+    }
+    
+    /**
+     * Reads random messages, most of which are in sealed segments
+     */
+    private static BenchStats readLatency(MessageLog log, int messages, int reads, Random random) throws IOException {
+        BenchStats stats = new BenchStats(reads);
+        for (int i = 0; i < reads; i++) {
+            long sequence = 1 + random.nextInt(messages);
+            long start = System.nanoTime();
+            log.read(sequence);
+            stats.record(System.nanoTime() - start);
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,85 @@
+package com.messaging.bench;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+import com.messaging.util.FrameDecoder;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Inbound parsing cost per frame: BufferedReader.readLine followed by Gson on the String,
+ * as the server used to do, against the pooled FrameDecoder feeding Gson a Reader over its
+ * buffer. Reports throughput and bytes allocated per frame by the reading thread.
+ *
+ * Usage: FrameDecoderBenchmark [frames] [content chars]
+ */
+public class FrameDecoderBenchmark {
+    private static final Gson gson = new Gson();
+    
+    public static void main(String[] args) throws IOException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        int contentChars = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        
+        Message sample = new Message(Message.MessageType.TEXT, "alice", "x".repeat(contentChars));
+        byte[] frame = (gson.toJson(sample) + "\n").getBytes(StandardCharsets.UTF_8);
+        byte[] stream = new byte[frame.length * frames];
+        for (int i = 0; i < frames; i++) {
+            System.arraycopy(frame, 0, stream, i * frame.length, frame.length);
+        }
+        System.out.printf("Frame decoder benchmark: %,d frames of %d bytes%n", frames, frame.length);
+        
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;  // the first rounds warm up the JIT
+            run("readLine + String", report, frames, () -> readLines(stream));
+            run("pooled decoder", report, frames, () -> decodeFrames(stream));
+        }
+    }
+    
+    private interface Pass {
+        int run() throws IOException;
+    }
+    
+    private static void run(String name, boolean report, int frames, Pass pass) throws IOException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        int parsed = pass.run();
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        if (parsed != frames) {
+            throw new IllegalStateException(name + " parsed " + parsed + " of " + frames);
+        }
+        if (report) {
+            System.out.printf("%-18s %,10.0f frames/s  %,6d bytes allocated per frame%n",
+                    name, frames / (nanos / 1e9), allocated / frames);
+        }
+    }
+    
+    private static int readLines(byte[] stream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(stream), StandardCharsets.UTF_8));
+        int parsed = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (gson.fromJson(line, Message.class) != null) {
+                parsed++;
+            }
+        }
+        return parsed;
+    }
+    
+    private static int decodeFrames(byte[] stream) throws IOException {
+        FrameDecoder decoder = new FrameDecoder(new ByteArrayInputStream(stream), 1 << 20);
+        int parsed = 0;
+        Reader frame;
+        while ((frame = decoder.nextFrame()) != null) {
+            if (gson.fromJson(frame, Message.class) != null) {
+                parsed++;
+            }
+        }
+        decoder.release();
+        return parsed;
+    }
+}
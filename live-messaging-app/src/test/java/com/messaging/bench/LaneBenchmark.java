@@ -0,0 +1,104 @@
+package com.messaging.bench;
+
+import com.messaging.server.Connection;
+import com.messaging.server.OutboundLanes;
+import com.messaging.server.ShardedConnectionRegistry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures chat frame latency to one connection while it is also flooded with TYPING frames,
+ * once with everything in one FIFO lane (the old behaviour) and once with TYPING in the
+ * keyed ephemeral lane. The connection spins for a fixed time per frame to stand in for a socket write.
+ *
+ * Usage: LaneBenchmark [rounds] [typingPerRound] [typingSenders] [writeMicros]
+ */
+public class LaneBenchmark {
+    
+    private static class SlowConnection implements Connection {
+        private final long writeNanos;
+        private final long[] submittedAt;
+        private final BenchStats stats;
+        private final CountDownLatch chatFrames;
+        private long typingFrames;
+        
+        SlowConnection(long writeNanos, long[] submittedAt, BenchStats stats, CountDownLatch chatFrames) {
+            this.writeNanos = writeNanos;
+            this.submittedAt = submittedAt;
+            this.stats = stats;
+            this.chatFrames = chatFrames;
+        }
+        
+        @Override
+        public String getUsername() {
+            return "reader";
+        }
+        
+        @Override
+        public void sendMessage(String json) {
+            long until = System.nanoTime() + writeNanos;
+            while (System.nanoTime() < until) {
+                Thread.onSpinWait();
+            }
+            if (json.startsWith("C")) {
+                stats.record(System.nanoTime() - submittedAt[Integer.parseInt(json.substring(1))]);
+                chatFrames.countDown();
+            } else {
+                typingFrames++;
+            }
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int typingPerRound = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int senders = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        long writeNanos = TimeUnit.MICROSECONDS.toNanos(args.length > 3 ? Long.parseLong(args[3]) : 10);
+        
+        System.out.printf("Lane benchmark: %d rounds of %d TYPING from %d senders + 1 chat frame, %d us/write%n",
+                rounds, typingPerRound, senders, TimeUnit.NANOSECONDS.toMicros(writeNanos));
+        run("fifo", false, rounds, typingPerRound, senders, writeNanos);
+        run("lanes", true, rounds, typingPerRound, senders, writeNanos);
+    }
+    
+    private static void run(String label, boolean lanes, int rounds, int typingPerRound, int senders, long writeNanos)
+            throws InterruptedException {
+        ShardedConnectionRegistry registry = new ShardedConnectionRegistry(1);
+        long[] submittedAt = new long[rounds];
+        BenchStats stats = new BenchStats(rounds);
+        CountDownLatch chatFrames = new CountDownLatch(rounds);
+        SlowConnection connection = new SlowConnection(writeNanos, submittedAt, stats, chatFrames);
+        registry.register(connection);
+        
+        // One round per millisecond, so FIFO stays under capacity and only ordering differs
+        long roundNanos = TimeUnit.MILLISECONDS.toNanos(1);
+        long next = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            for (int i = 0; i < typingPerRound; i++) {
+                String sender = "user" + ThreadLocalRandom.current().nextInt(senders);
+                String frame = "T" + sender;
+                if (lanes) {
+                    registry.broadcast(OutboundLanes.Lane.EPHEMERAL, sender, frame);
+                } else {
+                    registry.broadcast(OutboundLanes.Lane.CHAT, null, frame);
+                }
+            }
+            submittedAt[round] = System.nanoTime();
+            registry.broadcast(OutboundLanes.Lane.CHAT, null, "C" + round);
+            
+            next += roundNanos;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+        }
+        chatFrames.await();
+        registry.shutdown();
+        registry.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.printf("%-6s chat %s  typing written=%d superseded=%d%n",
+                label, stats.summary(), connection.typingFrames, registry.getSupersededFrames());
+    }
+}
@@ -0,0 +1,82 @@
+package com.messaging.bench;
+
+import com.messaging.server.Authenticator;
+import com.messaging.server.CredentialStore;
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fires a burst of concurrent logins at an {@link Authenticator} and reports login latency,
+ * how many were accepted or turned away as busy, and how late a 1 ms ticker on another
+ * thread ran meanwhile (a stand-in for the connection and message threads staying responsive).
+ * The burst runs twice: cold (every login pays bcrypt) and warm (served from the verification cache).
+ *
+ * Usage: LoginBurstBenchmark [logins] [bcryptRounds] [authThreads] [queueCapacity]
+ */
+public class LoginBurstBenchmark {
+    
+    public static void main(String[] args) throws Exception {
+        int logins = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Math.max(2, Runtime.getRuntime().availableProcessors());
+        int queueCapacity = args.length > 3 ? Integer.parseInt(args[3]) : 256;
+        
+        System.out.printf("Login burst: %d logins, bcrypt rounds=%d, auth threads=%d, queue=%d, %d cores%n",
+                logins, rounds, threads, queueCapacity, Runtime.getRuntime().availableProcessors());
+        
+        // One shared hash keeps setup cheap; every cold login still pays a full bcrypt check
+        CredentialStore store = new CredentialStore();
+        String hash = BCrypt.hashpw("secret", BCrypt.gensalt(rounds));
+        for (int i = 0; i < logins; i++) {
+            store.register("user" + i, hash);
+        }
+        
+        Authenticator authenticator = new Authenticator(store, threads, queueCapacity, false, rounds, 60_000);
+        runOnce("cold", authenticator, logins);
+        // Accepted users are cached now; those turned away as busy pay bcrypt again
+        runOnce("warm", authenticator, logins);
+        authenticator.shutdown();
+    }
+    
+    private static void runOnce(String label, Authenticator authenticator, int logins) throws Exception {
+        BenchStats latency = new BenchStats(logins);
+        BenchStats tickerLag = new BenchStats(10_000);
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger busy = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor();
+        long tickStart = System.nanoTime();
+        AtomicInteger ticks = new AtomicInteger();
+        ticker.scheduleAtFixedRate(() -> {
+            long expected = tickStart + TimeUnit.MILLISECONDS.toNanos(ticks.getAndIncrement());
+            tickerLag.record(Math.max(0, System.nanoTime() - expected));
+        }, 0, 1, TimeUnit.MILLISECONDS);
+        
+        List<CompletableFuture<Authenticator.Result>> futures = new ArrayList<>(logins);
+        long start = System.nanoTime();
+        for (int i = 0; i < logins; i++) {
+            long issued = System.nanoTime();
+            futures.add(authenticator.authenticate("user" + i, "secret").whenComplete((result, error) -> {
+                latency.record(System.nanoTime() - issued);
+                switch (result) {
+                    case ACCEPTED -> accepted.incrementAndGet();
+                    case BUSY -> busy.incrementAndGet();
+                    default -> rejected.incrementAndGet();
+                }
+            }));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).get();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        ticker.shutdownNow();
+        
+        System.out.printf("%-8s accepted=%d busy=%d rejected=%d in %.2fs%n", label,
+                accepted.get(), busy.get(), rejected.get(), seconds);
+        System.out.printf("         login   %s%n", latency.summary());
+        System.out.printf("         ticker  %s%n", tickerLag.summary());
+    }
+}
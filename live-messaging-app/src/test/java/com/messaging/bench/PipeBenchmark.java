@@ -0,0 +1,225 @@
+package com.messaging.bench;
+
+import com.messaging.server.Authenticator;
+import com.messaging.server.CredentialStore;
+import com.messaging.server.MessagingServer;
+import com.messaging.transport.PipeTransport;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A whole server driven through in-memory pipes, so routing, presence and fan-out are
+ * measured without sockets, and with far more connections than a machine has ports or
+ * threads. One thread plays every client; credentials are not checked, so logins cost
+ * what the server does with them rather than bcrypt. Phases: logging everyone in (each
+ * login is announced to everyone already online), public messages (time until every
+ * connection has one), private messages between random pairs (time until the sender's
+ * copy is back, and the rate they are routed at) and presence churn (a user logs out and
+ * back in, timed until everyone has been told).
+ *
+ * Usage: PipeBenchmark [connections] [broadcasts] [private messages] [churns]
+ */
+public class PipeBenchmark {
+    private static final LongAdder delivered = new LongAdder();
+    private static volatile Expectation expected;
+    
+    /**
+     * A frame every connection is waiting for
+     */
+    private static class Expectation {
+        final String prefix;
+        final String marker;
+        final CountDownLatch latch;
+        
+        Expectation(String prefix, String marker, int connections) {
+            this.prefix = prefix;
+            this.marker = marker;
+            this.latch = new CountDownLatch(connections);
+        }
+    }
+    
+    private static class SimClient implements PipeTransport.Listener {
+        final String username;
+        final CountDownLatch loggedIn = new CountDownLatch(1);
+        final Map<String, Long> pending;  // private message id -> sent at
+        final BenchStats roundTrip;
+        PipeTransport.Pipe pipe;
+        
+        SimClient(String username, Map<String, Long> pending, BenchStats roundTrip) {
+            this.username = username;
+            this.pending = pending;
+            this.roundTrip = roundTrip;
+        }
+        
+        @Override
+        public void onFrame(String frame) {
+            delivered.increment();
+            if (loggedIn.getCount() > 0 && frame.startsWith("{\"type\":\"LOGIN\"")) {
+                loggedIn.countDown();
+                return;
+            }
+            Expectation expectation = expected;
+            if (expectation != null && frame.startsWith(expectation.prefix) && frame.contains(expectation.marker)) {
+                expectation.latch.countDown();
+            } else if (!pending.isEmpty() && frame.startsWith("{\"type\":\"PRIVATE\"")
+                    && frame.contains("\"sender\":\"" + username + "\"")) {
+                Long sent = pending.remove(messageIdOf(frame));
+                if (sent != null) {
+                    roundTrip.record(System.nanoTime() - sent);
+                }
+            }
+        }
+        
+        void login(PipeTransport transport) throws Exception {
+            pipe = transport.connect(this);
+            pipe.send("{\"type\":\"LOGIN\",\"sender\":\"" + username + "\",\"content\":\"pw\"}");
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        int privates = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+        int churns = args.length > 3 ? Integer.parseInt(args[3]) : 100;
+        
+        Path dir = Files.createTempDirectory("pipe-bench");
+        // The server reads its settings once, so they must be in place before it is loaded
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        System.setProperty("store.dir", dir.resolve("log").toString());
+        System.setProperty("snapshot.dir", dir.resolve("snapshot").toString());
+        System.setProperty("snapshot.intervalMs", "0");
+        System.setProperty("retention.file", dir.resolve("retention.conf").toString());
+        System.setProperty("server.usersFile", dir.resolve("users.properties").toString());
+        // The server prints a line per login and logout
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        
+        out.printf("Pipe benchmark: %,d connections, %,d broadcasts, %,d private messages, %,d churns, %d cores%n",
+                connections, broadcasts, privates, churns, Runtime.getRuntime().availableProcessors());
+        PipeTransport transport = new PipeTransport();
+        Authenticator trusting = new Authenticator(new CredentialStore(), 1, 1, true, 4, 0) {
+            @Override
+            public CompletableFuture<Result> authenticate(String username, String password) {
+                return CompletableFuture.completedFuture(Result.ACCEPTED);
+            }
+        };
+        MessagingServer server = new MessagingServer(transport, null, trusting);
+        server.start();
+        try {
+            Map<String, Long> pending = new ConcurrentHashMap<>();
+            BenchStats roundTrip = new BenchStats(privates);
+            List<SimClient> clients = new ArrayList<>(connections);
+            
+            long start = System.nanoTime();
+            for (int i = 0; i < connections; i++) {
+                SimClient client = new SimClient("user" + i, pending, roundTrip);
+                clients.add(client);
+                client.login(transport);
+            }
+            for (SimClient client : clients) {
+                client.loggedIn.await();
+            }
+            // Announcements of the last logins are still being fanned out; a broadcast queues behind them
+            broadcast(clients, "settle", "settle");
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Runtime runtime = Runtime.getRuntime();
+            System.gc();
+            out.printf("login     %,8.0f logins/s, %,.0f frames delivered, heap %,d MB%n",
+                    connections / seconds, delivered.doubleValue(), (runtime.totalMemory() - runtime.freeMemory()) >> 20);
+            
+            BenchStats fanOut = new BenchStats(broadcasts);
+            long frames = delivered.sum();
+            start = System.nanoTime();
+            for (int b = 0; b < broadcasts; b++) {
+                long started = System.nanoTime();
+                broadcast(clients, "b" + b, clients.get(b % connections).username);
+                fanOut.record(System.nanoTime() - started);
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+            out.printf("broadcast %,8.0f deliveries/s, everyone has it after %s%n",
+                    (delivered.sum() - frames) / seconds, fanOut.summary());
+            
+            Random random = new Random(42);
+            start = System.nanoTime();
+            for (int p = 0; p < privates; p++) {
+                SimClient sender = clients.get(random.nextInt(connections));
+                SimClient receiver = clients.get(random.nextInt(connections));
+                String messageId = "p" + p;
+                pending.put(messageId, System.nanoTime());
+                sender.pipe.send("{\"type\":\"PRIVATE\",\"sender\":\"" + sender.username + "\",\"receiver\":\""
+                        + receiver.username + "\",\"content\":\"hello\",\"messageId\":\"" + messageId + "\"}");
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (!pending.isEmpty() && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            seconds = (System.nanoTime() - start) / 1e9;
+            out.printf("private   %,8.0f messages/s, sender's copy back after %s%s%n", privates / seconds,
+                    roundTrip.summary(), pending.isEmpty() ? "" : String.format(" (%,d missing)", pending.size()));
+            
+            BenchStats presence = new BenchStats(churns);
+            for (int c = 0; c < churns; c++) {
+                SimClient client = clients.get(random.nextInt(connections));
+                long started = System.nanoTime();
+                client.pipe.send("{\"type\":\"LOGOUT\",\"sender\":\"" + client.username + "\"}");
+                SimClient returning = new SimClient(client.username, pending, roundTrip);
+                clients.set(clients.indexOf(client), returning);
+                expect(connections, "{\"type\":\"SYSTEM\"", "\"" + client.username + " joined the chat\"");
+                returning.login(transport);
+                await();
+                presence.record(System.nanoTime() - started);
+            }
+            out.printf("churn     everyone knows a user is back after %s%n", presence.summary());
+        } finally {
+            server.stop();
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    /**
+     * Sends a public message and waits until every connection has it
+     */
+    private static void broadcast(List<SimClient> clients, String messageId, String sender) throws InterruptedException {
+        expect(clients.size(), "{\"type\":\"TEXT\"", "\"messageId\":\"" + messageId + "\"");
+        SimClient client = clients.stream().filter(c -> c.username.equals(sender)).findFirst().orElse(clients.get(0));
+        client.pipe.send("{\"type\":\"TEXT\",\"sender\":\"" + client.username + "\",\"content\":\"hello everyone\","
+                + "\"messageId\":\"" + messageId + "\"}");
+        await();
+    }
+    
+    private static void expect(int connections, String prefix, String marker) {
+        expected = new Expectation(prefix, marker, connections);
+    }
+    
+    private static void await() throws InterruptedException {
+        if (!expected.latch.await(60, TimeUnit.SECONDS)) {
+            throw new IllegalStateException(expected.latch.getCount() + " connection(s) never got " + expected.marker);
+        }
+        expected = null;
+    }
+    
+    private static String messageIdOf(String frame) {
+        String key = "\"messageId\":\"";
+        int start = frame.indexOf(key);
+        if (start < 0) {
+            return "";
+        }
+        start += key.length();
+        return frame.substring(start, frame.indexOf('"', start));
+    }
+}
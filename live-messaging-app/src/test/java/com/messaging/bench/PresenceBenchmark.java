@@ -0,0 +1,104 @@
+package com.messaging.bench;
+
+import com.messaging.model.User;
+import com.messaging.server.PresenceTable;
+
+import java.lang.ref.Reference;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Heap retained by the presence of many known users, a tenth of them online: the compact
+ * {@link PresenceTable} against the previous layout of a concurrent map holding one object
+ * with two {@link LocalDateTime}s per user. Usernames are created up front and shared, so
+ * only the presence structures are counted. Also times status changes on the table.
+ *
+ * Usage: PresenceBenchmark [users]
+ */
+public class PresenceBenchmark {
+    /**
+     * Field-for-field the user object the server used to keep per connected user
+     */
+    private static class MapEntryUser {
+        final String username;
+        String displayName;
+        User.Status status;
+        LocalDateTime lastSeen;
+        LocalDateTime connectedAt;
+        
+        MapEntryUser(String username) {
+            this.username = username;
+            this.displayName = username;
+            this.status = User.Status.ONLINE;
+            this.lastSeen = LocalDateTime.now();
+            this.connectedAt = LocalDateTime.now();
+        }
+    }
+    
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) {
+            names[i] = "user" + i;
+        }
+        System.out.printf("Presence benchmark: %d users%n", users);
+        
+        long now = System.currentTimeMillis();
+        PresenceTable[] built = new PresenceTable[1];
+        long tableBytes = retainedBytes(() -> {
+            PresenceTable table = new PresenceTable();
+            for (int i = 0; i < users; i++) {
+                table.setStatus(names[i], i % 10 == 0 ? User.Status.ONLINE : User.Status.OFFLINE, now);
+            }
+            return built[0] = table;
+        });
+        PresenceTable table = built[0];
+        System.out.printf("presence table: %6.1f MB (%d bytes/user), %d online%n",
+                tableBytes / 1e6, tableBytes / users, table.getOnlineCount());
+        
+        long mapBytes = retainedBytes(() -> {
+            Map<String, MapEntryUser> map = new ConcurrentHashMap<>();
+            for (String name : names) {
+                map.put(name, new MapEntryUser(name));
+            }
+            return map;
+        });
+        System.out.printf("map of objects: %6.1f MB (%d bytes/user)%n", mapBytes / 1e6, mapBytes / users);
+        
+        // Users coming and going at random
+        int changes = 2_000_000;
+        long seed = 42;
+        long start = System.nanoTime();
+        for (int i = 0; i < changes; i++) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            String name = names[(int) ((seed >>> 33) % users)];
+            table.setStatus(name, (seed & 1) == 0 ? User.Status.ONLINE : User.Status.OFFLINE, now + i);
+        }
+        double nanos = (System.nanoTime() - start) / (double) changes;
+        start = System.nanoTime();
+        int listed = table.onlineUsernames().size();
+        double listMillis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("status change:  %.0f ns; listing %d online users: %.1f ms%n", nanos, listed, listMillis);
+    }
+    
+    /**
+     * Heap still in use after building something, compared with before
+     */
+    private static long retainedBytes(Supplier<Object> build) {
+        long before = usedHeap();
+        Object built = build.get();
+        long after = usedHeap();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+    
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
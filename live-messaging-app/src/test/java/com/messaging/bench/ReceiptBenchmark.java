@@ -0,0 +1,74 @@
+package com.messaging.bench;
+
+import com.google.gson.Gson;
+import com.messaging.server.ReceiptAggregator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Receipt traffic in one busy group: members post at a steady rate and every member
+ * reads every message. Counts the frames a per-message scheme would send (each receipt
+ * relayed to every other member) against the server's aggregated high-water updates, with
+ * clients reporting at most once per interval, and times the aggregator's bookkeeping.
+ * A per-message receipt frame is at least ~100 bytes, for scale against the marks payload.
+ *
+ * Usage: ReceiptBenchmark [members] [messages per second] [seconds] [interval ms]
+ */
+public class ReceiptBenchmark {
+    public static void main(String[] args) {
+        int members = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int intervalMs = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        
+        List<String> names = new ArrayList<>(members);
+        for (int i = 0; i < members; i++) {
+            names.add(String.format("member%04d", i));
+        }
+        String group = "group:" + String.join(",", names);
+        System.out.printf("Receipt benchmark: %d members, %d messages/s for %ds, %d ms interval%n",
+                members, rate, seconds, intervalMs);
+        
+        ReceiptAggregator aggregator = new ReceiptAggregator(1000);
+        Random random = new Random(42);
+        long[] readUpTo = new long[members];
+        long sequence = 0;
+        long naiveFrames = 0;
+        long clientReceipts = 0;
+        long serverFrames = 0;
+        long serverBytes = 0;
+        Gson gson = new Gson();
+        long recordNanos = 0;
+        int ticks = seconds * 1000 / intervalMs;
+        for (int tick = 0; tick < ticks; tick++) {
+            int posted = rate * intervalMs / 1000;
+            sequence += posted;
+            // A per-message scheme relays each member's receipt for each message to everyone else
+            naiveFrames += (long) posted * (members - 1) * (members - 1);
+            
+            for (int member = 0; member < members; member++) {
+                // Most members keep up; some lag a tick behind
+                long read = random.nextInt(10) == 0 ? Math.max(0, sequence - posted) : sequence;
+                if (read > readUpTo[member]) {
+                    readUpTo[member] = read;
+                    clientReceipts++;
+                    long start = System.nanoTime();
+                    aggregator.record(group, names.get(member), read, read);
+                    recordNanos += System.nanoTime() - start;
+                }
+            }
+            for (ReceiptAggregator.Update update : aggregator.flush()) {
+                int participants = update.getParticipants().size();
+                serverFrames += participants;
+                serverBytes += (long) participants * gson.toJson(update.getMarks()).length();
+            }
+        }
+        
+        System.out.printf("per message:  %,d frames (%,.0f/s)%n", naiveFrames, naiveFrames / (double) seconds);
+        System.out.printf("aggregated:   %,d client receipts, %,d frames (%,.0f/s, %.1f MB/s of marks)%n",
+                clientReceipts, serverFrames, serverFrames / (double) seconds, serverBytes / 1e6 / seconds);
+        System.out.printf("record:       %.0f ns per receipt%n", recordNanos / (double) Math.max(1, clientReceipts));
+    }
+}
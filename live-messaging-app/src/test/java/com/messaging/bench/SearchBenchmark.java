@@ -0,0 +1,77 @@
+package com.messaging.bench;
+
+import com.messaging.model.Message;
+import com.messaging.search.SearchIndex;
+
+import java.util.Random;
+
+/**
+ * Builds a {@link SearchIndex} over synthetic chat (Zipf-like vocabulary, a mix of public,
+ * private and group messages) and measures index throughput, posting list size and query
+ * latency for one- and two-term queries. Lookups of the hit messages in the log are not included.
+ *
+ * Usage: SearchBenchmark [messages] [vocabulary] [users] [queries]
+ */
+public class SearchBenchmark {
+    private static final int WORDS_PER_MESSAGE = 10;
+    
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int vocabulary = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int users = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+        int queries = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+        Random random = new Random(42);
+        
+        System.out.printf("Search benchmark: %d messages, %d words, %d users%n", messages, vocabulary, users);
+        
+        SearchIndex index = new SearchIndex();
+        StringBuilder content = new StringBuilder();
+        long start = System.nanoTime();
+        for (int i = 1; i <= messages; i++) {
+            content.setLength(0);
+            for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                content.append(word(random, vocabulary)).append(' ');
+            }
+            String sender = "user" + random.nextInt(users);
+            Message message;
+            int kind = random.nextInt(10);
+            if (kind < 6) {
+                message = new Message(Message.MessageType.TEXT, sender, content.toString());
+            } else if (kind < 9) {
+                message = new Message(Message.MessageType.PRIVATE, sender, "user" + random.nextInt(users), content.toString());
+            } else {
+                message = new Message(Message.MessageType.GROUP, sender,
+                        "user" + random.nextInt(users) + ",user" + random.nextInt(users), content.toString());
+            }
+            message.setSequence(i);
+            index.index(message);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("indexed in %.1fs (%.0f msg/s), %d terms, %.1f MB of postings%n",
+                seconds, messages / seconds, index.getTermCount(), index.getPostingBytes() / 1e6);
+        
+        for (int terms = 1; terms <= 2; terms++) {
+            BenchStats stats = new BenchStats(queries);
+            long hits = 0;
+            for (int q = 0; q < queries; q++) {
+                StringBuilder query = new StringBuilder();
+                for (int t = 0; t < terms; t++) {
+                    query.append(word(random, vocabulary)).append(' ');
+                }
+                String user = "user" + random.nextInt(users);
+                long queryStart = System.nanoTime();
+                hits += index.search(user, query.toString(), 50).size();
+                stats.record(System.nanoTime() - queryStart);
+            }
+            System.out.printf("%d-term  %s  avg hits=%.1f%n", terms, stats.summary(), (double) hits / queries);
+        }
+    }
+    
+    /**
+     * Roughly Zipf-distributed word: low ranks are far more common
+     */
+    private static String word(Random random, int vocabulary) {
+        int rank = (int) Math.floor(Math.pow(vocabulary, random.nextDouble()));
+        return "w" + rank;
+    }
+}
@@ -0,0 +1,105 @@
+package com.messaging.bench;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+import com.messaging.server.MessagingServer;
+import com.messaging.store.MessageLog;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Writes a synthetic history to a fresh message log, then starts a server on it twice and
+ * reports how long each start takes until the port accepts connections: cold (no snapshot,
+ * the whole log is replayed) and warm (from the snapshot the first server wrote when stopping).
+ *
+ * Usage: StartupBenchmark [messages]
+ */
+public class StartupBenchmark {
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        Path dir = Files.createTempDirectory("startup-bench");
+        // The server reads its settings once, so they must be in place before it is loaded
+        System.setProperty("store.dir", dir.resolve("log").toString());
+        System.setProperty("snapshot.dir", dir.resolve("snapshot").toString());
+        System.setProperty("snapshot.intervalMs", "0");
+        System.setProperty("retention.file", dir.resolve("retention.conf").toString());
+        System.setProperty("server.usersFile", dir.resolve("users.properties").toString());
+        
+        System.out.printf("Startup benchmark: %d messages%n", messages);
+        try {
+            writeHistory(dir.resolve("log"), messages);
+            long logBytes;
+            try (var files = Files.list(dir.resolve("log"))) {
+                logBytes = files.mapToLong(path -> path.toFile().length()).sum();
+            }
+            System.out.printf("log:  %.1f MB%n", logBytes / 1e6);
+            startOnce("cold", dir);
+            startOnce("warm", dir);
+        } finally {
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    private static void writeHistory(Path dir, int messages) throws Exception {
+        Gson gson = new Gson();
+        Random random = new Random(42);
+        MessageLog log = new MessageLog(dir, 64L << 20, messages + 1);
+        log.start();
+        for (int i = 1; i <= messages; i++) {
+            String sender = "user" + random.nextInt(50);
+            Message message = random.nextInt(10) < 6
+                    ? new Message(Message.MessageType.TEXT, sender, "message number " + i + " from " + sender)
+                    : new Message(Message.MessageType.PRIVATE, sender, "user" + random.nextInt(50),
+                            "private note " + i + " for a friend");
+            message.setSequence(i);
+            log.append(message, gson.toJson(message));
+        }
+        while (log.getLastSequence() < messages) {
+            Thread.sleep(10);
+        }
+        log.close();
+    }
+    
+    private static void startOnce(String label, Path dir) throws Exception {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        long start = System.nanoTime();
+        MessagingServer server = new MessagingServer(port);
+        Thread thread = new Thread(server::start, "server");
+        thread.setDaemon(true);
+        thread.start();
+        waitForPort(port);
+        double millis = (System.nanoTime() - start) / 1e6;
+        
+        Thread.sleep(200);  // let the probe connection reach its handler before the pool shuts down
+        server.stop();
+        thread.join(10_000);
+        long snapshotBytes;
+        try (var files = Files.list(dir.resolve("snapshot"))) {
+            snapshotBytes = files.mapToLong(path -> path.toFile().length()).sum();
+        }
+        System.out.printf("%-5s started in %.0f ms (snapshot on disk after stop: %.1f MB)%n",
+                label, millis, snapshotBytes / 1e6);
+    }
+    
+    private static void waitForPort(int port) throws InterruptedException {
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(1);
+            }
+        }
+    }
+}
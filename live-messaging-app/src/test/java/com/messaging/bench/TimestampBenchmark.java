@@ -0,0 +1,90 @@
+package com.messaging.bench;
+
+import com.messaging.util.CoarseClock;
+import com.messaging.util.TimestampFormat;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Per-message timestamp cost, as the model used to do it against the cached clock and
+ * memoized formatting. Server: stamping a message and writing the stamp to the wire.
+ * Client: reading the stamp off the wire and rendering it as a time of day. The stamps
+ * step through time at the given message rate, so a second's worth of messages shares one.
+ * Reports time and bytes allocated per message by the measuring thread.
+ *
+ * Usage: TimestampBenchmark [messages] [messages/s]
+ */
+public class TimestampBenchmark {
+    private static long sink;
+    
+    public static void main(String[] args) {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        
+        long base = System.currentTimeMillis();
+        long[] stamps = new long[messages];
+        String[] wire = new String[messages];
+        for (int i = 0; i < messages; i++) {
+            stamps[i] = base + (long) i * 1000 / rate;
+            wire[i] = LocalDateTime.ofInstant(Instant.ofEpochMilli(stamps[i]), ZoneId.systemDefault())
+                    .format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        }
+        System.out.printf("Timestamp benchmark: %,d messages at %,d/s%n", messages, rate);
+        
+        for (int round = 0; round < 3; round++) {
+            boolean report = round == 2;  // the first rounds warm up the JIT
+            run("server, now + format", report, messages, () -> {
+                long length = 0;
+                for (int i = 0; i < messages; i++) {
+                    length += LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME).length();
+                }
+                return length;
+            });
+            run("server, cached + memo", report, messages, () -> {
+                long length = 0;
+                for (int i = 0; i < messages; i++) {
+                    CoarseClock.millis();
+                    length += TimestampFormat.iso(stamps[i]).length();
+                }
+                return length;
+            });
+            run("client, parse + ofPattern", report, messages, () -> {
+                long length = 0;
+                for (int i = 0; i < messages; i++) {
+                    LocalDateTime time = LocalDateTime.parse(wire[i], DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+                    length += time.format(DateTimeFormatter.ofPattern("HH:mm:ss")).length();
+                }
+                return length;
+            });
+            run("client, memo", report, messages, () -> {
+                long length = 0;
+                for (int i = 0; i < messages; i++) {
+                    length += TimestampFormat.time(TimestampFormat.parseIso(wire[i])).length();
+                }
+                return length;
+            });
+        }
+    }
+    
+    private interface Pass {
+        long run();
+    }
+    
+    private static void run(String name, boolean report, int messages, Pass pass) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        sink += pass.run();
+        long nanos = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+        if (report) {
+            System.out.printf("%-26s %,8.0f ns/message  %,5d bytes allocated per message%n",
+                    name, (double) nanos / messages, allocated / messages);
+        }
+    }
+}
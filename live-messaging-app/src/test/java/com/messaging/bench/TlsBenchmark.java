@@ -0,0 +1,292 @@
+package com.messaging.bench;
+
+import com.messaging.util.Tls;
+import com.messaging.util.TlsStream;
+
+import javax.net.ssl.SSLContext;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cost of TLS against plaintext over loopback, with a certificate generated by keytool for
+ * the run. Connection setup: concurrent clients each connect, shake hands and exchange one
+ * frame, as a reconnect storm would; TLS once with a full handshake every time and once
+ * resuming the previous session. Steady state: one-way throughput of a stream of frames,
+ * and round-trip latency of small frames, through the same stream classes the server uses.
+ *
+ * Usage: TlsBenchmark [connections] [client threads] [megabytes] [frame bytes]
+ */
+public class TlsBenchmark {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+    private static final String[] PROTOCOLS = {"TLSv1.3"};
+    
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        int megabytes = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+        int frameBytes = args.length > 3 ? Integer.parseInt(args[3]) : 1024;
+        
+        Path dir = Files.createTempDirectory("tls-bench");
+        try {
+            generateCertificate(dir);
+            SSLContext serverContext = Tls.serverContext(dir.resolve("server.p12"), PASSWORD, 20_000, 3600);
+            SSLContext clientContext = Tls.clientContext(dir.resolve("truststore.p12"), PASSWORD);
+            System.out.printf("TLS benchmark: %d connections from %d threads, %d MB in %d byte frames, %s%n",
+                    connections, threads, megabytes, frameBytes, String.join(",", PROTOCOLS));
+            
+            try (EchoServer plain = new EchoServer(null); EchoServer secure = new EchoServer(serverContext)) {
+                for (int round = 0; round < 2; round++) {
+                    boolean report = round == 1;  // the first round warms up the JIT
+                    int count = report ? connections : Math.min(connections, 500);
+                    connect("plaintext", report, plain, null, false, count, threads);
+                    connect("TLS full", report, secure, clientContext, false, count, threads);
+                    connect("TLS resumed", report, secure, clientContext, true, count, threads);
+                }
+                for (int round = 0; round < 2; round++) {
+                    boolean report = round == 1;
+                    long bytes = (report ? megabytes : Math.min(megabytes, 64)) * (1L << 20);
+                    stream("plaintext", report, plain, null, bytes, frameBytes);
+                    stream("TLS", report, secure, clientContext, bytes, frameBytes);
+                }
+                for (int round = 0; round < 2; round++) {
+                    boolean report = round == 1;
+                    pingPong("plaintext", report, plain, null, 20_000);
+                    pingPong("TLS", report, secure, clientContext, 20_000);
+                }
+            }
+        } finally {
+            try (var files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+    
+    /**
+     * A self-signed EC key for localhost, and a trust store holding its certificate
+     */
+    private static void generateCertificate(Path dir) throws IOException, InterruptedException {
+        String keytool = Path.of(System.getProperty("java.home"), "bin", "keytool").toString();
+        String password = new String(PASSWORD);
+        run(keytool, "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-validity", "1", "-dname", "CN=localhost", "-ext", "SAN=dns:localhost,ip:127.0.0.1",
+                "-keystore", dir.resolve("server.p12").toString(), "-storetype", "PKCS12",
+                "-storepass", password, "-keypass", password);
+        run(keytool, "-exportcert", "-alias", "server", "-keystore", dir.resolve("server.p12").toString(),
+                "-storepass", password, "-file", dir.resolve("server.crt").toString());
+        run(keytool, "-importcert", "-noprompt", "-alias", "server", "-file", dir.resolve("server.crt").toString(),
+                "-keystore", dir.resolve("truststore.p12").toString(), "-storetype", "PKCS12",
+                "-storepass", password);
+    }
+    
+    private static void run(String... command) throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        if (process.waitFor() != 0) {
+            throw new IOException(command[1] + " failed: " + output);
+        }
+    }
+    
+    private static void connect(String name, boolean report, EchoServer server, SSLContext context,
+                                boolean resume, int connections, int threads) throws Exception {
+        BenchStats setup = new BenchStats(connections);
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<?>> clients = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            clients.add(pool.submit(() -> {
+                byte[] frame = "ping\n".getBytes();
+                int i;
+                while ((i = next.getAndIncrement()) < connections) {
+                    long started = System.nanoTime();
+                    // Sessions are cached by host and port; a port of its own keeps each connection from resuming
+                    int sessionPort = resume ? server.getPort() : 100_000 + i;
+                    try (Endpoint endpoint = open(server, context, sessionPort)) {
+                        endpoint.out.write(frame);
+                        endpoint.out.flush();
+                        endpoint.in.readNBytes(frame.length);
+                    }
+                    setup.record(System.nanoTime() - started);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> client : clients) {
+            client.get();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+        if (report) {
+            System.out.printf("%-12s %,8.0f connections/s  %s%n", name, connections / seconds, setup.summary());
+        }
+    }
+    
+    private static void stream(String name, boolean report, EchoServer server, SSLContext context,
+                               long bytes, int frameBytes) throws Exception {
+        byte[] frame = new byte[frameBytes];
+        Arrays.fill(frame, (byte) 'x');
+        frame[frameBytes - 1] = '\n';
+        long frames = bytes / frameBytes;
+        try (Endpoint endpoint = open(server, context, server.getPort())) {
+            // The echo comes back on another thread so neither side stalls on a full socket buffer
+            Thread drain = new Thread(() -> {
+                byte[] buffer = new byte[64 << 10];
+                long remaining = frames * frameBytes;
+                try {
+                    while (remaining > 0) {
+                        int read = endpoint.in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            break;
+                        }
+                        remaining -= read;
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            long start = System.nanoTime();
+            drain.start();
+            OutputStream out = new BufferedOutputStream(endpoint.out, 16 << 10);
+            for (long i = 0; i < frames; i++) {
+                out.write(frame);
+            }
+            out.flush();
+            drain.join();
+            double seconds = (System.nanoTime() - start) / 1e9;
+            if (report) {
+                System.out.printf("%-12s %,8.1f MB/s each way (%,.0f frames/s)%n", name,
+                        frames * frameBytes / seconds / (1 << 20), frames / seconds);
+            }
+        }
+    }
+    
+    private static void pingPong(String name, boolean report, EchoServer server, SSLContext context,
+                                 int rounds) throws Exception {
+        BenchStats roundTrip = new BenchStats(rounds);
+        byte[] frame = "{\"type\":\"TEXT\",\"content\":\"hello\"}\n".getBytes();
+        try (Endpoint endpoint = open(server, context, server.getPort())) {
+            for (int i = 0; i < rounds; i++) {
+                long started = System.nanoTime();
+                endpoint.out.write(frame);
+                endpoint.out.flush();
+                endpoint.in.readNBytes(frame.length);
+                roundTrip.record(System.nanoTime() - started);
+            }
+        }
+        if (report) {
+            System.out.printf("%-12s round trip %s%n", name, roundTrip.summary());
+        }
+    }
+    
+    private static Endpoint open(EchoServer server, SSLContext context, int sessionPort) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+        socket.setTcpNoDelay(true);
+        if (context == null) {
+            return new Endpoint(socket, socket.getInputStream(), socket.getOutputStream(), null);
+        }
+        TlsStream tls = new TlsStream(Tls.clientEngine(context, "localhost", sessionPort, PROTOCOLS),
+                socket.getInputStream(), socket.getOutputStream());
+        tls.handshake();
+        return new Endpoint(socket, tls.getInputStream(), tls.getOutputStream(), tls);
+    }
+    
+    private static class Endpoint implements Closeable {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final TlsStream tls;
+        
+        Endpoint(Socket socket, InputStream in, OutputStream out, TlsStream tls) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.tls = tls;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            if (tls != null) {
+                tls.closeOutbound();
+            }
+            socket.close();
+        }
+    }
+    
+    /**
+     * Writes back whatever it reads, a thread per connection like the messaging server
+     */
+    private static class EchoServer implements Closeable {
+        private final ServerSocket serverSocket;
+        private final SSLContext context;
+        private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "echo");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        EchoServer(SSLContext context) throws IOException {
+            this.serverSocket = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+            this.context = context;
+            handlers.execute(this::accept);
+        }
+        
+        int getPort() {
+            return serverSocket.getLocalPort();
+        }
+        
+        private void accept() {
+            while (!serverSocket.isClosed()) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    handlers.execute(() -> echo(socket));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+        
+        private void echo(Socket socket) {
+            try (socket) {
+                socket.setTcpNoDelay(true);
+                InputStream in = socket.getInputStream();
+                OutputStream out = socket.getOutputStream();
+                TlsStream tls = null;
+                if (context != null) {
+                    tls = new TlsStream(Tls.serverEngine(context, PROTOCOLS), in, out);
+                    tls.handshake();
+                    in = tls.getInputStream();
+                    out = tls.getOutputStream();
+                }
+                byte[] buffer = new byte[16 << 10];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    out.write(buffer, 0, read);
+                    out.flush();
+                }
+                if (tls != null) {
+                    tls.closeOutbound();
+                }
+            } catch (IOException e) {
+                // the client went away
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            serverSocket.close();
+            handlers.shutdownNow();
+        }
+    }
+}
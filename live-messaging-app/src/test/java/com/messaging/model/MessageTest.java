@@ -0,0 +1,29 @@
+package com.messaging.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageTest {
+    
+    @Test
+    void messagesCreatedTogetherGetDistinctIds() {
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            assertTrue(ids.add(new Message(Message.MessageType.TEXT, "alice", "hi").getMessageId()));
+        }
+    }
+    
+    @Test
+    void idsShareThisProcessPrefix() {
+        String first = new Message().getMessageId();
+        String second = new Message().getMessageId();
+        String prefix = first.substring(0, first.indexOf('-') + 1);
+        assertEquals(17, prefix.length());
+        assertTrue(second.startsWith(prefix));
+        assertTrue(second.length() <= 64);
+    }
+}
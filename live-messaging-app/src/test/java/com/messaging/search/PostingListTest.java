@@ -0,0 +1,105 @@
+package com.messaging.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostingListTest {
+    
+    @Test
+    void gapsAtVarintByteBoundariesRoundTrip() {
+        // Each gap is the largest or smallest value taking its number of bytes
+        long[] gaps = {1, 127, 128, 16383, 16384, (1L << 21) - 1, 1L << 21, (1L << 28) - 1, 1L << 28, 1L << 35, 1L << 56};
+        int[] widths = {1, 1, 2, 2, 3, 3, 4, 4, 5, 6, 9};
+        PostingList list = new PostingList();
+        long[] expected = new long[gaps.length];
+        long sequence = 0;
+        int bytes = 0;
+        for (int i = 0; i < gaps.length; i++) {
+            sequence += gaps[i];
+            expected[i] = sequence;
+            list.add(sequence);
+            bytes += widths[i];
+            assertEquals(bytes, list.byteSize(), "bytes after gap " + gaps[i]);
+        }
+        
+        assertArrayEquals(expected, list.decode());
+        assertEquals(sequence, list.last());
+        for (long value : expected) {
+            assertTrue(list.contains(value), "contains " + value);
+            assertFalse(list.contains(value - 1), "does not contain " + (value - 1));
+        }
+    }
+    
+    @Test
+    void repeatedSequenceIsIgnoredAndOlderOneRejected() {
+        PostingList list = new PostingList();
+        list.add(5);
+        list.add(5);
+        assertEquals(1, list.size());
+        assertThrows(IllegalArgumentException.class, () -> list.add(4));
+    }
+    
+    @Test
+    void blocksDecodeAndProbeAcrossCheckpoints() {
+        PostingList list = new PostingList();
+        int count = PostingList.BLOCK * 3 + 5;
+        long[] expected = new long[count];
+        long sequence = 0;
+        for (int i = 0; i < count; i++) {
+            sequence += i % 3 == 0 ? 200 : 1;  // mix one- and two-byte gaps
+            expected[i] = sequence;
+            list.add(sequence);
+        }
+        
+        assertEquals(4, list.blockCount());
+        assertArrayEquals(expected, list.decode());
+        int position = 0;
+        for (int block = 0; block < list.blockCount(); block++) {
+            long[] values = list.decodeBlock(block);
+            assertEquals(block < 3 ? PostingList.BLOCK : 5, values.length);
+            for (long value : values) {
+                assertEquals(expected[position++], value);
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            assertTrue(list.contains(expected[i]));
+            if (i % 3 == 0) {
+                assertFalse(list.contains(expected[i] - 1), "does not contain " + (expected[i] - 1));
+            }
+        }
+        assertFalse(list.contains(sequence + 1));
+    }
+    
+    @Test
+    void writtenListReadsBackAndKeepsAppending() throws IOException {
+        PostingList list = new PostingList();
+        long sequence = 0;
+        for (int i = 0; i < PostingList.BLOCK * 2 + 1; i++) {
+            sequence += 1 + (i * 37L) % 20_000;
+            list.add(sequence);
+        }
+        
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        list.writeTo(new DataOutputStream(buffer));
+        PostingList read = PostingList.readFrom(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())));
+        
+        assertEquals(list.size(), read.size());
+        assertEquals(list.last(), read.last());
+        assertEquals(list.byteSize(), read.byteSize());
+        assertArrayEquals(list.decode(), read.decode());
+        for (long value : list.decode()) {
+            assertTrue(read.contains(value));
+        }
+        
+        list.add(sequence + 16384);
+        read.add(sequence + 16384);
+        assertArrayEquals(list.decode(), read.decode());
+    }
+}
@@ -0,0 +1,64 @@
+package com.messaging.search;
+
+import com.messaging.model.Message;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+    private SearchIndex index;
+    private long sequence;
+    
+    @BeforeEach
+    void setUp() {
+        index = new SearchIndex();
+        sequence = 0;
+        index(new Message(Message.MessageType.TEXT, "alice", "launch plan for everyone"));          // 1
+        index(new Message(Message.MessageType.PRIVATE, "alice", "bob", "launch plan just for bob"));  // 2
+        index(new Message(Message.MessageType.GROUP, "carol", "alice,dave", "launch plan in the group"));  // 3
+        index(new Message(Message.MessageType.PRIVATE, "bob", "carol", "unrelated words"));  // 4
+    }
+    
+    private void index(Message message) {
+        message.setSequence(++sequence);
+        index.index(message);
+    }
+    
+    @Test
+    void userSeesPublicAndOwnConversationsOnly() {
+        assertEquals(List.of(3L, 2L, 1L), index.search("alice", "launch plan", 10));
+        assertEquals(List.of(2L, 1L), index.search("bob", "launch plan", 10));
+        assertEquals(List.of(3L, 1L), index.search("carol", "launch plan", 10));
+        assertEquals(List.of(3L, 1L), index.search("dave", "launch plan", 10));
+    }
+    
+    @Test
+    void userInNoConversationSeesOnlyPublic() {
+        assertEquals(List.of(1L), index.search("eve", "launch", 10));
+        assertEquals(List.of(), index.search("eve", "unrelated", 10));
+        assertEquals(List.of(), index.search("dave", "unrelated", 10));
+        assertEquals(List.of(4L), index.search("carol", "unrelated", 10));
+    }
+    
+    @Test
+    void everyTermMustMatchWithinAVisibleScope() {
+        assertEquals(List.of(2L), index.search("bob", "launch bob", 10));
+        assertEquals(List.of(), index.search("carol", "launch bob", 10));
+        assertEquals(List.of(3L), index.search("dave", "plan group", 10));
+    }
+    
+    @Test
+    void limitKeepsNewestHits() {
+        assertEquals(List.of(3L, 2L), index.search("alice", "launch", 2));
+        assertEquals(List.of(), index.search("alice", "launch", 0));
+    }
+    
+    @Test
+    void expiredPostingsAreHidden() {
+        index.onExpired(SearchIndex.PUBLIC_SCOPE, 1);
+        assertEquals(List.of(2L), index.search("bob", "launch", 10));
+    }
+}
@@ -0,0 +1,57 @@
+package com.messaging.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConversationSequencerTest {
+    
+    @Test
+    void numbersEachConversationFromOne() {
+        ConversationSequencer sequencer = new ConversationSequencer(10);
+        assertEquals(1, sequencer.next("a"));
+        assertEquals(2, sequencer.next("a"));
+        assertEquals(1, sequencer.next("b"));
+        assertEquals(3, sequencer.next("a"));
+    }
+    
+    @Test
+    void forgottenConversationNeverRepeatsANumber() {
+        ConversationSequencer sequencer = new ConversationSequencer(2);
+        for (int i = 0; i < 5; i++) {
+            sequencer.next("a");
+        }
+        sequencer.next("b");
+        sequencer.next("c");  // "a" is the least recently numbered and is forgotten
+        assertEquals(2, sequencer.getConversationCount());
+        
+        assertTrue(sequencer.next("a") > 5);
+        for (int i = 0; i < 100; i++) {
+            sequencer.next("x" + i);
+        }
+        assertEquals(2, sequencer.getConversationCount());
+    }
+    
+    @Test
+    void snapshotKeepsTheFloorOfForgottenCounters() throws IOException {
+        ConversationSequencer sequencer = new ConversationSequencer(1);
+        for (int i = 0; i < 7; i++) {
+            sequencer.next("a");
+        }
+        sequencer.next("b");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        sequencer.writeSnapshot(new DataOutputStream(bytes), 8);
+        
+        ConversationSequencer restored = new ConversationSequencer(1);
+        restored.readSnapshot(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(8, restored.getLastSequence());
+        assertEquals(2, restored.next("b"));
+        assertEquals(8, restored.next("a"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.messaging.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedSerialExecutorTest {
+    private KeyedSerialExecutor executor;
+    
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdown(5, TimeUnit.SECONDS);
+        }
+    }
+    
+    @Test
+    void tasksOfOneKeyRunOneAtATimeInSubmissionOrder() throws InterruptedException {
+        executor = new KeyedSerialExecutor("test", 4, 10_000);
+        int keys = 8;
+        int tasksPerKey = 2_000;
+        Map<String, List<Integer>> ran = new ConcurrentHashMap<>();
+        Map<String, AtomicBoolean> running = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(keys * tasksPerKey);
+        
+        for (int i = 0; i < tasksPerKey; i++) {
+            for (int k = 0; k < keys; k++) {
+                String key = "key" + k;
+                int index = i;
+                executor.execute(key, () -> {
+                    AtomicBoolean busy = running.computeIfAbsent(key, x -> new AtomicBoolean());
+                    if (!busy.compareAndSet(false, true)) {
+                        overlaps.incrementAndGet();
+                    }
+                    ran.computeIfAbsent(key, x -> Collections.synchronizedList(new ArrayList<>())).add(index);
+                    busy.set(false);
+                    done.countDown();
+                });
+            }
+        }
+        
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertEquals(0, overlaps.get());
+        for (int k = 0; k < keys; k++) {
+            List<Integer> order = ran.get("key" + k);
+            assertEquals(tasksPerKey, order.size());
+            for (int i = 0; i < tasksPerKey; i++) {
+                assertEquals(i, order.get(i), "key" + k + " task " + i);
+            }
+        }
+        waitFor(() -> executor.getActiveKeys() == 0 && executor.getPending() == 0);
+    }
+    
+    @Test
+    void busyKeyYieldsItsThreadAfterABatch() throws InterruptedException {
+        executor = new KeyedSerialExecutor("test", 1, 10_000);
+        List<String> ran = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        
+        // Hold the only thread in the busy key's first task while the rest queue up
+        executor.execute("busy", () -> {
+            await(release);
+            ran.add("busy");
+        });
+        for (int i = 1; i < KeyedSerialExecutor.BATCH * 3; i++) {
+            executor.execute("busy", () -> ran.add("busy"));
+        }
+        executor.execute("other", () -> {
+            ran.add("other");
+            done.countDown();
+        });
+        release.countDown();
+        
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(KeyedSerialExecutor.BATCH, ran.indexOf("other"));
+        waitFor(() -> executor.getPending() == 0);
+        assertEquals(KeyedSerialExecutor.BATCH * 3 + 1, ran.size());
+    }
+    
+    @Test
+    void submitterBlocksWhileMaxPendingTasksAreQueued() throws InterruptedException {
+        int maxPending = 4;
+        executor = new KeyedSerialExecutor("test", 1, maxPending);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger ran = new AtomicInteger();
+        for (int i = 0; i < maxPending; i++) {
+            executor.execute("key" + i, () -> {
+                await(release);
+                ran.incrementAndGet();
+            });
+        }
+        assertEquals(maxPending, executor.getPending());
+        
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            executor.execute("late", ran::incrementAndGet);
+            submitted.countDown();
+        });
+        submitter.start();
+        assertFalse(submitted.await(300, TimeUnit.MILLISECONDS), "submit should wait for room");
+        assertEquals(Thread.State.WAITING, submitter.getState());
+        assertEquals(maxPending, executor.getPending());
+        
+        release.countDown();
+        assertTrue(submitted.await(10, TimeUnit.SECONDS));
+        waitFor(() -> executor.getPending() == 0);
+        assertEquals(maxPending + 1, ran.get());
+    }
+    
+    @Test
+    void failingTaskDoesNotStopItsKey() throws InterruptedException {
+        executor = new KeyedSerialExecutor("test", 2, 100);
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute("key", () -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        executor.execute("key", done::countDown);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        waitFor(() -> executor.getPending() == 0);
+    }
+    
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.messaging.server;
+
+import com.messaging.model.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessagingServerTest {
+    private PipeServer server;
+    
+    @BeforeEach
+    void setUp() {
+        server = new PipeServer();
+    }
+    
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+    
+    private static Message withId(Message message, String messageId) {
+        message.setMessageId(messageId);
+        return message;
+    }
+    
+    @Test
+    void forgedSenderIsReplacedByTheLoggedInName() throws Exception {
+        PipeServer.Client mallory = server.login("mallory");
+        PipeServer.Client bob = server.login("bob");
+        
+        mallory.send(withId(new Message(Message.MessageType.PRIVATE, "alice", "bob", "it's me, alice"), "forged-1"));
+        Message received = bob.await(m -> "forged-1".equals(m.getMessageId()));
+        assertEquals("mallory", received.getSender());
+        
+        mallory.send(withId(new Message(Message.MessageType.TEXT, "bob", "public, as bob"), "forged-2"));
+        assertEquals("mallory", bob.await(m -> "forged-2".equals(m.getMessageId())).getSender());
+    }
+    
+    @Test
+    void reusedMessageIdOfAnotherUserIsNotTakenForAResend() throws Exception {
+        PipeServer.Client alice = server.login("alice");
+        PipeServer.Client mallory = server.login("mallory");
+        PipeServer.Client bob = server.login("bob");
+        
+        // Mallory claims alice's name and the id of her next message, trying to have it dropped as a resend
+        mallory.send(withId(new Message(Message.MessageType.PRIVATE, "alice", "bob", "decoy"), "alice-next"));
+        bob.await(m -> "decoy".equals(m.getContent()));
+        alice.send(withId(new Message(Message.MessageType.PRIVATE, "alice", "bob", "the real one"), "alice-next"));
+        
+        Message received = bob.await(m -> "the real one".equals(m.getContent()));
+        assertEquals("alice", received.getSender());
+    }
+    
+    private static boolean isRefusal(Message message) {
+        return message.getType() == Message.MessageType.SYSTEM && message.getContent().startsWith("Message not sent");
+    }
+    
+    @Test
+    void oversizedNamesAndIdsAreRefused() throws Exception {
+        PipeServer.Client alice = server.login("alice");
+        
+        String crowd = String.join(",", Collections.nCopies(300, "someone"));
+        alice.send(withId(new Message(Message.MessageType.GROUP, "alice", crowd, "hi all"), "crowd"));
+        assertTrue(alice.await(MessagingServerTest::isRefusal).getContent().contains("recipients"));
+        
+        alice.send(withId(new Message(Message.MessageType.PRIVATE, "alice", "b".repeat(100), "hi"), "long-name"));
+        assertTrue(alice.await(MessagingServerTest::isRefusal).getContent().contains("recipient name"));
+        
+        alice.send(withId(new Message(Message.MessageType.TEXT, "alice", "hi"), "i".repeat(100)));
+        assertTrue(alice.await(MessagingServerTest::isRefusal).getContent().contains("message id"));
+        
+        // Nothing refused was routed; a message within the limits still is
+        alice.send(withId(new Message(Message.MessageType.TEXT, "alice", "within limits"), "fine"));
+        Message routed = alice.await(m -> m.getType() == Message.MessageType.TEXT);
+        assertEquals("fine", routed.getMessageId());
+    }
+    
+    @Test
+    void overlongUsernameCannotLogIn() throws Exception {
+        PipeServer.Client client = server.connect();
+        client.send(new Message(Message.MessageType.LOGIN, "n".repeat(100), "pw"));
+        assertEquals(Message.MessageType.LOGOUT, client.await(m -> true).getType());
+    }
+}
@@ -0,0 +1,113 @@
+package com.messaging.server;
+
+import com.google.gson.Gson;
+import com.messaging.model.Message;
+import com.messaging.transport.PipeTransport;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * A whole server on in-memory pipes for tests, with every password accepted. The server
+ * reads its settings once per JVM, so all instances share one temporary store.
+ */
+class PipeServer implements AutoCloseable {
+    private static final Gson gson = new Gson();
+    
+    static {
+        try {
+            Path dir = Files.createTempDirectory("pipe-server");
+            System.setProperty("store.dir", dir.resolve("log").toString());
+            System.setProperty("snapshot.dir", dir.resolve("snapshot").toString());
+            System.setProperty("snapshot.intervalMs", "0");
+            System.setProperty("drain.timeoutMs", "200");
+            System.setProperty("retention.file", dir.resolve("retention.conf").toString());
+            System.setProperty("server.usersFile", dir.resolve("users.properties").toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private final PipeTransport transport = new PipeTransport();
+    private final MessagingServer server;
+    
+    PipeServer() {
+        Authenticator trusting = new Authenticator(new CredentialStore(), 1, 1, true, 4, 0) {
+            @Override
+            public CompletableFuture<Result> authenticate(String username, String password) {
+                return CompletableFuture.completedFuture(Result.ACCEPTED);
+            }
+        };
+        server = new MessagingServer(transport, null, trusting);
+        server.start();
+    }
+    
+    /**
+     * Connects and logs in, returning once the login is acknowledged
+     */
+    Client login(String username) throws IOException, InterruptedException {
+        Client client = connect();
+        Message login = new Message(Message.MessageType.LOGIN, username, "pw");
+        client.send(login);
+        client.await(m -> m.getType() == Message.MessageType.LOGIN);
+        return client;
+    }
+    
+    Client connect() throws IOException {
+        Client client = new Client();
+        client.pipe = transport.connect(client);
+        return client;
+    }
+    
+    @Override
+    public void close() {
+        server.stop();
+    }
+    
+    static class Client implements PipeTransport.Listener {
+        private final BlockingQueue<Message> received = new LinkedBlockingQueue<>();
+        private PipeTransport.Pipe pipe;
+        
+        @Override
+        public void onFrame(String frame) {
+            received.add(gson.fromJson(frame, Message.class));
+        }
+        
+        void send(Message message) {
+            pipe.send(gson.toJson(message));
+        }
+        
+        /**
+         * The first frame received that matches, skipping the others; fails after five seconds
+         */
+        Message await(Predicate<Message> matching) throws InterruptedException {
+            Message message = poll(matching, 5_000);
+            if (message == null) {
+                throw new AssertionError("No matching frame received");
+            }
+            return message;
+        }
+        
+        /**
+         * The first frame received within the time that matches, or null
+         */
+        Message poll(Predicate<Message> matching, long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            long left;
+            while ((left = deadline - System.nanoTime()) > 0) {
+                Message message = received.poll(left, TimeUnit.NANOSECONDS);
+                if (message != null && matching.test(message)) {
+                    return message;
+                }
+            }
+            return null;
+        }
+    }
+}
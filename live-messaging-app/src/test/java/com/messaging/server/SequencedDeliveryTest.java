@@ -0,0 +1,84 @@
+package com.messaging.server;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SequencedDeliveryTest {
+    
+    @Test
+    void handOffsRunInSequenceOrder() {
+        SequencedDelivery delivery = new SequencedDelivery();
+        List<Long> ran = new ArrayList<>();
+        delivery.deliver(3, () -> ran.add(3L));
+        delivery.deliver(2, () -> ran.add(2L));
+        assertEquals(List.of(), ran);
+        assertEquals(2, delivery.getWaiting());
+        
+        delivery.deliver(1, () -> ran.add(1L));
+        assertEquals(List.of(1L, 2L, 3L), ran);
+        assertEquals(3, delivery.getDelivered());
+        assertEquals(0, delivery.getWaiting());
+        
+        delivery.deliver(5, () -> ran.add(5L));
+        assertEquals(3, delivery.getDelivered());
+        delivery.deliver(4, () -> ran.add(4L));
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), ran);
+    }
+    
+    @Test
+    void failedHandOffStillCounts() {
+        SequencedDelivery delivery = new SequencedDelivery();
+        List<Long> ran = new ArrayList<>();
+        delivery.deliver(2, () -> ran.add(2L));
+        delivery.deliver(1, () -> {
+            throw new IllegalStateException("expected by the test");
+        });
+        assertEquals(List.of(2L), ran);
+        assertEquals(2, delivery.getDelivered());
+    }
+    
+    @Test
+    void continuesAfterRecoveredSequence() {
+        SequencedDelivery delivery = new SequencedDelivery();
+        delivery.skipTo(100);
+        List<Long> ran = new ArrayList<>();
+        delivery.deliver(101, () -> ran.add(101L));
+        assertEquals(List.of(101L), ran);
+        assertEquals(101, delivery.getDelivered());
+    }
+    
+    @Test
+    void concurrentRoutersAreHandedOffInOrder() throws InterruptedException {
+        SequencedDelivery delivery = new SequencedDelivery();
+        AtomicLong sequencer = new AtomicLong();
+        List<Long> ran = new ArrayList<>();  // appended to under the delivery monitor only
+        int threads = 4;
+        int perThread = 5_000;
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    long sequence = sequencer.incrementAndGet();
+                    Thread.yield();  // let others overtake between sequencing and hand-off
+                    delivery.deliver(sequence, () -> ran.add(sequence));
+                }
+                done.countDown();
+            }).start();
+        }
+        
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        synchronized (delivery) {
+            assertEquals(threads * perThread, ran.size());
+            for (int i = 0; i < ran.size(); i++) {
+                assertEquals(i + 1, ran.get(i));
+            }
+        }
+    }
+}
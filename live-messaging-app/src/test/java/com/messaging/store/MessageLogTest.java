@@ -0,0 +1,90 @@
+package com.messaging.store;
+
+import com.messaging.model.Message;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageLogTest {
+    @TempDir
+    Path dir;
+    
+    private static String frame(long sequence) {
+        return "{\"type\":\"TEXT\",\"sender\":\"alice\",\"content\":\"message " + sequence + "\",\"sequence\":" + sequence + "}";
+    }
+    
+    private void write(long from, long to) throws IOException {
+        MessageLog log = new MessageLog(dir, 1 << 20, 64);
+        log.start();
+        for (long sequence = from; sequence <= to; sequence++) {
+            Message message = new Message(Message.MessageType.TEXT, "alice", "message " + sequence);
+            message.setSequence(sequence);
+            assertTrue(log.append(message, frame(sequence)));
+        }
+        log.close();
+    }
+    
+    private Path segmentFile() {
+        return dir.resolve(Segment.fileName(1));
+    }
+    
+    private static List<Long> replayed(MessageLog log) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        log.replay(0, (sequence, json) -> sequences.add(sequence));
+        return sequences;
+    }
+    
+    @Test
+    void tornTailIsDroppedOnLoad() throws IOException {
+        write(1, 3);
+        long intact = Files.size(segmentFile());
+        // A crash part way through writing frame 4, after its sequence made it to disk
+        String torn = frame(4).substring(0, frame(4).length() - 10);
+        Files.write(segmentFile(), torn.getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        
+        MessageLog log = new MessageLog(dir, 1 << 20, 64);
+        assertEquals(3, log.getLastSequence());
+        assertEquals(frame(3), log.read(3));
+        assertNull(log.read(4));
+        assertEquals(List.of(1L, 2L, 3L), replayed(log));
+        assertEquals(intact, Files.size(segmentFile()));
+    }
+    
+    @Test
+    void appendsAfterATornTailStartOnACleanLine() throws IOException {
+        write(1, 2);
+        Files.write(segmentFile(), "{\"type\":\"TE".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        
+        write(3, 4);
+        
+        MessageLog log = new MessageLog(dir, 1 << 20, 64);
+        assertEquals(4, log.getLastSequence());
+        for (long sequence = 1; sequence <= 4; sequence++) {
+            assertEquals(frame(sequence), log.read(sequence));
+        }
+        assertEquals(List.of(1L, 2L, 3L, 4L), replayed(log));
+        assertEquals(4, Files.readAllLines(segmentFile()).size());
+    }
+    
+    @Test
+    void unreadableFrameInTheMiddleIsSkipped() throws IOException {
+        write(1, 1);
+        Files.write(segmentFile(), "garbage\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        write(2, 2);
+        
+        MessageLog log = new MessageLog(dir, 1 << 20, 64);
+        assertEquals(2, log.getLastSequence());
+        assertEquals(frame(1), log.read(1));
+        assertEquals(frame(2), log.read(2));
+        assertEquals(List.of(1L, 2L), replayed(log));
+    }
+}
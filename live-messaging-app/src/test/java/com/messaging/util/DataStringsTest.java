@@ -0,0 +1,52 @@
+package com.messaging.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DataStringsTest {
+    
+    private static byte[] written(String... values) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        for (String value : values) {
+            DataStrings.write(out, value);
+        }
+        return buffer.toByteArray();
+    }
+    
+    @Test
+    void stringsRoundTripPastTheWriteUtfLimit() throws IOException {
+        String group = "group:" + "member,".repeat(20_000);  // 140 KB, beyond writeUTF's 64 KB
+        String[] values = {"", "alice", "héllo wörld ✓ 🚀", "x".repeat(127), "y".repeat(128), group};
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(written(values)));
+        for (String value : values) {
+            assertEquals(value, DataStrings.read(in));
+        }
+        assertEquals(-1, in.read());
+    }
+    
+    @Test
+    void shortStringsTakeOneLengthByte() throws IOException {
+        assertEquals(1 + 5, written("alice").length);
+        assertEquals(1 + 127, written("x".repeat(127)).length);
+        assertEquals(2 + 128, written("x".repeat(128)).length);
+    }
+    
+    @Test
+    void truncatedOrCorruptInputIsAnError() throws IOException {
+        byte[] bytes = written("alice");
+        DataInputStream truncated = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 1));
+        assertThrows(EOFException.class, () -> DataStrings.read(truncated));
+        
+        byte[] endless = {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0};
+        assertThrows(IOException.class, () -> DataStrings.read(new DataInputStream(new ByteArrayInputStream(endless))));
+    }
+}